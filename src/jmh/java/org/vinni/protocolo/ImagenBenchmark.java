@@ -0,0 +1,50 @@
+package org.vinni.protocolo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imágenes en el protocolo de texto: la línea IMG: con el contenido en Base64, al
+ * enviarla y al recibirla.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImagenBenchmark {
+
+    /** Una miniatura, una foto comprimida y una foto grande. */
+    @Param({"16384", "262144", "2097152"})
+    public int tamano;
+
+    private byte[] imagen;
+    private byte[] linea;
+
+    @Setup
+    public void preparar() {
+        imagen = new byte[tamano];
+        new Random(42).nextBytes(imagen);
+        linea = CodecTrama.linea(TipoTrama.IMG, imagen);
+    }
+
+    @Benchmark
+    public byte[] codificar() {
+        return CodecTrama.linea(TipoTrama.IMG, imagen);
+    }
+
+    /** La línea sin el salto final, como la entrega la lectura. */
+    @Benchmark
+    public ByteBuffer decodificar() throws ProtocolException {
+        return CodecTrama.contenidoDeLinea(TipoTrama.IMG, linea, 0, linea.length - 1);
+    }
+}
@@ -0,0 +1,94 @@
+package org.vinni.protocolo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lectura de mensajes: reconocer el prefijo de una línea (USER:, MSG:, MSGTO:, IMG:...)
+ * y sacar su contenido, como hacen el servidor y el cliente con cada línea que llega,
+ * y la lectura de un lote de mensajes en texto (bloqueante) y en binario (NIO).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ProtocoloBenchmark {
+
+    /** Mensajes de un lote, en la proporción de una charla normal. */
+    private static final int LOTE = 1000;
+
+    private byte[][] lineas;
+    private byte[] loteTexto;
+    private byte[] loteBinario;
+    private final LectorTramas lector = new LectorTramas();
+
+    @Setup
+    public void preparar() throws IOException {
+        lineas = new byte[][]{
+                utf8("USER:ana;proto=bin;seq=12"),
+                utf8("MSG:ana: hola a todos, ¿cómo va eso?"),
+                utf8("MSGTO:luis:nos vemos a las cinco"),
+                utf8("IMG:" + Base64.getEncoder().encodeToString(new byte[96])),
+                utf8("USERS"),
+                utf8("comando suelto"),
+                utf8("SEARCH:reunión @ana"),
+        };
+        ByteArrayOutputStream texto = new ByteArrayOutputStream();
+        ByteArrayOutputStream binario = new ByteArrayOutputStream();
+        for (int i = 0; i < LOTE; i++) {
+            Trama trama = i % 10 == 9
+                    ? Trama.de(TipoTrama.MSGTO, "luis:mensaje privado " + i)
+                    : Trama.de(TipoTrama.MSG, "ana: mensaje público número " + i);
+            texto.write(trama.comoLinea());
+            binario.write(trama.comoBinaria());
+        }
+        loteTexto = texto.toByteArray();
+        loteBinario = binario.toByteArray();
+    }
+
+    private static byte[] utf8(String linea) {
+        return linea.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Prefijo y contenido de cada tipo de línea (la imagen incluye decodificar su Base64). */
+    @Benchmark
+    public void despacharPrefijo(Blackhole agujero) throws IOException {
+        for (byte[] linea : lineas) {
+            TipoTrama tipo = TipoTrama.desdeLinea(linea, 0, linea.length);
+            agujero.consume(CodecTrama.contenidoDeLinea(tipo, linea, 0, linea.length));
+        }
+    }
+
+    /** Un lote de {@value #LOTE} líneas leídas con {@link EntradaProtocolo}, como en una sesión de hilos. */
+    @Benchmark
+    public int leerLineas() throws IOException {
+        EntradaProtocolo entrada = new EntradaProtocolo(new ByteArrayInputStream(loteTexto));
+        int bytes = 0;
+        while (entrada.siguiente()) bytes += entrada.getContenido().remaining();
+        return bytes;
+    }
+
+    /** El mismo lote en tramas binarias, entregado a {@link LectorTramas} como en una sesión NIO. */
+    @Benchmark
+    public int leerTramas() throws IOException {
+        int[] bytes = new int[1];
+        lector.alimentar(ByteBuffer.wrap(loteBinario), (tipo, contenido) -> {
+            bytes[0] += contenido.remaining();
+            return true;
+        });
+        return bytes[0];
+    }
+}
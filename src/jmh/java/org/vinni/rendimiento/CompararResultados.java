@@ -0,0 +1,124 @@
+package org.vinni.rendimiento;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compara los resultados de JMH (JSON) con la línea base guardada y marca lo que
+ * empeoró más de la tolerancia. Lo ejecuta el perfil {@code benchmarks} al final de
+ * {@code mvn -P benchmarks verify}.
+ *
+ * Uso: {@code CompararResultados lineaBase.json resultados.json [tolerancia %] [guardar] [fallar]};
+ * con {@code guardar=true} los resultados pasan a ser la nueva línea base y con
+ * {@code fallar=true} una regresión termina con error.
+ */
+public class CompararResultados {
+
+    private CompararResultados() {
+    }
+
+    /** Puntuación de un benchmark; en modo thrpt más es mejor, en los demás menos. */
+    private static final class Resultado {
+        final double puntuacion;
+        final double error;
+        final String unidad;
+        final boolean masEsMejor;
+
+        Resultado(double puntuacion, double error, String unidad, boolean masEsMejor) {
+            this.puntuacion = puntuacion;
+            this.error = error;
+            this.unidad = unidad;
+            this.masEsMejor = masEsMejor;
+        }
+    }
+
+    /**
+     * @return benchmark (con sus parámetros) → resultado
+     */
+    private static Map<String, Resultado> leer(Path archivo) throws IOException {
+        Map<String, Resultado> resultados = new TreeMap<>();
+        try (Reader lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+            JsonArray lista = JsonParser.parseReader(lector).getAsJsonArray();
+            for (JsonElement elemento : lista) {
+                JsonObject resultado = elemento.getAsJsonObject();
+                StringBuilder nombre = new StringBuilder(resultado.get("benchmark").getAsString()
+                        .replace("org.vinni.", ""));
+                if (resultado.has("params")) {
+                    Map<String, String> parametros = new LinkedHashMap<>();
+                    for (Map.Entry<String, JsonElement> parametro : resultado.getAsJsonObject("params").entrySet()) {
+                        parametros.put(parametro.getKey(), parametro.getValue().getAsString());
+                    }
+                    nombre.append(parametros);
+                }
+                JsonObject metrica = resultado.getAsJsonObject("primaryMetric");
+                double error = metrica.get("scoreError").isJsonPrimitive() && metrica.get("scoreError").getAsJsonPrimitive().isNumber()
+                        ? metrica.get("scoreError").getAsDouble() : 0;
+                resultados.put(nombre.toString(), new Resultado(metrica.get("score").getAsDouble(), error,
+                        metrica.get("scoreUnit").getAsString(), "thrpt".equals(resultado.get("mode").getAsString())));
+            }
+        }
+        return resultados;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path base = Paths.get(args[0]);
+        Path actuales = Paths.get(args[1]);
+        double tolerancia = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        boolean guardar = args.length > 3 && Boolean.parseBoolean(args[3]);
+        boolean fallar = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+        if (!Files.exists(actuales)) {
+            System.err.println("No hay resultados en " + actuales);
+            System.exit(1);
+        }
+        if (guardar || !Files.exists(base)) {
+            Files.createDirectories(base.toAbsolutePath().getParent());
+            Files.copy(actuales, base, StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Línea base guardada en " + base);
+            return;
+        }
+
+        Map<String, Resultado> antes = leer(base);
+        Map<String, Resultado> ahora = leer(actuales);
+        int regresiones = 0;
+        System.out.println(String.format("%-60s %14s %14s %8s", "Benchmark", "Línea base", "Ahora", "Cambio"));
+        for (Map.Entry<String, Resultado> entrada : ahora.entrySet()) {
+            Resultado actual = entrada.getValue();
+            Resultado anterior = antes.get(entrada.getKey());
+            if (anterior == null || !anterior.unidad.equals(actual.unidad)) {
+                System.out.println(String.format("%-60s %14s %14.3f %8s  (nuevo) %s", entrada.getKey(), "-", actual.puntuacion, "", actual.unidad));
+                continue;
+            }
+            // Cambio en "a mejor" positivo, sea cual sea el modo
+            double cambio = (actual.puntuacion - anterior.puntuacion) / anterior.puntuacion * 100;
+            if (!actual.masEsMejor) cambio = -cambio;
+            // Solo cuenta si supera la tolerancia y el margen de error de las dos mediciones
+            boolean peor = cambio < -tolerancia && Math.abs(actual.puntuacion - anterior.puntuacion) > actual.error + anterior.error;
+            if (peor) regresiones++;
+            System.out.println(String.format("%-60s %14.3f %14.3f %+7.1f%%  %s%s", entrada.getKey(), anterior.puntuacion,
+                    actual.puntuacion, cambio, actual.unidad, peor ? "  <-- REGRESIÓN" : ""));
+        }
+        int sinMedir = 0;
+        for (String nombre : antes.keySet()) {
+            if (!ahora.containsKey(nombre)) sinMedir++;
+        }
+        if (sinMedir > 0) System.out.println(sinMedir + " de la línea base no se midieron en esta ejecución");
+        System.out.println(regresiones == 0
+                ? "Sin regresiones (tolerancia " + tolerancia + " %)"
+                : regresiones + " regresiones de más del " + tolerancia + " %");
+        if (regresiones > 0 && fallar) System.exit(1);
+    }
+}
@@ -0,0 +1,60 @@
+package org.vinni.servidor.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * La lista USERS: que recibe cada cliente al identificarse, según los usuarios conectados al puerto.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EnrutadorBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int usuarios;
+
+    private final Enrutador enrutador = new Enrutador();
+
+    /** Sesión que no envía nada: solo ocupa su sitio en el índice. */
+    private static final class SesionMuda extends Sesion {
+        SesionMuda() {
+            super(new ColaSalida(), null);
+        }
+
+        @Override
+        public String getDireccion() {
+            return "/benchmark";
+        }
+
+        @Override
+        public void cerrar() {
+        }
+
+        @Override
+        protected void notificarPendientes() {
+        }
+
+        @Override
+        protected void actualizarLectura() {
+        }
+    }
+
+    @Setup
+    public void preparar() {
+        for (int i = 0; i < usuarios; i++) enrutador.registrar(String.format("Anon_%08x", i * 2654435761L & 0xFFFFFFFFL), new SesionMuda());
+    }
+
+    @Benchmark
+    public byte[] listaUsuarios() {
+        return enrutador.tramaUsuarios().comoLinea();
+    }
+}
@@ -0,0 +1,76 @@
+package org.vinni.servidor.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Escritura del registro del puerto ({@link RegistroPuerto}): lo que le cuesta a quien
+ * anota una línea, y una línea de principio a fin (formato, buffer y archivo).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegistroBenchmark {
+
+    private static final int LOTE = 10_000;
+
+    private Path directorio;
+    private RegistroPuerto registro;
+    // Líneas anotadas hasta ahora (y número del mensaje)
+    private long secuencia;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        directorio = Files.createTempDirectory("registro-benchmark");
+        // fsync cada minuto: se mide la escritura, no el disco
+        registro = new RegistroPuerto(directorio, 64 * 1024, 60_000, "RegistroBenchmark");
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        registro.cerrar();
+        if (registro.getDescartados() > 0) System.out.println("Líneas descartadas: " + registro.getDescartados());
+        try (Stream<Path> archivos = Files.walk(directorio)) {
+            archivos.sorted(Comparator.reverseOrder()).forEach(archivo -> archivo.toFile().delete());
+        }
+    }
+
+    /** Fuera de la medición: se deja vaciar la cola para que ninguna línea se descarte. */
+    @Setup(Level.Invocation)
+    public void esperarAlEscritor() {
+        esperar(secuencia);
+    }
+
+    private void esperar(long objetivo) {
+        while (registro.getEscritos() + registro.getDescartados() < objetivo) Thread.yield();
+    }
+
+    /** Lo que espera el hilo que anota un lote de líneas (el escritor va por detrás). */
+    @Benchmark
+    @OperationsPerInvocation(LOTE)
+    public void anotar() {
+        for (int i = 0; i < LOTE; i++) registro.anotar(HistorialPuerto.lineaDeRegistro(++secuencia, "ana", "mensaje de prueba número " + i));
+    }
+
+    /** Una línea de principio a fin: anotar, darle formato y escribirla en el archivo. */
+    @Benchmark
+    public void anotarYEscribir() {
+        registro.anotar(HistorialPuerto.lineaDeRegistro(++secuencia, "ana", "mensaje de prueba"));
+        esperar(secuencia);
+    }
+}
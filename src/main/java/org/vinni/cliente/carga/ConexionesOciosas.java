@@ -0,0 +1,264 @@
+package org.vinni.cliente.carga;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.servidor.core.ModoServidor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Coste de las conexiones ociosas en cada modo del servidor. Levanta el servidor sin
+ * interfaz en otro proceso (para medir solo lo suyo), le abre {@code --conexiones}
+ * sockets que no mandan nada más que una línea vacía (el servidor cuenta una conexión
+ * como cliente desde su primer mensaje que no es LOAD:) y anota a qué ritmo los atendió y cuánta memoria
+ * residente e hilos suma el proceso con todos abiertos.
+ *
+ * La memoria y los hilos salen de {@code /proc/<pid>/status}, así que solo se miden
+ * en Linux (en otros sistemas quedan en -1). En modo HILOS cada conexión ocupa un hilo
+ * de plataforma: hacen falta límites de procesos y descriptores acordes
+ * ({@code ulimit -u}, {@code ulimit -n}).
+ *
+ * Uso: {@code java org.vinni.cliente.carga.ConexionesOciosas --conexiones=10000 --modos=HILOS,VIRTUALES,NIO --salida=ociosas.json}.
+ * Los resultados de referencia están en {@code src/jmh/conexiones-ociosas.json}.
+ */
+public class ConexionesOciosas {
+
+    private static final long ESPERA_ARRANQUE_MS = 20_000;
+    private static final long ESPERA_SESIONES_MS = 120_000;
+    private static final long REPOSO_MS = 1000;
+    private static final int ABRIDORES = 16;
+    private static final byte[] LINEA_VACIA = {'\n'};
+
+    /** Lo medido en un modo. */
+    public static class Resultado {
+        public String modo;
+        public String java;
+        public int procesadores;
+        public int conexiones;
+        /** Conexiones por segundo hasta que el servidor tuvo todas las sesiones abiertas. */
+        public double conexionesPorSegundo;
+        public long memoriaInicialKb;
+        public long memoriaKb;
+        public int hilosIniciales;
+        public int hilos;
+        /** Memoria residente que añade cada conexión, en KB. */
+        public double kbPorConexion;
+
+        String fila() {
+            return String.format(Locale.ROOT, "%-10s %8d %10.0f %12d %12d %8.1f %8d %8d%n", modo, conexiones,
+                    conexionesPorSegundo, memoriaInicialKb, memoriaKb, kbPorConexion, hilosIniciales, hilos);
+        }
+    }
+
+    /**
+     * Mide un modo: servidor nuevo en un puerto libre y un directorio temporal, que se borra al acabar.
+     */
+    public static Resultado medir(ModoServidor modo, int conexiones) throws IOException, InterruptedException {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path directorio = Files.createTempDirectory("conexiones-ociosas");
+        Process servidor = new ProcessBuilder(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", classpathAbsoluto(),
+                "-Dservidor.metricas.puerto=-1",
+                "org.vinni.servidor.core.ServerRuntime", "--modo=" + modo.name(), String.valueOf(puerto))
+                .directory(directorio.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directorio.resolve("servidor.out").toFile())
+                .start();
+        List<SocketChannel> abiertas = Collections.synchronizedList(new ArrayList<>(conexiones));
+        try (Socket sonda = esperarArranque(servidor, puerto)) {
+            BufferedReader respuestas = new BufferedReader(new InputStreamReader(sonda.getInputStream(), StandardCharsets.UTF_8));
+            Thread.sleep(REPOSO_MS);
+            Resultado resultado = new Resultado();
+            resultado.modo = modo.name();
+            resultado.java = System.getProperty("java.version");
+            resultado.procesadores = Runtime.getRuntime().availableProcessors();
+            resultado.conexiones = conexiones;
+            resultado.memoriaInicialKb = leerEstado(servidor, "VmRSS:");
+            resultado.hilosIniciales = (int) leerEstado(servidor, "Threads:");
+
+            long inicio = System.nanoTime();
+            InetSocketAddress direccion = new InetSocketAddress("localhost", puerto);
+            abrir(direccion, conexiones, abiertas);
+            // Conectar solo garantiza la cola del núcleo: se espera a que el servidor tenga las sesiones
+            long limite = System.currentTimeMillis() + ESPERA_SESIONES_MS;
+            while (sesiones(sonda, respuestas) < conexiones) {
+                if (System.currentTimeMillis() > limite) throw new IOException("El servidor no abrió todas las sesiones a tiempo");
+                Thread.sleep(10);
+            }
+            resultado.conexionesPorSegundo = conexiones / ((System.nanoTime() - inicio) / 1e9);
+
+            Thread.sleep(REPOSO_MS);
+            resultado.memoriaKb = leerEstado(servidor, "VmRSS:");
+            resultado.hilos = (int) leerEstado(servidor, "Threads:");
+            resultado.kbPorConexion = resultado.memoriaKb < 0 ? -1
+                    : (resultado.memoriaKb - resultado.memoriaInicialKb) / (double) conexiones;
+            return resultado;
+        } finally {
+            for (SocketChannel canal : abiertas) {
+                try { canal.close(); } catch (IOException ignored) {}
+            }
+            servidor.destroy();
+            if (!servidor.waitFor(10, TimeUnit.SECONDS)) servidor.destroyForcibly().waitFor();
+            borrar(directorio);
+        }
+    }
+
+    /**
+     * Abre las conexiones desde varios hilos: cada connect en el bucle local tarda lo que un
+     * viaje de ida y vuelta, y en serie se mediría esa latencia y no lo que aguanta el servidor.
+     */
+    private static void abrir(InetSocketAddress direccion, int conexiones, List<SocketChannel> abiertas)
+            throws IOException, InterruptedException {
+        ExecutorService abridores = Executors.newFixedThreadPool(ABRIDORES);
+        List<Future<?>> tandas = new ArrayList<>();
+        for (int h = 0; h < ABRIDORES; h++) {
+            int cuantas = conexiones / ABRIDORES + (h < conexiones % ABRIDORES ? 1 : 0);
+            tandas.add(abridores.submit(() -> {
+                for (int i = 0; i < cuantas; i++) {
+                    SocketChannel canal = SocketChannel.open(direccion);
+                    abiertas.add(canal);
+                    canal.write(ByteBuffer.wrap(LINEA_VACIA));
+                }
+                return null;
+            }));
+        }
+        abridores.shutdown();
+        try {
+            for (Future<?> tanda : tandas) tanda.get();
+        } catch (ExecutionException e) {
+            throw new IOException("No se pudieron abrir las conexiones: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Conecta la sonda de LOAD: en cuanto el puerto acepta (o falla si el proceso termina antes).
+     */
+    private static Socket esperarArranque(Process servidor, int puerto) throws IOException, InterruptedException {
+        long limite = System.currentTimeMillis() + ESPERA_ARRANQUE_MS;
+        while (true) {
+            try {
+                Socket sonda = new Socket("localhost", puerto);
+                sonda.setSoTimeout(10_000);
+                return sonda;
+            } catch (IOException e) {
+                if (!servidor.isAlive()) throw new IOException("El servidor terminó al arrancar (código " + servidor.exitValue() + ")");
+                if (System.currentTimeMillis() > limite) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    /** El servidor arranca en otro directorio: las rutas relativas del classpath no servirían. */
+    private static String classpathAbsoluto() {
+        return Arrays.stream(System.getProperty("java.class.path").split(File.pathSeparator))
+                .map(ruta -> Paths.get(ruta).toAbsolutePath().toString())
+                .collect(Collectors.joining(File.pathSeparator));
+    }
+
+    private static int sesiones(Socket sonda, BufferedReader respuestas) throws IOException {
+        sonda.getOutputStream().write((TipoTrama.CARGA.getPrefijo() + "\n").getBytes(StandardCharsets.UTF_8));
+        String linea;
+        while ((linea = respuestas.readLine()) != null) {
+            if (linea.startsWith(TipoTrama.CARGA.getPrefijo())) {
+                return Integer.parseInt(linea.substring(TipoTrama.CARGA.getPrefijo().length()).trim());
+            }
+        }
+        throw new IOException("El servidor cerró la sonda");
+    }
+
+    /**
+     * Campo numérico de /proc/&lt;pid&gt;/status (VmRSS en KB, Threads), o -1 si no se puede leer.
+     */
+    private static long leerEstado(Process proceso, String campo) {
+        Path estado = Paths.get("/proc", String.valueOf(proceso.pid()), "status");
+        try (Stream<String> lineas = Files.lines(estado)) {
+            return lineas.filter(l -> l.startsWith(campo))
+                    .map(l -> l.substring(campo.length()).trim().split("\\s+")[0])
+                    .mapToLong(Long::parseLong).findFirst().orElse(-1);
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static void borrar(Path raiz) throws IOException {
+        if (!Files.exists(raiz)) return;
+        try (Stream<Path> archivos = Files.walk(raiz)) {
+            for (Path archivo : archivos.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(archivo);
+            }
+        }
+    }
+
+    /**
+     * {@code --conexiones=n} (10000 por defecto), {@code --modos=HILOS,VIRTUALES,NIO} y
+     * {@code --salida=resultados.json}. Un modo que falla se informa y no detiene a los demás.
+     */
+    public static void main(String[] args) throws Exception {
+        int conexiones = 10_000;
+        List<ModoServidor> modos = new ArrayList<>();
+        Path salida = null;
+        for (String arg : args) {
+            if (arg.startsWith("--conexiones=")) {
+                conexiones = Integer.parseInt(arg.substring("--conexiones=".length()));
+            } else if (arg.startsWith("--modos=")) {
+                for (String modo : arg.substring("--modos=".length()).split(",")) {
+                    modos.add(ModoServidor.valueOf(modo.trim().toUpperCase()));
+                }
+            } else if (arg.startsWith("--salida=")) {
+                salida = Paths.get(arg.substring("--salida=".length()));
+            }
+        }
+        if (modos.isEmpty()) modos.addAll(Arrays.asList(ModoServidor.values()));
+
+        List<Resultado> resultados = new ArrayList<>();
+        System.out.printf("%-10s %8s %10s %12s %12s %8s %8s %8s%n",
+                "modo", "conex.", "conex./s", "RSS antes KB", "RSS KB", "KB/con.", "hilos 0", "hilos");
+        for (ModoServidor modo : modos) {
+            try {
+                Resultado resultado = medir(modo, conexiones);
+                resultados.add(resultado);
+                System.out.print(resultado.fila());
+            } catch (IOException e) {
+                System.out.println(modo + ": " + e.getMessage());
+            }
+        }
+        if (salida != null) {
+            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+            try (Writer escritor = Files.newBufferedWriter(salida, StandardCharsets.UTF_8)) {
+                gson.toJson(resultados, escritor);
+            }
+        }
+        System.exit(resultados.size() == modos.size() ? 0 : 1);
+    }
+}
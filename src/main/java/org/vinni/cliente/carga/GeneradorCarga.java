@@ -0,0 +1,471 @@
+package org.vinni.cliente.carga;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.vinni.cliente.core.ConexionChat;
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.servidor.core.Ejecutores;
+import org.vinni.servidor.core.IndiceHistorial;
+import org.vinni.servidor.core.ModoServidor;
+import org.vinni.servidor.core.RegistroPuerto;
+import org.vinni.servidor.core.ServerRuntime;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generador de carga sin interfaz: simula muchos clientes de chat con
+ * {@link ConexionChat}, repartidos entre los puertos, que envían mensajes públicos,
+ * privados e imágenes a un ritmo dado y se desconectan y reconectan como se ve en
+ * los registros (sesiones largas y, de vez en cuando, ráfagas de reconexiones
+ * seguidas de un segundo).
+ *
+ * Cada mensaje lleva el instante en que tocaba enviarlo (no el real: si el envío se
+ * retrasa, el retraso cuenta en la latencia), y quien lo recibe registra cuánto tardó
+ * en un {@link HistogramaLatencias} por tipo. Lo que llega de un buzón o de una
+ * reanudación, enviado antes de que el destinatario se conectara, se cuenta aparte.
+ *
+ * Cada usuario simulado es un hilo (virtual si la JVM los tiene) que conecta, lee
+ * y vuelve a conectar; los envíos y las desconexiones los hace un programador común.
+ *
+ * Uso: {@code java org.vinni.cliente.carga.GeneradorCarga --usuarios=500 --puertos=12345,12346 --segundos=60}
+ * ({@code --servidor=NIO} levanta antes un servidor en puertos libres del bucle local, para CI).
+ */
+public class GeneradorCarga {
+
+    private static final String DIFUSION = "difusion";
+    private static final String PRIVADO = "privado";
+    private static final String IMAGEN = "imagen";
+    private static final int MARCA_IMAGEN = 0x43415247; // "CARG"
+    // nanoTime puede ser negativo: "sin marca" no puede ser -1
+    private static final long SIN_MARCA = Long.MIN_VALUE;
+
+    /** Parámetros de una ejecución. */
+    public static class Opciones {
+        public String host = "localhost";
+        public int[] puertos = {12345};
+        public int usuarios = 100;
+        public double segundos = 30;
+        /** Segundos iniciales que no cuentan (conexiones, JIT). */
+        public double calentamiento = 2;
+        /** Mensajes por segundo de cada usuario (llegadas de Poisson). */
+        public double tasa = 0.5;
+        /** Pesos de cada tipo de mensaje: difusión, privado, imagen. */
+        public int[] mezcla = {80, 15, 5};
+        public int tamanoMensaje = 64;
+        public int tamanoImagen = 16 * 1024;
+        public boolean binario = true;
+        /** Duración media de una sesión, en segundos; 0 para no desconectar nunca. */
+        public double sesionMedia = 30;
+        /** Espera media antes de reconectar, en ms. */
+        public double pausaMedia = 500;
+        /** Probabilidad de que una desconexión empiece una ráfaga de reconexiones. */
+        public double probabilidadRafaga = 0.1;
+        /** Reconexiones de una ráfaga: sesiones de un segundo, casi sin pausa. */
+        public int reconexionesRafaga = 5;
+        public long semilla = 1;
+        public String prefijo = "carga";
+
+        /**
+         * Lee las opciones de la línea de órdenes ({@code --usuarios=n}, etc.).
+         */
+        public static Opciones desdeArgumentos(String[] args) {
+            Opciones opciones = new Opciones();
+            for (String arg : args) {
+                int igual = arg.indexOf('=');
+                if (!arg.startsWith("--") || igual < 0) continue;
+                String valor = arg.substring(igual + 1);
+                switch (arg.substring(2, igual)) {
+                    case "host": opciones.host = valor; break;
+                    case "puertos": opciones.puertos = enteros(valor); break;
+                    case "usuarios": opciones.usuarios = Integer.parseInt(valor); break;
+                    case "segundos": opciones.segundos = Double.parseDouble(valor); break;
+                    case "calentamiento": opciones.calentamiento = Double.parseDouble(valor); break;
+                    case "tasa": opciones.tasa = Double.parseDouble(valor); break;
+                    case "mezcla": opciones.mezcla = enteros(valor); break;
+                    case "tamano": opciones.tamanoMensaje = Integer.parseInt(valor); break;
+                    case "imagen": opciones.tamanoImagen = Integer.parseInt(valor); break;
+                    case "binario": opciones.binario = Boolean.parseBoolean(valor); break;
+                    case "sesion": opciones.sesionMedia = Double.parseDouble(valor); break;
+                    case "pausa": opciones.pausaMedia = Double.parseDouble(valor); break;
+                    case "rafagas": opciones.probabilidadRafaga = Double.parseDouble(valor); break;
+                    case "reconexiones": opciones.reconexionesRafaga = Integer.parseInt(valor); break;
+                    case "semilla": opciones.semilla = Long.parseLong(valor); break;
+                    default: break;
+                }
+            }
+            if (opciones.mezcla.length != 3) throw new IllegalArgumentException("--mezcla=difusion,privado,imagen");
+            return opciones;
+        }
+
+        private static int[] enteros(String lista) {
+            return Arrays.stream(lista.split(",")).map(String::trim).mapToInt(Integer::parseInt).toArray();
+        }
+    }
+
+    /** Un cliente simulado. */
+    private final class Usuario {
+        final String nombre;
+        final int puerto;
+        // Los del mismo puerto: los únicos a los que puede escribir en privado
+        final List<Usuario> vecinos;
+        final Random azar;
+        volatile ConexionChat conexion;
+        // Desde cuándo está conectado (nanoTime): lo enviado antes llega diferido
+        volatile long conectadoDesde = Long.MAX_VALUE;
+        long ultimaSecuencia;
+        int rafagaRestante;
+
+        Usuario(int numero, int puerto, List<Usuario> vecinos) {
+            this.nombre = String.format("%s-%05d", opciones.prefijo, numero);
+            this.puerto = puerto;
+            this.vecinos = vecinos;
+            this.azar = new Random(opciones.semilla * 1_000_003L + numero);
+        }
+    }
+
+    private final Opciones opciones;
+    private final List<Usuario> usuarios = new ArrayList<>();
+    private final List<List<Usuario>> porPuerto = new ArrayList<>();
+    private final byte[] relleno;
+    private final int pesoTotal;
+
+    private final ScheduledThreadPoolExecutor programador;
+    private volatile boolean activo;
+    // Inicio de la medición (nanoTime), pasado el calentamiento
+    private volatile long inicioMedicion = Long.MAX_VALUE;
+
+    private final HistogramaLatencias[] histogramas = {new HistogramaLatencias(), new HistogramaLatencias(), new HistogramaLatencias()};
+    private final LongAdder[] enviados = {new LongAdder(), new LongAdder(), new LongAdder()};
+    private final LongAdder bytesRecibidos = new LongAdder();
+    private final LongAdder diferidos = new LongAdder();
+    private final LongAdder conexiones = new LongAdder();
+    private final LongAdder desconexiones = new LongAdder();
+    private final LongAdder fallosDeConexion = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+
+    public GeneradorCarga(Opciones opciones) {
+        this.opciones = opciones;
+        for (int i = 0; i < opciones.puertos.length; i++) porPuerto.add(new ArrayList<>());
+        for (int i = 0; i < opciones.usuarios; i++) {
+            List<Usuario> vecinos = porPuerto.get(i % opciones.puertos.length);
+            Usuario usuario = new Usuario(i, opciones.puertos[i % opciones.puertos.length], vecinos);
+            usuarios.add(usuario);
+            vecinos.add(usuario);
+        }
+        byte[] texto = new byte[Math.max(0, opciones.tamanoMensaje)];
+        Arrays.fill(texto, (byte) 'x');
+        this.relleno = texto;
+        this.pesoTotal = opciones.mezcla[0] + opciones.mezcla[1] + opciones.mezcla[2];
+        this.programador = new ScheduledThreadPoolExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()), tarea -> {
+            Thread hilo = new Thread(tarea, "CargaProgramador");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        this.programador.setRemoveOnCancelPolicy(true);
+    }
+
+    // ---------- Ejecución ----------
+
+    /**
+     * Conecta a los usuarios, genera tráfico durante el calentamiento más los segundos
+     * pedidos, desconecta a todos y devuelve el informe de lo medido.
+     */
+    public InformeCarga ejecutar() throws InterruptedException {
+        activo = true;
+        ExecutorService hilos = Ejecutores.porTarea("Carga-");
+        long inicio = System.nanoTime();
+        for (Usuario usuario : usuarios) hilos.execute(() -> vivir(usuario));
+        long calentamientoNs = (long) (opciones.calentamiento * 1e9);
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, inicio + calentamientoNs - System.nanoTime()));
+        inicioMedicion = System.nanoTime();
+        TimeUnit.NANOSECONDS.sleep((long) (opciones.segundos * 1e9));
+        long fin = System.nanoTime();
+
+        activo = false;
+        programador.shutdownNow();
+        for (Usuario usuario : usuarios) {
+            ConexionChat conexion = usuario.conexion;
+            if (conexion != null) conexion.close();
+        }
+        Ejecutores.detener(hilos, 5000);
+        return informe((fin - inicioMedicion) / 1e9);
+    }
+
+    /** Ciclo de un usuario: conectar, leer hasta que se cierre, esperar y volver a conectar. */
+    private void vivir(Usuario usuario) {
+        while (activo) {
+            ConexionChat conexion;
+            // Lo que llegue enviado antes de este punto viene de un buzón o de la reanudación
+            long desde = System.nanoTime();
+            try {
+                conexion = ConexionChat.conectar(opciones.host, usuario.puerto, usuario.nombre, opciones.binario, usuario.ultimaSecuencia);
+            } catch (IOException e) {
+                fallosDeConexion.increment();
+                if (!dormir(usuario, opciones.pausaMedia)) return;
+                continue;
+            }
+            usuario.conectadoDesde = desde;
+            usuario.conexion = conexion;
+            if (!activo) {
+                conexion.close();
+                return;
+            }
+            conexiones.increment();
+            programar(usuario, conexion);
+            try {
+                while (conexion.siguiente()) recibir(usuario, conexion);
+            } catch (IOException e) {
+                // Cerrada por la rotación (o por el servidor)
+            }
+            conexion.close();
+            usuario.ultimaSecuencia = conexion.getUltimaSecuencia();
+            if (!activo) return;
+            desconexiones.increment();
+            double pausa = usuario.rafagaRestante > 0 ? 50 : opciones.pausaMedia;
+            if (!dormir(usuario, pausa)) return;
+        }
+    }
+
+    private boolean dormir(Usuario usuario, double mediaMs) {
+        try {
+            Thread.sleep((long) exponencial(usuario.azar, mediaMs));
+            return activo;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Primer envío y, si hay rotación, la desconexión de esta sesión. */
+    private void programar(Usuario usuario, ConexionChat conexion) {
+        try {
+            if (opciones.tasa > 0) {
+                long previsto = System.nanoTime() + (long) exponencial(usuario.azar, 1e9 / opciones.tasa);
+                programador.schedule(() -> enviar(usuario, conexion, previsto), previsto - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            if (opciones.sesionMedia > 0) {
+                double mediaMs;
+                if (usuario.rafagaRestante > 0) {
+                    usuario.rafagaRestante--;
+                    mediaMs = 1000;
+                } else {
+                    mediaMs = opciones.sesionMedia * 1000;
+                    if (usuario.azar.nextDouble() < opciones.probabilidadRafaga) usuario.rafagaRestante = opciones.reconexionesRafaga;
+                }
+                programador.schedule(conexion::close, (long) exponencial(usuario.azar, mediaMs), TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException e) {
+            // El programador ya se detuvo: terminó la ejecución
+        }
+    }
+
+    private static double exponencial(Random azar, double media) {
+        return -Math.log(1 - azar.nextDouble()) * media;
+    }
+
+    // ---------- Envío ----------
+
+    private void enviar(Usuario usuario, ConexionChat conexion, long previsto) {
+        if (!activo || usuario.conexion != conexion || conexion.isCerrada()) return;
+        int sorteo = usuario.azar.nextInt(Math.max(1, pesoTotal));
+        int tipo = sorteo < opciones.mezcla[0] ? 0 : sorteo < opciones.mezcla[0] + opciones.mezcla[1] ? 1 : 2;
+        try {
+            if (tipo == 2) {
+                byte[] imagen = new byte[Math.max(12, opciones.tamanoImagen)];
+                ByteBuffer.wrap(imagen).putInt(MARCA_IMAGEN).putLong(previsto);
+                conexion.enviarImagen(imagen);
+            } else {
+                String texto = "~" + previsto + " " + new String(relleno, StandardCharsets.US_ASCII);
+                Usuario destino = tipo == 1 ? otroDelPuerto(usuario) : null;
+                if (destino == null) {
+                    tipo = 0;
+                    conexion.enviarMensaje(texto);
+                } else {
+                    conexion.enviarPrivado(destino.nombre, texto);
+                }
+            }
+            if (previsto >= inicioMedicion) enviados[tipo].increment();
+        } catch (IOException e) {
+            // Si la cerró la rotación no es un error
+            if (!conexion.isCerrada()) errores.increment();
+            return;
+        }
+        long siguiente = previsto + (long) exponencial(usuario.azar, 1e9 / opciones.tasa);
+        try {
+            programador.schedule(() -> enviar(usuario, conexion, siguiente), siguiente - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            // Terminó la ejecución
+        }
+    }
+
+    private Usuario otroDelPuerto(Usuario usuario) {
+        if (usuario.vecinos.size() < 2) return null;
+        Usuario destino;
+        do {
+            destino = usuario.vecinos.get(usuario.azar.nextInt(usuario.vecinos.size()));
+        } while (destino == usuario);
+        return destino;
+    }
+
+    // ---------- Recepción ----------
+
+    private void recibir(Usuario usuario, ConexionChat conexion) {
+        TipoTrama tipo = conexion.getTipo();
+        int indice;
+        long previsto;
+        if (tipo == TipoTrama.MSG || tipo == TipoTrama.MSGTO) {
+            String texto = conexion.getTexto();
+            previsto = marca(texto);
+            indice = tipo == TipoTrama.MSG ? 0 : 1;
+            if (previsto != SIN_MARCA && previsto >= inicioMedicion) bytesRecibidos.add(texto.length());
+        } else if (tipo == TipoTrama.IMG) {
+            byte[] imagen = conexion.getBytes();
+            ByteBuffer datos = ByteBuffer.wrap(imagen);
+            previsto = imagen.length >= 12 && datos.getInt(0) == MARCA_IMAGEN ? datos.getLong(4) : SIN_MARCA;
+            indice = 2;
+            if (previsto != SIN_MARCA && previsto >= inicioMedicion) bytesRecibidos.add(imagen.length);
+        } else {
+            if (tipo == TipoTrama.ERROR) errores.increment();
+            return;
+        }
+        // Sin marca, o enviado durante el calentamiento
+        if (previsto == SIN_MARCA || previsto < inicioMedicion) return;
+        if (previsto < usuario.conectadoDesde) {
+            diferidos.increment();
+            return;
+        }
+        histogramas[indice].registrar((System.nanoTime() - previsto) / 1000);
+    }
+
+    /** @return el instante "~n" que lleva el mensaje, o {@link #SIN_MARCA} si no es de la carga */
+    private static long marca(String texto) {
+        int inicio = texto.indexOf('~');
+        if (inicio < 0) return SIN_MARCA;
+        long valor = 0;
+        int i = inicio + 1;
+        boolean negativo = i < texto.length() && texto.charAt(i) == '-';
+        if (negativo) i++;
+        int desde = i;
+        for (; i < texto.length() && Character.isDigit(texto.charAt(i)); i++) valor = valor * 10 + (texto.charAt(i) - '0');
+        if (i == desde) return SIN_MARCA;
+        return negativo ? -valor : valor;
+    }
+
+    private InformeCarga informe(double segundos) {
+        InformeCarga informe = new InformeCarga();
+        informe.usuarios = opciones.usuarios;
+        informe.puertos = opciones.puertos.clone();
+        informe.segundos = segundos;
+        String[] nombres = {DIFUSION, PRIVADO, IMAGEN};
+        long totalEnviados = 0;
+        for (int i = 0; i < nombres.length; i++) {
+            informe.enviados.put(nombres[i], enviados[i].sum());
+            totalEnviados += enviados[i].sum();
+            informe.latencias.put(nombres[i], InformeCarga.Latencias.de(histogramas[i]));
+            informe.entregas += histogramas[i].getTotal();
+        }
+        informe.enviadosPorSegundo = totalEnviados / segundos;
+        informe.entregasPorSegundo = informe.entregas / segundos;
+        informe.bytesRecibidos = bytesRecibidos.sum();
+        informe.diferidos = diferidos.sum();
+        informe.conexiones = conexiones.sum();
+        informe.desconexiones = desconexiones.sum();
+        informe.fallosDeConexion = fallosDeConexion.sum();
+        informe.errores = errores.sum();
+        return informe;
+    }
+
+    // ---------- Servidor local ----------
+
+    /**
+     * Levanta un servidor en {@code cantidadPuertos} puertos libres del bucle local, ejecuta
+     * la carga contra él y lo apaga, borrando lo que dejó en server_data.
+     */
+    public static InformeCarga contraServidorLocal(ModoServidor modo, int cantidadPuertos, Opciones opciones)
+            throws IOException, InterruptedException {
+        int[] puertos = new int[cantidadPuertos];
+        for (int i = 0; i < cantidadPuertos; i++) {
+            try (ServerSocket libre = new ServerSocket(0)) {
+                puertos[i] = libre.getLocalPort();
+            }
+        }
+        Path directorio = Files.createTempDirectory("carga");
+        ServerRuntime runtime = new ServerRuntime(puertos, modo, directorio.resolve("estado_puertos.txt"));
+        try {
+            for (int puerto : puertos) runtime.iniciar(puerto);
+            opciones.host = "localhost";
+            opciones.puertos = puertos;
+            return new GeneradorCarga(opciones).ejecutar();
+        } finally {
+            runtime.apagar();
+            for (int puerto : puertos) borrarDatos(puerto);
+            borrar(directorio);
+        }
+    }
+
+    private static void borrarDatos(int puerto) throws IOException {
+        RegistroPuerto.de(puerto).cerrar();
+        IndiceHistorial.de(puerto).detener();
+        borrar(Paths.get("server_data", "port_" + puerto));
+    }
+
+    private static void borrar(Path raiz) throws IOException {
+        if (!Files.exists(raiz)) return;
+        try (Stream<Path> archivos = Files.walk(raiz)) {
+            for (Path archivo : archivos.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(archivo);
+            }
+        }
+    }
+
+    /**
+     * Además de las {@link Opciones}: {@code --servidor=HILOS|VIRTUALES|NIO} (servidor propio en
+     * el bucle local, con {@code --npuertos=n}) y {@code --salida=informe.json}. Termina con
+     * error si no se entregó nada o hubo errores, para usarlo en CI.
+     */
+    public static void main(String[] args) throws Exception {
+        Opciones opciones = Opciones.desdeArgumentos(args);
+        ModoServidor servidor = null;
+        int cantidadPuertos = 2;
+        Path salida = null;
+        for (String arg : args) {
+            if (arg.startsWith("--servidor=")) {
+                servidor = ModoServidor.valueOf(arg.substring("--servidor=".length()).toUpperCase());
+            } else if (arg.startsWith("--npuertos=")) {
+                cantidadPuertos = Integer.parseInt(arg.substring("--npuertos=".length()));
+            } else if (arg.startsWith("--salida=")) {
+                salida = Paths.get(arg.substring("--salida=".length()));
+            }
+        }
+        InformeCarga informe = servidor == null
+                ? new GeneradorCarga(opciones).ejecutar()
+                : contraServidorLocal(servidor, cantidadPuertos, opciones);
+        System.out.print(informe.resumen());
+        if (salida != null) {
+            Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+            try (Writer escritor = Files.newBufferedWriter(salida, StandardCharsets.UTF_8)) {
+                gson.toJson(informe, escritor);
+            }
+        }
+        System.exit(informe.entregas == 0 || informe.errores > 0 ? 1 : 0);
+    }
+}
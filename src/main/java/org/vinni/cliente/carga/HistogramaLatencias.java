@@ -0,0 +1,92 @@
+package org.vinni.cliente.carga;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma de latencias en microsegundos, con cubetas log-lineales al estilo de
+ * HdrHistogram: hasta {@value #EXACTOS} µs cada valor tiene su cubeta, y a partir de
+ * ahí cada potencia de dos se parte en {@value #POR_POTENCIA} cubetas, así que el
+ * error relativo es como mucho 1/{@value #POR_POTENCIA} (tres cifras significativas)
+ * hasta más de una hora. Registrar es un incremento atómico, sin candados: varios
+ * hilos pueden registrar a la vez.
+ */
+public class HistogramaLatencias {
+
+    private static final int POR_POTENCIA = 1024;
+    private static final int EXACTOS = 2 * POR_POTENCIA;
+    private static final int MAGNITUD = 10; // log2(POR_POTENCIA)
+    /** Mayor valor distinguible (algo más de una hora); lo que pase de ahí cuenta como este. */
+    public static final long MAXIMO = (1L << 32) - 1;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(indice(MAXIMO) + 1);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong maximo = new AtomicLong();
+
+    static int indice(long valor) {
+        if (valor < EXACTOS) return (int) valor;
+        int corrimiento = 63 - Long.numberOfLeadingZeros(valor) - MAGNITUD;
+        return EXACTOS + (corrimiento - 1) * POR_POTENCIA + (int) (valor >>> corrimiento) - POR_POTENCIA;
+    }
+
+    /** Mayor valor que cae en la cubeta. */
+    static long mayorEquivalente(int indice) {
+        if (indice < EXACTOS) return indice;
+        int corrimiento = (indice - EXACTOS) / POR_POTENCIA + 1;
+        long base = (long) ((indice - EXACTOS) % POR_POTENCIA + POR_POTENCIA) << corrimiento;
+        return base + (1L << corrimiento) - 1;
+    }
+
+    public void registrar(long micros) {
+        long valor = Math.max(0, Math.min(micros, MAXIMO));
+        cuentas.incrementAndGet(indice(valor));
+        total.incrementAndGet();
+        long anterior;
+        while (valor > (anterior = maximo.get()) && !maximo.compareAndSet(anterior, valor)) {
+            // Otro hilo subió el máximo entre medias: se vuelve a comparar
+        }
+    }
+
+    /** Suma los valores de otro histograma a este. */
+    public void sumar(HistogramaLatencias otro) {
+        for (int i = 0; i < cuentas.length(); i++) {
+            long cuenta = otro.cuentas.get(i);
+            if (cuenta != 0) cuentas.addAndGet(i, cuenta);
+        }
+        total.addAndGet(otro.total.get());
+        maximo.accumulateAndGet(otro.maximo.get(), Math::max);
+    }
+
+    public void reiniciar() {
+        for (int i = 0; i < cuentas.length(); i++) cuentas.set(i, 0);
+        total.set(0);
+        maximo.set(0);
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    /** Mayor valor registrado (exacto, no el de su cubeta). */
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Valor por debajo del cual queda el porcentaje pedido de los registros (el mayor
+     * de su cubeta, como hace HdrHistogram), o 0 si no hay ninguno.
+     *
+     * @param percentil entre 0 y 100, por ejemplo 99.9
+     */
+    public long percentil(double percentil) {
+        long cantidad = total.get();
+        if (cantidad == 0) return 0;
+        long buscado = Math.max(1, (long) Math.ceil(percentil / 100 * cantidad));
+        long acumulado = 0;
+        for (int i = 0; i < cuentas.length(); i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= buscado) return Math.min(mayorEquivalente(i), maximo.get());
+        }
+        return maximo.get();
+    }
+}
@@ -0,0 +1,71 @@
+package org.vinni.cliente.carga;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resultado de una ejecución de {@link GeneradorCarga}, tal cual se escribe en JSON.
+ * Las latencias son de punta a punta: desde el momento en que tocaba enviar el
+ * mensaje hasta que lo lee quien lo recibe, en milisegundos.
+ */
+public class InformeCarga {
+
+    /** Latencias de un tipo de mensaje. */
+    public static class Latencias {
+        public long entregas;
+        public double p50;
+        public double p99;
+        public double p999;
+        public double maximo;
+
+        static Latencias de(HistogramaLatencias histograma) {
+            Latencias latencias = new Latencias();
+            latencias.entregas = histograma.getTotal();
+            latencias.p50 = histograma.percentil(50) / 1000.0;
+            latencias.p99 = histograma.percentil(99) / 1000.0;
+            latencias.p999 = histograma.percentil(99.9) / 1000.0;
+            latencias.maximo = histograma.getMaximo() / 1000.0;
+            return latencias;
+        }
+    }
+
+    public int usuarios;
+    public int[] puertos;
+    public double segundos;
+    /** Mensajes enviados por tipo (difusion, privado, imagen). */
+    public Map<String, Long> enviados = new TreeMap<>();
+    public double enviadosPorSegundo;
+    public long entregas;
+    public double entregasPorSegundo;
+    public long bytesRecibidos;
+    /** Mensajes enviados antes de que el destinatario se conectara (buzón o reanudación). */
+    public long diferidos;
+    public long conexiones;
+    public long desconexiones;
+    public long fallosDeConexion;
+    public long errores;
+    public Map<String, Latencias> latencias = new TreeMap<>();
+
+    /**
+     * Resumen para la consola.
+     */
+    public String resumen() {
+        StringBuilder texto = new StringBuilder();
+        long totalEnviados = 0;
+        for (long cantidad : enviados.values()) totalEnviados += cantidad;
+        texto.append(String.format(Locale.ROOT, "%d usuarios en %d puertos durante %.1f s%n", usuarios, puertos.length, segundos));
+        texto.append(String.format(Locale.ROOT, "Enviados: %d %s = %.1f/s%n", totalEnviados, enviados, enviadosPorSegundo));
+        texto.append(String.format(Locale.ROOT, "Entregas: %d = %.1f/s (%d bytes), diferidas %d%n",
+                entregas, entregasPorSegundo, bytesRecibidos, diferidos));
+        texto.append(String.format(Locale.ROOT, "Conexiones: %d, desconexiones %d, fallos %d, errores %d%n",
+                conexiones, desconexiones, fallosDeConexion, errores));
+        texto.append(String.format(Locale.ROOT, "%-10s %10s %10s %10s %10s %10s%n", "Latencia", "entregas", "p50 ms", "p99 ms", "p999 ms", "máx ms"));
+        for (Map.Entry<String, Latencias> tipo : latencias.entrySet()) {
+            Latencias l = tipo.getValue();
+            texto.append(String.format(Locale.ROOT, "%-10s %10d %10.3f %10.3f %10.3f %10.3f%n",
+                    tipo.getKey(), l.entregas, l.p50, l.p99, l.p999, l.maximo));
+        }
+        return texto.toString();
+    }
+}
@@ -0,0 +1,219 @@
+package org.vinni.cliente.core;
+
+import org.vinni.protocolo.TipoTrama;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elige a qué puerto del servidor conectarse. Sondea todos los puertos a la vez
+ * (conexiones no bloqueantes en un único Selector, con un plazo total) midiendo
+ * cuánto tarda cada uno en aceptar y preguntándole su carga con LOAD:. Los puertos
+ * se ordenan por sesiones abiertas y, a igual carga, por tiempo de conexión; los
+ * que no contestan LOAD: (servidores anteriores) van detrás de los que sí.
+ *
+ * Al conectar prueba los candidatos en ese orden sin esperas entre uno y otro:
+ * si un puerto falla se pasa enseguida al siguiente.
+ */
+public class BalanceadorPuertos {
+
+    private static final byte[] PEDIDO_CARGA = (TipoTrama.CARGA.getPrefijo() + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Resultado de sondear un puerto.
+     */
+    public static final class Candidato {
+        private final int puerto;
+        private long rttMicros = -1;
+        private int sesiones = -1;
+        private SocketChannel canal;
+        private final ByteBuffer respuesta = ByteBuffer.allocate(64);
+
+        Candidato(int puerto) {
+            this.puerto = puerto;
+        }
+
+        public int getPuerto() {
+            return puerto;
+        }
+
+        /** Microsegundos hasta que el puerto aceptó la conexión, o -1 si no respondió. */
+        public long getRttMicros() {
+            return rttMicros;
+        }
+
+        /** Sesiones abiertas según el servidor, o -1 si no lo dijo. */
+        public int getSesiones() {
+            return sesiones;
+        }
+
+        public boolean isVivo() {
+            return rttMicros >= 0;
+        }
+
+        @Override
+        public String toString() {
+            return puerto + " (" + (isVivo() ? rttMicros + " µs" : "sin respuesta")
+                    + (sesiones >= 0 ? ", " + sesiones + " sesiones" : "") + ")";
+        }
+    }
+
+    /** Menos carga primero; sin dato de carga, detrás; luego el que conectó antes. */
+    static final Comparator<Candidato> MEJOR_PRIMERO = Comparator
+            .comparingLong((Candidato c) -> c.sesiones < 0 ? Long.MAX_VALUE : c.sesiones)
+            .thenComparingLong(c -> c.rttMicros);
+
+    private final String host;
+    private final long plazoMs;
+
+    public BalanceadorPuertos(String host, long plazoMs) {
+        this.host = host;
+        this.plazoMs = plazoMs;
+    }
+
+    /**
+     * Sondea los puertos a la vez.
+     *
+     * @return los puertos que respondieron, del mejor al peor
+     */
+    public List<Candidato> sondear(int[] puertos) {
+        List<Candidato> candidatos = new ArrayList<>();
+        long inicio = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            int pendientes = 0;
+            for (int puerto : puertos) {
+                Candidato candidato = new Candidato(puerto);
+                candidatos.add(candidato);
+                try {
+                    candidato.canal = SocketChannel.open();
+                    candidato.canal.configureBlocking(false);
+                    if (candidato.canal.connect(new InetSocketAddress(host, puerto))) {
+                        conectado(candidato, inicio, selector);
+                    } else {
+                        candidato.canal.register(selector, SelectionKey.OP_CONNECT, candidato);
+                    }
+                    pendientes++;
+                } catch (IOException e) {
+                    cerrar(candidato);
+                }
+            }
+
+            long limite = inicio + TimeUnit.MILLISECONDS.toNanos(plazoMs);
+            while (pendientes > 0) {
+                long restante = TimeUnit.NANOSECONDS.toMillis(limite - System.nanoTime());
+                if (restante <= 0) break;
+                selector.select(restante);
+                for (SelectionKey clave : selector.selectedKeys()) {
+                    Candidato candidato = (Candidato) clave.attachment();
+                    try {
+                        if (clave.isConnectable()) {
+                            if (candidato.canal.finishConnect()) conectado(candidato, inicio, selector);
+                        } else if (clave.isReadable() && leerCarga(candidato)) {
+                            cerrar(candidato);
+                            pendientes--;
+                        }
+                    } catch (IOException e) {
+                        // Rechazada, o cerrada antes de responder: se queda con lo que se supo
+                        cerrar(candidato);
+                        pendientes--;
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            // Sin selector no hay sondeo: lo no resuelto queda como caído
+        }
+        for (Candidato candidato : candidatos) cerrar(candidato);
+
+        List<Candidato> vivos = new ArrayList<>();
+        for (Candidato candidato : candidatos) {
+            if (candidato.isVivo()) vivos.add(candidato);
+        }
+        vivos.sort(MEJOR_PRIMERO);
+        return vivos;
+    }
+
+    private static void conectado(Candidato candidato, long inicio, Selector selector) throws IOException {
+        candidato.rttMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - inicio);
+        // El pedido cabe de sobra en el buffer del socket recién abierto
+        candidato.canal.write(ByteBuffer.wrap(PEDIDO_CARGA));
+        candidato.canal.register(selector, SelectionKey.OP_READ, candidato);
+    }
+
+    /**
+     * @return true si ya llegó la línea de respuesta (sea o no un LOAD:)
+     */
+    private static boolean leerCarga(Candidato candidato) throws IOException {
+        if (candidato.canal.read(candidato.respuesta) < 0) return true;
+        ByteBuffer leido = candidato.respuesta;
+        for (int i = 0; i < leido.position(); i++) {
+            if (leido.get(i) != '\n') continue;
+            String linea = new String(leido.array(), 0, i, StandardCharsets.UTF_8).trim();
+            candidato.sesiones = sesiones(linea);
+            return true;
+        }
+        return !leido.hasRemaining();
+    }
+
+    /**
+     * Sesiones de una respuesta "LOAD:n", o -1 si es otra cosa (p. ej. el ERROR: de un servidor anterior).
+     */
+    static int sesiones(String linea) {
+        if (!linea.startsWith(TipoTrama.CARGA.getPrefijo())) return -1;
+        try {
+            return Math.max(0, Integer.parseInt(linea.substring(TipoTrama.CARGA.getPrefijo().length()).trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void cerrar(Candidato candidato) {
+        if (candidato.canal == null) return;
+        try {
+            candidato.canal.close();
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * Conecta al puerto preferido (si es &gt; 0) y, si no acepta, sondea los demás y
+     * prueba del mejor al peor.
+     *
+     * @param secuencias último mensaje visto en cada puerto, para reanudar la sesión; puede ser null
+     * @throws IOException si ninguno aceptó (con el último error)
+     */
+    public ConexionChat conectar(int preferido, int[] puertos, String usuario, boolean pedirBinario,
+                                 Map<Integer, Long> secuencias) throws IOException {
+        IOException ultimo = new IOException("Ningún puerto del servidor responde");
+        if (preferido > 0) {
+            try {
+                return ConexionChat.conectar(host, preferido, usuario, pedirBinario, ultimaVista(secuencias, preferido));
+            } catch (IOException e) {
+                ultimo = e;
+            }
+        }
+        for (Candidato candidato : sondear(puertos)) {
+            if (candidato.getPuerto() == preferido) continue;
+            try {
+                return ConexionChat.conectar(host, candidato.getPuerto(), usuario, pedirBinario,
+                        ultimaVista(secuencias, candidato.getPuerto()));
+            } catch (IOException e) {
+                ultimo = e;
+            }
+        }
+        throw ultimo;
+    }
+
+    private static long ultimaVista(Map<Integer, Long> secuencias, int puerto) {
+        return secuencias == null ? 0 : secuencias.getOrDefault(puerto, 0L);
+    }
+}
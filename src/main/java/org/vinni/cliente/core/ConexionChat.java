@@ -0,0 +1,308 @@
+package org.vinni.cliente.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.CodecTrama;
+import org.vinni.protocolo.EntradaProtocolo;
+import org.vinni.protocolo.InfoArchivo;
+import org.vinni.protocolo.TipoTrama;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Conexión de un cliente de chat con un puerto del servidor, sin nada de Swing.
+ * En el saludo pide el formato binario y, si el servidor no responde PROTO:BIN,
+ * sigue con el protocolo de líneas de texto.
+ *
+ * Los envíos pueden hacerse desde cualquier hilo; la lectura ({@link #siguiente()})
+ * debe hacerla un único hilo. Las transferencias por trozos (FILE:, CHUNK:, FILEACK:)
+ * las resuelve la propia lectura: la aplicación solo ve el FILEEND: final, con el
+ * archivo ya en disco ({@link #getArchivo()}), o el FILEREF: con el que el servidor
+ * indica un contenido que esta conexión ya recibió o envió.
+ *
+ * Pide además los mensajes numerados (seq=): la lectura se queda con el número del
+ * último mensaje visto ({@link #getUltimaSecuencia()}) y, al reconectar al mismo
+ * puerto con ese número, el servidor repite lo que se perdió entre medias.
+ */
+public class ConexionChat implements Closeable {
+
+    private static final int ESPERA_SALUDO_MS = 3000;
+
+    /** Directorio donde se dejan los archivos recibidos. */
+    private static final Path DIRECTORIO_RECIBIDOS = Paths.get(System.getProperty("cliente.recibidos",
+            System.getProperty("java.io.tmpdir") + "/chat-recibidos"));
+
+    private final Socket socket;
+    private final int puerto;
+    private final String usuario;
+    private final OutputStream out;
+    private final EntradaProtocolo in;
+
+    // Transferencias en curso por id: las que salen esperan FILEACK; las que llegan se escriben a disco
+    private final Map<Long, EnvioArchivo> envios = new ConcurrentHashMap<>();
+    private final Map<Long, RecepcionArchivo> recepciones = new ConcurrentHashMap<>();
+    private RecepcionArchivo archivo;
+
+    // Número del último mensaje visto; el SEQ: llega justo antes del mensaje al que numera
+    private volatile long ultimaSecuencia;
+    private long secuenciaPendiente = -1;
+
+    // Copias locales por SHA-256, para resolver los FILEREF: (las más viejas se olvidan)
+    private static final int MAX_CONTENIDOS = 256;
+    private final Map<String, Path> contenidos = Collections.synchronizedMap(new LinkedHashMap<String, Path>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Path> mayor) {
+            return size() > MAX_CONTENIDOS;
+        }
+    });
+
+    private ConexionChat(Socket socket, int puerto, String usuario, boolean pedirBinario, long ultimaSecuencia) throws IOException {
+        this.socket = socket;
+        this.puerto = puerto;
+        this.usuario = usuario;
+        this.ultimaSecuencia = Math.max(0, ultimaSecuencia);
+        this.out = new BufferedOutputStream(socket.getOutputStream());
+        this.in = new EntradaProtocolo(socket.getInputStream());
+
+        String saludo = TipoTrama.USER.getPrefijo() + usuario + (pedirBinario ? ";" + CodecTrama.OPCION_BINARIO : "")
+                + ";" + CodecTrama.OPCION_SECUENCIA + this.ultimaSecuencia;
+        synchronized (out) {
+            out.write((saludo + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+        }
+        if (pedirBinario) negociar();
+    }
+
+    /**
+     * Abre la conexión y se identifica con USER:.
+     *
+     * @param pedirBinario si es false se usa siempre el protocolo de texto
+     */
+    public static ConexionChat conectar(String host, int puerto, String usuario, boolean pedirBinario) throws IOException {
+        return conectar(host, puerto, usuario, pedirBinario, 0);
+    }
+
+    /**
+     * Abre la conexión y reanuda la sesión: el servidor repite los mensajes posteriores
+     * a {@code ultimaSecuencia} (0 si no se vio ninguno en ese puerto).
+     */
+    public static ConexionChat conectar(String host, int puerto, String usuario, boolean pedirBinario,
+                                        long ultimaSecuencia) throws IOException {
+        Socket socket = new Socket(host, puerto);
+        try {
+            return new ConexionChat(socket, puerto, usuario, pedirBinario, ultimaSecuencia);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Espera la primera respuesta: PROTO:BIN activa el binario; cualquier otra
+     * cosa es un servidor de solo texto y esa línea se entrega como un mensaje más.
+     */
+    private void negociar() throws IOException {
+        socket.setSoTimeout(ESPERA_SALUDO_MS);
+        try {
+            if (in.siguiente()) {
+                if (in.getTipo() == TipoTrama.PROTO && CodecTrama.RESPUESTA_BINARIO.equals(in.getTexto())) {
+                    in.usarBinario();
+                } else {
+                    in.repetirActual();
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            // Sin respuesta al saludo: se sigue en texto
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    // ---------- Envío ----------
+
+    public void enviar(TipoTrama tipo, byte[] contenido) throws IOException {
+        byte[] datos = in.isBinaria() ? CodecTrama.trama(tipo, contenido) : CodecTrama.linea(tipo, contenido);
+        synchronized (out) {
+            out.write(datos);
+            out.flush();
+        }
+    }
+
+    public void enviar(TipoTrama tipo, String texto) throws IOException {
+        enviar(tipo, texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void enviarMensaje(String texto) throws IOException {
+        enviar(TipoTrama.MSG, texto);
+    }
+
+    public void enviarPrivado(String destinatario, String texto) throws IOException {
+        enviar(TipoTrama.MSGTO, destinatario + ":" + texto);
+    }
+
+    public void enviarImagen(byte[] imagen) throws IOException {
+        enviar(TipoTrama.IMG, imagen);
+    }
+
+    void registrarEnvio(EnvioArchivo envio) throws IOException {
+        if (isCerrada()) throw new IOException("Conexión cerrada");
+        envios.put(envio.getId(), envio);
+    }
+
+    void retirarEnvio(EnvioArchivo envio) {
+        envios.remove(envio.getId(), envio);
+    }
+
+    /**
+     * Anota dónde hay una copia local de un contenido (recibido o enviado).
+     */
+    void recordarContenido(String sha256, Path ruta) {
+        contenidos.put(sha256.toLowerCase(), ruta);
+    }
+
+    // ---------- Lectura (un solo hilo) ----------
+
+    /**
+     * Bloquea hasta el siguiente mensaje del servidor. Los mensajes de una transferencia
+     * por trozos se atienden aquí mismo y solo se devuelve el FILEEND: que la cierra.
+     *
+     * @return false si el servidor cerró la conexión
+     */
+    public boolean siguiente() throws IOException {
+        try {
+            while (in.siguiente()) {
+                archivo = null;
+                if (in.getTipo() == TipoTrama.SECUENCIA) {
+                    try {
+                        secuenciaPendiente = Long.parseLong(in.getTexto().trim());
+                    } catch (NumberFormatException ignored) {}
+                    continue;
+                }
+                if (secuenciaPendiente >= 0) {
+                    ultimaSecuencia = Math.max(ultimaSecuencia, secuenciaPendiente);
+                    secuenciaPendiente = -1;
+                }
+                switch (in.getTipo()) {
+                    case ARCH_ACK: {
+                        long[] ack = CodecArchivo.leerAck(in.getTexto());
+                        EnvioArchivo envio = envios.get(ack[0]);
+                        if (envio != null) envio.confirmar(ack[1]);
+                        continue;
+                    }
+                    case ARCH_INICIO: {
+                        InfoArchivo info = InfoArchivo.desdeTexto(in.getTexto(), true);
+                        Files.createDirectories(DIRECTORIO_RECIBIDOS);
+                        RecepcionArchivo anterior = recepciones.put(info.getId(), new RecepcionArchivo(info, DIRECTORIO_RECIBIDOS));
+                        if (anterior != null) anterior.fallar("reemplazada por otra con el mismo id");
+                        continue;
+                    }
+                    case ARCH_TROZO: {
+                        ByteBuffer trozo = in.getContenido();
+                        RecepcionArchivo recepcion = recepciones.get(CodecArchivo.idDeTrozo(trozo));
+                        if (recepcion != null) {
+                            recepcion.escribir(CodecArchivo.desplazamientoDeTrozo(trozo), CodecArchivo.datosDeTrozo(trozo));
+                        }
+                        continue;
+                    }
+                    case ARCH_FIN: {
+                        RecepcionArchivo recepcion = recepciones.remove(CodecArchivo.leerId(in.getTexto()));
+                        if (recepcion == null) continue;
+                        recepcion.terminar();
+                        if (recepcion.isCompleta()) recordarContenido(recepcion.getInfo().getSha256(), recepcion.getRuta());
+                        archivo = recepcion;
+                        return true;
+                    }
+                    case ARCH_REF: {
+                        InfoArchivo info = InfoArchivo.desdeTexto(in.getTexto(), true);
+                        Path copia = contenidos.get(info.getSha256().toLowerCase());
+                        if (copia != null && !Files.exists(copia)) copia = null;
+                        archivo = RecepcionArchivo.porReferencia(info, copia);
+                        return true;
+                    }
+                    default:
+                        return true;
+                }
+            }
+            cerrarTransferencias(new IOException("Servidor desconectado"));
+            return false;
+        } catch (IOException e) {
+            cerrarTransferencias(e);
+            throw e;
+        }
+    }
+
+    private void cerrarTransferencias(IOException causa) {
+        for (EnvioArchivo envio : envios.values()) envio.fallar(causa);
+        for (RecepcionArchivo recepcion : recepciones.values()) recepcion.fallar("conexión perdida");
+        recepciones.clear();
+    }
+
+    public TipoTrama getTipo() {
+        return in.getTipo();
+    }
+
+    public String getTexto() {
+        return in.getTexto();
+    }
+
+    /**
+     * Copia del contenido del mensaje actual (por ejemplo, los bytes de una imagen).
+     */
+    public byte[] getBytes() {
+        return in.getBytes();
+    }
+
+    /**
+     * Archivo del FILEEND: o FILEREF: actual (completo o con su error), o null si el mensaje es otro.
+     */
+    public RecepcionArchivo getArchivo() {
+        return archivo;
+    }
+
+    // ---------- Estado ----------
+
+    public boolean isBinaria() {
+        return in.isBinaria();
+    }
+
+    public int getPuerto() {
+        return puerto;
+    }
+
+    /**
+     * Número del último mensaje numerado recibido (o con el que se reanudó), para la próxima reconexión.
+     */
+    public long getUltimaSecuencia() {
+        return ultimaSecuencia;
+    }
+
+    public String getUsuario() {
+        return usuario;
+    }
+
+    public boolean isCerrada() {
+        return socket.isClosed();
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+        IOException cerrada = new IOException("Conexión cerrada");
+        for (EnvioArchivo envio : envios.values()) envio.fallar(cerrada);
+    }
+}
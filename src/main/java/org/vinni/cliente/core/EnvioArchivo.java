@@ -0,0 +1,150 @@
+package org.vinni.cliente.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.InfoArchivo;
+import org.vinni.protocolo.TipoTrama;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+
+/**
+ * Envío de un archivo por trozos (ver {@link CodecArchivo}). Lee el archivo de
+ * a un trozo, así que la memoria usada no depende de su tamaño, y no deja más
+ * de {@link CodecArchivo#VENTANA} bytes sin confirmar por el servidor.
+ *
+ * Si el servidor ya tiene ese contenido (por su SHA-256), confirma el archivo
+ * entero en el primer FILEACK y no se sube ningún trozo.
+ *
+ * Si la conexión se cae, el mismo envío puede repetirse con {@link #enviar(ConexionChat)}
+ * sobre la conexión nueva: conserva su id y sigue desde lo que el servidor ya tiene.
+ */
+public class EnvioArchivo {
+
+    private static final long ESPERA_ACK_MS = 10000;
+    private static final SecureRandom IDS = new SecureRandom();
+
+    private final Path archivo;
+    private final InfoArchivo info;
+
+    // Estado de la conexión en curso; lo actualiza el hilo lector de ConexionChat
+    private long enviados;
+    private long confirmados;
+    private IOException fallo;
+    private volatile boolean terminado;
+
+    private EnvioArchivo(Path archivo, InfoArchivo info) {
+        this.archivo = archivo;
+        this.info = info;
+    }
+
+    /**
+     * Calcula la suma SHA-256 (leyendo el archivo por bloques) y asigna un id nuevo.
+     */
+    public static EnvioArchivo preparar(Path archivo) throws IOException {
+        long tamano = Files.size(archivo);
+        String sha = CodecArchivo.sha256(archivo);
+        long id = IDS.nextLong() & Long.MAX_VALUE;
+        return new EnvioArchivo(archivo, new InfoArchivo(id, tamano, sha, null, archivo.getFileName().toString()));
+    }
+
+    /**
+     * Envía (o reanuda) el archivo por la conexión y bloquea hasta terminar.
+     * Los mensajes de chat que se envíen mientras tanto salen entre un trozo y otro.
+     */
+    public void enviar(ConexionChat conexion) throws IOException, InterruptedException {
+        synchronized (this) {
+            confirmados = -1;
+            fallo = null;
+        }
+        conexion.registrarEnvio(this);
+        try {
+            conexion.enviar(TipoTrama.ARCH_INICIO, info.aTexto());
+            // El primer FILEACK dice desde dónde seguir (0 si es nuevo)
+            long desde = esperarConfirmados(0);
+            synchronized (this) {
+                enviados = desde;
+            }
+
+            byte[] buffer = new byte[CodecArchivo.TAM_TROZO];
+            try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                long posicion = desde;
+                while (posicion < info.getTamano()) {
+                    esperarConfirmados(posicion - CodecArchivo.VENTANA);
+                    int largo = leer(canal, buffer, posicion);
+                    conexion.enviar(TipoTrama.ARCH_TROZO, CodecArchivo.trozo(info.getId(), posicion, buffer, largo));
+                    posicion += largo;
+                    synchronized (this) {
+                        enviados = posicion;
+                    }
+                }
+            }
+            esperarConfirmados(info.getTamano());
+            conexion.enviar(TipoTrama.ARCH_FIN, CodecArchivo.textoId(info.getId()));
+            conexion.recordarContenido(info.getSha256(), archivo);
+            terminado = true;
+        } finally {
+            conexion.retirarEnvio(this);
+        }
+    }
+
+    private int leer(FileChannel canal, byte[] buffer, long posicion) throws IOException {
+        ByteBuffer destino = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, info.getTamano() - posicion));
+        while (destino.hasRemaining()) {
+            if (canal.read(destino, posicion + destino.position()) < 0) {
+                throw new IOException("El archivo " + archivo.getFileName() + " cambió durante el envío");
+            }
+        }
+        return destino.position();
+    }
+
+    /**
+     * Espera a que el servidor confirme al menos {@code minimo} bytes.
+     *
+     * @return los bytes confirmados
+     */
+    private synchronized long esperarConfirmados(long minimo) throws IOException, InterruptedException {
+        long limite = System.currentTimeMillis() + ESPERA_ACK_MS;
+        while (fallo == null && confirmados < Math.max(minimo, 0)) {
+            long restante = limite - System.currentTimeMillis();
+            if (restante <= 0) throw new IOException("El servidor no confirmó el archivo " + info.getNombre());
+            wait(restante);
+        }
+        if (fallo != null) throw fallo;
+        return confirmados;
+    }
+
+    // ---------- Llamados desde el hilo lector de ConexionChat ----------
+
+    synchronized void confirmar(long recibidos) {
+        confirmados = recibidos;
+        notifyAll();
+    }
+
+    synchronized void fallar(IOException causa) {
+        fallo = causa;
+        notifyAll();
+    }
+
+    // ---------- Estado ----------
+
+    public InfoArchivo getInfo() {
+        return info;
+    }
+
+    public long getId() {
+        return info.getId();
+    }
+
+    public synchronized long getEnviados() {
+        return enviados;
+    }
+
+    public boolean isTerminado() {
+        return terminado;
+    }
+}
@@ -0,0 +1,129 @@
+package org.vinni.cliente.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.InfoArchivo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Archivo que llega por trozos: cada trozo se escribe en disco según llega y
+ * se va sumando al SHA-256, de modo que nunca está entero en memoria.
+ */
+public class RecepcionArchivo {
+
+    private final InfoArchivo info;
+    private final Path ruta;
+    private final FileChannel canal;
+    private final MessageDigest digest = CodecArchivo.nuevoSha256();
+    private long recibidos;
+    private String error;
+    private boolean completa;
+
+    RecepcionArchivo(InfoArchivo info, Path directorio) throws IOException {
+        this.info = info;
+        this.ruta = Files.createTempFile(directorio, "recibido-", "-" + nombreSeguro(info.getNombre()));
+        this.canal = FileChannel.open(ruta, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private RecepcionArchivo(InfoArchivo info, Path copiaLocal, String error) {
+        this.info = info;
+        this.ruta = copiaLocal;
+        this.canal = null;
+        this.recibidos = copiaLocal != null ? info.getTamano() : 0;
+        this.completa = copiaLocal != null;
+        this.error = error;
+    }
+
+    /**
+     * Archivo que llegó como referencia (FILEREF:) a un contenido que ya se tenía.
+     *
+     * @param copiaLocal archivo con ese contenido, o null si ya no está
+     */
+    static RecepcionArchivo porReferencia(InfoArchivo info, Path copiaLocal) {
+        return copiaLocal != null
+                ? new RecepcionArchivo(info, copiaLocal, null)
+                : new RecepcionArchivo(info, null, "no queda copia local del contenido");
+    }
+
+    void escribir(long desplazamiento, ByteBuffer datos) throws IOException {
+        if (error != null) return;
+        if (desplazamiento != recibidos || recibidos + datos.remaining() > info.getTamano()) {
+            // Trozo fuera de orden: el archivo ya no se puede reconstruir
+            fallar("se perdieron trozos a partir del byte " + recibidos);
+            return;
+        }
+        digest.update(datos.duplicate());
+        while (datos.hasRemaining()) {
+            recibidos += canal.write(datos);
+        }
+    }
+
+    /**
+     * Cierra el archivo y comprueba tamaño y suma.
+     */
+    void terminar() {
+        if (error != null) return;
+        cerrarCanal();
+        if (recibidos != info.getTamano()) {
+            fallar("llegaron " + recibidos + " de " + info.getTamano() + " bytes");
+        } else if (!CodecArchivo.hex(digest.digest()).equalsIgnoreCase(info.getSha256())) {
+            fallar("la suma SHA-256 no coincide");
+        } else {
+            completa = true;
+        }
+    }
+
+    /**
+     * Abandona la recepción y borra lo escrito.
+     */
+    void fallar(String motivo) {
+        if (error != null) return;
+        error = motivo;
+        cerrarCanal();
+        // Una referencia apunta a una copia ajena, que no se borra
+        if (canal == null) return;
+        try {
+            Files.deleteIfExists(ruta);
+        } catch (IOException ignored) {}
+    }
+
+    private void cerrarCanal() {
+        if (canal == null) return;
+        try {
+            canal.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static String nombreSeguro(String nombre) {
+        String limpio = nombre.replaceAll("[^A-Za-z0-9._-]", "_");
+        return limpio.length() > 60 ? limpio.substring(limpio.length() - 60) : limpio;
+    }
+
+    public InfoArchivo getInfo() {
+        return info;
+    }
+
+    /** Archivo en disco con el contenido recibido (solo válido si {@link #isCompleta()}). */
+    public Path getRuta() {
+        return ruta;
+    }
+
+    public boolean isCompleta() {
+        return completa;
+    }
+
+    /** Motivo por el que no se pudo recibir, o null. */
+    public String getError() {
+        return error;
+    }
+
+    public long getRecibidos() {
+        return recibidos;
+    }
+}
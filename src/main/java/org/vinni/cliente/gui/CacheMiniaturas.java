@@ -0,0 +1,63 @@
+package org.vinni.cliente.gui;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Miniaturas ya decodificadas, por SHA-256 del contenido. Se acota por bytes de
+ * píxeles (desaloja primero la menos usada) y guarda referencias blandas, así que
+ * el recolector puede liberarlas si falta memoria.
+ */
+class CacheMiniaturas {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, SoftReference<BufferedImage>> miniaturas = new LinkedHashMap<>(32, 0.75f, true);
+    private final LinkedHashMap<String, Long> tamanos = new LinkedHashMap<>();
+    private long bytes;
+
+    CacheMiniaturas(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return la miniatura, o null si no está (o el recolector ya la liberó)
+     */
+    synchronized BufferedImage buscar(String hash) {
+        SoftReference<BufferedImage> referencia = miniaturas.get(hash);
+        if (referencia == null) return null;
+        BufferedImage miniatura = referencia.get();
+        if (miniatura == null) quitar(hash);
+        return miniatura;
+    }
+
+    synchronized void guardar(String hash, BufferedImage miniatura) {
+        quitar(hash);
+        long tamano = (long) miniatura.getWidth() * miniatura.getHeight() * 4;
+        miniaturas.put(hash, new SoftReference<>(miniatura));
+        tamanos.put(hash, tamano);
+        bytes += tamano;
+        Iterator<Map.Entry<String, SoftReference<BufferedImage>>> it = miniaturas.entrySet().iterator();
+        while (bytes > maxBytes && miniaturas.size() > 1 && it.hasNext()) {
+            String menosUsada = it.next().getKey();
+            it.remove();
+            bytes -= tamanos.remove(menosUsada);
+        }
+    }
+
+    private void quitar(String hash) {
+        miniaturas.remove(hash);
+        Long tamano = tamanos.remove(hash);
+        if (tamano != null) bytes -= tamano;
+    }
+
+    synchronized int cantidad() {
+        return miniaturas.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+}
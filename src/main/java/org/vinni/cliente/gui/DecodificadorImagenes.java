@@ -0,0 +1,203 @@
+package org.vinni.cliente.gui;
+
+import org.vinni.protocolo.CodecArchivo;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Decodifica imágenes fuera del hilo que lee del socket y del de Swing.
+ * Las miniaturas se leen ya submuestreadas desde el archivo (sin decodificar la
+ * imagen entera a tamaño completo) y se guardan en una {@link CacheMiniaturas};
+ * la imagen completa solo se lee cuando el usuario la abre.
+ *
+ * La cola de miniaturas es acotada: si llegan más imágenes de las que da abasto,
+ * se descarta la más vieja pendiente en lugar de frenar al lector, y se avisa a
+ * quien la pidió para que muestre otra cosa en su lugar. Las imágenes completas
+ * van por su propio hilo y su propia cola: lo que pide el usuario nunca se descarta.
+ */
+class DecodificadorImagenes {
+
+    static final int LADO_MINIATURA = 250;
+
+    private static final int HILOS = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    private static final int MAX_PENDIENTES = 16;
+
+    private final CacheMiniaturas cache = new CacheMiniaturas(32L * 1024 * 1024);
+    private final ThreadPoolExecutor ejecutor;
+    private final ThreadPoolExecutor completas;
+
+    /**
+     * Trabajo de la cola de miniaturas; si se descarta, avisa en el hilo de Swing.
+     */
+    private static final class Trabajo implements Runnable {
+        final Runnable tarea;
+        final Runnable alDescartar;
+
+        Trabajo(Runnable tarea, Runnable alDescartar) {
+            this.tarea = tarea;
+            this.alDescartar = alDescartar;
+        }
+
+        @Override
+        public void run() {
+            tarea.run();
+        }
+
+        void descartar() {
+            if (alDescartar != null) SwingUtilities.invokeLater(alDescartar);
+        }
+    }
+
+    DecodificadorImagenes() {
+        ejecutor = new ThreadPoolExecutor(HILOS, HILOS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDIENTES), hilos("DecodificadorImagenes"),
+                DecodificadorImagenes::descartarMasViejo);
+        ejecutor.allowCoreThreadTimeOut(true);
+        completas = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), hilos("ImagenesCompletas"));
+        completas.allowCoreThreadTimeOut(true);
+    }
+
+    private static ThreadFactory hilos(String nombre) {
+        return r -> {
+            Thread hilo = new Thread(r, nombre);
+            hilo.setDaemon(true);
+            hilo.setPriority(Thread.NORM_PRIORITY - 1);
+            return hilo;
+        };
+    }
+
+    /**
+     * Como DiscardOldestPolicy, pero avisando al dueño del trabajo descartado.
+     */
+    private static void descartarMasViejo(Runnable nuevo, ThreadPoolExecutor ejecutor) {
+        if (ejecutor.isShutdown()) return;
+        Runnable viejo = ejecutor.getQueue().poll();
+        if (viejo instanceof Trabajo) ((Trabajo) viejo).descartar();
+        ejecutor.execute(nuevo);
+    }
+
+    /**
+     * Pide la miniatura del archivo; {@code alTerminar} se llama en el hilo de Swing
+     * (con null si no es una imagen legible). Si está en la caché no se decodifica nada.
+     * Si la cola está llena y el pedido se descarta, se llama a {@code alDescartar}.
+     */
+    void miniatura(String hash, Path archivo, Consumer<BufferedImage> alTerminar, Runnable alDescartar) {
+        BufferedImage enCache = cache.buscar(hash);
+        if (enCache != null) {
+            SwingUtilities.invokeLater(() -> alTerminar.accept(enCache));
+            return;
+        }
+        ejecutor.execute(new Trabajo(() -> {
+            BufferedImage miniatura = decodificar(hash, archivo);
+            SwingUtilities.invokeLater(() -> alTerminar.accept(miniatura));
+        }, alDescartar));
+    }
+
+    /**
+     * Imagen que llegó entera en un IMG: (clientes o servidores anteriores): en segundo
+     * plano calcula su suma, la deja en {@code directorio} y decodifica la miniatura en
+     * el mismo trabajo, como {@link #miniatura}.
+     */
+    void miniatura(byte[] datos, Path directorio, BiConsumer<Path, BufferedImage> alTerminar, Runnable alDescartar) {
+        ejecutor.execute(new Trabajo(() -> {
+            Path archivo = null;
+            BufferedImage miniatura = null;
+            try {
+                String hash = CodecArchivo.hex(CodecArchivo.nuevoSha256().digest(datos));
+                Files.createDirectories(directorio);
+                archivo = directorio.resolve(hash);
+                if (!Files.exists(archivo)) Files.write(archivo, datos);
+                miniatura = decodificar(hash, archivo);
+            } catch (IOException e) {
+                archivo = null;
+            }
+            Path ruta = archivo;
+            BufferedImage resultado = miniatura;
+            SwingUtilities.invokeLater(() -> alTerminar.accept(ruta, resultado));
+        }, alDescartar));
+    }
+
+    private BufferedImage decodificar(String hash, Path archivo) {
+        BufferedImage miniatura = cache.buscar(hash);
+        if (miniatura != null) return miniatura;
+        try {
+            miniatura = leerReducida(archivo, LADO_MINIATURA);
+            if (miniatura != null) cache.guardar(hash, miniatura);
+        } catch (IOException | RuntimeException ignored) {
+            // Imagen dañada o de un formato que ImageIO no conoce: se avisa con null
+        }
+        return miniatura;
+    }
+
+    /**
+     * Lee la imagen completa (cuando el usuario la abre), en el hilo de las completas.
+     */
+    void completa(Path archivo, Consumer<BufferedImage> alTerminar) {
+        completas.execute(() -> {
+            BufferedImage imagen = null;
+            try {
+                imagen = ImageIO.read(archivo.toFile());
+            } catch (IOException | RuntimeException ignored) {}
+            BufferedImage resultado = imagen;
+            SwingUtilities.invokeLater(() -> alTerminar.accept(resultado));
+        });
+    }
+
+    /**
+     * Decodifica saltándose filas y columnas (submuestreo) hasta quedar en torno al
+     * doble del lado pedido, y termina de reducir con interpolación bilineal.
+     */
+    static BufferedImage leerReducida(Path archivo, int lado) throws IOException {
+        try (ImageInputStream entrada = ImageIO.createImageInputStream(archivo.toFile())) {
+            if (entrada == null) return null;
+            Iterator<ImageReader> lectores = ImageIO.getImageReaders(entrada);
+            if (!lectores.hasNext()) return null;
+            ImageReader lector = lectores.next();
+            try {
+                lector.setInput(entrada, true, true);
+                int ancho = lector.getWidth(0);
+                int alto = lector.getHeight(0);
+                int paso = Math.max(1, Math.max(ancho, alto) / (2 * lado));
+                ImageReadParam parametros = lector.getDefaultReadParam();
+                parametros.setSourceSubsampling(paso, paso, 0, 0);
+                return reducir(lector.read(0, parametros), lado);
+            } finally {
+                lector.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage reducir(BufferedImage imagen, int lado) {
+        double escala = Math.min(1.0, Math.min((double) lado / imagen.getWidth(), (double) lado / imagen.getHeight()));
+        int ancho = Math.max(1, (int) Math.round(imagen.getWidth() * escala));
+        int alto = Math.max(1, (int) Math.round(imagen.getHeight() * escala));
+        BufferedImage miniatura = new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = miniatura.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(imagen, 0, 0, ancho, alto, null);
+        } finally {
+            g.dispose();
+        }
+        return miniatura;
+    }
+}
@@ -2,12 +2,25 @@ package org.vinni.cliente.gui;
 
 import javax.swing.*;
 import java.io.*;
-import java.net.Socket;
-import java.util.Base64;
+import org.vinni.cliente.core.BalanceadorPuertos;
+import org.vinni.cliente.core.ConexionChat;
+import org.vinni.cliente.core.EnvioArchivo;
+import org.vinni.cliente.core.RecepcionArchivo;
 import org.vinni.cliente.gui.configuracion.configuracionModelo;
+import org.vinni.protocolo.TipoTrama;
 import com.google.gson.Gson;
 import java.io.FileReader;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PrincipalCli extends JFrame {
 
@@ -39,11 +52,33 @@ public class PrincipalCli extends JFrame {
 
     private final configuracionModelo configuracion = gson.fromJson(reader, configuracionModelo.class);
 
-    private final int[] PORTS = {12345, 12346, 12347, 12348, 12349};
+    // Puertos que se ofrecen si parametros.json no trae "puertos"
+    private final int[] PORTS = configuracion.puertos != null && configuracion.puertos.length > 0
+            ? configuracion.puertos : new int[]{12345, 12346, 12347, 12348, 12349};
 
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    // Entrada del combo de usuarios que significa "mensaje para todos"
+    private static final String TODOS = "Todos";
+
+    private volatile ConexionChat conexion;
+
+    // Último mensaje visto en cada puerto: al reconectar, el servidor repite lo perdido desde ahí
+    private final Map<Integer, Long> secuencias = new ConcurrentHashMap<>();
+
+    // Sondea los puertos a la vez para elegir el menos cargado y para pasar a otro si uno cae
+    private final BalanceadorPuertos balanceador = new BalanceadorPuertos("localhost", 1000);
+
+    // Los archivos salen por trozos en un hilo aparte; los cortados se reanudan al reconectar
+    private final ExecutorService envios = Executors.newSingleThreadExecutor(r -> {
+        Thread hilo = new Thread(r, "EnviosArchivo");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+    private final List<EnvioArchivo> enviosPendientes = new CopyOnWriteArrayList<>();
+
+    // Miniaturas y lectura de imágenes fuera del hilo de escucha y del de Swing
+    private final DecodificadorImagenes decodificador = new DecodificadorImagenes();
+    private static final Path DIRECTORIO_IMAGENES = Paths.get(
+            System.getProperty("java.io.tmpdir"), "chat-recibidos");
 
     private String username;
     private final principal_cliente ui;
@@ -64,14 +99,34 @@ public class PrincipalCli extends JFrame {
         for (int port : PORTS) {
             ui.comboPuertos.addItem(port);
         }
+        // Editable: el servidor puede tener puertos agregados en marcha
+        ui.comboPuertos.setEditable(true);
 
         ui.bConectar.addActionListener(evt -> bConectarActionPerformed());
         ui.btEnviar.addActionListener(evt -> enviarMensaje());
         ui.btEnviarImg.addActionListener(evt -> enviarImagen());
     }
 
+    /**
+     * Puerto elegido o escrito en el combo, o -1 si no es un número de puerto.
+     */
+    private int puertoSeleccionado() {
+        Object elegido = ui.comboPuertos.getSelectedItem();
+        if (elegido instanceof Integer) return (Integer) elegido;
+        try {
+            int puerto = Integer.parseInt(String.valueOf(elegido).trim());
+            return puerto >= 1 && puerto <= 65535 ? puerto : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private void bConectarActionPerformed() {
-        int port = (int) ui.comboPuertos.getSelectedItem();
+        int port = puertoSeleccionado();
+        if (port < 0) {
+            JOptionPane.showMessageDialog(this, "Puerto no válido: " + ui.comboPuertos.getSelectedItem());
+            return;
+        }
 
         if (username == null || username.trim().isEmpty()) {
             username = JOptionPane.showInputDialog(this, "Ingrese su nombre de usuario:");
@@ -81,7 +136,34 @@ public class PrincipalCli extends JFrame {
             }
         }
 
-        conectar(port);
+        if (configuracion.balanceo) {
+            // El sondeo espera a los puertos (hasta un segundo): fuera del hilo de Swing
+            new Thread(() -> conectarAlMejor(port), "Balanceo").start();
+        } else {
+            conectar(port);
+        }
+    }
+
+    /**
+     * Sondea los puertos configurados (y el elegido) y se conecta al menos cargado.
+     */
+    private void conectarAlMejor(int elegido) {
+        List<BalanceadorPuertos.Candidato> candidatos = balanceador.sondear(puertosConocidos(elegido));
+        ui.mensajesTxt.append("Puertos disponibles: " + (candidatos.isEmpty() ? "ninguno" : candidatos) + "\n");
+        conectar(candidatos.isEmpty() ? elegido : candidatos.get(0).getPuerto());
+    }
+
+    /**
+     * Puertos configurados más el que se haya escrito en el combo.
+     */
+    private int[] puertosConocidos(int extra) {
+        for (int puerto : PORTS) {
+            if (puerto == extra) return PORTS;
+        }
+        if (extra <= 0) return PORTS;
+        int[] puertos = Arrays.copyOf(PORTS, PORTS.length + 1);
+        puertos[PORTS.length] = extra;
+        return puertos;
     }
 
     /**
@@ -90,23 +172,32 @@ public class PrincipalCli extends JFrame {
     private void conectar(int port) {
         try {
             cerrarConexionActual();
-
-            socket = new Socket("localhost", port);
-            socket.setSoTimeout(0);
-
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            out.println("USER:" + username);
-            escucharServidor(port);
-
-            ui.mensajesTxt.append("✔ Conectado al servidor en el puerto " + port + "\n");
-
+            // Saludo USER: (negocia el formato binario salvo que se desactive en parametros.json)
+            conectado(ConexionChat.conectar("localhost", port, username, configuracion.binario,
+                    secuencias.getOrDefault(port, 0L)));
         } catch (IOException e) {
             ui.mensajesTxt.append("❌ Error conectando: " + e.getMessage() + "\n");
         }
     }
 
+    /**
+     * Deja activa la conexión nueva: escucha, avisa y reanuda los envíos cortados.
+     */
+    private void conectado(ConexionChat nueva) {
+        int port = nueva.getPuerto();
+        conexion = nueva;
+        escucharServidor(port);
+        SwingUtilities.invokeLater(() -> ui.comboPuertos.setSelectedItem(port));
+
+        ui.mensajesTxt.append("✔ Conectado al servidor en el puerto " + port
+                + (nueva.isBinaria() ? " (protocolo binario)" : "") + "\n");
+
+        for (EnvioArchivo pendiente : enviosPendientes) {
+            ui.mensajesTxt.append("Reanudando envío de " + pendiente.getInfo().getNombre() + "...\n");
+            enviarEnSegundoPlano(pendiente, port);
+        }
+    }
+
     /**
      * Cierra cualquier conexión existente
      */
@@ -118,48 +209,70 @@ public class PrincipalCli extends JFrame {
                 listenerThread.join(500);
             } catch (InterruptedException ignored) {}
         }
-        try {
-            if (socket != null && !socket.isClosed()) socket.close();
-        } catch (IOException ignored) {}
+        if (conexion != null) {
+            secuencias.merge(conexion.getPuerto(), conexion.getUltimaSecuencia(), Math::max);
+            conexion.close();
+        }
     }
 
     /**
-     * Reconexión automática al servidor
+     * Reconexión automática al servidor: primero al mismo puerto y, si no responde,
+     * enseguida al mejor de los demás. Solo se espera (poco, y cada vez más) cuando
+     * no contesta ninguno.
      */
     private void reinicio(int puerto) {
         int maxReintentos = configuracion.timeout;
-        int intentos = 0;
+        long espera = 250;
 
-        while (intentos < maxReintentos) {
+        for (int intento = 1; intento <= maxReintentos; intento++) {
+            ui.mensajesTxt.append("Intentando reconectar al servidor... (" + intento + "/" + maxReintentos + ")\n");
             try {
-                ui.mensajesTxt.append("Intentando reconectar al servidor... (" + (intentos + 1) + "/" + maxReintentos + ")\n");
-                Thread.sleep(3000);
-
-                conectar(puerto); // reconecta usando método seguro
-                ui.mensajesTxt.append("✔ Reconexión exitosa al servidor en el puerto " + puerto + "\n");
+                cerrarConexionActual();
+                ConexionChat nueva = balanceador.conectar(puerto, puertosConocidos(puerto), username, configuracion.binario, secuencias);
+                conectado(nueva);
+                ui.mensajesTxt.append("✔ Reconexión exitosa al servidor en el puerto " + nueva.getPuerto()
+                        + (nueva.getPuerto() != puerto ? " (el " + puerto + " no respondía)" : "") + "\n");
                 return;
-            } catch (Exception e) {
-                intentos++;
+            } catch (IOException e) {
                 ui.mensajesTxt.append("Error al reconectar: " + e.getMessage() + "\n");
             }
+            if (intento < maxReintentos) {
+                try {
+                    Thread.sleep(espera);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                espera = Math.min(3000, espera * 2);
+            }
         }
         ui.mensajesTxt.append("❌ No se pudo reconectar al servidor después de " + maxReintentos + " intentos\n");
     }
 
     private void enviarMensaje() {
-        if (out != null) {
+        ConexionChat actual = conexion;
+        if (actual != null) {
             String msg = ui.mensajeTxt.getText().trim();
             String destinatario = (String) ui.usuariosCombo.getSelectedItem();
 
             if (!msg.isEmpty()) {
-                if (destinatario != null && !destinatario.equals(username)) {
-                    out.println("MSGTO:" + destinatario + ":" + msg);
-                    ui.mensajesTxt.append("[Privado a " + destinatario + "] " + username + ": " + msg + "\n");
-                } else {
-                    out.println("MSG:" + msg);
-                    ui.mensajesTxt.append(username + ": " + msg + "\n");
+                try {
+                    if (msg.startsWith("/historial ")) {
+                        // Consultas al historial indexado del puerto; la respuesta llega como líneas HISTORY:/SEARCH:
+                        actual.enviar(TipoTrama.HISTORIAL, msg.substring("/historial ".length()).trim());
+                    } else if (msg.startsWith("/buscar ")) {
+                        actual.enviar(TipoTrama.BUSQUEDA, msg.substring("/buscar ".length()).trim());
+                    } else if (destinatario != null && !destinatario.equals(username) && !destinatario.equals(TODOS)) {
+                        actual.enviarPrivado(destinatario, msg);
+                        ui.mensajesTxt.append("[Privado a " + destinatario + "] " + username + ": " + msg + "\n");
+                    } else {
+                        actual.enviarMensaje(msg);
+                        ui.mensajesTxt.append(username + ": " + msg + "\n");
+                    }
+                    ui.mensajeTxt.setText("");
+                } catch (IOException e) {
+                    ui.mensajesTxt.append("❌ Error enviando: " + e.getMessage() + "\n");
                 }
-                ui.mensajeTxt.setText("");
             }
         } else {
             JOptionPane.showMessageDialog(this, "No estás conectado a ningún servidor");
@@ -167,30 +280,53 @@ public class PrincipalCli extends JFrame {
     }
 
     private void enviarImagen() {
-        if (out != null) {
+        ConexionChat actual = conexion;
+        if (actual != null) {
             JFileChooser chooser = new JFileChooser();
             int option = chooser.showOpenDialog(this);
             if (option == JFileChooser.APPROVE_OPTION) {
                 File file = chooser.getSelectedFile();
-                int puertoActual = (int) ui.comboPuertos.getSelectedItem();
-                try {
-                    byte[] imgBytes = java.nio.file.Files.readAllBytes(file.toPath());
-                    String encoded = Base64.getEncoder().encodeToString(imgBytes);
-                    out.println("IMG:" + encoded);
-                    ui.mensajesTxt.append(username + " envió una imagen: " + file.getName() + "\n");
-
-                    // ✅ Log de envío de imagen
-                    log(puertoActual, username + " envió una imagen: " + file.getName());
-
-                } catch (IOException e) {
-                    JOptionPane.showMessageDialog(this, "Error leyendo imagen: " + e.getMessage());
-                }
+                int puertoActual = puertoSeleccionado();
+                // La suma SHA-256 y el envío leen el archivo por bloques, fuera del hilo de Swing
+                envios.execute(() -> {
+                    try {
+                        enviarEnSegundoPlano(EnvioArchivo.preparar(file.toPath()), puertoActual);
+                    } catch (IOException e) {
+                        ui.mensajesTxt.append("❌ Error leyendo imagen: " + e.getMessage() + "\n");
+                    }
+                });
             }
         } else {
             JOptionPane.showMessageDialog(this, "No estás conectado a ningún servidor");
         }
     }
 
+    /**
+     * Encola el envío en el hilo de archivos. Si la conexión se cae a mitad,
+     * queda pendiente y se reanuda desde lo confirmado tras reconectar.
+     */
+    private void enviarEnSegundoPlano(EnvioArchivo envio, int puerto) {
+        envios.execute(() -> {
+            ConexionChat actual = conexion;
+            if (actual == null) return;
+            String nombre = envio.getInfo().getNombre();
+            try {
+                envio.enviar(actual);
+                enviosPendientes.remove(envio);
+                ui.mensajesTxt.append(username + " envió una imagen: " + nombre + "\n");
+
+                // ✅ Log de envío de imagen
+                log(puerto, username + " envió una imagen: " + nombre + " (" + envio.getInfo().getTamano() + " bytes)");
+            } catch (IOException e) {
+                if (!enviosPendientes.contains(envio)) enviosPendientes.add(envio);
+                ui.mensajesTxt.append("⚠ Envío de " + nombre + " interrumpido en el byte "
+                        + envio.getEnviados() + ": " + e.getMessage() + "\n");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
     /**
      * Escucha mensajes del servidor y reintenta si la conexión se cae
      */
@@ -202,40 +338,72 @@ public class PrincipalCli extends JFrame {
         }
 
         escuchando = true;
+        ConexionChat actual = conexion;
         listenerThread = new Thread(() -> {
             try {
-                String fromServer;
                 while (escuchando && !Thread.currentThread().isInterrupted()) {
                     try {
-                        fromServer = in.readLine();
-                        if (fromServer == null) throw new IOException("Servidor desconectado");
+                        if (!actual.siguiente()) throw new IOException("Servidor desconectado");
+                        TipoTrama tipo = actual.getTipo();
 
-                        if (fromServer.startsWith("USERS:")) {
-                            String[] usuarios = fromServer.substring(6).split(",");
+                        if (tipo == TipoTrama.USERS) {
+                            String[] usuarios = actual.getTexto().split(",");
                             SwingUtilities.invokeLater(() -> {
                                 ui.usuariosCombo.removeAllItems();
+                                ui.usuariosCombo.addItem(TODOS);
                                 for (String u : usuarios) {
                                     if (!u.trim().isEmpty()) ui.usuariosCombo.addItem(u);
                                 }
                             });
-                        } else if (fromServer.startsWith("IMG:")) {
-                            // Decodifica y muestra la imagen, pero no muestra Base64 en el área de mensajes
-                            byte[] imgBytes = Base64.getDecoder().decode(fromServer.substring(4));
-                            ImageIcon icon = new ImageIcon(imgBytes);
-                            Image img = icon.getImage().getScaledInstance(250, 250, Image.SCALE_SMOOTH);
-                            icon = new ImageIcon(img);
-                            JLabel imgLabel = new JLabel(icon);
-                            SwingUtilities.invokeLater(() ->
-                                    JOptionPane.showMessageDialog(this, imgLabel, "Imagen recibida", JOptionPane.PLAIN_MESSAGE)
-                            );
+                        } else if (tipo == TipoTrama.USERS_ALTA) {
+                            // Altas y bajas llegan de una en una, sin reenviar la lista completa
+                            String nuevo = actual.getTexto();
+                            SwingUtilities.invokeLater(() -> {
+                                if (((DefaultComboBoxModel<?>) ui.usuariosCombo.getModel()).getIndexOf(nuevo) < 0) {
+                                    ui.usuariosCombo.addItem(nuevo);
+                                }
+                            });
+                        } else if (tipo == TipoTrama.USERS_BAJA) {
+                            String baja = actual.getTexto();
+                            SwingUtilities.invokeLater(() -> ui.usuariosCombo.removeItem(baja));
+                        } else if (tipo == TipoTrama.MSGTO) {
+                            String resto = actual.getTexto();
+                            int separador = resto.indexOf(':');
+                            if (separador > 0) {
+                                ui.mensajesTxt.append("[Privado de " + resto.substring(0, separador) + "] "
+                                        + resto.substring(separador + 1) + "\n");
+                            }
+                        } else if (tipo == TipoTrama.ERROR) {
+                            ui.mensajesTxt.append("⚠ " + actual.getTexto() + "\n");
+                        } else if (tipo == TipoTrama.IMG) {
+                            // Imagen entera (protocolo anterior): la decodificación va aparte, este hilo sigue leyendo
+                            byte[] imgBytes = actual.getBytes();
+                            decodificador.miniatura(imgBytes, DIRECTORIO_IMAGENES, (ruta, miniatura) ->
+                                    mostrarMiniatura("servidor (" + port + ")", "imagen", ruta, miniatura),
+                                    () -> ui.mensajesTxt.append("⚠ Imagen del servidor (" + port
+                                            + ") descartada: llegaron demasiadas a la vez\n"));
                             ui.mensajesTxt.append("📷 Imagen recibida desde servidor (" + port + ")\n");
-                        } else if (fromServer.startsWith("MSG:")) {
-                            String contenido = fromServer.substring(4).trim();
+                        } else if (tipo == TipoTrama.ARCH_FIN || tipo == TipoTrama.ARCH_REF) {
+                            // Archivo recibido por trozos (o referencia a uno ya recibido): está en disco, se muestra desde ahí
+                            RecepcionArchivo archivo = actual.getArchivo();
+                            String remitente = archivo.getInfo().getRemitente();
+                            String nombre = archivo.getInfo().getNombre();
+                            if (archivo.isCompleta()) {
+                                decodificador.miniatura(archivo.getInfo().getSha256(), archivo.getRuta(), miniatura ->
+                                        mostrarMiniatura(remitente, nombre, archivo.getRuta(), miniatura),
+                                        () -> mostrarImagen(remitente, nombre, archivo.getRuta(),
+                                                new JLabel("Vista previa omitida: llegaron demasiadas imágenes a la vez")));
+                                ui.mensajesTxt.append("📷 Imagen recibida de " + remitente + ": " + nombre + " (" + port + ")\n");
+                            } else {
+                                ui.mensajesTxt.append("⚠ No se pudo recibir " + nombre + " de " + remitente + ": " + archivo.getError() + "\n");
+                            }
+                        } else if (tipo == TipoTrama.MSG) {
+                            String contenido = actual.getTexto().trim();
                             if (!contenido.startsWith(username + ":")) {
-                                ui.mensajesTxt.append(fromServer + "\n");
+                                ui.mensajesTxt.append("MSG:" + contenido + "\n");
                             }
                         } else {
-                            ui.mensajesTxt.append(fromServer + "\n");
+                            ui.mensajesTxt.append(tipo.getPrefijo() + actual.getTexto() + "\n");
                         }
 
                     } catch (IOException timeoutEx) {
@@ -253,6 +421,44 @@ public class PrincipalCli extends JFrame {
         listenerThread.start();
     }
 
+    /**
+     * Muestra la miniatura ya decodificada (hilo de Swing) en un diálogo no modal;
+     * la imagen completa solo se lee si el usuario pide verla.
+     */
+    private void mostrarMiniatura(String remitente, String nombre, Path ruta, BufferedImage miniatura) {
+        if (miniatura == null) {
+            ui.mensajesTxt.append("⚠ No se pudo mostrar " + nombre + " de " + remitente + " (no es una imagen legible)\n");
+            return;
+        }
+        mostrarImagen(remitente, nombre, ruta, new JLabel(new ImageIcon(miniatura)));
+    }
+
+    /**
+     * Diálogo no modal con {@code vista} (la miniatura, o un aviso si no la hay) y el botón "Ver completa".
+     */
+    private void mostrarImagen(String remitente, String nombre, Path ruta, JLabel vista) {
+        JButton verCompleta = new JButton("Ver completa");
+        JOptionPane panel = new JOptionPane(vista, JOptionPane.PLAIN_MESSAGE,
+                JOptionPane.DEFAULT_OPTION, null, new Object[]{verCompleta, "Cerrar"});
+        JDialog dialogo = panel.createDialog(this, "Imagen de " + remitente);
+        dialogo.setModal(false);
+        verCompleta.addActionListener(e -> {
+            dialogo.dispose();
+            decodificador.completa(ruta, imagen -> {
+                if (imagen == null) {
+                    ui.mensajesTxt.append("⚠ No se pudo abrir " + nombre + "\n");
+                    return;
+                }
+                JDialog completa = new JDialog(this, nombre, false);
+                completa.add(new JScrollPane(new JLabel(new ImageIcon(imagen))));
+                completa.setSize(Math.min(imagen.getWidth() + 40, 1000), Math.min(imagen.getHeight() + 60, 800));
+                completa.setLocationRelativeTo(this);
+                completa.setVisible(true);
+            });
+        });
+        dialogo.setVisible(true);
+    }
+
     // ✅ Método de log
     private void log(int puerto, String mensaje) {
         System.out.println("[Puerto " + puerto + "] " + mensaje);
@@ -2,8 +2,10 @@ package org.vinni.cliente.gui.configuracion;
 
 public class configuracionModelo {
     public int timeout;
+    // Pedir el protocolo binario en el saludo (si el servidor no lo admite se usa texto)
+    public boolean binario = true;
+    // Puertos del servidor que se ofrecen al conectar (se puede escribir otro)
+    public int[] puertos;
+    // Al conectar, elegir el puerto menos cargado en vez del marcado en el combo
+    public boolean balanceo;
 }
-
-
-
-
@@ -0,0 +1,131 @@
+package org.vinni.protocolo;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Transferencia de archivos por trozos acotados, en lugar de un único IMG: gigante:
+ * <pre>
+ *   emisor   FILE:id;tamaño;sha256;nombre      servidor responde FILEACK:id;recibidos
+ *   emisor   CHUNK:[id][desplazamiento][datos] servidor confirma con FILEACK cada trozo
+ *   emisor   FILEEND:id
+ * </pre>
+ * Si la conexión se cae, el emisor repite FILE: con el mismo id y sigue desde el
+ * desplazamiento que le confirme el servidor. Como cada trozo es un mensaje aparte,
+ * los mensajes de chat se intercalan entre trozos.
+ */
+public final class CodecArchivo {
+
+    /** Bytes de datos por trozo. */
+    public static final int TAM_TROZO = Integer.getInteger("protocolo.trozo", 32 * 1024);
+    /** Bytes enviados sin confirmar que admite el emisor antes de esperar un FILEACK. */
+    public static final int VENTANA = Integer.getInteger("protocolo.ventanaArchivo", 8 * TAM_TROZO);
+
+    private static final int CABECERA_TROZO = 16;
+
+    private CodecArchivo() {}
+
+    /**
+     * Contenido de un mensaje CHUNK: con los primeros {@code largo} bytes de {@code datos}.
+     */
+    public static byte[] trozo(long id, long desplazamiento, byte[] datos, int largo) {
+        ByteBuffer contenido = ByteBuffer.allocate(CABECERA_TROZO + largo);
+        contenido.putLong(id).putLong(desplazamiento).put(datos, 0, largo);
+        return contenido.array();
+    }
+
+    public static long idDeTrozo(ByteBuffer trozo) throws ProtocolException {
+        comprobarTrozo(trozo);
+        return trozo.getLong(trozo.position());
+    }
+
+    public static long desplazamientoDeTrozo(ByteBuffer trozo) throws ProtocolException {
+        comprobarTrozo(trozo);
+        return trozo.getLong(trozo.position() + 8);
+    }
+
+    /**
+     * Vista sin copia sobre los datos del trozo.
+     */
+    public static ByteBuffer datosDeTrozo(ByteBuffer trozo) throws ProtocolException {
+        comprobarTrozo(trozo);
+        ByteBuffer datos = trozo.duplicate();
+        datos.position(trozo.position() + CABECERA_TROZO);
+        return datos.slice();
+    }
+
+    private static void comprobarTrozo(ByteBuffer trozo) throws ProtocolException {
+        if (trozo.remaining() < CABECERA_TROZO) throw new ProtocolException("Trozo de archivo incompleto");
+    }
+
+    // ---------- Textos de FILEACK: / FILEEND: ----------
+
+    public static String textoId(long id) {
+        return Long.toHexString(id);
+    }
+
+    public static long leerId(String texto) throws ProtocolException {
+        try {
+            return Long.parseUnsignedLong(texto.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Id de transferencia no válido: " + texto);
+        }
+    }
+
+    public static String ack(long id, long recibidos) {
+        return textoId(id) + ";" + recibidos;
+    }
+
+    /**
+     * @return {id, recibidos}
+     */
+    public static long[] leerAck(String texto) throws ProtocolException {
+        int separador = texto.indexOf(';');
+        if (separador < 0) throw new ProtocolException("FILEACK sin desplazamiento: " + texto);
+        try {
+            return new long[]{leerId(texto.substring(0, separador)), Long.parseLong(texto.substring(separador + 1).trim())};
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("FILEACK no válido: " + texto);
+        }
+    }
+
+    // ---------- Suma de control ----------
+
+    public static MessageDigest nuevoSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * SHA-256 del archivo leído por bloques, sin cargarlo entero en memoria.
+     */
+    public static String sha256(Path archivo) throws IOException {
+        MessageDigest digest = nuevoSha256();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            while (canal.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    public static String hex(byte[] bytes) {
+        StringBuilder texto = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            texto.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return texto.toString();
+    }
+}
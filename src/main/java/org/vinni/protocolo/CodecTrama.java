@@ -0,0 +1,104 @@
+package org.vinni.protocolo;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Codificación de los dos formatos del protocolo:
+ * <ul>
+ *   <li>Texto: una línea por mensaje, {@code PREFIJO:contenido\n} (imágenes en Base64).</li>
+ *   <li>Binario: {@code [tipo:1 byte][longitud:4 bytes big-endian][contenido]}.</li>
+ * </ul>
+ * El binario se negocia en el saludo: el cliente envía {@code USER:nombre;proto=bin}
+ * y, si el servidor lo admite, responde la línea {@code PROTO:BIN}. Desde ese punto
+ * ambos extremos usan tramas; si no llega esa respuesta, se sigue en texto.
+ */
+public final class CodecTrama {
+
+    public static final int CABECERA = 5;
+    public static final int MAX_CONTENIDO = Integer.getInteger("protocolo.maxTrama", 16 * 1024 * 1024);
+
+    /** Opción del saludo USER: con la que el cliente pide el formato binario. */
+    public static final String OPCION_BINARIO = "proto=bin";
+    /**
+     * Opción del saludo USER: con la que el cliente pide los mensajes numerados
+     * ({@code seq=N}); si N &gt; 0 es la última secuencia que vio y el servidor le
+     * repite lo que se perdió desde entonces.
+     */
+    public static final String OPCION_SECUENCIA = "seq=";
+    /** Contenido de la línea PROTO: con la que el servidor acepta el formato binario. */
+    public static final String RESPUESTA_BINARIO = "BIN";
+
+    private CodecTrama() {}
+
+    /**
+     * Trama binaria cuyo contenido es la concatenación de las partes (sin copias intermedias).
+     */
+    public static byte[] trama(TipoTrama tipo, byte[]... partes) {
+        int longitud = 0;
+        for (byte[] parte : partes) longitud += parte.length;
+        byte[] trama = new byte[CABECERA + longitud];
+        trama[0] = tipo.getCodigo();
+        trama[1] = (byte) (longitud >>> 24);
+        trama[2] = (byte) (longitud >>> 16);
+        trama[3] = (byte) (longitud >>> 8);
+        trama[4] = (byte) longitud;
+        int pos = CABECERA;
+        for (byte[] parte : partes) {
+            System.arraycopy(parte, 0, trama, pos, parte.length);
+            pos += parte.length;
+        }
+        return trama;
+    }
+
+    /**
+     * Línea de texto con prefijo y salto final. Los saltos de línea del contenido
+     * se cambian por espacios para no romper el protocolo de líneas.
+     */
+    public static byte[] linea(TipoTrama tipo, byte[] contenido) {
+        byte[] cuerpo = tipo.isBase64() ? Base64.getEncoder().encode(contenido) : contenido;
+        byte[] prefijo = tipo.getPrefijoBytes();
+        byte[] linea = new byte[prefijo.length + cuerpo.length + 1];
+        System.arraycopy(prefijo, 0, linea, 0, prefijo.length);
+        System.arraycopy(cuerpo, 0, linea, prefijo.length, cuerpo.length);
+        if (!tipo.isBase64()) {
+            for (int i = prefijo.length; i < linea.length - 1; i++) {
+                if (linea[i] == '\n' || linea[i] == '\r') linea[i] = ' ';
+            }
+        }
+        linea[linea.length - 1] = '\n';
+        return linea;
+    }
+
+    /**
+     * Contenido (en forma binaria) de una línea ya reconocida: una vista sin copia
+     * sobre el arreglo, salvo las imágenes, que se decodifican de Base64.
+     *
+     * @throws ProtocolException si el contenido en Base64 no es válido
+     */
+    public static ByteBuffer contenidoDeLinea(TipoTrama tipo, byte[] linea, int desde, int hasta) throws ProtocolException {
+        int inicio = desde + tipo.getPrefijoBytes().length;
+        ByteBuffer vista = ByteBuffer.wrap(linea, inicio, hasta - inicio);
+        if (!tipo.isBase64()) return vista.slice();
+        try {
+            return Base64.getDecoder().decode(vista);
+        } catch (IllegalArgumentException e) {
+            throw new ProtocolException("Base64 no válido en " + tipo.getPrefijo() + " " + e.getMessage());
+        }
+    }
+
+    static int leerLongitud(byte b1, byte b2, byte b3, byte b4) throws ProtocolException {
+        int longitud = ((b1 & 0xFF) << 24) | ((b2 & 0xFF) << 16) | ((b3 & 0xFF) << 8) | (b4 & 0xFF);
+        if (longitud < 0 || longitud > MAX_CONTENIDO) {
+            throw new ProtocolException("Longitud de trama no válida: " + longitud);
+        }
+        return longitud;
+    }
+
+    static TipoTrama leerTipo(byte codigo) throws ProtocolException {
+        TipoTrama tipo = TipoTrama.desdeCodigo(codigo);
+        if (tipo == null) throw new ProtocolException("Tipo de trama desconocido: " + codigo);
+        return tipo;
+    }
+}
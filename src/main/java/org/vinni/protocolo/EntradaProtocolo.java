@@ -0,0 +1,129 @@
+package org.vinni.protocolo;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lectura bloqueante de mensajes, en líneas de texto o en tramas binarias.
+ * Lee bytes (no caracteres), así que se puede pasar al formato binario justo
+ * después del saludo sin perder lo que ya estuviera en el buffer.
+ * Reutiliza su buffer: el contenido de un mensaje vale hasta el siguiente {@link #siguiente()}.
+ */
+public final class EntradaProtocolo {
+
+    private final DataInputStream in;
+    private boolean binaria;
+
+    private byte[] buffer = new byte[256];
+    private TipoTrama tipo;
+    private ByteBuffer contenido;
+    private boolean repetir;
+
+    public EntradaProtocolo(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+    }
+
+    /**
+     * A partir de aquí los mensajes se leen como tramas binarias.
+     */
+    public void usarBinario() {
+        binaria = true;
+    }
+
+    public boolean isBinaria() {
+        return binaria;
+    }
+
+    /**
+     * Hace que el próximo {@link #siguiente()} devuelva otra vez el mensaje actual.
+     */
+    public void repetirActual() {
+        repetir = tipo != null;
+    }
+
+    /**
+     * Lee el siguiente mensaje.
+     *
+     * @return false si el otro extremo cerró la conexión
+     */
+    public boolean siguiente() throws IOException {
+        if (repetir) {
+            repetir = false;
+            contenido.rewind();
+            return true;
+        }
+        return binaria ? leerTrama() : leerLinea();
+    }
+
+    private boolean leerTrama() throws IOException {
+        int codigo = in.read();
+        if (codigo < 0) return false;
+        TipoTrama leido = CodecTrama.leerTipo((byte) codigo);
+        int longitud = in.readInt();
+        if (longitud < 0 || longitud > CodecTrama.MAX_CONTENIDO) {
+            throw new ProtocolException("Longitud de trama no válida: " + longitud);
+        }
+        asegurarCapacidad(longitud);
+        try {
+            in.readFully(buffer, 0, longitud);
+        } catch (EOFException e) {
+            return false;
+        }
+        tipo = leido;
+        contenido = ByteBuffer.wrap(buffer, 0, longitud).slice();
+        return true;
+    }
+
+    private boolean leerLinea() throws IOException {
+        int longitud = 0;
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                if (longitud == 0) return false;
+                break;
+            }
+            if (longitud == CodecTrama.MAX_CONTENIDO) throw new ProtocolException("Línea demasiado larga");
+            asegurarCapacidad(longitud + 1);
+            buffer[longitud++] = (byte) b;
+        }
+        if (longitud > 0 && buffer[longitud - 1] == '\r') longitud--;
+        tipo = TipoTrama.desdeLinea(buffer, 0, longitud);
+        contenido = CodecTrama.contenidoDeLinea(tipo, buffer, 0, longitud);
+        return true;
+    }
+
+    private void asegurarCapacidad(int necesaria) {
+        if (necesaria > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(necesaria, buffer.length * 2));
+        }
+    }
+
+    public TipoTrama getTipo() {
+        return tipo;
+    }
+
+    /**
+     * Contenido del mensaje actual (imágenes ya decodificadas si venían en Base64).
+     */
+    public ByteBuffer getContenido() {
+        return contenido.duplicate();
+    }
+
+    public String getTexto() {
+        ByteBuffer vista = contenido.duplicate();
+        return new String(vista.array(), vista.arrayOffset() + vista.position(), vista.remaining(), StandardCharsets.UTF_8);
+    }
+
+    public byte[] getBytes() {
+        byte[] copia = new byte[contenido.remaining()];
+        contenido.duplicate().get(copia);
+        return copia;
+    }
+}
@@ -0,0 +1,80 @@
+package org.vinni.protocolo;
+
+import java.net.ProtocolException;
+
+/**
+ * Cabecera de una transferencia por trozos (mensaje FILE:).
+ * El cliente envía {@code id;tamaño;sha256;nombre} y el servidor la reenvía
+ * a los demás como {@code id;tamaño;sha256;remitente;nombre}. El nombre va al
+ * final porque puede contener ';' (el de usuario no, lo impide el saludo).
+ */
+public final class InfoArchivo {
+
+    private final long id;
+    private final long tamano;
+    private final String sha256;
+    private final String remitente;
+    private final String nombre;
+
+    public InfoArchivo(long id, long tamano, String sha256, String remitente, String nombre) {
+        this.id = id;
+        this.tamano = tamano;
+        this.sha256 = sha256;
+        this.remitente = remitente;
+        this.nombre = nombre;
+    }
+
+    /**
+     * @param conRemitente true para la forma que reenvía el servidor
+     */
+    public static InfoArchivo desdeTexto(String texto, boolean conRemitente) throws ProtocolException {
+        String[] partes = texto.split(";", conRemitente ? 5 : 4);
+        if (partes.length < (conRemitente ? 5 : 4)) {
+            throw new ProtocolException("Cabecera de archivo incompleta: " + texto);
+        }
+        try {
+            long id = CodecArchivo.leerId(partes[0]);
+            long tamano = Long.parseLong(partes[1]);
+            if (tamano < 0) throw new ProtocolException("Tamaño de archivo no válido: " + tamano);
+            if (!partes[2].matches("[0-9a-fA-F]{64}")) throw new ProtocolException("Suma SHA-256 no válida: " + partes[2]);
+            return conRemitente
+                    ? new InfoArchivo(id, tamano, partes[2], partes[3], partes[4])
+                    : new InfoArchivo(id, tamano, partes[2], null, partes[3]);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Cabecera de archivo no válida: " + texto);
+        }
+    }
+
+    public String aTexto() {
+        return CodecArchivo.textoId(id) + ";" + tamano + ";" + sha256 + ";"
+                + (remitente != null ? remitente + ";" : "") + nombre;
+    }
+
+    /**
+     * La misma cabecera con el remitente puesto, tal como la reenvía el servidor.
+     */
+    public InfoArchivo conRemitente(String remitente) {
+        return new InfoArchivo(id, tamano, sha256, remitente, nombre);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTamano() {
+        return tamano;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    /** Usuario que envía el archivo, o null en la forma que manda el cliente. */
+    public String getRemitente() {
+        return remitente;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+}
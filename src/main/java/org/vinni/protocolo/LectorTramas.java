@@ -0,0 +1,87 @@
+package org.vinni.protocolo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Analizador incremental de tramas binarias para lectura no bloqueante.
+ * Si la trama completa está en el buffer leído, el receptor recibe una vista
+ * sobre ese mismo buffer (sin copias ni String); solo las tramas partidas entre
+ * lecturas se acumulan aparte.
+ */
+public final class LectorTramas {
+
+    /**
+     * Recibe cada trama completa. El contenido solo es válido durante la llamada.
+     */
+    public interface Receptor {
+        /**
+         * @return false para dejar de procesar el resto del buffer (por ejemplo, si se cerró la sesión)
+         */
+        boolean alRecibir(TipoTrama tipo, ByteBuffer contenido);
+    }
+
+    private final byte[] cabecera = new byte[CodecTrama.CABECERA];
+    private int bytesCabecera;
+
+    private TipoTrama tipo;
+    private byte[] acumulado = new byte[0];
+    private int longitud;
+    private int recibidos;
+
+    /**
+     * Consume todo lo posible del buffer entregando las tramas completas.
+     *
+     * @throws java.net.ProtocolException si llega un tipo o una longitud no válidos
+     */
+    public void alimentar(ByteBuffer datos, Receptor receptor) throws IOException {
+        while (datos.hasRemaining()) {
+            if (tipo == null) {
+                if (bytesCabecera == 0 && datos.remaining() >= CodecTrama.CABECERA) {
+                    // Camino rápido: cabecera entera en el buffer
+                    datos.get(cabecera);
+                    bytesCabecera = CodecTrama.CABECERA;
+                } else {
+                    int n = Math.min(CodecTrama.CABECERA - bytesCabecera, datos.remaining());
+                    datos.get(cabecera, bytesCabecera, n);
+                    bytesCabecera += n;
+                    if (bytesCabecera < CodecTrama.CABECERA) return;
+                }
+                tipo = CodecTrama.leerTipo(cabecera[0]);
+                longitud = CodecTrama.leerLongitud(cabecera[1], cabecera[2], cabecera[3], cabecera[4]);
+                recibidos = 0;
+                bytesCabecera = 0;
+            }
+
+            if (recibidos == 0 && datos.remaining() >= longitud) {
+                // Trama completa en el buffer: vista sin copia
+                ByteBuffer vista = datos.slice();
+                vista.limit(longitud);
+                datos.position(datos.position() + longitud);
+                TipoTrama entregado = tipo;
+                tipo = null;
+                if (!receptor.alRecibir(entregado, vista)) return;
+                continue;
+            }
+
+            if (acumulado.length < longitud) acumulado = new byte[longitud];
+            int n = Math.min(longitud - recibidos, datos.remaining());
+            datos.get(acumulado, recibidos, n);
+            recibidos += n;
+            if (recibidos < longitud) return;
+
+            TipoTrama entregado = tipo;
+            tipo = null;
+            ByteBuffer completa = ByteBuffer.wrap(acumulado, 0, longitud);
+            if (acumulado.length > 64 * 1024) acumulado = new byte[0];
+            if (!receptor.alRecibir(entregado, completa)) return;
+        }
+    }
+
+    /**
+     * Cierto si hay una trama a medio recibir.
+     */
+    public boolean aMedias() {
+        return tipo != null || bytesCabecera > 0;
+    }
+}
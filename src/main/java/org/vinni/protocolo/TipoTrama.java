@@ -0,0 +1,109 @@
+package org.vinni.protocolo;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tipos de mensaje del protocolo de chat, con su código en el formato binario
+ * y su prefijo en el protocolo de líneas de texto.
+ */
+public enum TipoTrama {
+
+    /** Línea sin prefijo conocido (ecos, comandos sueltos). */
+    TEXTO(0, "", false),
+    USER(1, "USER:", false),
+    MSG(2, "MSG:", false),
+    MSGTO(3, "MSGTO:", false),
+    /** Imagen: en binario viaja en crudo; en texto, en Base64. */
+    IMG(4, "IMG:", true),
+    USERS(5, "USERS:", false),
+    USERS_ALTA(6, "USERS+:", false),
+    USERS_BAJA(7, "USERS-:", false),
+    ERROR(8, "ERROR:", false),
+    PROTO(9, "PROTO:", false),
+    /** Inicio o reanudación de una transferencia por trozos: id;tamaño;sha256;nombre. */
+    ARCH_INICIO(10, "FILE:", false),
+    /** Trozo de archivo: [id:8][desplazamiento:8][datos]; en texto va en Base64. */
+    ARCH_TROZO(11, "CHUNK:", true),
+    /** Confirmación del servidor: id;bytes recibidos (punto desde el que seguir). */
+    ARCH_ACK(12, "FILEACK:", false),
+    /** Fin de la transferencia: id. */
+    ARCH_FIN(13, "FILEEND:", false),
+    /** Archivo que el destinatario ya recibió antes (mismo SHA-256): misma cabecera que FILE:, sin datos. */
+    ARCH_REF(14, "FILEREF:", false),
+    /** Carga del puerto: el cliente lo pide vacío (no hace falta USER:) y el servidor responde con las sesiones abiertas. */
+    CARGA(15, "LOAD:", false),
+    /**
+     * Número de secuencia del mensaje que va justo detrás (solo a clientes que lo piden
+     * en el saludo); con él el cliente reanuda la sesión sin perder mensajes.
+     */
+    SECUENCIA(16, "SEQ:", false),
+    /**
+     * Últimos mensajes de un usuario según el índice del puerto: el cliente pide
+     * {@code usuario[;n]} y recibe una línea por mensaje con el mismo prefijo.
+     */
+    HISTORIAL(17, "HISTORY:", false),
+    /** Búsqueda por palabras en el índice del puerto ({@code @usuario} filtra por autor); responde igual que HISTORY:. */
+    BUSQUEDA(18, "SEARCH:", false);
+
+    private static final TipoTrama[] POR_CODIGO = new TipoTrama[32];
+
+    static {
+        for (TipoTrama tipo : values()) POR_CODIGO[tipo.codigo] = tipo;
+    }
+
+    private final byte codigo;
+    private final String prefijo;
+    private final byte[] prefijoBytes;
+    private final boolean base64;
+
+    TipoTrama(int codigo, String prefijo, boolean base64) {
+        this.codigo = (byte) codigo;
+        this.prefijo = prefijo;
+        this.prefijoBytes = prefijo.getBytes(StandardCharsets.US_ASCII);
+        this.base64 = base64;
+    }
+
+    public byte getCodigo() {
+        return codigo;
+    }
+
+    public String getPrefijo() {
+        return prefijo;
+    }
+
+    byte[] getPrefijoBytes() {
+        return prefijoBytes;
+    }
+
+    /**
+     * Cierto si en el protocolo de texto el contenido va codificado en Base64.
+     */
+    public boolean isBase64() {
+        return base64;
+    }
+
+    /**
+     * @return el tipo con ese código, o null si no existe
+     */
+    public static TipoTrama desdeCodigo(int codigo) {
+        return codigo >= 0 && codigo < POR_CODIGO.length ? POR_CODIGO[codigo] : null;
+    }
+
+    /**
+     * Reconoce el prefijo de una línea de texto directamente sobre sus bytes.
+     */
+    public static TipoTrama desdeLinea(byte[] linea, int desde, int hasta) {
+        for (TipoTrama tipo : values()) {
+            if (tipo != TEXTO && empiezaCon(linea, desde, hasta, tipo.prefijoBytes)) return tipo;
+        }
+        return TEXTO;
+    }
+
+    private static boolean empiezaCon(byte[] linea, int desde, int hasta, byte[] prefijo) {
+        if (hasta - desde < prefijo.length) return false;
+        for (int i = 0; i < prefijo.length; i++) {
+            if (linea[desde + i] != prefijo[i]) return false;
+        }
+        return true;
+    }
+}
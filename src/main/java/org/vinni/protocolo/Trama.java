@@ -0,0 +1,118 @@
+package org.vinni.protocolo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mensaje listo para enviarse. Guarda el contenido una vez y codifica cada formato
+ * (línea de texto o trama binaria) solo la primera vez que se pide, de modo que una
+ * difusión a muchos clientes cuesta como mucho dos codificaciones.
+ */
+public final class Trama {
+
+    private final TipoTrama tipo;
+    private final byte[] contenido;
+    private final long secuencia;
+
+    // Codificaciones perezosas; una carrera solo provoca codificar dos veces lo mismo
+    private volatile byte[] linea;
+    private volatile byte[] binaria;
+    // Las mismas precedidas de SEQ:, para los clientes que piden mensajes numerados
+    private volatile byte[] lineaNumerada;
+    private volatile byte[] binariaNumerada;
+
+    private Trama(TipoTrama tipo, byte[] contenido) {
+        this(tipo, contenido, -1);
+    }
+
+    private Trama(TipoTrama tipo, byte[] contenido, long secuencia) {
+        this.tipo = tipo;
+        this.contenido = contenido;
+        this.secuencia = secuencia;
+    }
+
+    /**
+     * El arreglo pasa a pertenecer a la trama y no debe modificarse después.
+     */
+    public static Trama de(TipoTrama tipo, byte[] contenido) {
+        return new Trama(tipo, contenido);
+    }
+
+    public static Trama de(TipoTrama tipo, String texto) {
+        return new Trama(tipo, texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copia el contenido restante del buffer (que suele ser reutilizado por quien lee).
+     */
+    public static Trama copia(TipoTrama tipo, ByteBuffer contenido) {
+        byte[] datos = new byte[contenido.remaining()];
+        contenido.duplicate().get(datos);
+        return new Trama(tipo, datos);
+    }
+
+    /**
+     * La misma trama con número de secuencia (comparten el contenido).
+     */
+    public Trama numerada(long secuencia) {
+        return new Trama(tipo, contenido, secuencia);
+    }
+
+    /** Número de secuencia, o -1 si la trama no está numerada. */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    public TipoTrama getTipo() {
+        return tipo;
+    }
+
+    public int getLongitud() {
+        return contenido.length;
+    }
+
+    public byte[] comoLinea() {
+        byte[] codificada = linea;
+        if (codificada == null) {
+            codificada = CodecTrama.linea(tipo, contenido);
+            linea = codificada;
+        }
+        return codificada;
+    }
+
+    public byte[] comoBinaria() {
+        byte[] codificada = binaria;
+        if (codificada == null) {
+            codificada = CodecTrama.trama(tipo, contenido);
+            binaria = codificada;
+        }
+        return codificada;
+    }
+
+    public byte[] codificar(boolean binario) {
+        return binario ? comoBinaria() : comoLinea();
+    }
+
+    /**
+     * Con {@code numerada}, y si la trama tiene secuencia, antepone un SEQ: en los
+     * mismos bytes (sale en una sola escritura, sin que se cuele nada en medio).
+     */
+    public byte[] codificar(boolean binario, boolean numerada) {
+        if (!numerada || secuencia < 0) return codificar(binario);
+        byte[] codificada = binario ? binariaNumerada : lineaNumerada;
+        if (codificada == null) {
+            byte[] numero = Long.toString(secuencia).getBytes(StandardCharsets.US_ASCII);
+            byte[] cabecera = binario ? CodecTrama.trama(TipoTrama.SECUENCIA, numero) : CodecTrama.linea(TipoTrama.SECUENCIA, numero);
+            byte[] mensaje = codificar(binario);
+            codificada = new byte[cabecera.length + mensaje.length];
+            System.arraycopy(cabecera, 0, codificada, 0, cabecera.length);
+            System.arraycopy(mensaje, 0, codificada, cabecera.length, mensaje.length);
+            if (binario) binariaNumerada = codificada; else lineaNumerada = codificada;
+        }
+        return codificada;
+    }
+
+    public String texto() {
+        return new String(contenido, StandardCharsets.UTF_8);
+    }
+}
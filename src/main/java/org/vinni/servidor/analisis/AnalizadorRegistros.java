@@ -0,0 +1,553 @@
+package org.vinni.servidor.analisis;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estadísticas de conexiones y tráfico a partir de los registros
+ * {@code server_data/port_<n>/logs/log_AAAAMMDD.txt}: sesiones por usuario y su
+ * duración, ráfagas de reconexiones y mensajes por minuto, en JSON.
+ *
+ * Cada archivo se lee proyectado en memoria y los grandes se parten en trozos de
+ * {@value #UMBRAL} bytes (cortados en un salto de línea) que se analizan en
+ * paralelo con fork-join; los resultados parciales se suman en el orden del
+ * registro y las sesiones se reconstruyen al final. Entiende el
+ * formato actual ({@code [hh:mm:ss.mmm] ** ana se ha conectado (puerto n) **},
+ * {@code [...] #N ana: texto}), el antiguo
+ * ({@code ** ana se ha conectado (puerto n) a las hh:mm:ss **}, con o sin puerto,
+ * {@code ana envió a las hh:mm:ss esto : texto}, {@code ana [hh:mm:ss]: texto}) y los
+ * registros binarios ({@code log_AAAAMMDD.rgb}) de los días que no tengan .txt.
+ *
+ * Uso: {@code java org.vinni.servidor.analisis.AnalizadorRegistros [directorio] [--ventana=ms] [--minimo=n] [--salida=archivo]}
+ */
+public class AnalizadorRegistros {
+
+    private static final long UMBRAL = 8L * 1024 * 1024;
+    private static final long MS_DIA = TimeUnit.DAYS.toMillis(1);
+    private static final DateTimeFormatter SEGUNDOS = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+    private static final DateTimeFormatter MINUTOS = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm");
+
+    private static final byte CONEXION = 0;
+    private static final byte DESCONEXION = 1;
+
+    private final long ventanaMs;
+    private final int minimoRafaga;
+    private final long umbral;
+
+    /**
+     * @param ventanaMs    reconexión "inmediata": a lo sumo tanto después de la desconexión anterior
+     * @param minimoRafaga reconexiones inmediatas seguidas para contar como ráfaga
+     */
+    public AnalizadorRegistros(long ventanaMs, int minimoRafaga) {
+        this(ventanaMs, minimoRafaga, UMBRAL);
+    }
+
+    AnalizadorRegistros(long ventanaMs, int minimoRafaga, long umbral) {
+        this.ventanaMs = ventanaMs;
+        this.minimoRafaga = minimoRafaga;
+        this.umbral = umbral;
+    }
+
+    // ---------- Lectura en paralelo ----------
+
+    /** Archivo de registro con su puerto y el día (en ms desde la época, hora local). */
+    private static final class Archivo {
+        final Path ruta;
+        final int puerto;
+        final long dia;
+        final long tamano;
+        /** log_AAAAMMDD.rgb, ver {@link LectorRegistroBinario} */
+        final boolean binario;
+
+        Archivo(Path ruta, int puerto, long dia, long tamano, boolean binario) {
+            this.ruta = ruta;
+            this.puerto = puerto;
+            this.dia = dia;
+            this.tamano = tamano;
+            this.binario = binario;
+        }
+    }
+
+    /**
+     * Lo que hizo un usuario en un puerto: sus mensajes y sus conexiones y desconexiones
+     * en el orden del registro, cada una como {@code instante << 1 | tipo}.
+     */
+    private static final class Actividad {
+        long mensajes;
+        long[] eventos = new long[8];
+        int cantidad;
+
+        void evento(long instante, byte tipo) {
+            if (cantidad == eventos.length) eventos = Arrays.copyOf(eventos, cantidad * 2);
+            eventos[cantidad++] = instante << 1 | tipo;
+        }
+
+        /** Añade la actividad de un tramo posterior del registro. */
+        void sumar(Actividad despues) {
+            mensajes += despues.mensajes;
+            if (cantidad + despues.cantidad > eventos.length) {
+                eventos = Arrays.copyOf(eventos, Math.max(eventos.length * 2, cantidad + despues.cantidad));
+            }
+            System.arraycopy(despues.eventos, 0, eventos, cantidad, despues.cantidad);
+            cantidad += despues.cantidad;
+        }
+    }
+
+    /**
+     * Lo que sale de analizar un trozo. Al sumar dos, el primero debe ser el que va
+     * antes en el registro: así los eventos de cada usuario quedan en orden sin ordenarlos.
+     */
+    private static final class Parcial {
+        // puerto -> usuario -> actividad
+        final Map<Integer, Map<String, Actividad>> actividad = new HashMap<>();
+        // minuto (ms desde la época / 60000) -> mensajes
+        final Map<Long, long[]> porMinuto = new HashMap<>();
+        long lineas;
+        long bytes;
+        int archivos;
+        // Las líneas vienen en orden: casi siempre se suma al mismo minuto
+        private long minutoEnCurso = Long.MIN_VALUE;
+        private long[] cuentaEnCurso;
+
+        Actividad de(int puerto, String usuario) {
+            return actividad.computeIfAbsent(puerto, p -> new HashMap<>()).computeIfAbsent(usuario, u -> new Actividad());
+        }
+
+        void mensaje(int puerto, String usuario, long instante) {
+            de(puerto, usuario).mensajes++;
+            if (instante < 0) return;
+            long minuto = instante / 60000;
+            if (minuto != minutoEnCurso) {
+                minutoEnCurso = minuto;
+                cuentaEnCurso = porMinuto.computeIfAbsent(minuto, m -> new long[1]);
+            }
+            cuentaEnCurso[0]++;
+        }
+
+        Parcial sumar(Parcial despues) {
+            for (Map.Entry<Integer, Map<String, Actividad>> puerto : despues.actividad.entrySet()) {
+                Map<String, Actividad> destino = actividad.computeIfAbsent(puerto.getKey(), p -> new HashMap<>());
+                for (Map.Entry<String, Actividad> usuario : puerto.getValue().entrySet()) {
+                    Actividad existente = destino.putIfAbsent(usuario.getKey(), usuario.getValue());
+                    if (existente != null) existente.sumar(usuario.getValue());
+                }
+            }
+            for (Map.Entry<Long, long[]> minuto : despues.porMinuto.entrySet()) {
+                porMinuto.computeIfAbsent(minuto.getKey(), m -> new long[1])[0] += minuto.getValue()[0];
+            }
+            minutoEnCurso = Long.MIN_VALUE;
+            lineas += despues.lineas;
+            bytes += despues.bytes;
+            archivos += despues.archivos;
+            return this;
+        }
+    }
+
+    /** Todos los archivos: un trozo por archivo, en paralelo. */
+    private final class Todos extends RecursiveTask<Parcial> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Archivo> archivos;
+
+        Todos(List<Archivo> archivos) {
+            this.archivos = archivos;
+        }
+
+        @Override
+        protected Parcial compute() {
+            // Se lanzan de mayor a menor (reparten mejor el trabajo) y se suman por fecha
+            List<Trozo> trozos = new ArrayList<>();
+            for (Archivo archivo : archivos) trozos.add(new Trozo(archivo, 0, archivo.tamano));
+            invokeAll(trozos);
+            trozos.sort(Comparator.comparingLong(t -> t.archivo.dia));
+            Parcial total = new Parcial();
+            for (Trozo trozo : trozos) total.sumar(trozo.join());
+            total.archivos = archivos.size();
+            return total;
+        }
+    }
+
+    /** Un tramo de un archivo; si es grande, se parte en dos por un salto de línea. */
+    private final class Trozo extends RecursiveTask<Parcial> {
+        private static final long serialVersionUID = 1L;
+
+        private final Archivo archivo;
+        private final long desde;
+        private final long hasta;
+
+        Trozo(Archivo archivo, long desde, long hasta) {
+            this.archivo = archivo;
+            this.desde = desde;
+            this.hasta = hasta;
+        }
+
+        @Override
+        protected Parcial compute() {
+            if (archivo.binario) return analizarBinario();
+            try (FileChannel canal = FileChannel.open(archivo.ruta, StandardOpenOption.READ)) {
+                if (hasta - desde > umbral) {
+                    long mitad = inicioDeLinea(canal, desde + (hasta - desde) / 2, hasta);
+                    if (mitad > desde && mitad < hasta) {
+                        Trozo segundo = new Trozo(archivo, mitad, hasta);
+                        segundo.fork();
+                        Parcial primero = new Trozo(archivo, desde, mitad).compute();
+                        return primero.sumar(segundo.join());
+                    }
+                }
+                return analizar(canal);
+            } catch (IOException e) {
+                System.err.println("No se pudo leer " + archivo.ruta + ": " + e.getMessage());
+                return new Parcial();
+            }
+        }
+
+        private Parcial analizar(FileChannel canal) throws IOException {
+            Parcial parcial = new Parcial();
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_ONLY, desde, hasta - desde);
+            int inicio = 0;
+            int fin = datos.limit();
+            for (int i = 0; i <= fin; i++) {
+                if (i < fin && datos.get(i) != '\n') continue;
+                int finLinea = i > inicio && datos.get(i - 1) == '\r' ? i - 1 : i;
+                if (finLinea > inicio) {
+                    analizarLinea(parcial, archivo, datos, inicio, finLinea);
+                    parcial.lineas++;
+                }
+                inicio = i + 1;
+            }
+            parcial.bytes = hasta - desde;
+            return parcial;
+        }
+
+        /**
+         * Un registro binario ya viene separado: se toman los eventos tal cual, en su hora local.
+         */
+        private Parcial analizarBinario() {
+            Parcial parcial = new Parcial();
+            try (LectorRegistroBinario lector = LectorRegistroBinario.abrir(archivo.ruta)) {
+                ZoneRules reglas = lector.getZona().getRules();
+                lector.leer(evento -> {
+                    parcial.lineas++;
+                    if (evento.getTipo() == EventoRegistro.Tipo.OTRO) return;
+                    long local = evento.getInstante() + reglas.getOffset(Instant.ofEpochMilli(evento.getInstante())).getTotalSeconds() * 1000L;
+                    if (evento.getTipo() == EventoRegistro.Tipo.MENSAJE) {
+                        parcial.mensaje(archivo.puerto, evento.getUsuario(), local);
+                    } else {
+                        parcial.de(archivo.puerto, evento.getUsuario())
+                                .evento(local, evento.getTipo() == EventoRegistro.Tipo.CONEXION ? CONEXION : DESCONEXION);
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("No se pudo leer " + archivo.ruta + ": " + e.getMessage());
+                return new Parcial();
+            }
+            parcial.bytes = archivo.tamano;
+            return parcial;
+        }
+    }
+
+    /**
+     * Primer byte de la línea siguiente a {@code posicion}, o {@code hasta} si no hay más saltos.
+     */
+    private static long inicioDeLinea(FileChannel canal, long posicion, long hasta) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long p = posicion;
+        while (p < hasta) {
+            buffer.clear();
+            int leidos = canal.read(buffer, p);
+            if (leidos <= 0) break;
+            for (int i = 0; i < leidos; i++) {
+                if (buffer.get(i) == '\n') return p + i + 1;
+            }
+            p += leidos;
+        }
+        return hasta;
+    }
+
+    // ---------- Formato de las líneas ----------
+    // Se trabaja sobre los bytes proyectados: de cada línea solo se decodifica el nombre del usuario
+
+    private static final byte[] CONECTADO = " se ha conectado ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DESCONECTADO = " se ha desconectado ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] A_LAS = " a las ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENVIO = " envió a las ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DOS_PUNTOS = ": ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ESPACIO = {' '};
+    private static final byte[] CORCHETE = {' ', '['};
+
+    private static void analizarLinea(Parcial parcial, Archivo archivo, ByteBuffer datos, int inicio, int fin) {
+        int p = inicio;
+        long hora = -1;
+        // Formato actual: "[hh:mm:ss.mmm] ..."
+        if (fin - p > 15 && datos.get(p) == '[' && datos.get(p + 13) == ']') {
+            hora = hora(datos, p + 1, fin);
+            int milis = digitos(datos, p + 10, 3);
+            if (hora >= 0 && milis >= 0) hora += milis;
+            p += 15;
+        }
+        if (fin - p > 3 && datos.get(p) == '*' && datos.get(p + 1) == '*' && datos.get(p + 2) == ' ') {
+            byte tipo = CONEXION;
+            int marca = buscar(datos, p + 3, fin, CONECTADO);
+            if (marca < 0) {
+                tipo = DESCONEXION;
+                marca = buscar(datos, p + 3, fin, DESCONECTADO);
+            }
+            if (marca <= p + 3) return;
+            if (hora < 0) {
+                int aLas = buscar(datos, marca, fin, A_LAS);
+                if (aLas < 0) return;
+                hora = hora(datos, aLas + A_LAS.length, fin);
+                if (hora < 0) return;
+            }
+            parcial.de(archivo.puerto, texto(datos, p + 3, marca)).evento(archivo.dia + hora, tipo);
+        } else if (fin > p && datos.get(p) == '#') {
+            int espacio = buscar(datos, p, fin, ESPACIO);
+            int separador = espacio < 0 ? -1 : buscar(datos, espacio + 1, fin, DOS_PUNTOS);
+            if (separador <= espacio + 1) return;
+            parcial.mensaje(archivo.puerto, texto(datos, espacio + 1, separador), hora < 0 ? -1 : archivo.dia + hora);
+        } else {
+            int marca = buscar(datos, p, fin, ENVIO);
+            int desde = marca + ENVIO.length;
+            if (marca < 0) {
+                // "ana [hh:mm:ss]: texto"
+                marca = buscar(datos, p, fin, CORCHETE);
+                desde = marca + 2;
+                if (marca < 0 || fin < desde + 11 || datos.get(desde + 8) != ']' || datos.get(desde + 9) != ':') return;
+            }
+            if (marca <= p) return;
+            long horaAntigua = hora(datos, desde, fin);
+            parcial.mensaje(archivo.puerto, texto(datos, p, marca),
+                    horaAntigua >= 0 ? archivo.dia + horaAntigua : (hora < 0 ? -1 : archivo.dia + hora));
+        }
+    }
+
+    /**
+     * @return ms desde medianoche de un "hh:mm:ss" en {@code desde}, o -1
+     */
+    private static long hora(ByteBuffer datos, int desde, int fin) {
+        if (fin < desde + 8 || datos.get(desde + 2) != ':' || datos.get(desde + 5) != ':') return -1;
+        int h = digitos(datos, desde, 2);
+        int m = digitos(datos, desde + 3, 2);
+        int s = digitos(datos, desde + 6, 2);
+        if (h < 0 || m < 0 || s < 0) return -1;
+        return ((h * 60L + m) * 60 + s) * 1000;
+    }
+
+    private static int digitos(ByteBuffer datos, int desde, int cantidad) {
+        int valor = 0;
+        for (int i = desde; i < desde + cantidad; i++) {
+            int d = datos.get(i) - '0';
+            if (d < 0 || d > 9) return -1;
+            valor = valor * 10 + d;
+        }
+        return valor;
+    }
+
+    private static int buscar(ByteBuffer datos, int desde, int hasta, byte[] patron) {
+        siguiente:
+        for (int i = desde; i <= hasta - patron.length; i++) {
+            for (int j = 0; j < patron.length; j++) {
+                if (datos.get(i + j) != patron[j]) continue siguiente;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String texto(ByteBuffer datos, int desde, int hasta) {
+        byte[] bytes = new byte[hasta - desde];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = datos.get(desde + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ---------- Análisis ----------
+
+    /**
+     * Analiza todos los registros bajo {@code datos} (el directorio server_data).
+     */
+    public InformeRegistros analizar(Path datos) throws IOException {
+        return analizar(datos, ForkJoinPool.commonPool());
+    }
+
+    public InformeRegistros analizar(Path datos, ForkJoinPool pool) throws IOException {
+        long inicio = System.nanoTime();
+        Parcial total = pool.invoke(new Todos(archivos(datos)));
+
+        InformeRegistros informe = new InformeRegistros();
+        informe.archivos = total.archivos;
+        informe.lineas = total.lineas;
+        informe.bytes = total.bytes;
+        for (Map.Entry<Long, long[]> minuto : total.porMinuto.entrySet()) {
+            informe.mensajesPorMinuto.put(formatear(minuto.getKey() * 60000, MINUTOS), minuto.getValue()[0]);
+        }
+        for (Map.Entry<Integer, Map<String, Actividad>> puerto : total.actividad.entrySet()) {
+            for (Map.Entry<String, Actividad> usuario : puerto.getValue().entrySet()) {
+                sesiones(informe, puerto.getKey(), usuario.getKey(), usuario.getValue());
+            }
+        }
+        informe.rafagas.sort(Comparator.comparing((InformeRegistros.Rafaga r) -> r.inicio).thenComparing(r -> r.usuario));
+        informe.milisegundos = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio);
+        return informe;
+    }
+
+    /**
+     * Reconstruye las sesiones del usuario en el puerto y busca sus ráfagas de reconexiones.
+     */
+    private void sesiones(InformeRegistros informe, int numero, String nombre, Actividad actividad) {
+        InformeRegistros.Puerto puerto = puerto(informe, numero);
+        InformeRegistros.Usuario usuario = usuario(puerto, nombre);
+        usuario.mensajes = actividad.mensajes;
+        puerto.mensajes += actividad.mensajes;
+        long abierta = -1;
+        long ultimaDesconexion = -1;
+        int cerradas = 0;
+        // Ráfaga en curso: desde el inicio de la sesión anterior a la primera reconexión inmediata
+        int reconexiones = 0;
+        long inicioRafaga = -1;
+        long finRafaga = -1;
+        long inicioAnterior = -1;
+        for (int i = 0; i < actividad.cantidad; i++) {
+            long instante = actividad.eventos[i] >> 1;
+            if ((actividad.eventos[i] & 1) == CONEXION) {
+                puerto.conexiones++;
+                if (abierta >= 0) usuario.sinCierre++;
+                usuario.sesiones++;
+                if (ultimaDesconexion >= 0 && instante - ultimaDesconexion <= ventanaMs) {
+                    if (reconexiones == 0) inicioRafaga = inicioAnterior;
+                    reconexiones++;
+                    finRafaga = instante;
+                } else {
+                    cerrarRafaga(informe, numero, nombre, reconexiones, inicioRafaga, finRafaga);
+                    reconexiones = 0;
+                }
+                abierta = instante;
+                inicioAnterior = instante;
+            } else {
+                puerto.desconexiones++;
+                usuario.desconexiones++;
+                if (abierta >= 0) {
+                    long duracion = instante - abierta;
+                    usuario.duracionTotalMs += duracion;
+                    usuario.duracionMaximaMs = Math.max(usuario.duracionMaximaMs, duracion);
+                    cerradas++;
+                    abierta = -1;
+                }
+                ultimaDesconexion = instante;
+                if (reconexiones > 0) finRafaga = instante;
+            }
+        }
+        if (abierta >= 0) usuario.sinCierre++;
+        cerrarRafaga(informe, numero, nombre, reconexiones, inicioRafaga, finRafaga);
+        usuario.duracionMediaMs = cerradas == 0 ? 0 : usuario.duracionTotalMs / cerradas;
+    }
+
+    private void cerrarRafaga(InformeRegistros informe, int puerto, String usuario, int reconexiones, long inicio, long fin) {
+        if (reconexiones < minimoRafaga) return;
+        InformeRegistros.Rafaga rafaga = new InformeRegistros.Rafaga();
+        rafaga.usuario = usuario;
+        rafaga.puerto = puerto;
+        rafaga.inicio = formatear(inicio, SEGUNDOS);
+        rafaga.fin = formatear(fin, SEGUNDOS);
+        rafaga.reconexiones = reconexiones;
+        informe.rafagas.add(rafaga);
+    }
+
+    private static InformeRegistros.Puerto puerto(InformeRegistros informe, int puerto) {
+        return informe.puertos.computeIfAbsent(puerto, p -> new InformeRegistros.Puerto());
+    }
+
+    private static InformeRegistros.Usuario usuario(InformeRegistros.Puerto puerto, String usuario) {
+        return puerto.usuarios.computeIfAbsent(usuario, u -> new InformeRegistros.Usuario());
+    }
+
+    private static String formatear(long instante, DateTimeFormatter formato) {
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(instante, 1000), 0, ZoneOffset.UTC).format(formato);
+    }
+
+    /**
+     * Los log_AAAAMMDD.txt de cada server_data/port_n/logs, y los .rgb que no tengan su .txt.
+     */
+    private static List<Archivo> archivos(Path datos) throws IOException {
+        List<Archivo> archivos = new ArrayList<>();
+        if (!Files.isDirectory(datos)) return archivos;
+        try (DirectoryStream<Path> puertos = Files.newDirectoryStream(datos, "port_*")) {
+            for (Path directorio : puertos) {
+                int puerto;
+                try {
+                    puerto = Integer.parseInt(directorio.getFileName().toString().substring(5));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                Path logs = directorio.resolve("logs");
+                if (!Files.isDirectory(logs)) continue;
+                try (DirectoryStream<Path> lista = Files.newDirectoryStream(logs, "log_*.{txt,rgb}")) {
+                    for (Path ruta : lista) {
+                        LocalDate dia = ConversorRegistros.dia(ruta);
+                        if (dia == null) continue;
+                        String nombre = ruta.getFileName().toString();
+                        boolean binario = nombre.endsWith(".rgb");
+                        if (binario && Files.exists(ruta.resolveSibling(nombre.substring(0, 12) + ".txt"))) continue;
+                        archivos.add(new Archivo(ruta, puerto, dia.toEpochDay() * MS_DIA, Files.size(ruta), binario));
+                    }
+                }
+            }
+        }
+        // Los grandes primero: reparten mejor el trabajo
+        archivos.sort(Comparator.comparingLong((Archivo a) -> a.tamano).reversed());
+        return archivos;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path datos = Paths.get("server_data");
+        long ventana = 5000;
+        int minimo = 3;
+        Path salida = null;
+        for (String arg : args) {
+            if (arg.startsWith("--ventana=")) {
+                ventana = Long.parseLong(arg.substring("--ventana=".length()));
+            } else if (arg.startsWith("--minimo=")) {
+                minimo = Integer.parseInt(arg.substring("--minimo=".length()));
+            } else if (arg.startsWith("--salida=")) {
+                salida = Paths.get(arg.substring("--salida=".length()));
+            } else if (!arg.startsWith("--")) {
+                datos = Paths.get(arg);
+            }
+        }
+        InformeRegistros informe = new AnalizadorRegistros(ventana, minimo).analizar(datos);
+        Gson gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+        if (salida == null) {
+            System.out.println(gson.toJson(informe));
+        } else {
+            try (Writer escritor = Files.newBufferedWriter(salida, StandardCharsets.UTF_8)) {
+                gson.toJson(informe, escritor);
+            }
+        }
+    }
+}
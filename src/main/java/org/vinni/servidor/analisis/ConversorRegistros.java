@@ -0,0 +1,120 @@
+package org.vinni.servidor.analisis;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pasa los registros de texto ({@code log_AAAAMMDD.txt}) al formato binario
+ * ({@code log_AAAAMMDD.rgb}, ver {@link EscritorRegistroBinario}) y los vuelve a
+ * escribir como texto. El .txt no se toca: el servidor sigue escribiendo en él y
+ * el índice del historial lo lee.
+ *
+ * Uso: {@code java org.vinni.servidor.analisis.ConversorRegistros [directorio]} convierte
+ * todos los de server_data/port_n/logs; {@code ConversorRegistros --texto=log_AAAAMMDD.rgb}
+ * escribe el texto en la salida estándar.
+ */
+public class ConversorRegistros {
+
+    private ConversorRegistros() {
+    }
+
+    /**
+     * Convierte un log_AAAAMMDD.txt. Las horas de las líneas se leen en {@code zona}.
+     *
+     * @return líneas convertidas
+     */
+    public static long convertir(Path texto, Path binario, ZoneId zona) throws IOException {
+        LocalDate dia = dia(texto);
+        long anterior = dia.atStartOfDay(zona).toInstant().toEpochMilli();
+        try (BufferedReader lector = Files.newBufferedReader(texto, StandardCharsets.UTF_8);
+             EscritorRegistroBinario escritor = new EscritorRegistroBinario(binario, zona)) {
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                EventoRegistro evento = EventoRegistro.deLinea(linea, dia, zona, anterior);
+                escritor.agregar(evento);
+                anterior = evento.getInstante();
+            }
+            return escritor.getRegistros();
+        }
+    }
+
+    /**
+     * Convierte todos los log_AAAAMMDD.txt bajo {@code datos} (el directorio server_data),
+     * dejando cada .rgb junto a su .txt.
+     *
+     * @return los .rgb escritos
+     */
+    public static List<Path> convertirTodos(Path datos, ZoneId zona) throws IOException {
+        List<Path> escritos = new ArrayList<>();
+        if (!Files.isDirectory(datos)) return escritos;
+        try (DirectoryStream<Path> puertos = Files.newDirectoryStream(datos, "port_*")) {
+            for (Path puerto : puertos) {
+                Path logs = puerto.resolve("logs");
+                if (!Files.isDirectory(logs)) continue;
+                try (DirectoryStream<Path> lista = Files.newDirectoryStream(logs, "log_*.txt")) {
+                    for (Path texto : lista) {
+                        if (dia(texto) == null) continue;
+                        String nombre = texto.getFileName().toString();
+                        Path binario = texto.resolveSibling(nombre.substring(0, nombre.length() - 4) + ".rgb");
+                        convertir(texto, binario, zona);
+                        escritos.add(binario);
+                    }
+                }
+            }
+        }
+        return escritos;
+    }
+
+    /**
+     * @return el día de un log_AAAAMMDD.txt o .rgb, o null si el nombre no es de un registro diario
+     */
+    static LocalDate dia(Path archivo) {
+        String nombre = archivo.getFileName().toString();
+        if (!nombre.startsWith("log_") || nombre.length() != 16) return null;
+        try {
+            int aaaammdd = Integer.parseInt(nombre.substring(4, 12));
+            return LocalDate.of(aaaammdd / 10000, aaaammdd / 100 % 100, aaaammdd % 100);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path datos = Paths.get("server_data");
+        Path texto = null;
+        for (String arg : args) {
+            if (arg.startsWith("--texto=")) {
+                texto = Paths.get(arg.substring("--texto=".length()));
+            } else if (!arg.startsWith("--")) {
+                datos = Paths.get(arg);
+            }
+        }
+        if (texto != null) {
+            try (LectorRegistroBinario lector = LectorRegistroBinario.abrir(texto);
+                 Writer salida = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8))) {
+                lector.aTexto(salida);
+            }
+            return;
+        }
+        for (Path binario : convertirTodos(datos, ZoneId.systemDefault())) {
+            String nombre = binario.getFileName().toString();
+            Path original = binario.resolveSibling(nombre.substring(0, nombre.length() - 4) + ".txt");
+            try (LectorRegistroBinario lector = LectorRegistroBinario.abrir(binario)) {
+                System.out.println(binario + ": " + lector.getRegistros() + " líneas, " + lector.getBloques() + " bloques, "
+                        + Files.size(original) + " -> " + Files.size(binario) + " bytes");
+            }
+        }
+    }
+}
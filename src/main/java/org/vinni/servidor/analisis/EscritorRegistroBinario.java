@@ -0,0 +1,193 @@
+package org.vinni.servidor.analisis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Escribe un registro en formato binario ({@code log_AAAAMMDD.rgb}), leído con
+ * {@link LectorRegistroBinario}.
+ *
+ * Formato: {@code [MAGIA:4]}, los bloques comprimidos con deflate y al final
+ * {@code [zona][usuarios][índice de bloques][posición de lo anterior:8][MAGIA:4]}.
+ * Los usuarios se guardan una vez por archivo y los registros llevan su número.
+ * Cada bloque se descomprime solo (unos {@value #BLOQUE} bytes sin comprimir) y su
+ * entrada del índice es {@code [posición:8][comprimido:4][largo:4][registros:4][desde:8][hasta:8]},
+ * con el primer y el último instante del bloque: se puede ir directo a una hora.
+ *
+ * Un registro es {@code [cabecera:1][instante][usuario]} y, según el tipo,
+ * {@code [puerto]}, {@code [secuencia]} y {@code [largo][texto UTF-8]}, todo en varint.
+ * La cabecera lleva el tipo (bits 0-1), la forma (bits 2-3) y si la conexión es
+ * binaria (bit 4); el instante es la diferencia (en zigzag) con el registro anterior
+ * del bloque y el usuario es su número más uno (0 si no hay).
+ */
+public class EscritorRegistroBinario implements Closeable {
+
+    static final int MAGIA = 0x52474231; // "RGB1"
+    private static final int BLOQUE = 64 * 1024;
+
+    private final Path ruta;
+    private final Path temporal;
+    private final ZoneId zona;
+    private final int tamanoBloque;
+    private final FileChannel canal;
+    private final Deflater deflater = new Deflater();
+
+    private final Map<String, Integer> numeros = new HashMap<>();
+    private final List<String> usuarios = new ArrayList<>();
+    private final List<long[]> indice = new ArrayList<>();
+
+    private final ByteArrayOutputStream bloque = new ByteArrayOutputStream(BLOQUE + 1024);
+    private byte[] comprimido = new byte[BLOQUE];
+    private int registrosBloque;
+    private long anterior;
+    private long desde;
+    private long hasta;
+    private long registros;
+
+    /**
+     * @param zona la de los instantes del registro: con ella se vuelven a escribir las horas
+     */
+    public EscritorRegistroBinario(Path ruta, ZoneId zona) throws IOException {
+        this(ruta, zona, BLOQUE);
+    }
+
+    EscritorRegistroBinario(Path ruta, ZoneId zona, int tamanoBloque) throws IOException {
+        this.ruta = ruta;
+        this.temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+        this.zona = zona;
+        this.tamanoBloque = tamanoBloque;
+        this.canal = FileChannel.open(temporal, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        escribirTodo(ByteBuffer.allocate(4).putInt(0, MAGIA));
+    }
+
+    public void agregar(EventoRegistro evento) throws IOException {
+        if (registrosBloque == 0) {
+            anterior = 0;
+            desde = Long.MAX_VALUE;
+            hasta = Long.MIN_VALUE;
+        }
+        bloque.write(evento.getTipo().ordinal() | evento.getForma().ordinal() << 2 | (evento.isBinario() ? 1 << 4 : 0));
+        long diferencia = evento.getInstante() - anterior;
+        varint(diferencia << 1 ^ diferencia >> 63);
+        anterior = evento.getInstante();
+        varint(evento.getUsuario() == null ? 0 : numero(evento.getUsuario()) + 1);
+        switch (evento.getTipo()) {
+            case CONEXION:
+            case DESCONEXION:
+                if (evento.getForma() != EventoRegistro.Forma.SIN_PUERTO) varint(evento.getPuerto());
+                break;
+            case MENSAJE:
+                if (evento.getForma() == EventoRegistro.Forma.ACTUAL) varint(evento.getSecuencia());
+                texto(evento.getTexto());
+                break;
+            default:
+                texto(evento.getTexto());
+        }
+        desde = Math.min(desde, evento.getInstante());
+        hasta = Math.max(hasta, evento.getInstante());
+        registrosBloque++;
+        registros++;
+        if (bloque.size() >= tamanoBloque) cerrarBloque();
+    }
+
+    /** Registros agregados hasta ahora. */
+    public long getRegistros() {
+        return registros;
+    }
+
+    private int numero(String usuario) {
+        Integer numero = numeros.get(usuario);
+        if (numero == null) {
+            numero = usuarios.size();
+            numeros.put(usuario, numero);
+            usuarios.add(usuario);
+        }
+        return numero;
+    }
+
+    private void varint(long valor) {
+        while ((valor & ~0x7FL) != 0) {
+            bloque.write((int) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        bloque.write((int) valor);
+    }
+
+    private void texto(String texto) {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        varint(bytes.length);
+        bloque.write(bytes, 0, bytes.length);
+    }
+
+    private void cerrarBloque() throws IOException {
+        if (registrosBloque == 0) return;
+        byte[] datos = bloque.toByteArray();
+        deflater.reset();
+        deflater.setInput(datos);
+        deflater.finish();
+        int largo = 0;
+        while (!deflater.finished()) {
+            if (largo == comprimido.length) comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+            largo += deflater.deflate(comprimido, largo, comprimido.length - largo);
+        }
+        indice.add(new long[]{canal.position(), largo, datos.length, registrosBloque, desde, hasta});
+        escribirTodo(ByteBuffer.wrap(comprimido, 0, largo));
+        bloque.reset();
+        registrosBloque = 0;
+    }
+
+    private void escribirTodo(ByteBuffer datos) throws IOException {
+        while (datos.hasRemaining()) canal.write(datos);
+    }
+
+    /**
+     * Escribe el último bloque y el índice. El archivo se escribe aparte y se renombra
+     * al final: uno a medias nunca queda con su nombre.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            cerrarBloque();
+            long posicion = canal.position();
+            ByteArrayOutputStream pie = new ByteArrayOutputStream();
+            try (DataOutputStream salida = new DataOutputStream(pie)) {
+                salida.writeUTF(zona.getId());
+                salida.writeInt(usuarios.size());
+                for (String usuario : usuarios) salida.writeUTF(usuario);
+                salida.writeInt(indice.size());
+                for (long[] entrada : indice) {
+                    salida.writeLong(entrada[0]);
+                    salida.writeInt((int) entrada[1]);
+                    salida.writeInt((int) entrada[2]);
+                    salida.writeInt((int) entrada[3]);
+                    salida.writeLong(entrada[4]);
+                    salida.writeLong(entrada[5]);
+                }
+                salida.writeLong(posicion);
+                salida.writeInt(MAGIA);
+            }
+            escribirTodo(ByteBuffer.wrap(pie.toByteArray()));
+            canal.force(true);
+        } finally {
+            deflater.end();
+            canal.close();
+        }
+        Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,268 @@
+package org.vinni.servidor.analisis;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+
+/**
+ * Una línea de registro con sus partes separadas: lo que guarda un
+ * {@link EscritorRegistroBinario}. {@link #aTexto} la vuelve a escribir tal cual
+ * estaba en el log_AAAAMMDD.txt, con la {@link Forma} que tenía.
+ */
+public final class EventoRegistro {
+
+    public enum Tipo {
+        /** Cualquier otra línea; se guarda el texto entero. */
+        OTRO,
+        CONEXION,
+        DESCONEXION,
+        MENSAJE
+    }
+
+    /** Cómo estaba escrita la línea. */
+    public enum Forma {
+        /** {@code [hh:mm:ss.mmm] ...} */
+        ACTUAL,
+        /** {@code ** ana se ha conectado (puerto n) a las hh:mm:ss **}, {@code ana envió a las hh:mm:ss esto : texto}; sin hora si es OTRO */
+        ANTIGUA,
+        /** {@code ** ana se ha conectado a las hh:mm:ss **} */
+        SIN_PUERTO,
+        /** {@code ana [hh:mm:ss]: texto} */
+        CORCHETES
+    }
+
+    private static final String CONECTADO = " se ha conectado ";
+    private static final String DESCONECTADO = " se ha desconectado ";
+    private static final String ENVIO = " envió a las ";
+    private static final String ESTO = " esto : ";
+    private static final String BINARIO = " [binario]";
+
+    private final Tipo tipo;
+    private final Forma forma;
+    private final long instante;
+    private final String usuario;
+    private final int puerto;
+    private final long secuencia;
+    private final boolean binario;
+    private final String texto;
+
+    EventoRegistro(Tipo tipo, Forma forma, long instante, String usuario, int puerto, long secuencia, boolean binario, String texto) {
+        this.tipo = tipo;
+        this.forma = forma;
+        this.instante = instante;
+        this.usuario = usuario;
+        this.puerto = puerto;
+        this.secuencia = secuencia;
+        this.binario = binario;
+        this.texto = texto;
+    }
+
+    public Tipo getTipo() {
+        return tipo;
+    }
+
+    public Forma getForma() {
+        return forma;
+    }
+
+    /** ms desde la época; en las líneas sin hora, la de la línea anterior. */
+    public long getInstante() {
+        return instante;
+    }
+
+    /** null en {@link Tipo#OTRO}. */
+    public String getUsuario() {
+        return usuario;
+    }
+
+    /** Puerto escrito en la línea de conexión o desconexión, o -1. */
+    public int getPuerto() {
+        return puerto;
+    }
+
+    /** Número del mensaje en el formato actual, o -1. */
+    public long getSecuencia() {
+        return secuencia;
+    }
+
+    /** Conexión de un cliente con protocolo binario. */
+    public boolean isBinario() {
+        return binario;
+    }
+
+    /** Texto del mensaje, la línea entera en {@link Tipo#OTRO}, o null. */
+    public String getTexto() {
+        return texto;
+    }
+
+    // ---------- Texto ----------
+
+    /**
+     * La línea como se escribió en el registro (sin el salto de línea).
+     */
+    public String aTexto(ZoneId zona) {
+        LocalTime hora = Instant.ofEpochMilli(instante).atZone(zona).toLocalTime();
+        StringBuilder linea = new StringBuilder(64);
+        if (forma == Forma.ACTUAL) {
+            linea.append('[');
+            hora(linea, hora);
+            int milis = hora.getNano() / 1_000_000;
+            linea.append('.').append((char) ('0' + milis / 100)).append((char) ('0' + milis / 10 % 10)).append((char) ('0' + milis % 10));
+            linea.append("] ");
+        }
+        switch (tipo) {
+            case CONEXION:
+            case DESCONEXION:
+                linea.append("** ").append(usuario).append(tipo == Tipo.CONEXION ? CONECTADO : DESCONECTADO);
+                if (forma != Forma.SIN_PUERTO) linea.append("(puerto ").append(puerto).append(')');
+                if (forma != Forma.ACTUAL) {
+                    if (forma != Forma.SIN_PUERTO) linea.append(' ');
+                    hora(linea.append("a las "), hora);
+                }
+                linea.append(" **");
+                if (binario) linea.append(BINARIO);
+                break;
+            case MENSAJE:
+                if (forma == Forma.ACTUAL) {
+                    linea.append('#').append(secuencia).append(' ').append(usuario).append(": ");
+                } else if (forma == Forma.CORCHETES) {
+                    hora(linea.append(usuario).append(" ["), hora).append("]: ");
+                } else {
+                    hora(linea.append(usuario).append(ENVIO), hora).append(ESTO);
+                }
+                linea.append(texto);
+                break;
+            default:
+                linea.append(texto);
+        }
+        return linea.toString();
+    }
+
+    private static StringBuilder hora(StringBuilder linea, LocalTime hora) {
+        return dosCifras(dosCifras(dosCifras(linea, hora.getHour()).append(':'), hora.getMinute()).append(':'), hora.getSecond());
+    }
+
+    private static StringBuilder dosCifras(StringBuilder linea, int valor) {
+        return linea.append((char) ('0' + valor / 10)).append((char) ('0' + valor % 10));
+    }
+
+    // ---------- Lectura de líneas ----------
+
+    /**
+     * Separa una línea de un log_AAAAMMDD.txt. Siempre devuelve un evento que se
+     * vuelve a escribir igual: si la línea no encaja del todo en un formato conocido
+     * queda como {@link Tipo#OTRO} con el texto entero.
+     *
+     * @param dia      día del archivo
+     * @param anterior instante de la línea anterior, para las que no tienen hora
+     */
+    public static EventoRegistro deLinea(String linea, LocalDate dia, ZoneId zona, long anterior) {
+        EventoRegistro evento;
+        try {
+            evento = separar(linea, dia, zona);
+        } catch (RuntimeException e) {
+            evento = null;
+        }
+        if (evento == null || !evento.aTexto(zona).equals(linea)) {
+            evento = new EventoRegistro(Tipo.OTRO, Forma.ANTIGUA, anterior, null, -1, -1, false, linea);
+        }
+        return evento;
+    }
+
+    private static EventoRegistro separar(String linea, LocalDate dia, ZoneId zona) {
+        if (linea.length() >= 15 && linea.charAt(0) == '[' && linea.charAt(13) == ']' && linea.charAt(14) == ' ') {
+            int segundos = segundosDelDia(linea, 1);
+            if (segundos < 0 || linea.charAt(9) != '.') return null;
+            long instante = instante(dia, segundos, zona) + Integer.parseInt(linea.substring(10, 13));
+            return separarActual(linea.substring(15), instante);
+        }
+        if (linea.startsWith("** ") && linea.endsWith(" **")) {
+            String cuerpo = linea.substring(3, linea.length() - 3);
+            Tipo tipo = Tipo.CONEXION;
+            int marca = cuerpo.indexOf(CONECTADO);
+            int largo = CONECTADO.length();
+            if (marca < 0) {
+                tipo = Tipo.DESCONEXION;
+                marca = cuerpo.indexOf(DESCONECTADO);
+                largo = DESCONECTADO.length();
+            }
+            if (marca <= 0) return null;
+            String resto = cuerpo.substring(marca + largo);
+            int puerto = -1;
+            Forma forma = Forma.SIN_PUERTO;
+            if (resto.startsWith("(puerto ")) {
+                int cierre = resto.indexOf(") ");
+                if (cierre < 0) return null;
+                puerto = Integer.parseInt(resto.substring(8, cierre));
+                resto = resto.substring(cierre + 2);
+                forma = Forma.ANTIGUA;
+            }
+            if (!resto.startsWith("a las ")) return null;
+            int segundos = segundosDelDia(resto, 6);
+            if (segundos < 0) return null;
+            return new EventoRegistro(tipo, forma, instante(dia, segundos, zona), cuerpo.substring(0, marca), puerto, -1, false, null);
+        }
+        int marca = linea.indexOf(ENVIO);
+        if (marca > 0) {
+            int hora = marca + ENVIO.length();
+            int segundos = segundosDelDia(linea, hora);
+            if (segundos < 0 || !linea.startsWith(ESTO, hora + 8)) return null;
+            return new EventoRegistro(Tipo.MENSAJE, Forma.ANTIGUA, instante(dia, segundos, zona),
+                    linea.substring(0, marca), -1, -1, false, linea.substring(hora + 8 + ESTO.length()));
+        }
+        marca = linea.indexOf(" [");
+        if (marca > 0 && linea.startsWith("]: ", marca + 10)) {
+            int segundos = segundosDelDia(linea, marca + 2);
+            if (segundos < 0) return null;
+            return new EventoRegistro(Tipo.MENSAJE, Forma.CORCHETES, instante(dia, segundos, zona),
+                    linea.substring(0, marca), -1, -1, false, linea.substring(marca + 13));
+        }
+        return null;
+    }
+
+    private static EventoRegistro separarActual(String resto, long instante) {
+        if (resto.startsWith("** ")) {
+            boolean binario = resto.endsWith(" **" + BINARIO);
+            if (binario) resto = resto.substring(0, resto.length() - BINARIO.length());
+            if (!resto.endsWith(") **")) return null;
+            String cuerpo = resto.substring(3, resto.length() - 4);
+            Tipo tipo = Tipo.CONEXION;
+            int marca = cuerpo.indexOf(CONECTADO + "(puerto ");
+            if (marca < 0) {
+                tipo = Tipo.DESCONEXION;
+                marca = cuerpo.indexOf(DESCONECTADO + "(puerto ");
+            }
+            if (marca <= 0) return null;
+            int puerto = Integer.parseInt(cuerpo.substring(cuerpo.lastIndexOf(' ') + 1));
+            return new EventoRegistro(tipo, Forma.ACTUAL, instante, cuerpo.substring(0, marca), puerto, -1, binario, null);
+        }
+        if (resto.startsWith("#")) {
+            int espacio = resto.indexOf(' ');
+            int separador = espacio < 0 ? -1 : resto.indexOf(": ", espacio + 1);
+            if (separador <= espacio + 1) return null;
+            return new EventoRegistro(Tipo.MENSAJE, Forma.ACTUAL, instante, resto.substring(espacio + 1, separador),
+                    -1, Long.parseLong(resto.substring(1, espacio)), false, resto.substring(separador + 2));
+        }
+        return new EventoRegistro(Tipo.OTRO, Forma.ACTUAL, instante, null, -1, -1, false, resto);
+    }
+
+    /**
+     * @return segundos desde medianoche de un "hh:mm:ss" en {@code desde}, o -1
+     */
+    private static int segundosDelDia(String linea, int desde) {
+        if (linea.length() < desde + 8 || linea.charAt(desde + 2) != ':' || linea.charAt(desde + 5) != ':') return -1;
+        int valor = 0;
+        for (int i = 0; i < 8; i += 3) {
+            char decenas = linea.charAt(desde + i);
+            char unidades = linea.charAt(desde + i + 1);
+            if (decenas < '0' || decenas > '9' || unidades < '0' || unidades > '9') return -1;
+            valor = valor * 60 + (decenas - '0') * 10 + (unidades - '0');
+        }
+        return valor;
+    }
+
+    private static long instante(LocalDate dia, int segundos, ZoneId zona) {
+        return dia.atStartOfDay().plusSeconds(segundos).atZone(zona).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,51 @@
+package org.vinni.servidor.analisis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Resultado de {@link AnalizadorRegistros}, tal cual se escribe en JSON. Las horas
+ * son las locales de los registros, como {@code AAAA-MM-DDThh:mm:ss}.
+ */
+public class InformeRegistros {
+
+    /** Sesiones y mensajes de un usuario en un puerto. */
+    public static class Usuario {
+        public int sesiones;
+        public int desconexiones;
+        /** Sesiones que no tienen desconexión registrada (el servidor cayó, o siguen abiertas). */
+        public int sinCierre;
+        public long duracionTotalMs;
+        public long duracionMediaMs;
+        public long duracionMaximaMs;
+        public long mensajes;
+    }
+
+    /** Reconexiones seguidas de un usuario, cada una a poco de la desconexión anterior. */
+    public static class Rafaga {
+        public String usuario;
+        public int puerto;
+        public String inicio;
+        public String fin;
+        public int reconexiones;
+    }
+
+    /** Totales de un puerto. */
+    public static class Puerto {
+        public long conexiones;
+        public long desconexiones;
+        public long mensajes;
+        public Map<String, Usuario> usuarios = new TreeMap<>();
+    }
+
+    public int archivos;
+    public long lineas;
+    public long bytes;
+    public long milisegundos;
+    public Map<Integer, Puerto> puertos = new TreeMap<>();
+    public List<Rafaga> rafagas = new ArrayList<>();
+    /** Mensajes por minuto, sumando todos los puertos ({@code AAAA-MM-DDThh:mm}). */
+    public Map<String, Long> mensajesPorMinuto = new TreeMap<>();
+}
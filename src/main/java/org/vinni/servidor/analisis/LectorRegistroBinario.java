@@ -0,0 +1,225 @@
+package org.vinni.servidor.analisis;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Lee un registro escrito con {@link EscritorRegistroBinario} (ver allí el formato).
+ * Solo descomprime los bloques que se piden: con el índice se salta a una hora sin
+ * leer lo anterior.
+ */
+public class LectorRegistroBinario implements Closeable {
+
+    private static final EventoRegistro.Tipo[] TIPOS = EventoRegistro.Tipo.values();
+    private static final EventoRegistro.Forma[] FORMAS = EventoRegistro.Forma.values();
+
+    private final Path ruta;
+    private final FileChannel canal;
+    private final ZoneId zona;
+    private final String[] usuarios;
+    // Por bloque: posición, comprimido, largo, registros, desde, hasta
+    private final long[][] indice;
+    private final Inflater inflater = new Inflater();
+
+    private LectorRegistroBinario(Path ruta, FileChannel canal) throws IOException {
+        this.ruta = ruta;
+        this.canal = canal;
+        long tamano = canal.size();
+        if (tamano < 16 || leer(0, 4).getInt(0) != EscritorRegistroBinario.MAGIA) throw new IOException("No es un registro binario: " + ruta);
+        ByteBuffer cola = leer(tamano - 12, 12);
+        if (cola.getInt(8) != EscritorRegistroBinario.MAGIA) throw new IOException("Registro binario incompleto: " + ruta);
+        long posicion = cola.getLong(0);
+        if (posicion < 4 || posicion > tamano - 12) throw new IOException("Registro binario dañado: " + ruta);
+        ByteBuffer pie = leer(posicion, (int) (tamano - 12 - posicion));
+        try (DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(pie.array()))) {
+            zona = ZoneId.of(entrada.readUTF());
+            usuarios = new String[entrada.readInt()];
+            for (int i = 0; i < usuarios.length; i++) usuarios[i] = entrada.readUTF();
+            indice = new long[entrada.readInt()][];
+            for (int i = 0; i < indice.length; i++) {
+                indice[i] = new long[]{entrada.readLong(), entrada.readInt(), entrada.readInt(),
+                        entrada.readInt(), entrada.readLong(), entrada.readLong()};
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Registro binario dañado: " + ruta, e);
+        }
+    }
+
+    public static LectorRegistroBinario abrir(Path ruta) throws IOException {
+        FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ);
+        try {
+            return new LectorRegistroBinario(ruta, canal);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /** Zona de las horas del registro. */
+    public ZoneId getZona() {
+        return zona;
+    }
+
+    /** Usuarios que aparecen en el archivo, en el orden en que aparecieron. */
+    public List<String> getUsuarios() {
+        return Arrays.asList(usuarios.clone());
+    }
+
+    public int getBloques() {
+        return indice.length;
+    }
+
+    public long getRegistros() {
+        long total = 0;
+        for (long[] entrada : indice) total += entrada[3];
+        return total;
+    }
+
+    // ---------- Lectura ----------
+
+    /** Todos los registros, en orden. */
+    public void leer(Consumer<EventoRegistro> destino) throws IOException {
+        leer(Long.MIN_VALUE, Long.MAX_VALUE, destino);
+    }
+
+    /**
+     * Los registros con instante en [desde, hasta], en orden. Solo se descomprimen los
+     * bloques cuyo intervalo se cruza con el pedido.
+     *
+     * @throws IOException también si un bloque está dañado (se corta ahí; lo anterior ya se entregó)
+     */
+    public void leer(long desde, long hasta, Consumer<EventoRegistro> destino) throws IOException {
+        for (long[] entrada : indice) {
+            if (entrada[5] < desde || entrada[4] > hasta) continue;
+            ByteBuffer bloque = bloque(entrada);
+            long instante = 0;
+            for (int i = 0; i < entrada[3]; i++) {
+                EventoRegistro evento = siguiente(bloque, instante, entrada);
+                instante = evento.getInstante();
+                if (instante < desde || instante > hasta) continue;
+                destino.accept(evento);
+            }
+        }
+    }
+
+    /**
+     * Decodifica el siguiente registro del bloque. Lo que se sale del bloque o del
+     * diccionario de usuarios (un archivo dañado) se informa como IOException, como
+     * en la apertura: quien lee solo espera esa.
+     */
+    private EventoRegistro siguiente(ByteBuffer bloque, long anterior, long[] entrada) throws IOException {
+        try {
+            int cabecera = bloque.get() & 0xFF;
+            EventoRegistro.Tipo tipo = TIPOS[cabecera & 3];
+            EventoRegistro.Forma forma = FORMAS[cabecera >> 2 & 3];
+            long diferencia = varint(bloque);
+            long instante = anterior + (diferencia >>> 1 ^ -(diferencia & 1));
+            int numero = (int) varint(bloque);
+            String usuario = numero == 0 ? null : usuarios[numero - 1];
+            int puerto = -1;
+            long secuencia = -1;
+            String texto = null;
+            switch (tipo) {
+                case CONEXION:
+                case DESCONEXION:
+                    if (forma != EventoRegistro.Forma.SIN_PUERTO) puerto = (int) varint(bloque);
+                    break;
+                case MENSAJE:
+                    if (forma == EventoRegistro.Forma.ACTUAL) secuencia = varint(bloque);
+                    texto = texto(bloque);
+                    break;
+                default:
+                    texto = texto(bloque);
+            }
+            return new EventoRegistro(tipo, forma, instante, usuario, puerto, secuencia, (cabecera & 1 << 4) != 0, texto);
+        } catch (RuntimeException e) {
+            throw new IOException("Bloque dañado en " + ruta + " en " + entrada[0], e);
+        }
+    }
+
+    /**
+     * Escribe el registro como el log_AAAAMMDD.txt del que salió.
+     */
+    public void aTexto(Writer salida) throws IOException {
+        IOException[] error = new IOException[1];
+        leer(evento -> {
+            if (error[0] != null) return;
+            try {
+                salida.write(evento.aTexto(zona));
+                salida.write('\n');
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) throw error[0];
+    }
+
+    private ByteBuffer bloque(long[] entrada) throws IOException {
+        if (entrada[1] < 0 || entrada[2] < 0 || entrada[2] > Integer.MAX_VALUE) {
+            throw new IOException("Índice dañado en " + ruta + " en " + entrada[0]);
+        }
+        ByteBuffer comprimido = leer(entrada[0], (int) entrada[1]);
+        byte[] datos = new byte[(int) entrada[2]];
+        inflater.reset();
+        inflater.setInput(comprimido.array());
+        try {
+            int largo = 0;
+            while (largo < datos.length && !inflater.finished()) {
+                int leidos = inflater.inflate(datos, largo, datos.length - largo);
+                if (leidos == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                largo += leidos;
+            }
+            if (largo != datos.length) throw new IOException("Bloque incompleto en " + ruta + " en " + entrada[0]);
+        } catch (DataFormatException e) {
+            throw new IOException("Bloque dañado en " + ruta + " en " + entrada[0], e);
+        }
+        return ByteBuffer.wrap(datos);
+    }
+
+    private ByteBuffer leer(long posicion, int largo) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.max(0, largo));
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer, posicion + buffer.position()) < 0) throw new IOException("Registro binario truncado: " + ruta);
+        }
+        return buffer;
+    }
+
+    private static long varint(ByteBuffer datos) {
+        long valor = 0;
+        int corrimiento = 0;
+        byte b;
+        do {
+            b = datos.get();
+            valor |= (long) (b & 0x7F) << corrimiento;
+            corrimiento += 7;
+        } while (b < 0);
+        return valor;
+    }
+
+    private static String texto(ByteBuffer datos) {
+        int largo = (int) varint(datos);
+        String texto = new String(datos.array(), datos.position(), largo, StandardCharsets.UTF_8);
+        datos.position(datos.position() + largo);
+        return texto;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        canal.close();
+    }
+}
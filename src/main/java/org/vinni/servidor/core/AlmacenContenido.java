@@ -0,0 +1,209 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Almacén direccionado por contenido, compartido por todos los puertos, en
+ * {@code server_data/media/<sha256>}. Un archivo que ya se subió una vez (por
+ * cualquier puerto) no vuelve a subirse: basta con su suma.
+ *
+ * Se acota por tamaño total y desaloja primero lo menos usado (LRU), salvo lo que
+ * tiene reenvíos pendientes ({@link #fijar}): se desaloja cuando el último termina.
+ */
+public class AlmacenContenido {
+
+    private static final long MAX_BYTES = Long.getLong("servidor.medios.maxBytes", 1024L * 1024 * 1024);
+
+    private static volatile AlmacenContenido compartido;
+
+    private static final class Entrada {
+        final Path ruta;
+        final long tamano;
+        // Reenvíos encolados que aún no terminaron
+        int fijaciones;
+
+        Entrada(Path ruta, long tamano) {
+            this.ruta = ruta;
+            this.tamano = tamano;
+        }
+    }
+
+    private final Path directorio;
+    private final long maxBytes;
+
+    // Orden de acceso: el primero es el menos usado
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder aciertos = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder bytesAhorrados = new LongAdder();
+    private final LongAdder desalojos = new LongAdder();
+
+    AlmacenContenido(Path directorio, long maxBytes) {
+        this.directorio = directorio;
+        this.maxBytes = maxBytes;
+        cargarExistentes();
+    }
+
+    /**
+     * Almacén de {@code server_data/media}, común a todos los puertos del proceso.
+     */
+    public static AlmacenContenido compartido() {
+        AlmacenContenido almacen = compartido;
+        if (almacen == null) {
+            synchronized (AlmacenContenido.class) {
+                almacen = compartido;
+                if (almacen == null) {
+                    almacen = new AlmacenContenido(Paths.get("server_data", "media"), MAX_BYTES);
+                    compartido = almacen;
+                }
+            }
+        }
+        return almacen;
+    }
+
+    /**
+     * Recupera lo que quedó de una ejecución anterior, con los más recientes como los más usados.
+     */
+    private void cargarExistentes() {
+        if (!Files.isDirectory(directorio)) return;
+        List<Path> archivos = new ArrayList<>();
+        try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio)) {
+            for (Path archivo : lista) {
+                if (Files.isRegularFile(archivo)) archivos.add(archivo);
+            }
+            archivos.sort((a, b) -> Long.compare(a.toFile().lastModified(), b.toFile().lastModified()));
+            for (Path archivo : archivos) {
+                long tamano = Files.size(archivo);
+                entradas.put(archivo.getFileName().toString(), new Entrada(archivo, tamano));
+                bytes += tamano;
+            }
+        } catch (IOException e) {
+            // Se empieza vacío; lo que haya en disco se sobrescribe al volver a subirse
+        }
+        desalojar();
+    }
+
+    /**
+     * Busca el contenido por su suma (y tamaño, para no fiarse solo del nombre).
+     * Cuenta un acierto o un fallo.
+     *
+     * @return la ruta del contenido, o null si no está
+     */
+    public synchronized Path buscar(String sha256, long tamano) {
+        Entrada entrada = entradas.get(clave(sha256));
+        if (entrada != null && entrada.tamano == tamano && Files.exists(entrada.ruta)) {
+            aciertos.increment();
+            bytesAhorrados.add(tamano);
+            return entrada.ruta;
+        }
+        if (entrada != null) quitar(clave(sha256));
+        fallos.increment();
+        return null;
+    }
+
+    /**
+     * Mueve un archivo ya comprobado al almacén. Si el contenido ya estaba,
+     * se descarta el nuevo y se devuelve el existente.
+     */
+    public synchronized Path guardar(Path origen, String sha256, long tamano) throws IOException {
+        String clave = clave(sha256);
+        Entrada existente = entradas.get(clave);
+        if (existente != null && Files.exists(existente.ruta)) {
+            Files.deleteIfExists(origen);
+            return existente.ruta;
+        }
+        Files.createDirectories(directorio);
+        Path destino = directorio.resolve(clave);
+        Files.move(origen, destino, StandardCopyOption.REPLACE_EXISTING);
+        if (existente != null) bytes -= existente.tamano;
+        entradas.put(clave, new Entrada(destino, tamano));
+        bytes += tamano;
+        desalojar();
+        return destino;
+    }
+
+    /**
+     * Impide que se desaloje el contenido hasta el {@link #soltar} correspondiente.
+     *
+     * @return false si ya no está en el almacén
+     */
+    synchronized boolean fijar(String sha256) {
+        Entrada entrada = entradas.get(clave(sha256));
+        if (entrada == null || !Files.exists(entrada.ruta)) return false;
+        entrada.fijaciones++;
+        return true;
+    }
+
+    synchronized void soltar(String sha256) {
+        Entrada entrada = entradas.get(clave(sha256));
+        if (entrada == null || entrada.fijaciones == 0) return;
+        entrada.fijaciones--;
+        if (entrada.fijaciones == 0) desalojar();
+    }
+
+    private void desalojar() {
+        Iterator<Map.Entry<String, Entrada>> it = entradas.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Entrada entrada = it.next().getValue();
+            // Nunca se desaloja el más reciente (el recién guardado), aunque él solo supere el límite
+            if (!it.hasNext()) break;
+            if (entrada.fijaciones > 0) continue;
+            it.remove();
+            bytes -= entrada.tamano;
+            desalojos.increment();
+            try {
+                Files.deleteIfExists(entrada.ruta);
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private void quitar(String clave) {
+        Entrada entrada = entradas.remove(clave);
+        if (entrada != null) bytes -= entrada.tamano;
+    }
+
+    private static String clave(String sha256) {
+        return sha256.toLowerCase();
+    }
+
+    // ---------- Estadísticas ----------
+
+    /** Subidas evitadas porque el contenido ya estaba. */
+    public long getAciertos() {
+        return aciertos.sum();
+    }
+
+    /** Contenidos que hubo que subir. */
+    public long getFallos() {
+        return fallos.sum();
+    }
+
+    public long getBytesAhorrados() {
+        return bytesAhorrados.sum();
+    }
+
+    public long getDesalojos() {
+        return desalojos.sum();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getCantidad() {
+        return entradas.size();
+    }
+}
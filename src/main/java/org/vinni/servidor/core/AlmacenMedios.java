@@ -0,0 +1,87 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.InfoArchivo;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Imágenes y archivos que se están recibiendo en un puerto, en {@code server_data/port_<n>/media/}.
+ * Mientras llegan los trozos se escriben en un {@code .part} (que sobrevive a una
+ * caída, para reanudar); al completarse y cuadrar la suma SHA-256 (que
+ * {@link Transferencias} lleva trozo a trozo) pasan al {@link AlmacenContenido}
+ * compartido, desde donde se reenvían (ver {@link RelevoMedio}).
+ */
+public class AlmacenMedios {
+
+    private final Path directorio;
+    private final AlmacenContenido contenido;
+
+    public AlmacenMedios(int puerto) {
+        this(Paths.get("server_data", "port_" + puerto, "media"), AlmacenContenido.compartido());
+    }
+
+    AlmacenMedios(Path directorio, AlmacenContenido contenido) {
+        this.directorio = directorio;
+        this.contenido = contenido;
+    }
+
+    /**
+     * Si el contenido ya está en el almacén compartido, no hace falta subirlo.
+     *
+     * @return el medio listo para reenviar, o null si hay que recibirlo
+     */
+    MedioGuardado buscar(InfoArchivo info) {
+        Path ruta = contenido.buscar(info.getSha256(), info.getTamano());
+        return ruta != null ? new MedioGuardado(info, ruta, contenido) : null;
+    }
+
+    /**
+     * Abre (sin truncar) el archivo parcial de la transferencia, también para leer lo que ya tenga.
+     */
+    FileChannel abrirParcial(InfoArchivo info) throws IOException {
+        Files.createDirectories(directorio);
+        return FileChannel.open(parcial(info), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Compara la suma calculada al recibir con la anunciada y pasa el parcial ya
+     * cerrado al almacén compartido.
+     *
+     * @param sha256 suma de lo escrito en el parcial
+     * @throws IOException si la suma no coincide (el parcial se borra)
+     */
+    MedioGuardado completar(InfoArchivo info, String sha256) throws IOException {
+        Path origen = parcial(info);
+        if (!sha256.equalsIgnoreCase(info.getSha256())) {
+            Files.deleteIfExists(origen);
+            throw new IOException("La suma SHA-256 de " + info.getNombre() + " no coincide");
+        }
+        return new MedioGuardado(info, contenido.guardar(origen, info.getSha256(), info.getTamano()), contenido);
+    }
+
+    void descartar(InfoArchivo info) {
+        try {
+            Files.deleteIfExists(parcial(info));
+        } catch (IOException ignored) {}
+    }
+
+    private Path parcial(InfoArchivo info) {
+        // El nombre de usuario no se usa tal cual en la ruta: podría contener '/' o ".."
+        String remitente = info.getRemitente().replaceAll("[^A-Za-z0-9_-]", "_");
+        return directorio.resolve(remitente + "-" + CodecArchivo.textoId(info.getId()) + ".part");
+    }
+
+    public AlmacenContenido getContenido() {
+        return contenido;
+    }
+
+    public Path getDirectorio() {
+        return directorio;
+    }
+}
@@ -0,0 +1,68 @@
+package org.vinni.servidor.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Cola circular acotada sin bloqueos, para muchos productores y un solo consumidor.
+ * Cada productor reserva una posición con un CAS y publica el elemento en su
+ * ranura; el consumidor lee en orden y deja la ranura vacía. Si está llena,
+ * {@link #ofrecer} devuelve false en lugar de esperar.
+ */
+final class AnilloRegistros<T> {
+
+    private final AtomicReferenceArray<T> ranuras;
+    private final int mascara;
+    private final int capacidad;
+
+    // Siguiente posición a reservar (productores) y a leer (solo el consumidor la escribe)
+    private final AtomicLong escritura = new AtomicLong();
+    private volatile long lectura;
+
+    /**
+     * @param capacidad se redondea a la potencia de dos siguiente
+     */
+    AnilloRegistros(int capacidad) {
+        int tamano = 2;
+        while (tamano < capacidad) tamano <<= 1;
+        this.ranuras = new AtomicReferenceArray<>(tamano);
+        this.mascara = tamano - 1;
+        this.capacidad = tamano;
+    }
+
+    /**
+     * @return false si la cola está llena (el elemento no se encola)
+     */
+    boolean ofrecer(T elemento) {
+        long posicion;
+        do {
+            posicion = escritura.get();
+            if (posicion - lectura >= capacidad) return false;
+        } while (!escritura.compareAndSet(posicion, posicion + 1));
+        ranuras.lazySet((int) posicion & mascara, elemento);
+        return true;
+    }
+
+    /**
+     * Solo desde el hilo consumidor.
+     *
+     * @return el siguiente elemento, o null si no hay (o aún no se terminó de publicar)
+     */
+    T sacar() {
+        long posicion = lectura;
+        int indice = (int) posicion & mascara;
+        T elemento = ranuras.get(indice);
+        if (elemento == null) return null;
+        ranuras.lazySet(indice, null);
+        lectura = posicion + 1;
+        return elemento;
+    }
+
+    boolean isVacio() {
+        return escritura.get() == lectura;
+    }
+
+    int getCapacidad() {
+        return capacidad;
+    }
+}
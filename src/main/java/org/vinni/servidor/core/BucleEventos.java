@@ -0,0 +1,275 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hilo con un Selector que atiende aceptores y conexiones NIO.
+ * Todo el trabajo sobre los canales registrados ocurre en este hilo;
+ * los demás hilos le pasan tareas con {@link #ejecutar(Runnable)}.
+ *
+ * Cada vuelta: esperar en el selector, correr las tareas, atender lecturas y
+ * escrituras listas y, al final, escribir las conexiones que recibieron tramas
+ * en la vuelta (o, con {@code servidor.salida.esperaMs}, cuando pasa ese tiempo
+ * desde la primera).
+ */
+final class BucleEventos implements Runnable {
+
+    private final GrupoEventosNio grupo;
+    private final Selector selector;
+    private final Thread hilo;
+    private final Queue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+
+    // Un único buffer de lectura por bucle: las conexiones solo guardan la línea a medio leer
+    private final ByteBuffer bufferLectura = ByteBuffer.allocateDirect(64 * 1024);
+    // Arreglo de trabajo de las escrituras de varios buffers, también uno por bucle
+    private final ByteBuffer[] lote = new ByteBuffer[Sesion.TRAMAS_POR_ESCRITURA];
+
+    // Conexiones con tramas por escribir al final de la vuelta, y desde cuándo espera la primera
+    private final ArrayDeque<ConexionNio> porEscribir = new ArrayDeque<>();
+    private long porEscribirDesde;
+
+    private volatile boolean activo = true;
+
+    BucleEventos(GrupoEventosNio grupo, int indice) throws IOException {
+        this.grupo = grupo;
+        this.selector = Selector.open();
+        this.hilo = new Thread(this, "BucleNio-" + indice);
+        this.hilo.setDaemon(true);
+    }
+
+    void iniciar() {
+        hilo.start();
+    }
+
+    boolean enBucle() {
+        return Thread.currentThread() == hilo;
+    }
+
+    /**
+     * Ejecuta la tarea en el hilo del bucle (directamente si ya estamos en él).
+     */
+    void ejecutar(Runnable tarea) {
+        if (enBucle()) {
+            tarea.run();
+        } else {
+            tareas.add(tarea);
+            selector.wakeup();
+        }
+    }
+
+    void registrarAceptor(ServerSocketChannel canal, ServidorPuerto servidor) {
+        ejecutar(() -> {
+            try {
+                canal.register(selector, SelectionKey.OP_ACCEPT, servidor);
+            } catch (ClosedChannelException e) {
+                servidor.logError("Canal cerrado antes de registrarse", e);
+            }
+        });
+    }
+
+    /**
+     * Cierra un canal de escucha desde el propio bucle para que el Selector libere el puerto.
+     * Un canal registrado no suelta el puerto hasta que el Selector da de baja su clave, así
+     * que la tarea hace además un selectNow (va antes de recorrer las claves listas).
+     *
+     * @return se completa cuando el puerto ya está libre
+     */
+    CompletableFuture<Void> cerrarAceptor(ServerSocketChannel canal) {
+        CompletableFuture<Void> cerrado = new CompletableFuture<>();
+        if (!hilo.isAlive() || enBucle()) {
+            // Desde el propio bucle no se puede llamar a selectNow: la baja llega en la próxima vuelta
+            SelectionKey clave = canal.keyFor(selector);
+            if (clave != null) clave.cancel();
+            cerrarSilencioso(canal);
+            cerrado.complete(null);
+            return cerrado;
+        }
+        ejecutar(() -> {
+            SelectionKey clave = canal.keyFor(selector);
+            if (clave != null) clave.cancel();
+            cerrarSilencioso(canal);
+            try {
+                selector.selectNow();
+            } catch (IOException ignored) {}
+            cerrado.complete(null);
+        });
+        return cerrado;
+    }
+
+    private void registrarConexion(SocketChannel canal, ServidorPuerto servidor) {
+        ejecutar(() -> {
+            try {
+                canal.configureBlocking(false);
+                canal.setOption(StandardSocketOptions.TCP_NODELAY, Sesion.SIN_NAGLE);
+                SelectionKey clave = canal.register(selector, SelectionKey.OP_READ);
+                ConexionNio conexion = new ConexionNio(this, canal, clave, servidor);
+                clave.attach(conexion);
+                servidor.alConectar(conexion);
+            } catch (IOException e) {
+                servidor.logError("No se pudo registrar la conexión", e);
+                cerrarSilencioso(canal);
+            }
+        });
+    }
+
+    /**
+     * Apunta la conexión para escribirla al final de la vuelta. Solo desde el hilo del bucle.
+     */
+    void escribirAlFinal(ConexionNio conexion) {
+        if (porEscribir.isEmpty()) porEscribirDesde = System.nanoTime();
+        porEscribir.add(conexion);
+    }
+
+    ByteBuffer[] getLote() {
+        return lote;
+    }
+
+    @Override
+    public void run() {
+        long esperaMs = 0;
+        while (activo) {
+            try {
+                if (esperaMs > 0) {
+                    selector.select(esperaMs);
+                } else {
+                    selector.select();
+                }
+                ejecutarTareas();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    procesar(clave);
+                }
+                esperaMs = escribirApuntadas();
+            } catch (IOException | RuntimeException e) {
+                // El bucle no se detiene por un error: lo que quede sin atender sale en la próxima vuelta
+                System.err.println("Error en " + hilo.getName() + ": " + e);
+            }
+        }
+        cerrarTodo();
+    }
+
+    /**
+     * Escribe las conexiones apuntadas; las que se apunten mientras tanto (al cerrarse
+     * una, por ejemplo) salen en la misma pasada.
+     *
+     * @return ms que faltan para escribir si hay una espera configurada, o 0
+     */
+    private long escribirApuntadas() {
+        if (porEscribir.isEmpty()) return 0;
+        if (Sesion.ESPERA_MS > 0) {
+            long faltan = porEscribirDesde + TimeUnit.MILLISECONDS.toNanos(Sesion.ESPERA_MS) - System.nanoTime();
+            if (faltan > 0) return Math.max(1, TimeUnit.NANOSECONDS.toMillis(faltan));
+        }
+        ConexionNio conexion;
+        while ((conexion = porEscribir.poll()) != null) {
+            try {
+                conexion.escribirApuntada();
+            } catch (RuntimeException e) {
+                descartar(conexion, e);
+            }
+        }
+        return 0;
+    }
+
+    private void ejecutarTareas() {
+        Runnable tarea;
+        while ((tarea = tareas.poll()) != null) {
+            try {
+                tarea.run();
+            } catch (RuntimeException e) {
+                System.err.println("Tarea fallida en " + hilo.getName() + ": " + e);
+            }
+        }
+    }
+
+    private void procesar(SelectionKey clave) {
+        if (!clave.isValid()) return;
+        Object adjunto = clave.attachment();
+
+        if (adjunto instanceof ServidorPuerto) {
+            aceptar((ServerSocketChannel) clave.channel(), (ServidorPuerto) adjunto);
+        } else if (adjunto instanceof ConexionNio) {
+            ConexionNio conexion = (ConexionNio) adjunto;
+            try {
+                if (clave.isWritable()) conexion.escribir();
+                if (clave.isValid() && clave.isReadable()) conexion.leer(bufferLectura);
+            } catch (RuntimeException e) {
+                // Un cliente que provoca un fallo no se lleva por delante al resto del bucle
+                descartar(conexion, e);
+            }
+        }
+    }
+
+    private void descartar(ConexionNio conexion, RuntimeException e) {
+        System.err.println("Conexión cerrada por un fallo en " + hilo.getName() + ": " + e);
+        try {
+            conexion.fallo(e);
+        } catch (RuntimeException otro) {
+            System.err.println("No se pudo cerrar la conexión en " + hilo.getName() + ": " + otro);
+        }
+    }
+
+    private void aceptar(ServerSocketChannel canal, ServidorPuerto servidor) {
+        try {
+            SocketChannel cliente;
+            while ((cliente = canal.accept()) != null) {
+                if (SondaPuertos.esSonda(cliente.getRemoteAddress(), servidor.getPuerto())) {
+                    cerrarSilencioso(cliente);
+                    continue;
+                }
+                grupo.siguiente().registrarConexion(cliente, servidor);
+            }
+        } catch (IOException e) {
+            servidor.logError("Error aceptando conexión", e);
+        }
+    }
+
+    /**
+     * El hilo del bucle sigue corriendo (no dice si responde: para eso, una tarea con {@link #ejecutar}).
+     */
+    boolean isVivo() {
+        return activo && hilo.isAlive();
+    }
+
+    void detener() {
+        activo = false;
+        selector.wakeup();
+    }
+
+    private void cerrarTodo() {
+        for (SelectionKey clave : selector.keys()) {
+            Object adjunto = clave.attachment();
+            if (adjunto instanceof ConexionNio) {
+                ((ConexionNio) adjunto).cerrar();
+            } else {
+                cerrarSilencioso(clave.channel());
+            }
+        }
+        ejecutarTareas();
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+
+    private static void cerrarSilencioso(Channel canal) {
+        try {
+            canal.close();
+        } catch (IOException ignored) {}
+    }
+}
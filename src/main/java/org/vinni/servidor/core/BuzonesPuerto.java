@@ -0,0 +1,429 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Buzones de los usuarios desconectados de un puerto, en
+ * {@code server_data/port_<n>/buzones/<usuario en hex>/}. Los MSGTO: a alguien que
+ * no está conectado se guardan aquí y se le entregan de una vez cuando vuelve a
+ * identificarse (ver {@link RelevoBuzon}).
+ *
+ * Cada buzón es una serie de segmentos de solo añadir ({@code seg_N.dat}, registros
+ * {@code [longitud:4][remitente:texto]}) de hasta {@code servidor.buzon.maxSegmento}
+ * bytes (1 MB), más un índice de 16 bytes con el punto de lectura (segmento y
+ * desplazamiento). En memoria solo hay esos números: los mensajes se leen de disco
+ * por lotes al entregarlos. Los segmentos ya entregados se borran y, vaciado el
+ * buzón, desaparece su directorio. Un buzón no pasa de {@code servidor.buzon.maxBytes}
+ * (256 MB); lo que llegue después se rechaza. Como cualquier nombre abre un buzón, el
+ * puerto entero también tiene tope: {@code servidor.buzones.maxBytes} (1 GB) sumando
+ * todos y {@code servidor.buzones.maxBuzones} (10000) buzones con mensajes.
+ *
+ * Quien atiende a los clientes no toca estos archivos: con {@link #encargar} deja el
+ * trabajo (guardar un privado, ofrecer el buzón al que se identifica) a un hilo
+ * escritor por puerto, que lo hace de uno en uno y en orden de llegada, igual que el
+ * de {@link RegistroPuerto}.
+ */
+public class BuzonesPuerto {
+
+    private static final long MAX_SEGMENTO = Long.getLong("servidor.buzon.maxSegmento", 1024 * 1024);
+    private static final long MAX_BYTES = Long.getLong("servidor.buzon.maxBytes", 256L * 1024 * 1024);
+    private static final long MAX_BYTES_PUERTO = Long.getLong("servidor.buzones.maxBytes", 1024L * 1024 * 1024);
+    private static final int MAX_BUZONES = Integer.getInteger("servidor.buzones.maxBuzones", 10_000);
+    private static final int MAX_ABIERTOS = 64;
+    private static final int MAX_ENCARGOS = Integer.getInteger("servidor.buzon.encargos", 16 * 1024);
+    private static final String INDICE = "indice";
+
+    private static final Map<Integer, BuzonesPuerto> POR_PUERTO = new ConcurrentHashMap<>();
+
+    private final Path directorio;
+    private final long maxSegmento;
+    private final long maxBytes;
+    private final long maxBytesPuerto;
+    private final int maxBuzones;
+    private final Map<String, Buzon> buzones = new ConcurrentHashMap<>();
+    // Pendiente sumando todos los buzones cargados (listar() los carga todos)
+    private final AtomicLong bytesTotales = new AtomicLong();
+    private volatile boolean listado;
+
+    // Buzones con el archivo de escritura abierto, el menos usado primero
+    private final LinkedHashMap<Buzon, Boolean> abiertos = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Trabajos para el hilo escritor, que se arranca con el primero
+    private final AnilloRegistros<Runnable> encargos = new AnilloRegistros<>(MAX_ENCARGOS);
+    private final String nombreEscritor;
+    private volatile Thread escritor;
+    private volatile boolean esperando;
+
+    /**
+     * Buzones del puerto, comunes a todos los servidores que se abran en él durante el proceso.
+     */
+    public static BuzonesPuerto de(int puerto) {
+        return POR_PUERTO.computeIfAbsent(puerto, p -> new BuzonesPuerto(
+                Paths.get("server_data", "port_" + p, "buzones"), MAX_SEGMENTO, MAX_BYTES, "BuzonesPuerto-" + p));
+    }
+
+    BuzonesPuerto(Path directorio, long maxSegmento, long maxBytes) {
+        this(directorio, maxSegmento, maxBytes, "BuzonesPuerto");
+    }
+
+    BuzonesPuerto(Path directorio, long maxSegmento, long maxBytes, String nombreEscritor) {
+        this(directorio, maxSegmento, maxBytes, MAX_BYTES_PUERTO, MAX_BUZONES, nombreEscritor);
+    }
+
+    BuzonesPuerto(Path directorio, long maxSegmento, long maxBytes, long maxBytesPuerto, int maxBuzones,
+                  String nombreEscritor) {
+        this.directorio = directorio;
+        this.maxSegmento = maxSegmento;
+        this.maxBytes = maxBytes;
+        this.maxBytesPuerto = maxBytesPuerto;
+        this.maxBuzones = maxBuzones;
+        this.nombreEscritor = nombreEscritor;
+    }
+
+    /**
+     * Deja un trabajo sobre los buzones para el hilo escritor. No toca el disco ni espera.
+     *
+     * @return false si hay demasiados trabajos pendientes (y este no se hará)
+     */
+    public boolean encargar(Runnable trabajo) {
+        Thread hilo = escritor;
+        if (hilo == null) hilo = arrancarEscritor();
+        if (!encargos.ofrecer(trabajo)) return false;
+        if (esperando) LockSupport.unpark(hilo);
+        return true;
+    }
+
+    private synchronized Thread arrancarEscritor() {
+        if (escritor == null) {
+            Thread hilo = new Thread(this::atenderEncargos, nombreEscritor);
+            hilo.setDaemon(true);
+            hilo.start();
+            escritor = hilo;
+        }
+        return escritor;
+    }
+
+    private void atenderEncargos() {
+        while (true) {
+            Runnable trabajo = encargos.sacar();
+            if (trabajo != null) {
+                try {
+                    trabajo.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Trabajo fallido en " + nombreEscritor + ": " + e);
+                }
+                continue;
+            }
+            esperando = true;
+            if (encargos.isVacio()) LockSupport.park();
+            esperando = false;
+        }
+    }
+
+    /**
+     * Guarda un mensaje para el usuario. Escribe en disco: el servidor solo lo llama
+     * desde un trabajo {@linkplain #encargar encargado}.
+     *
+     * @param contenido el del MSGTO: que recibirá ({@code remitente:texto})
+     * @return false si su buzón, o los del puerto en conjunto, están llenos
+     */
+    public boolean guardar(String usuario, byte[] contenido) throws IOException {
+        listar();
+        if (bytesTotales.get() + 4L + contenido.length > maxBytesPuerto) return false;
+        Buzon buzon = buzones.get(usuario);
+        if (buzon == null) {
+            if (buzones.size() >= maxBuzones) olvidarVacios();
+            if (buzones.size() >= maxBuzones) return false;
+            buzon = buzones.computeIfAbsent(usuario, u -> new Buzon(u, directorio.resolve(nombreDirectorio(u))));
+        }
+        boolean guardado = buzon.agregar(contenido);
+        usado(buzon);
+        return guardado;
+    }
+
+    /**
+     * Quita de memoria los buzones ya vacíos (su directorio ya no existe). Solo desde el escritor.
+     */
+    private void olvidarVacios() {
+        buzones.values().removeIf(buzon -> buzon.getBytesPendientes() == 0);
+    }
+
+    /**
+     * Bytes guardados y no entregados sumando todos los buzones del puerto.
+     */
+    public long getBytesTotales() {
+        listar();
+        return bytesTotales.get();
+    }
+
+    /**
+     * El buzón del usuario si tiene mensajes sin entregar, o null.
+     */
+    Buzon pendiente(String usuario) {
+        listar();
+        Buzon buzon = buzones.get(usuario);
+        return buzon != null && buzon.getBytesPendientes() > 0 ? buzon : null;
+    }
+
+    /**
+     * Bytes guardados y no entregados para el usuario.
+     */
+    public long getBytesPendientes(String usuario) {
+        listar();
+        Buzon buzon = buzones.get(usuario);
+        return buzon != null ? buzon.getBytesPendientes() : 0;
+    }
+
+    /**
+     * La primera vez, da de alta los buzones que quedaron en disco (sin leer sus mensajes).
+     */
+    private void listar() {
+        if (listado) return;
+        synchronized (buzones) {
+            if (listado) return;
+            if (Files.isDirectory(directorio)) {
+                try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio)) {
+                    for (Path dir : lista) {
+                        String usuario = usuarioDeDirectorio(dir.getFileName().toString());
+                        if (usuario == null) continue;
+                        Buzon buzon = new Buzon(usuario, dir);
+                        // Cargado ya, para que sus bytes cuenten en el tope del puerto
+                        if (buzones.putIfAbsent(usuario, buzon) == null) buzon.getBytesPendientes();
+                    }
+                } catch (IOException e) {
+                    System.err.println("No se pudieron listar los buzones de " + directorio + ": " + e.getMessage());
+                }
+            }
+            listado = true;
+        }
+    }
+
+    /**
+     * Acota los archivos abiertos: cierra el de escritura del buzón menos usado.
+     * Se llama sin tener tomado ningún buzón.
+     */
+    private void usado(Buzon buzon) {
+        Buzon cerrar = null;
+        synchronized (abiertos) {
+            abiertos.put(buzon, Boolean.TRUE);
+            if (abiertos.size() > MAX_ABIERTOS) {
+                cerrar = abiertos.keySet().iterator().next();
+                abiertos.remove(cerrar);
+            }
+        }
+        if (cerrar != null) cerrar.cerrarEscritura();
+    }
+
+    static String nombreDirectorio(String usuario) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : usuario.getBytes(StandardCharsets.UTF_8)) hex.append(String.format("%02x", b & 0xFF));
+        return hex.toString();
+    }
+
+    static String usuarioDeDirectorio(String nombre) {
+        if (nombre.isEmpty() || nombre.length() % 2 != 0) return null;
+        byte[] bytes = new byte[nombre.length() / 2];
+        try {
+            for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) Integer.parseInt(nombre.substring(2 * i, 2 * i + 2), 16);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Buzón de un usuario. En memoria solo guarda dónde se lee y dónde se escribe.
+     */
+    final class Buzon {
+
+        private final String usuario;
+        private final Path directorio;
+
+        private boolean cargado;
+        private long segmentoLectura;
+        private long posicionLectura;
+        private long segmentoEscritura;
+        private long tamanoEscritura;
+        private long bytesPendientes;
+        private FileChannel escritura;
+        // Cada entrega nueva deja sin efecto a la anterior (reconexión a media entrega)
+        private int generacion;
+
+        Buzon(String usuario, Path directorio) {
+            this.usuario = usuario;
+            this.directorio = directorio;
+        }
+
+        /**
+         * Lee del disco los segmentos y el índice la primera vez que se usa el buzón.
+         */
+        private void cargar() throws IOException {
+            if (cargado) return;
+            List<Long> segmentos = segmentos();
+            if (segmentos.isEmpty()) {
+                segmentoLectura = segmentoEscritura = 0;
+            } else {
+                segmentoEscritura = segmentos.get(segmentos.size() - 1);
+                tamanoEscritura = Files.size(segmento(segmentoEscritura));
+                segmentoLectura = segmentos.get(0);
+                Path indice = directorio.resolve(INDICE);
+                if (Files.exists(indice)) {
+                    ByteBuffer datos = ByteBuffer.wrap(Files.readAllBytes(indice));
+                    if (datos.remaining() >= 16) {
+                        segmentoLectura = Math.max(segmentoLectura, datos.getLong());
+                        posicionLectura = datos.getLong();
+                    }
+                }
+                for (long n : segmentos) {
+                    if (n >= segmentoLectura) bytesPendientes += Files.size(segmento(n));
+                }
+                bytesPendientes = Math.max(0, bytesPendientes - posicionLectura);
+            }
+            bytesTotales.addAndGet(bytesPendientes);
+            cargado = true;
+        }
+
+        private List<Long> segmentos() throws IOException {
+            List<Long> segmentos = new ArrayList<>();
+            if (!Files.isDirectory(directorio)) return segmentos;
+            try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio, "seg_*.dat")) {
+                for (Path archivo : lista) {
+                    String nombre = archivo.getFileName().toString();
+                    try {
+                        segmentos.add(Long.parseLong(nombre.substring(4, nombre.length() - 4)));
+                    } catch (NumberFormatException ignored) {}
+                }
+            }
+            Collections.sort(segmentos);
+            return segmentos;
+        }
+
+        Path segmento(long n) {
+            return directorio.resolve(String.format("seg_%016d.dat", n));
+        }
+
+        synchronized boolean agregar(byte[] contenido) throws IOException {
+            cargar();
+            long largo = 4L + contenido.length;
+            if (bytesPendientes + largo > maxBytes) return false;
+            if (tamanoEscritura > 0 && tamanoEscritura + largo > maxSegmento) {
+                // Segmento completo: se cierra y no vuelve a escribirse
+                cerrarEscritura();
+                segmentoEscritura++;
+                tamanoEscritura = 0;
+            }
+            if (escritura == null) {
+                Files.createDirectories(directorio);
+                escritura = FileChannel.open(segmento(segmentoEscritura),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer[] registro = {ByteBuffer.allocate(4).putInt(contenido.length).flip(), ByteBuffer.wrap(contenido)};
+            while (registro[1].hasRemaining()) escritura.write(registro);
+            tamanoEscritura += largo;
+            bytesPendientes += largo;
+            bytesTotales.addAndGet(largo);
+            return true;
+        }
+
+        synchronized void cerrarEscritura() {
+            if (escritura == null) return;
+            try {
+                escritura.close();
+            } catch (IOException ignored) {}
+            escritura = null;
+        }
+
+        // ---------- Entrega (ver RelevoBuzon) ----------
+
+        /**
+         * Empieza una entrega; la que hubiera en curso deja de poder confirmar.
+         *
+         * @return {generación, segmento, desplazamiento} desde donde leer
+         */
+        synchronized long[] tomar() throws IOException {
+            cargar();
+            return new long[]{++generacion, segmentoLectura, posicionLectura};
+        }
+
+        /**
+         * Hasta dónde hay registros completos en el segmento, o -1 si ya no existe.
+         */
+        synchronized long fin(long n) throws IOException {
+            if (n == segmentoEscritura) return tamanoEscritura;
+            Path archivo = segmento(n);
+            return Files.exists(archivo) ? Files.size(archivo) : -1;
+        }
+
+        synchronized boolean esUltimo(long n) {
+            return n >= segmentoEscritura;
+        }
+
+        /**
+         * Deja constancia de lo ya entregado: borra los segmentos que quedaron atrás
+         * y guarda el índice; si no queda nada, borra el buzón entero.
+         *
+         * @param entregados bytes de registros entregados desde la última confirmación
+         */
+        synchronized void confirmar(int generacion, long segmento, long posicion, long entregados) throws IOException {
+            if (generacion != this.generacion) return;
+            for (long n = segmentoLectura; n < segmento; n++) Files.deleteIfExists(segmento(n));
+            segmentoLectura = segmento;
+            posicionLectura = posicion;
+            long antes = bytesPendientes;
+            bytesPendientes = Math.max(0, bytesPendientes - entregados);
+            bytesTotales.addAndGet(bytesPendientes - antes);
+
+            if (segmento == segmentoEscritura && posicion >= tamanoEscritura) {
+                // Todo entregado: fuera segmentos e índice; lo próximo empieza en un segmento nuevo
+                cerrarEscritura();
+                Files.deleteIfExists(segmento(segmentoEscritura));
+                Files.deleteIfExists(directorio.resolve(INDICE));
+                try {
+                    Files.deleteIfExists(directorio);
+                } catch (IOException ignored) {
+                    // Quedó algo ajeno en el directorio: se deja
+                }
+                segmentoEscritura++;
+                segmentoLectura = segmentoEscritura;
+                bytesTotales.addAndGet(-bytesPendientes);
+                tamanoEscritura = posicionLectura = bytesPendientes = 0;
+                return;
+            }
+            ByteBuffer indice = ByteBuffer.allocate(16).putLong(segmentoLectura).putLong(posicionLectura);
+            indice.flip();
+            try (FileChannel archivo = FileChannel.open(directorio.resolve(INDICE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                while (indice.hasRemaining()) archivo.write(indice, indice.position());
+            }
+        }
+
+        synchronized long getBytesPendientes() {
+            try {
+                cargar();
+            } catch (IOException e) {
+                return 0;
+            }
+            return bytesPendientes;
+        }
+
+        String getUsuario() {
+            return usuario;
+        }
+    }
+}
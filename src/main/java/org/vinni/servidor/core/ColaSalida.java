@@ -0,0 +1,138 @@
+package org.vinni.servidor.core;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cola de salida acotada (en bytes) de una sesión, con tramas ya codificadas.
+ * Admite varios productores (difusiones desde cualquier hilo) y un único consumidor,
+ * la capa de E/S que la vacía sobre el socket.
+ *
+ * Límites configurables con propiedades del sistema:
+ * servidor.cola.capacidad, servidor.cola.marcaAlta, servidor.cola.marcaBaja y servidor.cola.plazoLentoMs.
+ */
+public final class ColaSalida {
+
+    public static final long CAPACIDAD = Long.getLong("servidor.cola.capacidad", 16L * 1024 * 1024);
+    public static final long MARCA_ALTA = Long.getLong("servidor.cola.marcaAlta", 4L * 1024 * 1024);
+    public static final long MARCA_BAJA = Long.getLong("servidor.cola.marcaBaja", 1024L * 1024);
+    public static final long PLAZO_LENTO_MS = Long.getLong("servidor.cola.plazoLentoMs", 10_000L);
+
+    private final long capacidad;
+    private final long marcaAlta;
+    private final long marcaBaja;
+    private final long plazoLentoNanos;
+
+    private final Queue<ByteBuffer> tramas = new ConcurrentLinkedQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicInteger cantidad = new AtomicInteger();
+
+    // Momento (nanoTime) en que la cola pasó de la marca alta (o se llenó); 0 si desde entonces bajó de la marca baja
+    private volatile long llenaDesde;
+
+    public ColaSalida() {
+        this(CAPACIDAD, MARCA_ALTA, MARCA_BAJA, PLAZO_LENTO_MS);
+    }
+
+    public ColaSalida(long capacidad, long marcaAlta, long marcaBaja, long plazoLentoMs) {
+        if (marcaBaja > marcaAlta || marcaAlta > capacidad) {
+            throw new IllegalArgumentException("Se esperaba marcaBaja <= marcaAlta <= capacidad");
+        }
+        this.capacidad = capacidad;
+        this.marcaAlta = marcaAlta;
+        this.marcaBaja = marcaBaja;
+        this.plazoLentoNanos = plazoLentoMs * 1_000_000L;
+    }
+
+    /**
+     * Encola la trama si cabe. Una trama mayor que la capacidad solo entra con la cola vacía.
+     *
+     * @return false si la cola está llena y la trama se descarta
+     */
+    public boolean ofrecer(byte[] datos) {
+        long total = bytes.addAndGet(datos.length);
+        if (total > capacidad && total != datos.length) {
+            bytes.addAndGet(-datos.length);
+            // Llena cuenta como por encima, aunque la marca alta sea la propia capacidad
+            if (llenaDesde == 0) llenaDesde = System.nanoTime();
+            return false;
+        }
+        tramas.add(ByteBuffer.wrap(datos));
+        cantidad.incrementAndGet();
+        if (total > marcaAlta && llenaDesde == 0) llenaDesde = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Trama en cabeza, sin retirarla (puede quedar a medio escribir).
+     */
+    public ByteBuffer primera() {
+        return tramas.peek();
+    }
+
+    /**
+     * Copia en {@code lote} las primeras tramas, sin retirarlas, para escribirlas de una
+     * vez (escritura con varios buffers). Solo la llama el consumidor.
+     *
+     * @return cuántas copió
+     */
+    public int primeras(ByteBuffer[] lote) {
+        int n = 0;
+        Iterator<ByteBuffer> it = tramas.iterator();
+        while (n < lote.length && it.hasNext()) lote[n++] = it.next();
+        return n;
+    }
+
+    /**
+     * Retira la trama en cabeza una vez escrita por completo.
+     */
+    public void retirarPrimera() {
+        ByteBuffer trama = tramas.poll();
+        if (trama == null) return;
+        cantidad.decrementAndGet();
+        if (bytes.addAndGet(-trama.limit()) <= marcaBaja) llenaDesde = 0;
+    }
+
+    public void vaciar() {
+        while (primera() != null) retirarPrimera();
+    }
+
+    public boolean sobreMarcaAlta() {
+        return bytes.get() > marcaAlta;
+    }
+
+    public boolean bajoMarcaBaja() {
+        return bytes.get() <= marcaBaja;
+    }
+
+    /**
+     * Cierto si la cola lleva por encima de la marca alta (sin bajar de la marca baja)
+     * más del plazo permitido.
+     */
+    public boolean excedioPlazo() {
+        long desde = llenaDesde;
+        return desde != 0 && System.nanoTime() - desde > plazoLentoNanos;
+    }
+
+    /**
+     * Lo que le queda a la cola para agotar el plazo, en nanosegundos: 0 si ya lo
+     * agotó, o -1 si no está por encima de la marca alta.
+     */
+    public long plazoRestanteNanos() {
+        long desde = llenaDesde;
+        if (desde == 0) return -1;
+        return Math.max(0, plazoLentoNanos - (System.nanoTime() - desde));
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public int getTramas() {
+        return cantidad.get();
+    }
+}
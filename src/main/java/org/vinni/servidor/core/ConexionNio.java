@@ -0,0 +1,246 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.CodecTrama;
+import org.vinni.protocolo.LectorTramas;
+import org.vinni.protocolo.TipoTrama;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Sesión de un cliente atendida por un {@link BucleEventos}.
+ * Reconstruye las líneas del protocolo de texto (o, tras negociarlo, las tramas
+ * binarias) a partir de los bytes leídos y vacía su cola de salida cuando el
+ * canal admite escritura.
+ *
+ * Las tramas nuevas no se escriben al encolarse: la conexión se apunta en el bucle,
+ * que escribe todas las apuntadas al final de la vuelta, cada una con una sola
+ * escritura de varios buffers. Una difusión a muchas conexiones del mismo bucle, o
+ * varias seguidas, cuesta así una escritura por conexión y no una por trama.
+ */
+final class ConexionNio extends Sesion {
+
+    private static final int MAX_LINEA = Integer.getInteger("servidor.maxLinea", 16 * 1024 * 1024);
+    private static final int LINEA_INICIAL = 256;
+    // Trozos de archivo por conexión en cada vuelta del bucle, para no acapararlo
+    private static final int MAX_TROZOS_POR_TURNO = 8;
+
+    private final BucleEventos bucle;
+    private final SocketChannel canal;
+    private final SelectionKey clave;
+    private final ServidorPuerto servidor;
+    private final String direccion;
+
+    // Línea a medio recibir (solo se toca desde el hilo del bucle)
+    private byte[] linea = new byte[LINEA_INICIAL];
+    private int longitudLinea;
+
+    // Tramas binarias, una vez negociado el formato en el saludo
+    private LectorTramas lectorTramas;
+    private final LectorTramas.Receptor receptor = this::entregarTrama;
+
+    private boolean cerrada;
+    private boolean lecturaPausada;
+    // Apuntada para escribir al final de la vuelta (solo desde el hilo del bucle)
+    private boolean apuntada;
+    // Hay una tarea en camino al bucle para apuntarla: desde otros hilos basta una
+    private final AtomicBoolean avisada = new AtomicBoolean();
+
+    ConexionNio(BucleEventos bucle, SocketChannel canal, SelectionKey clave, ServidorPuerto servidor) {
+        super(new ColaSalida(), servidor.getEstadisticas());
+        this.bucle = bucle;
+        this.canal = canal;
+        this.clave = clave;
+        this.servidor = servidor;
+        this.direccion = String.valueOf(canal.socket().getInetAddress());
+    }
+
+    @Override
+    public String getDireccion() {
+        return direccion;
+    }
+
+    @Override
+    protected void notificarPendientes() {
+        if (bucle.enBucle()) {
+            apuntar();
+        } else if (avisada.compareAndSet(false, true)) {
+            bucle.ejecutar(() -> {
+                // Lo que se encole después de esto trae su propio aviso
+                avisada.set(false);
+                apuntar();
+            });
+        }
+    }
+
+    private void apuntar() {
+        if (cerrada || apuntada) return;
+        apuntada = true;
+        bucle.escribirAlFinal(this);
+    }
+
+    /**
+     * La llama el bucle al final de la vuelta. Si el socket estaba lleno, espera a OP_WRITE.
+     */
+    void escribirApuntada() {
+        apuntada = false;
+        if (cerrada || !clave.isValid() || (clave.interestOps() & SelectionKey.OP_WRITE) != 0) return;
+        escribir();
+    }
+
+    @Override
+    protected void actualizarLectura() {
+        bucle.ejecutar(() -> {
+            boolean pausar = isFrenada();
+            if (cerrada || pausar == lecturaPausada) return;
+            lecturaPausada = pausar;
+            clave.interestOps(pausar ? clave.interestOps() & ~SelectionKey.OP_READ
+                    : clave.interestOps() | SelectionKey.OP_READ);
+        });
+    }
+
+    @Override
+    public void cerrar() {
+        bucle.ejecutar(() -> cerrarEnBucle(null));
+    }
+
+    /**
+     * Lee lo disponible en el canal usando el buffer compartido del bucle.
+     */
+    void leer(ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            int leidos = canal.read(buffer);
+            if (leidos < 0) {
+                cerrarEnBucle(null);
+                return;
+            }
+            servidor.getEstadisticas().bytesRecibidos(leidos);
+            buffer.flip();
+            procesar(buffer);
+        } catch (IOException e) {
+            cerrarEnBucle(e.getMessage());
+        }
+    }
+
+    private void procesar(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && !cerrada) {
+            if (lectorTramas != null) {
+                lectorTramas.alimentar(buffer, receptor);
+                return;
+            }
+            int inicio = buffer.position();
+            int fin = buffer.limit();
+            int i = inicio;
+            while (i < fin && buffer.get(i) != '\n') i++;
+
+            int trozo = i - inicio;
+            if (longitudLinea + trozo > MAX_LINEA) {
+                cerrarEnBucle("línea demasiado larga");
+                return;
+            }
+            asegurarCapacidad(longitudLinea + trozo);
+            buffer.get(linea, longitudLinea, trozo);
+            longitudLinea += trozo;
+
+            if (i < fin) {
+                buffer.get(); // salto de línea
+                entregarLinea();
+            }
+        }
+    }
+
+    private void entregarLinea() throws ProtocolException {
+        int longitud = longitudLinea;
+        if (longitud > 0 && linea[longitud - 1] == '\r') longitud--;
+        TipoTrama tipo = TipoTrama.desdeLinea(linea, 0, longitud);
+        ByteBuffer contenido = CodecTrama.contenidoDeLinea(tipo, linea, 0, longitud);
+
+        servidor.alRecibir(this, tipo, contenido);
+
+        longitudLinea = 0;
+        if (linea.length > 64 * 1024) linea = new byte[LINEA_INICIAL];
+        if (isBinaria()) lectorTramas = new LectorTramas();
+    }
+
+    private boolean entregarTrama(TipoTrama tipo, ByteBuffer contenido) {
+        servidor.alRecibir(this, tipo, contenido);
+        return !cerrada;
+    }
+
+    private void asegurarCapacidad(int necesaria) {
+        if (necesaria > linea.length) {
+            linea = Arrays.copyOf(linea, Math.max(necesaria, linea.length * 2));
+        }
+    }
+
+    /**
+     * Vuelca la cola de salida y, en sus huecos, los archivos pendientes de reenviar;
+     * si el socket no admite más, espera a OP_WRITE. Al bajar de la marca baja vuelve a
+     * leer a los emisores que frenó.
+     */
+    void escribir() {
+        if (cerrada) return;
+        try {
+            // Un trozo de archivo a medio escribir tiene que terminar antes que cualquier otra trama
+            if (relevoAMedias() && relevarTrozo(canal) == Relevo.Avance.PARCIAL) {
+                clave.interestOps(clave.interestOps() | SelectionKey.OP_WRITE);
+                return;
+            }
+            int trozos = 0;
+            while (true) {
+                if (!vaciarCola()) {
+                    clave.interestOps(clave.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                // Con la cola vacía, un trozo de archivo; y vuelta a mirar la cola
+                if (!hayRelevos()) break;
+                if (trozos == MAX_TROZOS_POR_TURNO || relevarTrozo(canal) == Relevo.Avance.PARCIAL) {
+                    // Cede el bucle a las demás conexiones y sigue en la próxima vuelta
+                    clave.interestOps(clave.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                trozos++;
+            }
+            clave.interestOps(clave.interestOps() & ~SelectionKey.OP_WRITE);
+            if (cola.bajoMarcaBaja()) soltarEmisores();
+        } catch (IOException e) {
+            cerrarEnBucle(e.getMessage());
+        }
+    }
+
+    /**
+     * @return false si el canal no admitió todo lo encolado
+     */
+    private boolean vaciarCola() throws IOException {
+        while (cola.primera() != null) {
+            if (!escribirLote(canal, bucle.getLote())) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Un fallo inesperado atendiendo esta conexión: se cierra ella sola y el bucle sigue.
+     */
+    void fallo(RuntimeException e) {
+        cerrarEnBucle("error interno: " + e);
+    }
+
+    private void cerrarEnBucle(String motivo) {
+        if (cerrada) return;
+        cerrada = true;
+        clave.cancel();
+        try {
+            canal.close();
+        } catch (IOException ignored) {}
+        cola.vaciar();
+        descartarRelevos();
+        soltarEmisoresAlCerrar();
+        servidor.alDesconectar(this, motivo);
+    }
+}
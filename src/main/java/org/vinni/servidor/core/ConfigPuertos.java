@@ -0,0 +1,70 @@
+package org.vinni.servidor.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Puertos con los que arranca el servidor. Se configuran con
+ * {@code -Dservidor.puertos=12345,12346:4,...} o con {@code --puertos=...} en main;
+ * el número tras los dos puntos es la cantidad de aceptores del puerto (varios
+ * canales de escucha con SO_REUSEPORT, para que el núcleo reparta las conexiones
+ * entre hilos). Sin número se usa {@code servidor.aceptores} (por defecto 1).
+ */
+public final class ConfigPuertos {
+
+    public static final String PROPIEDAD = "servidor.puertos";
+    public static final String PUERTOS_POR_DEFECTO = "12345,12346,12347,12348,12349";
+
+    private ConfigPuertos() {}
+
+    /** Aceptores de un puerto cuando no se indica otra cosa. */
+    public static int aceptoresPorDefecto() {
+        return Math.max(1, Integer.getInteger("servidor.aceptores", 1));
+    }
+
+    /**
+     * Lee los puertos configurados (puerto -> aceptores, en el orden dado).
+     */
+    public static Map<Integer, Integer> desdePropiedades() {
+        return desdeTexto(System.getProperty(PROPIEDAD, PUERTOS_POR_DEFECTO));
+    }
+
+    /**
+     * Busca un argumento --puertos=... y, si existe, lo deja fijado como propiedad del sistema.
+     */
+    public static void aplicarArgumentos(String[] args) {
+        if (args == null) return;
+        for (String arg : args) {
+            if (arg.startsWith("--puertos=")) {
+                System.setProperty(PROPIEDAD, arg.substring("--puertos=".length()));
+            }
+        }
+    }
+
+    static Map<Integer, Integer> desdeTexto(String valor) {
+        Map<Integer, Integer> puertos = new LinkedHashMap<>();
+        if (valor == null) return puertos;
+        for (String parte : valor.split(",")) {
+            String texto = parte.trim();
+            if (texto.isEmpty()) continue;
+            try {
+                int dosPuntos = texto.indexOf(':');
+                int puerto = Integer.parseInt(dosPuntos < 0 ? texto : texto.substring(0, dosPuntos).trim());
+                int aceptores = dosPuntos < 0 ? aceptoresPorDefecto() : Integer.parseInt(texto.substring(dosPuntos + 1).trim());
+                validar(puerto, aceptores);
+                puertos.put(puerto, aceptores);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Puerto mal configurado '" + texto + "', se ignora: " + e.getMessage());
+            }
+        }
+        return puertos;
+    }
+
+    /**
+     * @throws IllegalArgumentException si el puerto o la cantidad de aceptores no tienen sentido
+     */
+    static void validar(int puerto, int aceptores) {
+        if (puerto < 1 || puerto > 65535) throw new IllegalArgumentException("puerto fuera de rango: " + puerto);
+        if (aceptores < 1 || aceptores > 64) throw new IllegalArgumentException("aceptores fuera de rango: " + aceptores);
+    }
+}
@@ -0,0 +1,104 @@
+package org.vinni.servidor.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecutores por puerto para los motores bloqueantes.
+ * Los hilos virtuales se crean por reflexión para poder compilar y ejecutar
+ * en JVM anteriores a Java 21, donde se usan hilos normales.
+ */
+public final class Ejecutores {
+
+    private static final boolean VIRTUALES_DISPONIBLES = fabricaVirtual("sonda-") != null;
+    private static final int ESCRITORES = Integer.getInteger("servidor.escritores",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private Ejecutores() {}
+
+    /**
+     * Crea el ejecutor que atenderá el bucle de aceptación y las sesiones de un puerto.
+     */
+    public static ExecutorService porPuerto(ModoServidor modo, int puerto) {
+        if (modo == ModoServidor.VIRTUALES && VIRTUALES_DISPONIBLES) {
+            ExecutorService virtual = porTareaVirtual(fabricaVirtual("Puerto-" + puerto + "-v"));
+            if (virtual != null) return virtual;
+        }
+        return Executors.newCachedThreadPool(fabricaNormal("Puerto-" + puerto + "-"));
+    }
+
+    /**
+     * Un hilo por tarea, virtual si la JVM los tiene (por ejemplo, para clientes simulados).
+     */
+    public static ExecutorService porTarea(String prefijo) {
+        ExecutorService virtual = VIRTUALES_DISPONIBLES ? porTareaVirtual(fabricaVirtual(prefijo)) : null;
+        return virtual != null ? virtual : Executors.newCachedThreadPool(fabricaNormal(prefijo));
+    }
+
+    /**
+     * Pool común de escritores de las sesiones bloqueantes en modo HILOS
+     * ({@code servidor.escritores} hilos, por defecto uno por núcleo y al menos dos).
+     */
+    public static ExecutorService escritores() {
+        return Escritores.POOL;
+    }
+
+    /** Se crea la primera vez que se pide. */
+    private static final class Escritores {
+        static final ExecutorService POOL = Executors.newFixedThreadPool(ESCRITORES, fabricaNormal("Escritor-"));
+    }
+
+    public static boolean hilosVirtualesDisponibles() {
+        return VIRTUALES_DISPONIBLES;
+    }
+
+    /**
+     * Interrumpe las tareas del ejecutor y espera a que terminen.
+     *
+     * @return true si todas las tareas acabaron dentro del plazo
+     */
+    public static boolean detener(ExecutorService ejecutor, long esperaMs) {
+        if (ejecutor == null) return true;
+        ejecutor.shutdownNow();
+        try {
+            return ejecutor.awaitTermination(esperaMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static ExecutorService porTareaVirtual(ThreadFactory fabrica) {
+        if (fabrica == null) return null;
+        try {
+            Method metodo = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) metodo.invoke(null, fabrica);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory fabricaVirtual(String prefijo) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> tipoBuilder = Class.forName("java.lang.Thread$Builder");
+            builder = tipoBuilder.getMethod("name", String.class, long.class).invoke(builder, prefijo, 0L);
+            return (ThreadFactory) tipoBuilder.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory fabricaNormal(String prefijo) {
+        AtomicInteger contador = new AtomicInteger();
+        return tarea -> {
+            Thread hilo = new Thread(tarea, prefijo + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        };
+    }
+}
@@ -0,0 +1,103 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.Trama;
+import org.vinni.protocolo.TipoTrama;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Índice concurrente usuario → sesión de un puerto y reparto de mensajes.
+ * No usa un candado global: el registro es un ConcurrentHashMap y cada
+ * difusión codifica el mensaje una sola vez por formato (texto o binario)
+ * para todas las sesiones.
+ */
+public class Enrutador {
+
+    private final ConcurrentHashMap<String, Sesion> sesiones = new ConcurrentHashMap<>();
+
+    /**
+     * Asocia el usuario a la sesión.
+     *
+     * @return la sesión que tenía antes ese nombre (por ejemplo, una conexión anterior), o null
+     */
+    public Sesion registrar(String usuario, Sesion sesion) {
+        return sesiones.put(usuario, sesion);
+    }
+
+    /**
+     * Quita al usuario solo si sigue asociado a esa sesión.
+     *
+     * @return true si se retiró (false si ya lo había reemplazado otra conexión)
+     */
+    public boolean retirar(String usuario, Sesion sesion) {
+        return sesiones.remove(usuario, sesion);
+    }
+
+    /**
+     * Envía el mensaje a todas las sesiones salvo a {@code excepto}.
+     *
+     * @return número de sesiones a las que se envió
+     */
+    public int difundir(Trama trama, Sesion excepto) {
+        int enviados = 0;
+        for (Sesion sesion : sesiones.values()) {
+            if (sesion != excepto) {
+                sesion.enviar(trama);
+                enviados++;
+            }
+        }
+        return enviados;
+    }
+
+    /**
+     * Encola el reenvío del archivo a todas las sesiones salvo a {@code excepto}.
+     *
+     * @return número de sesiones a las que se envió
+     */
+    public int difundir(MedioGuardado medio, Sesion excepto) {
+        int enviados = 0;
+        for (Sesion sesion : sesiones.values()) {
+            if (sesion != excepto) {
+                sesion.relevar(medio);
+                enviados++;
+            }
+        }
+        return enviados;
+    }
+
+    /**
+     * Envía el mensaje solo al usuario indicado.
+     *
+     * @return false si el usuario no está conectado a este puerto
+     */
+    public boolean enviarA(String usuario, Trama trama) {
+        Sesion sesion = sesiones.get(usuario);
+        if (sesion == null) return false;
+        sesion.enviar(trama);
+        return true;
+    }
+
+    public Sesion buscar(String usuario) {
+        return sesiones.get(usuario);
+    }
+
+    public List<String> usuarios() {
+        List<String> lista = new ArrayList<>(sesiones.keySet());
+        Collections.sort(lista);
+        return lista;
+    }
+
+    /**
+     * Lista completa "USERS:a,b,c" que recibe un cliente al identificarse.
+     */
+    public Trama tramaUsuarios() {
+        return Trama.de(TipoTrama.USERS, String.join(",", usuarios()));
+    }
+
+    public int cantidad() {
+        return sesiones.size();
+    }
+}
@@ -0,0 +1,140 @@
+package org.vinni.servidor.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores de un puerto: conexiones, mensajes y bytes de entrada y salida, y las
+ * colas de salida; más los histogramas del tiempo de atención de cada mensaje y del
+ * tamaño de las imágenes. Usa LongAdder para no añadir contención en el camino de envío.
+ *
+ * Uno por puerto y por proceso (ver {@link #de(int)}): los contadores siguen
+ * creciendo aunque el puerto se detenga y se vuelva a levantar.
+ */
+public class EstadisticasPuerto {
+
+    private static final Map<Integer, EstadisticasPuerto> POR_PUERTO = new ConcurrentHashMap<>();
+
+    private final LongAdder descartes = new LongAdder();
+    private final LongAdder expulsiones = new LongAdder();
+    private final LongAdder pausasLectura = new LongAdder();
+
+    private final LongAdder conexiones = new LongAdder();
+    private final LongAdder mensajesRecibidos = new LongAdder();
+    private final LongAdder mensajesEnviados = new LongAdder();
+    private final LongAdder bytesRecibidos = new LongAdder();
+    private final LongAdder bytesEnviados = new LongAdder();
+    private final LongAdder escrituras = new LongAdder();
+    private final HistogramaMetrica latencias = new HistogramaMetrica(HistogramaMetrica.MICROS);
+    private final HistogramaMetrica imagenes = new HistogramaMetrica(HistogramaMetrica.BYTES);
+
+    /**
+     * Estadísticas del puerto, comunes a todos los servidores que se abran en él durante el proceso.
+     */
+    public static EstadisticasPuerto de(int puerto) {
+        return POR_PUERTO.computeIfAbsent(puerto, p -> new EstadisticasPuerto());
+    }
+
+    void descarte() {
+        descartes.increment();
+    }
+
+    void expulsion() {
+        expulsiones.increment();
+    }
+
+    void pausaLectura() {
+        pausasLectura.increment();
+    }
+
+    void conexion() {
+        conexiones.increment();
+    }
+
+    /**
+     * Un mensaje atendido y lo que tardó el servidor en atenderlo.
+     */
+    void mensajeRecibido(long nanos) {
+        mensajesRecibidos.increment();
+        latencias.registrar(nanos / 1000);
+    }
+
+    void mensajeEnviado() {
+        mensajesEnviados.increment();
+    }
+
+    void bytesRecibidos(long bytes) {
+        bytesRecibidos.add(bytes);
+    }
+
+    /**
+     * Una escritura en el socket (una llamada al sistema, con uno o varios buffers).
+     */
+    void escritura(long bytes) {
+        escrituras.increment();
+        bytesEnviados.add(bytes);
+    }
+
+    void imagen(long bytes) {
+        imagenes.registrar(bytes);
+    }
+
+    /** Tramas descartadas porque la cola del destinatario estaba llena. */
+    public long getDescartes() {
+        return descartes.sum();
+    }
+
+    /** Clientes desconectados por tener la cola llena más allá del plazo. */
+    public long getExpulsiones() {
+        return expulsiones.sum();
+    }
+
+    /** Veces que se dejó de leer a un cliente por superar la marca alta. */
+    public long getPausasLectura() {
+        return pausasLectura.sum();
+    }
+
+    /** Conexiones aceptadas (sin las sondas del monitor). */
+    public long getConexiones() {
+        return conexiones.sum();
+    }
+
+    /** Mensajes recibidos de los clientes. */
+    public long getMensajesRecibidos() {
+        return mensajesRecibidos.sum();
+    }
+
+    /** Tramas encoladas hacia los clientes: una difusión cuenta una por destinatario. */
+    public long getMensajesEnviados() {
+        return mensajesEnviados.sum();
+    }
+
+    /** Bytes leídos de los sockets. */
+    public long getBytesRecibidos() {
+        return bytesRecibidos.sum();
+    }
+
+    /** Bytes escritos desde las colas de salida (sin los archivos reenviados desde disco). */
+    public long getBytesEnviados() {
+        return bytesEnviados.sum();
+    }
+
+    /**
+     * Escrituras en los sockets desde las colas de salida: comparadas con
+     * {@link #getMensajesEnviados()}, cuántas tramas salen juntas en cada una.
+     */
+    public long getEscrituras() {
+        return escrituras.sum();
+    }
+
+    /** Tiempo de atención de cada mensaje recibido, en microsegundos. */
+    public HistogramaMetrica getLatencias() {
+        return latencias;
+    }
+
+    /** Tamaño de las imágenes (IMG:) recibidas, en bytes. */
+    public HistogramaMetrica getImagenes() {
+        return imagenes;
+    }
+}
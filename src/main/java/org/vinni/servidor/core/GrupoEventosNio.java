@@ -0,0 +1,63 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool de bucles de eventos NIO compartido por todos los puertos del servidor.
+ * Cada bucle es un hilo con su propio Selector; los aceptores y las conexiones
+ * se reparten entre ellos por turnos.
+ */
+public class GrupoEventosNio {
+
+    public static final String PROPIEDAD_HILOS = "servidor.nio.hilos";
+
+    private final BucleEventos[] bucles;
+    private final AtomicInteger turno = new AtomicInteger();
+
+    public GrupoEventosNio(int hilos) throws IOException {
+        if (hilos < 1) throw new IllegalArgumentException("Se necesita al menos un bucle de eventos");
+        bucles = new BucleEventos[hilos];
+        for (int i = 0; i < hilos; i++) {
+            bucles[i] = new BucleEventos(this, i);
+        }
+        for (BucleEventos bucle : bucles) {
+            bucle.iniciar();
+        }
+    }
+
+    /**
+     * Número de bucles configurado con -Dservidor.nio.hilos (por defecto, hasta 4 según los núcleos).
+     */
+    public static int hilosPorDefecto() {
+        int nucleos = Runtime.getRuntime().availableProcessors();
+        return Integer.getInteger(PROPIEDAD_HILOS, Math.max(1, Math.min(4, nucleos)));
+    }
+
+    BucleEventos siguiente() {
+        return bucles[Math.floorMod(turno.getAndIncrement(), bucles.length)];
+    }
+
+    /**
+     * Registra el canal de escucha de un puerto en uno de los bucles.
+     */
+    BucleEventos registrarAceptor(ServerSocketChannel canal, ServidorPuerto servidor) {
+        BucleEventos bucle = siguiente();
+        bucle.registrarAceptor(canal, servidor);
+        return bucle;
+    }
+
+    public int getHilos() {
+        return bucles.length;
+    }
+
+    /**
+     * Detiene todos los bucles y cierra las conexiones que quedaran abiertas.
+     */
+    public void detener() {
+        for (BucleEventos bucle : bucles) {
+            bucle.detener();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.vinni.servidor.core;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de cubetas fijas, como los de Prometheus: cada cubeta cuenta los valores
+ * hasta su límite y una última cuenta lo que pasa del mayor. Las cuentas son
+ * LongAdder, así que registrar desde muchos hilos a la vez no añade contención.
+ */
+public final class HistogramaMetrica {
+
+    /** Latencias en microsegundos: de 50 µs a 10 s. */
+    static final long[] MICROS = {50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+            100_000, 250_000, 500_000, 1_000_000, 2_500_000, 10_000_000};
+    /** Tamaños en bytes: de 1 KB a 16 MB. */
+    static final long[] BYTES = {1 << 10, 4 << 10, 16 << 10, 64 << 10, 256 << 10, 1 << 20, 4 << 20, 16 << 20};
+
+    private final long[] limites;
+    // Una cuenta por cubeta más la de los que pasan del último límite
+    private final LongAdder[] cuentas;
+    private final LongAdder suma = new LongAdder();
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    public HistogramaMetrica(long... limites) {
+        for (int i = 1; i < limites.length; i++) {
+            if (limites[i] <= limites[i - 1]) throw new IllegalArgumentException("Los límites deben ir de menor a mayor");
+        }
+        this.limites = limites.clone();
+        this.cuentas = new LongAdder[limites.length + 1];
+        for (int i = 0; i < cuentas.length; i++) cuentas[i] = new LongAdder();
+    }
+
+    public void registrar(long valor) {
+        int i = 0;
+        while (i < limites.length && valor > limites[i]) i++;
+        cuentas[i].increment();
+        suma.add(valor);
+        maximo.accumulate(valor);
+    }
+
+    /** Límites superiores de las cubetas (sin la última, que no tiene). */
+    public long[] getLimites() {
+        return limites.clone();
+    }
+
+    /**
+     * Cuentas acumuladas: la posición i tiene los valores hasta {@code limites[i]} y la
+     * última, el total (el {@code le="+Inf"} de Prometheus).
+     */
+    public long[] getAcumuladas() {
+        long[] acumuladas = new long[cuentas.length];
+        long total = 0;
+        for (int i = 0; i < cuentas.length; i++) {
+            total += cuentas[i].sum();
+            acumuladas[i] = total;
+        }
+        return acumuladas;
+    }
+
+    public long getTotal() {
+        long total = 0;
+        for (LongAdder cuenta : cuentas) total += cuenta.sum();
+        return total;
+    }
+
+    public long getSuma() {
+        return suma.sum();
+    }
+
+    public long getMaximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Límite de la cubeta donde cae el percentil (el máximo si cae en la última), o 0 sin registros.
+     *
+     * @param percentil entre 0 y 100
+     */
+    public long percentil(double percentil) {
+        long[] acumuladas = getAcumuladas();
+        long total = acumuladas[acumuladas.length - 1];
+        if (total == 0) return 0;
+        long buscado = Math.max(1, (long) Math.ceil(percentil / 100 * total));
+        for (int i = 0; i < limites.length; i++) {
+            if (acumuladas[i] >= buscado) return Math.min(limites[i], getMaximo());
+        }
+        return getMaximo();
+    }
+}
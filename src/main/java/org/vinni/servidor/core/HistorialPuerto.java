@@ -0,0 +1,251 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Últimos mensajes enrutados de un puerto (MSG: y MSGTO:), numerados, para que un
+ * cliente que se reconecta reciba lo que se perdió ({@code USER:nombre;seq=N}).
+ *
+ * Es uno por puerto durante todo el proceso, como el {@link RegistroPuerto}: sobrevive
+ * a los reinicios del puerto, así que la avalancha de reconexiones que sigue a un
+ * reinicio se sirve desde memoria. Guarda a lo sumo {@code servidor.replay.capacidad}
+ * mensajes (por defecto 1024); nunca se repite más que eso.
+ *
+ * La numeración arranca en el reloj (ms × 1000), de modo que sigue creciendo tras
+ * reiniciar el proceso sin leer nada. Al crearse, un hilo aparte llena la memoria
+ * con los últimos mensajes públicos de los registros diarios del puerto, donde se
+ * anotan con su número ({@code #N usuario: texto}); los privados no se escriben a
+ * disco y solo se repiten desde memoria. Nadie que atiende clientes lee el disco:
+ * si un cliente pide mensajes más viejos que los que hay en memoria, recibe lo que
+ * hay y un aviso del hueco (ver {@link #primeraEnMemoria}), que puede consultar con
+ * HISTORY: o SEARCH:.
+ *
+ * Numerar y encolar en las sesiones van juntos, con el historial tomado
+ * ({@link #anotar(Trama, String, String, Consumer)}): encolar no escribe en ningún
+ * socket, y así cada cliente recibe los mensajes en el orden de sus números. Si se
+ * cruzaran, un cliente que se desconecta después de #N+1 y antes de #N reanudaría
+ * desde N+1 y no se le repetiría #N. La reanudación también se hace con el historial
+ * tomado (registrar la sesión y copiar lo perdido); el filtro de la sesión
+ * ({@link Sesion#reanudarHasta}) queda para que nada llegue dos veces.
+ */
+public class HistorialPuerto {
+
+    private static final int CAPACIDAD = Integer.getInteger("servidor.replay.capacidad", 1024);
+    private static final int MAX_ARCHIVOS = 2;
+
+    private static final Map<Integer, HistorialPuerto> POR_PUERTO = new ConcurrentHashMap<>();
+
+    /**
+     * Mensaje guardado: destinatario null si fue para todos.
+     */
+    static final class Entrada {
+        final Trama trama;
+        final String remitente;
+        final String destinatario;
+
+        Entrada(Trama trama, String remitente, String destinatario) {
+            this.trama = trama;
+            this.remitente = remitente;
+            this.destinatario = destinatario;
+        }
+
+        boolean esPara(String usuario) {
+            return destinatario == null ? !usuario.equals(remitente) : usuario.equals(destinatario);
+        }
+    }
+
+    private final Path directorio;
+    private final int capacidad;
+    private final Deque<Entrada> entradas = new ArrayDeque<>();
+    private long ultima;
+
+    private final Object cargaDisco = new Object();
+    private volatile boolean precargado;
+
+    /**
+     * Historial del puerto, común a todos los servidores que se abran en él durante el proceso.
+     */
+    public static HistorialPuerto de(int puerto) {
+        return POR_PUERTO.computeIfAbsent(puerto, p -> {
+            HistorialPuerto historial = new HistorialPuerto(RegistroPuerto.de(p).getDirectorio(), CAPACIDAD);
+            Thread precarga = new Thread(historial::precargar, "PrecargaHistorial-" + p);
+            precarga.setDaemon(true);
+            precarga.setPriority(Thread.MIN_PRIORITY);
+            precarga.start();
+            return historial;
+        });
+    }
+
+    HistorialPuerto(Path directorio, int capacidad) {
+        this.directorio = directorio;
+        this.capacidad = capacidad;
+        this.ultima = System.currentTimeMillis() * 1000;
+    }
+
+    /**
+     * Numera y guarda el mensaje, sin entregarlo.
+     *
+     * @param destinatario null si el mensaje es para todos
+     * @return la trama numerada
+     */
+    synchronized Trama anotar(Trama trama, String remitente, String destinatario) {
+        Trama numerada = trama.numerada(++ultima);
+        entradas.addLast(new Entrada(numerada, remitente, destinatario));
+        if (entradas.size() > capacidad) entradas.removeFirst();
+        return numerada;
+    }
+
+    /**
+     * Numera y guarda el mensaje y lo encola con {@code entrega} antes de soltar el
+     * historial, para que ningún cliente lo reciba después de uno con número mayor.
+     * La entrega solo debe encolar (como {@link Sesion#enviar(Trama)}), nunca esperar.
+     *
+     * @param destinatario null si el mensaje es para todos
+     * @return la trama numerada
+     */
+    synchronized Trama anotar(Trama trama, String remitente, String destinatario, Consumer<Trama> entrega) {
+        Trama numerada = anotar(trama, remitente, destinatario);
+        entrega.accept(numerada);
+        return numerada;
+    }
+
+    /**
+     * Mensajes para el usuario posteriores a {@code ultimaVista}, del más viejo al más nuevo.
+     */
+    synchronized List<Trama> desde(long ultimaVista, String usuario) {
+        if (ultimaVista >= ultima) return Collections.emptyList();
+        List<Trama> pendientes = new ArrayList<>();
+        for (Entrada entrada : entradas) {
+            if (entrada.trama.getSecuencia() > ultimaVista && entrada.esPara(usuario)) pendientes.add(entrada.trama);
+        }
+        return pendientes;
+    }
+
+    /**
+     * ¿Está en memoria todo lo posterior a {@code ultimaVista}?
+     */
+    synchronized boolean cubre(long ultimaVista) {
+        if (ultimaVista >= ultima) return true;
+        Entrada primera = entradas.peekFirst();
+        return primera != null && primera.trama.getSecuencia() <= ultimaVista + 1;
+    }
+
+    /**
+     * Número del mensaje más viejo en memoria (el siguiente a numerar si no hay ninguno);
+     * lo anterior a él ya no se puede repetir.
+     */
+    synchronized long primeraEnMemoria() {
+        Entrada primera = entradas.peekFirst();
+        return primera != null ? primera.trama.getSecuencia() : ultima + 1;
+    }
+
+    public synchronized long getUltima() {
+        return ultima;
+    }
+
+    public synchronized int getCantidad() {
+        return entradas.size();
+    }
+
+    // ---------- Respaldo en disco ----------
+
+    /**
+     * Completa la memoria con los mensajes públicos anotados en los registros del puerto
+     * (los archivos de los últimos días), hasta la capacidad. Solo lee el disco la primera
+     * vez que se llama; la llama el hilo de precarga que arranca con el historial. No
+     * bloquea las entregas en vivo.
+     */
+    void precargar() {
+        if (precargado) return;
+        synchronized (cargaDisco) {
+            if (precargado) return;
+            Deque<Entrada> leidas = leerRegistros();
+            synchronized (this) {
+                long primeraEnMemoria = entradas.isEmpty() ? Long.MAX_VALUE : entradas.peekFirst().trama.getSecuencia();
+                while (!leidas.isEmpty() && entradas.size() < capacidad) {
+                    Entrada entrada = leidas.removeLast();
+                    if (entrada.trama.getSecuencia() < primeraEnMemoria) entradas.addFirst(entrada);
+                }
+            }
+            precargado = true;
+        }
+    }
+
+    /**
+     * Las últimas {@code capacidad} líneas numeradas, de la más vieja a la más nueva.
+     */
+    private Deque<Entrada> leerRegistros() {
+        List<Path> archivos = new ArrayList<>();
+        if (Files.isDirectory(directorio)) {
+            try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio, "log_*.txt")) {
+                for (Path archivo : lista) archivos.add(archivo);
+            } catch (IOException e) {
+                return new ArrayDeque<>();
+            }
+        }
+        // Los nombres llevan la fecha (log_AAAAMMDD.txt): ordenados, el último es el de hoy
+        Collections.sort(archivos);
+        List<Path> recientes = archivos.subList(Math.max(0, archivos.size() - MAX_ARCHIVOS), archivos.size());
+
+        Deque<Entrada> leidas = new ArrayDeque<>();
+        for (Path archivo : recientes) {
+            try (BufferedReader lector = Files.newBufferedReader(archivo, StandardCharsets.UTF_8)) {
+                String linea;
+                while ((linea = lector.readLine()) != null) {
+                    Entrada entrada = desdeLinea(linea);
+                    if (entrada == null) continue;
+                    leidas.addLast(entrada);
+                    if (leidas.size() > capacidad) leidas.removeFirst();
+                }
+            } catch (IOException e) {
+                // Un archivo ilegible no impide usar los demás
+            }
+        }
+        return leidas;
+    }
+
+    /**
+     * Línea de mensaje público en el registro: {@code [hora] #N usuario: texto}.
+     */
+    static String lineaDeRegistro(long secuencia, String usuario, String texto) {
+        return "#" + secuencia + " " + usuario + ": " + texto;
+    }
+
+    /**
+     * @return la entrada de una línea escrita con {@link #lineaDeRegistro}, o null si es otra cosa
+     */
+    static Entrada desdeLinea(String linea) {
+        int marca = linea.indexOf("] #");
+        if (marca < 0) return null;
+        int inicio = marca + 3;
+        int espacio = linea.indexOf(' ', inicio);
+        if (espacio < 0) return null;
+        long secuencia;
+        try {
+            secuencia = Long.parseLong(linea.substring(inicio, espacio));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String mensaje = linea.substring(espacio + 1);
+        int separador = mensaje.indexOf(": ");
+        if (separador <= 0) return null;
+        Trama trama = Trama.de(TipoTrama.MSG, mensaje).numerada(secuencia);
+        return new Entrada(trama, mensaje.substring(0, separador), null);
+    }
+}
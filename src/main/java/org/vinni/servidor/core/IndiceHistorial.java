@@ -0,0 +1,530 @@
+package org.vinni.servidor.core;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Índice de búsqueda sobre los registros de un puerto, en
+ * {@code server_data/port_<n>/indice/}: qué líneas contienen cada palabra y qué
+ * líneas escribió cada usuario. Solo entran los mensajes públicos numerados
+ * ({@code #N usuario: texto}, ver {@link HistorialPuerto#lineaDeRegistro}).
+ *
+ * Un hilo de baja prioridad mira cada {@code servidor.indice.intervaloMs} (por
+ * defecto 5 s; 0 lo desactiva) si los registros crecieron y, si es así, escribe lo
+ * nuevo como un {@link SegmentoIndice}; los segmentos se mezclan por niveles de
+ * tamaño (ver {@link #compactar}). Lo leído hasta dónde se guarda en
+ * {@code progreso}. Las consultas no indexan: proyectan los segmentos en memoria y
+ * solo leen de los registros las líneas encontradas; corren en su propio hilo,
+ * nunca en los de las sesiones.
+ */
+public class IndiceHistorial {
+
+    private static final long INTERVALO_MS = Long.getLong("servidor.indice.intervaloMs", 5000);
+    // Segmentos seguidos del mismo nivel que se mezclan en uno, y tamaño máximo del nivel 0
+    private static final int FACTOR_MEZCLA = 4;
+    private static final long TAM_NIVEL_BASE = 64 * 1024;
+    // Bytes de registro por segmento: acota la memoria de una pasada
+    private static final long TAM_PASADA = 8L * 1024 * 1024;
+    private static final int TAM_LECTURA = 1024 * 1024;
+    private static final int MAX_LINEA = 64 * 1024;
+    private static final String PROGRESO = "progreso";
+
+    private static final Map<Integer, IndiceHistorial> POR_PUERTO = new ConcurrentHashMap<>();
+
+    // Consultas de todos los puertos, de a una; con la cola llena se rechazan
+    private static final ExecutorService CONSULTAS = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(256), r -> {
+                Thread hilo = new Thread(r, "ConsultasHistorial");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+
+    private final Path registros;
+    private final Path directorio;
+    private final List<SegmentoIndice> segmentos = new CopyOnWriteArrayList<>();
+
+    // ---------- Estado del indexador (bajo el candado "indexando") ----------
+    private final Object indexando = new Object();
+    private final Map<String, Long> progreso = new HashMap<>();
+    private volatile boolean cargado;
+    private long siguienteSegmento;
+
+    private Thread hilo;
+    private volatile boolean activo;
+
+    /**
+     * Índice del puerto, común a todos los servidores que se abran en él durante el proceso.
+     */
+    public static IndiceHistorial de(int puerto) {
+        return POR_PUERTO.computeIfAbsent(puerto, p -> new IndiceHistorial(
+                RegistroPuerto.de(p).getDirectorio(), Paths.get("server_data", "port_" + p, "indice")));
+    }
+
+    IndiceHistorial(Path registros, Path directorio) {
+        this.registros = registros;
+        this.directorio = directorio;
+    }
+
+    /**
+     * Arranca el hilo que indexa en segundo plano, si no estaba arrancado.
+     */
+    public synchronized void iniciar() {
+        if (hilo != null || INTERVALO_MS <= 0) return;
+        activo = true;
+        hilo = new Thread(this::indexarPeriodicamente, "IndiceHistorial-" + directorio.getParent().getFileName());
+        hilo.setDaemon(true);
+        hilo.setPriority(Thread.MIN_PRIORITY);
+        hilo.start();
+    }
+
+    /** Cierto si el hilo de fondo está indexando. */
+    public synchronized boolean isIniciado() {
+        return hilo != null;
+    }
+
+    /**
+     * Detiene el hilo de fondo (lo ya indexado queda en disco).
+     */
+    public synchronized void detener() {
+        activo = false;
+        if (hilo == null) return;
+        hilo.interrupt();
+        try {
+            hilo.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        hilo = null;
+    }
+
+    private void indexarPeriodicamente() {
+        while (activo) {
+            try {
+                Thread.sleep(INTERVALO_MS);
+                actualizar();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("No se pudo indexar " + registros + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // ---------- Indexado ----------
+
+    /**
+     * Indexa lo que se añadió a los registros desde la última vez.
+     *
+     * @return líneas de mensaje indexadas
+     */
+    public int actualizar() throws IOException {
+        synchronized (indexando) {
+            cargar();
+            List<Path> archivos = archivosDeRegistro();
+            Map<String, Long> avance = new HashMap<>();
+            Pasada pasada = new Pasada();
+            int total = 0;
+            for (Path archivo : archivos) {
+                String nombre = archivo.getFileName().toString();
+                int dia = diaDeArchivo(nombre);
+                if (dia < 0) continue;
+                long desde = progreso.getOrDefault(nombre, 0L);
+                // Lo normal en cada vuelta: nada nuevo, y basta con mirar el tamaño
+                if (Files.size(archivo) <= desde) continue;
+                try (FileChannel canal = FileChannel.open(archivo, StandardOpenOption.READ)) {
+                    long tamano = canal.size();
+                    ByteBuffer bloque = ByteBuffer.allocate(TAM_LECTURA);
+                    while (desde < tamano) {
+                        bloque.clear();
+                        while (bloque.hasRemaining() && canal.read(bloque, desde + bloque.position()) > 0) {}
+                        int leido = bloque.position();
+                        int consumido = pasada.lineas(bloque.array(), leido, dia, desde);
+                        if (consumido == 0) {
+                            // Línea a medio escribir al final del archivo, o una absurdamente larga que se salta
+                            if (leido < TAM_LECTURA) break;
+                            consumido = leido;
+                        }
+                        desde += consumido;
+                        avance.put(nombre, desde);
+                        if (pasada.bytes >= TAM_PASADA) {
+                            total += pasada.cantidad;
+                            guardarPasada(pasada, avance);
+                            pasada = new Pasada();
+                        }
+                    }
+                }
+            }
+            total += pasada.cantidad;
+            if (!avance.isEmpty()) guardarPasada(pasada, avance);
+            if (total > 0) compactar();
+            return total;
+        }
+    }
+
+    /**
+     * Claves y apariciones de los mensajes leídos en una pasada.
+     */
+    private static final class Pasada {
+        final TreeMap<String, SegmentoIndice.ListaLargos> terminos = new TreeMap<>();
+        final TreeMap<String, SegmentoIndice.ListaLargos> usuarios = new TreeMap<>();
+        long bytes;
+        int cantidad;
+
+        /**
+         * Indexa las líneas completas del bloque.
+         *
+         * @return bytes consumidos (hasta el último salto de línea)
+         */
+        int lineas(byte[] bloque, int largo, int dia, long inicioBloque) {
+            int inicio = 0;
+            for (int i = 0; i < largo; i++) {
+                if (bloque[i] != '\n') continue;
+                linea(new String(bloque, inicio, i - inicio, StandardCharsets.UTF_8),
+                        SegmentoIndice.aparicion(dia, inicioBloque + inicio));
+                inicio = i + 1;
+            }
+            bytes += inicio;
+            return inicio;
+        }
+
+        private void linea(String linea, long aparicion) {
+            HistorialPuerto.Entrada entrada = HistorialPuerto.desdeLinea(linea);
+            if (entrada == null) return;
+            String remitente = entrada.remitente;
+            String texto = entrada.trama.texto().substring(remitente.length() + 2);
+            usuarios.computeIfAbsent(remitente, u -> new SegmentoIndice.ListaLargos()).agregar(aparicion);
+            for (String termino : terminos(texto)) {
+                terminos.computeIfAbsent(termino, t -> new SegmentoIndice.ListaLargos()).agregar(aparicion);
+            }
+            cantidad++;
+        }
+    }
+
+    private void guardarPasada(Pasada pasada, Map<String, Long> avance) throws IOException {
+        if (pasada.cantidad > 0) {
+            Files.createDirectories(directorio);
+            long numero = siguienteSegmento++;
+            Path ruta = directorio.resolve(nombreSegmento(numero, numero));
+            SegmentoIndice.escribir(ruta, pasada.terminos, pasada.usuarios);
+            segmentos.add(SegmentoIndice.abrir(ruta));
+        }
+        progreso.putAll(avance);
+        avance.clear();
+        if (pasada.cantidad > 0 || Files.isDirectory(directorio)) guardarProgreso();
+    }
+
+    /**
+     * Mezcla por niveles de tamaño: cuando hay {@value #FACTOR_MEZCLA} o más segmentos
+     * seguidos del mismo nivel, los mezcla en uno ({@link SegmentoIndice#mezclar}), que
+     * suele quedar en el nivel siguiente. Cada línea se reescribe una vez por nivel, no en
+     * cada mezcla, y los segmentos abiertos quedan acotados por el número de niveles.
+     */
+    private void compactar() throws IOException {
+        int i = 0;
+        while (i < segmentos.size()) {
+            int nivel = nivel(segmentos.get(i));
+            int fin = i + 1;
+            while (fin < segmentos.size() && nivel(segmentos.get(fin)) == nivel) fin++;
+            if (fin - i < FACTOR_MEZCLA) {
+                i = fin;
+                continue;
+            }
+            mezclar(i, new ArrayList<>(segmentos.subList(i, fin)));
+            // El mezclado puede quedar en el nivel de los anteriores: se vuelve a mirar desde el principio
+            i = 0;
+        }
+    }
+
+    private void mezclar(int posicion, List<SegmentoIndice> viejos) throws IOException {
+        long desde = rangoSegmento(viejos.get(0).getRuta())[0];
+        long hasta = rangoSegmento(viejos.get(viejos.size() - 1).getRuta())[1];
+        Path ruta = directorio.resolve(nombreSegmento(desde, hasta));
+        SegmentoIndice.mezclar(viejos, ruta);
+        // Primero el segmento mezclado, luego se retiran los viejos: una consulta nunca ve el índice incompleto
+        segmentos.add(posicion, SegmentoIndice.abrir(ruta));
+        segmentos.removeAll(viejos);
+        for (SegmentoIndice viejo : viejos) Files.deleteIfExists(viejo.getRuta());
+    }
+
+    private static int nivel(SegmentoIndice segmento) {
+        int nivel = 0;
+        for (long tope = TAM_NIVEL_BASE; segmento.getTamano() > tope && nivel < 32; tope *= FACTOR_MEZCLA) nivel++;
+        return nivel;
+    }
+
+    // ---------- Estado en disco ----------
+
+    /**
+     * La primera vez, abre los segmentos que hay en disco y lee hasta dónde se indexó.
+     * Los que cubre otro segmento (restos de una mezcla que no llegó a borrarlos) se borran.
+     */
+    private void cargar() throws IOException {
+        if (cargado) return;
+        if (Files.isDirectory(directorio)) {
+            List<Path> rutas = new ArrayList<>();
+            try (DirectoryStream<Path> lista = Files.newDirectoryStream(directorio, "seg_*.idx")) {
+                for (Path ruta : lista) {
+                    if (rangoSegmento(ruta) != null) rutas.add(ruta);
+                }
+            }
+            // Por el primer segmento que cubren; a igual comienzo, el que más cubre delante
+            rutas.sort(Comparator.comparingLong((Path ruta) -> rangoSegmento(ruta)[0])
+                    .thenComparingLong(ruta -> -rangoSegmento(ruta)[1]));
+            long cubierto = -1;
+            for (Path ruta : rutas) {
+                long[] rango = rangoSegmento(ruta);
+                siguienteSegmento = Math.max(siguienteSegmento, rango[1] + 1);
+                if (rango[1] <= cubierto) {
+                    Files.deleteIfExists(ruta);
+                    continue;
+                }
+                cubierto = rango[1];
+                segmentos.add(SegmentoIndice.abrir(ruta));
+            }
+            Path archivo = directorio.resolve(PROGRESO);
+            if (Files.exists(archivo)) {
+                for (String linea : Files.readAllLines(archivo, StandardCharsets.UTF_8)) {
+                    String[] partes = linea.split(" ");
+                    if (partes.length == 2) progreso.put(partes[0], Long.parseLong(partes[1]));
+                }
+            }
+        }
+        cargado = true;
+    }
+
+    /**
+     * Para consultar sin esperar al indexador: abre los segmentos si aún no se cargaron.
+     */
+    private void abrirSegmentos() throws IOException {
+        if (cargado) return;
+        synchronized (indexando) {
+            cargar();
+        }
+    }
+
+    private void guardarProgreso() throws IOException {
+        Files.createDirectories(directorio);
+        Path temporal = directorio.resolve(PROGRESO + ".tmp");
+        try (BufferedWriter salida = Files.newBufferedWriter(temporal, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Long> entrada : new TreeMap<>(progreso).entrySet()) {
+                salida.write(entrada.getKey() + " " + entrada.getValue());
+                salida.newLine();
+            }
+        }
+        Files.move(temporal, directorio.resolve(PROGRESO), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Path> archivosDeRegistro() throws IOException {
+        List<Path> archivos = new ArrayList<>();
+        if (!Files.isDirectory(registros)) return archivos;
+        try (DirectoryStream<Path> lista = Files.newDirectoryStream(registros, "log_*.txt")) {
+            for (Path archivo : lista) archivos.add(archivo);
+        }
+        Collections.sort(archivos);
+        return archivos;
+    }
+
+    /**
+     * seg_&lt;desde&gt;-&lt;hasta&gt;.idx: los números de los segmentos que cubre (seg_&lt;n&gt;.idx si es uno solo).
+     */
+    private static String nombreSegmento(long desde, long hasta) {
+        return desde == hasta ? String.format("seg_%08d.idx", desde) : String.format("seg_%08d-%08d.idx", desde, hasta);
+    }
+
+    /**
+     * @return {desde, hasta} de un segmento, o null si el nombre no es de segmento
+     */
+    static long[] rangoSegmento(Path ruta) {
+        String nombre = ruta.getFileName().toString();
+        if (!nombre.startsWith("seg_") || !nombre.endsWith(".idx")) return null;
+        String[] partes = nombre.substring(4, nombre.length() - 4).split("-");
+        try {
+            long desde = Long.parseLong(partes[0]);
+            return new long[]{desde, partes.length > 1 ? Long.parseLong(partes[1]) : desde};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return AAAAMMDD de un log_AAAAMMDD.txt, o -1
+     */
+    static int diaDeArchivo(String nombre) {
+        if (nombre.length() != "log_AAAAMMDD.txt".length()) return -1;
+        try {
+            return Integer.parseInt(nombre.substring(4, 12));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Palabras de un texto tal como se indexan: sin tildes, en minúsculas, de 2 a 40 caracteres.
+     */
+    static Set<String> terminos(String texto) {
+        String normalizado = Normalizer.normalize(texto, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}+", "").toLowerCase(Locale.ROOT);
+        Set<String> terminos = new LinkedHashSet<>();
+        for (String palabra : normalizado.split("[^\\p{L}\\p{N}]+")) {
+            if (palabra.length() >= 2 && palabra.length() <= 40) terminos.add(palabra);
+        }
+        return terminos;
+    }
+
+    // ---------- Consultas ----------
+
+    /**
+     * Ejecuta una consulta en el hilo de consultas.
+     *
+     * @throws java.util.concurrent.RejectedExecutionException si hay demasiadas en espera
+     */
+    static void enSegundoPlano(Runnable consulta) {
+        CONSULTAS.execute(consulta);
+    }
+
+    /**
+     * Mensajes que contienen todas las palabras de la consulta (y, si se indica, que
+     * escribió el usuario); sin palabras, los últimos mensajes del usuario. No indexa:
+     * ve lo que ya indexó el hilo de fondo (hasta un intervalo de retraso); sin él en
+     * marcha, hay que llamar antes a {@link #actualizar}.
+     *
+     * @param usuario null para cualquiera
+     * @return a lo sumo {@code limite} líneas, las más recientes, de la más vieja a la más nueva,
+     * como {@code AAAA-MM-DD hh:mm:ss.mmm usuario: texto}
+     */
+    public List<String> buscar(String usuario, String consulta, int limite) throws IOException {
+        abrirSegmentos();
+        Set<String> palabras = terminos(consulta == null ? "" : consulta);
+        if (limite <= 0 || (palabras.isEmpty() && usuario == null)) return Collections.emptyList();
+
+        TreeSet<Long> encontradas = new TreeSet<>();
+        for (SegmentoIndice segmento : segmentos) {
+            long[] candidatas = usuario != null ? segmento.usuario(usuario) : null;
+            for (String palabra : palabras) {
+                long[] lista = segmento.termino(palabra);
+                candidatas = candidatas == null ? lista : interseccion(candidatas, lista);
+                if (candidatas.length == 0) break;
+            }
+            for (long aparicion : candidatas) encontradas.add(aparicion);
+            while (encontradas.size() > limite) encontradas.pollFirst();
+        }
+        return leerLineas(encontradas);
+    }
+
+    /**
+     * Como {@link #buscar(String, String, int)} con la consulta escrita a mano:
+     * palabras y, opcionalmente, {@code @usuario} para filtrar por autor.
+     */
+    public List<String> buscar(String pedido, int limite) throws IOException {
+        String usuario = null;
+        StringBuilder palabras = new StringBuilder();
+        for (String palabra : pedido.trim().split("\\s+")) {
+            if (palabra.startsWith("@") && palabra.length() > 1) {
+                usuario = palabra.substring(1);
+            } else {
+                palabras.append(palabra).append(' ');
+            }
+        }
+        return buscar(usuario, palabras.toString(), limite);
+    }
+
+    static long[] interseccion(long[] a, long[] b) {
+        long[] comunes = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                comunes[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return n == comunes.length ? comunes : Arrays.copyOf(comunes, n);
+    }
+
+    private List<String> leerLineas(TreeSet<Long> apariciones) throws IOException {
+        List<String> lineas = new ArrayList<>(apariciones.size());
+        Map<Integer, FileChannel> abiertos = new HashMap<>();
+        try {
+            for (long aparicion : apariciones) {
+                int dia = SegmentoIndice.dia(aparicion);
+                FileChannel canal = abiertos.get(dia);
+                if (canal == null) {
+                    Path archivo = registros.resolve("log_" + dia + ".txt");
+                    if (!Files.exists(archivo)) continue;
+                    canal = FileChannel.open(archivo, StandardOpenOption.READ);
+                    abiertos.put(dia, canal);
+                }
+                String linea = leerLinea(canal, SegmentoIndice.desplazamiento(aparicion));
+                if (linea != null) lineas.add(presentar(dia, linea));
+            }
+        } finally {
+            for (FileChannel canal : abiertos.values()) canal.close();
+        }
+        return lineas;
+    }
+
+    private static String leerLinea(FileChannel canal, long desde) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (true) {
+            int leidos = canal.read(buffer, desde + buffer.position());
+            for (int i = 0; i < buffer.position(); i++) {
+                if (buffer.get(i) == '\n') return new String(buffer.array(), 0, i, StandardCharsets.UTF_8);
+            }
+            if (leidos <= 0) return null;
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= MAX_LINEA) return null;
+                ByteBuffer mayor = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                buffer = mayor.put(buffer);
+            }
+        }
+    }
+
+    /**
+     * "[hh:mm:ss.mmm] #N usuario: texto" del día AAAAMMDD → "AAAA-MM-DD hh:mm:ss.mmm usuario: texto".
+     */
+    static String presentar(int dia, String linea) {
+        String fecha = String.format("%04d-%02d-%02d", dia / 10000, dia / 100 % 100, dia % 100);
+        int cierre = linea.indexOf("] #");
+        if (!linea.startsWith("[") || cierre < 0) return fecha + " " + linea;
+        int espacio = linea.indexOf(' ', cierre + 3);
+        return fecha + " " + linea.substring(1, cierre) + " " + (espacio < 0 ? "" : linea.substring(espacio + 1));
+    }
+
+    /** Segmentos abiertos ahora mismo. */
+    public int getSegmentos() {
+        return segmentos.size();
+    }
+}
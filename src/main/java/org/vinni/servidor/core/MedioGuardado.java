@@ -0,0 +1,48 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.InfoArchivo;
+
+import java.nio.file.Path;
+
+/**
+ * Archivo completo en el almacén de medios, listo para reenviarse.
+ */
+public final class MedioGuardado {
+
+    private final InfoArchivo info;
+    private final Path ruta;
+    // Almacén del que se fija mientras se reenvía (null si el archivo no está en uno)
+    private final AlmacenContenido almacen;
+
+    MedioGuardado(InfoArchivo info, Path ruta) {
+        this(info, ruta, null);
+    }
+
+    MedioGuardado(InfoArchivo info, Path ruta, AlmacenContenido almacen) {
+        this.info = info;
+        this.ruta = ruta;
+        this.almacen = almacen;
+    }
+
+    /**
+     * Lo fija en el almacén para que no se desaloje antes de reenviarlo (ver {@link AlmacenContenido#fijar}).
+     *
+     * @return false si ya no está
+     */
+    boolean fijar() {
+        return almacen == null || almacen.fijar(info.getSha256());
+    }
+
+    void soltar() {
+        if (almacen != null) almacen.soltar(info.getSha256());
+    }
+
+    /** Cabecera con el remitente, tal como la reciben los destinatarios. */
+    public InfoArchivo getInfo() {
+        return info;
+    }
+
+    public Path getRuta() {
+        return ruta;
+    }
+}
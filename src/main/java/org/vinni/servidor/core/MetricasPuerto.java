@@ -0,0 +1,110 @@
+package org.vinni.servidor.core;
+
+/**
+ * Lo que publica por JMX un puerto: lee sus {@link EstadisticasPuerto}, el servidor si
+ * está levantado y el estado de reinicio del supervisor.
+ */
+public final class MetricasPuerto implements MetricasPuertoMBean {
+
+    private final ServerRuntime runtime;
+    private final int puerto;
+    private final EstadisticasPuerto estadisticas;
+
+    MetricasPuerto(ServerRuntime runtime, int puerto) {
+        this.runtime = runtime;
+        this.puerto = puerto;
+        this.estadisticas = EstadisticasPuerto.de(puerto);
+    }
+
+    @Override
+    public boolean isActivo() {
+        return runtime.getServidor(puerto) != null;
+    }
+
+    @Override
+    public int getSesionesActivas() {
+        ServidorPuerto servidor = runtime.getServidor(puerto);
+        return servidor != null ? servidor.getSesionesActivas() : 0;
+    }
+
+    @Override
+    public long getConexiones() {
+        return estadisticas.getConexiones();
+    }
+
+    @Override
+    public long getMensajesRecibidos() {
+        return estadisticas.getMensajesRecibidos();
+    }
+
+    @Override
+    public long getMensajesEnviados() {
+        return estadisticas.getMensajesEnviados();
+    }
+
+    @Override
+    public long getBytesRecibidos() {
+        return estadisticas.getBytesRecibidos();
+    }
+
+    @Override
+    public long getBytesEnviados() {
+        return estadisticas.getBytesEnviados();
+    }
+
+    @Override
+    public long getEscrituras() {
+        return estadisticas.getEscrituras();
+    }
+
+    @Override
+    public long getBytesEnColas() {
+        ServidorPuerto servidor = runtime.getServidor(puerto);
+        return servidor != null ? servidor.getBytesEnColas() : 0;
+    }
+
+    @Override
+    public long getDescartes() {
+        return estadisticas.getDescartes();
+    }
+
+    @Override
+    public long getExpulsiones() {
+        return estadisticas.getExpulsiones();
+    }
+
+    @Override
+    public long getReinicios() {
+        return runtime.getSupervisor().getEstado(puerto).getReinicios();
+    }
+
+    @Override
+    public long getReiniciosFallidos() {
+        return runtime.getSupervisor().getEstado(puerto).getFallos();
+    }
+
+    @Override
+    public double getLatenciaP50Ms() {
+        return estadisticas.getLatencias().percentil(50) / 1000.0;
+    }
+
+    @Override
+    public double getLatenciaP99Ms() {
+        return estadisticas.getLatencias().percentil(99) / 1000.0;
+    }
+
+    @Override
+    public double getLatenciaMaxMs() {
+        return estadisticas.getLatencias().getMaximo() / 1000.0;
+    }
+
+    @Override
+    public long getImagenes() {
+        return estadisticas.getImagenes().getTotal();
+    }
+
+    @Override
+    public long getImagenP99Bytes() {
+        return estadisticas.getImagenes().percentil(99);
+    }
+}
@@ -0,0 +1,48 @@
+package org.vinni.servidor.core;
+
+/**
+ * Vista JMX de un puerto ({@code org.vinni.servidor:type=Puerto,puerto=N}). Los contadores
+ * son acumulados desde que arrancó el proceso; las tasas por segundo salen de restar dos lecturas.
+ */
+public interface MetricasPuertoMBean {
+
+    boolean isActivo();
+
+    int getSesionesActivas();
+
+    long getConexiones();
+
+    long getMensajesRecibidos();
+
+    long getMensajesEnviados();
+
+    long getBytesRecibidos();
+
+    long getBytesEnviados();
+
+    /** Escrituras en los sockets; cada una lleva una o varias tramas. */
+    long getEscrituras();
+
+    long getBytesEnColas();
+
+    long getDescartes();
+
+    long getExpulsiones();
+
+    /** Reinicios completados por el supervisor (monitor o botón de la ventana). */
+    long getReinicios();
+
+    long getReiniciosFallidos();
+
+    /** Tiempo de atención de un mensaje (percentil 50), en ms. */
+    double getLatenciaP50Ms();
+
+    double getLatenciaP99Ms();
+
+    double getLatenciaMaxMs();
+
+    long getImagenes();
+
+    /** Tamaño de imagen por debajo del que queda el 99 %, en bytes. */
+    long getImagenP99Bytes();
+}
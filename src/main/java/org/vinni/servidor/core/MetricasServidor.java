@@ -0,0 +1,307 @@
+package org.vinni.servidor.core;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Métricas del servidor hacia fuera: texto en el formato de Prometheus, servido en
+ * {@code http://127.0.0.1:9404/metrics}, y los mismos datos por JMX (ver
+ * {@link MetricasServidorMBean} y {@link MetricasPuertoMBean}).
+ *
+ * Por puerto: si escucha, sesiones abiertas, conexiones, mensajes y bytes de entrada y
+ * salida, estado de las colas, reinicios del supervisor y los histogramas de atención
+ * de mensajes y tamaño de imágenes (ver {@link EstadisticasPuerto}). Del proceso: la
+ * espera del hilo de Swing, que mide la ventana si la hay. Los contadores son
+ * acumulados: las tasas por segundo las calcula quien los lee ({@code rate()} en Prometheus).
+ *
+ * Nada se publica hasta {@link #publicar()}. Propiedades: {@code servidor.metricas.puerto}
+ * (9404; 0 elige uno libre, negativo no abre el punto HTTP), {@code servidor.metricas.host}
+ * (127.0.0.1) y {@code servidor.metricas.jmx} (true).
+ */
+public class MetricasServidor implements MetricasServidorMBean, ObservadorServidor {
+
+    private static final int PUERTO_HTTP = Integer.getInteger("servidor.metricas.puerto", 9404);
+    private static final String HOST_HTTP = System.getProperty("servidor.metricas.host", "127.0.0.1");
+    private static final boolean CON_JMX = Boolean.parseBoolean(System.getProperty("servidor.metricas.jmx", "true"));
+    private static final String DOMINIO = "org.vinni.servidor";
+    private static final String TIPO_TEXTO = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final ServerRuntime runtime;
+    private final HistogramaMetrica retrasoInterfaz = new HistogramaMetrica(HistogramaMetrica.MICROS);
+
+    private HttpServer http;
+    private ExecutorService hiloHttp;
+    private boolean conJmx;
+    private final Map<Integer, ObjectName> registrados = new ConcurrentHashMap<>();
+
+    MetricasServidor(ServerRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    // ---------- Publicación ----------
+
+    /**
+     * Abre el punto HTTP y registra los MBeans según las propiedades del sistema.
+     * Un fallo (el puerto HTTP ocupado, por ejemplo) se avisa y no impide arrancar.
+     */
+    public void publicar() {
+        publicar(PUERTO_HTTP, CON_JMX);
+    }
+
+    /**
+     * @param puertoHttp 0 para uno libre, negativo para no abrir el punto HTTP
+     */
+    public synchronized void publicar(int puertoHttp, boolean jmx) {
+        if (http != null || conJmx) return;
+        if (jmx) {
+            conJmx = true;
+            registrar(nombreServidor(), this);
+            for (int puerto : runtime.getPuertos()) puertoAgregado(puerto);
+            runtime.agregarObservador(this);
+        }
+        if (puertoHttp >= 0) {
+            try {
+                HttpServer servidor = HttpServer.create(new InetSocketAddress(HOST_HTTP, puertoHttp), 0);
+                servidor.createContext("/metrics", intercambio -> {
+                    try (OutputStream salida = intercambio.getResponseBody()) {
+                        byte[] cuerpo = texto().getBytes(StandardCharsets.UTF_8);
+                        intercambio.getResponseHeaders().set("Content-Type", TIPO_TEXTO);
+                        boolean cabeza = "HEAD".equals(intercambio.getRequestMethod());
+                        intercambio.sendResponseHeaders(200, cabeza ? -1 : cuerpo.length);
+                        if (!cabeza) salida.write(cuerpo);
+                    }
+                });
+                hiloHttp = Executors.newSingleThreadExecutor(tarea -> {
+                    Thread hilo = new Thread(tarea, "MetricasHttp");
+                    hilo.setDaemon(true);
+                    return hilo;
+                });
+                servidor.setExecutor(hiloHttp);
+                servidor.start();
+                http = servidor;
+            } catch (IOException e) {
+                System.err.println("No se pudo abrir el punto de métricas en " + HOST_HTTP + ":" + puertoHttp
+                        + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Cierra el punto HTTP y quita los MBeans.
+     */
+    public synchronized void detener() {
+        if (http != null) {
+            http.stop(0);
+            hiloHttp.shutdownNow();
+            http = null;
+        }
+        if (conJmx) {
+            runtime.quitarObservador(this);
+            for (int puerto : registrados.keySet()) puertoQuitado(puerto);
+            quitar(nombreServidor());
+            conJmx = false;
+        }
+    }
+
+    @Override
+    public void puertoAgregado(int puerto) {
+        ObjectName nombre = nombrePuerto(puerto);
+        if (registrados.putIfAbsent(puerto, nombre) == null) registrar(nombre, new MetricasPuerto(runtime, puerto));
+    }
+
+    @Override
+    public void puertoQuitado(int puerto) {
+        ObjectName nombre = registrados.remove(puerto);
+        if (nombre != null) quitar(nombre);
+    }
+
+    private static void registrar(ObjectName nombre, Object mbean) {
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            // Otro runtime del mismo proceso pudo dejar el suyo: el último manda
+            if (servidor.isRegistered(nombre)) servidor.unregisterMBean(nombre);
+            servidor.registerMBean(mbean, nombre);
+        } catch (JMException e) {
+            System.err.println("No se pudo registrar " + nombre + ": " + e.getMessage());
+        }
+    }
+
+    private static void quitar(ObjectName nombre) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(nombre);
+        } catch (JMException ignored) {
+            // Ya no estaba
+        }
+    }
+
+    private static ObjectName nombreServidor() {
+        return nombre("type=Servidor");
+    }
+
+    private static ObjectName nombrePuerto(int puerto) {
+        return nombre("type=Puerto,puerto=" + puerto);
+    }
+
+    private static ObjectName nombre(String propiedades) {
+        try {
+            return new ObjectName(DOMINIO + ":" + propiedades);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // ---------- Formato de Prometheus ----------
+
+    /**
+     * Todas las métricas en el formato de texto de Prometheus (versión 0.0.4).
+     */
+    public String texto() {
+        int[] puertos = runtime.getPuertos();
+        StringBuilder texto = new StringBuilder(4096);
+
+        familia(texto, "chat_puerto_activo", "gauge", "1 si el puerto escucha.");
+        for (int puerto : puertos) muestra(texto, "chat_puerto_activo", puerto, runtime.getServidor(puerto) != null ? 1 : 0);
+        familia(texto, "chat_sesiones_activas", "gauge", "Conexiones abiertas en el puerto.");
+        for (int puerto : puertos) {
+            ServidorPuerto servidor = runtime.getServidor(puerto);
+            muestra(texto, "chat_sesiones_activas", puerto, servidor != null ? servidor.getSesionesActivas() : 0);
+        }
+        familia(texto, "chat_cola_salida_bytes", "gauge", "Bytes pendientes en las colas de salida.");
+        for (int puerto : puertos) {
+            ServidorPuerto servidor = runtime.getServidor(puerto);
+            muestra(texto, "chat_cola_salida_bytes", puerto, servidor != null ? servidor.getBytesEnColas() : 0);
+        }
+
+        contador(texto, puertos, "chat_conexiones_total", "Conexiones aceptadas.", EstadisticasPuerto::getConexiones);
+        contador(texto, puertos, "chat_mensajes_recibidos_total", "Mensajes recibidos de los clientes.",
+                EstadisticasPuerto::getMensajesRecibidos);
+        contador(texto, puertos, "chat_mensajes_enviados_total", "Tramas encoladas hacia los clientes (una por destinatario).",
+                EstadisticasPuerto::getMensajesEnviados);
+        contador(texto, puertos, "chat_bytes_recibidos_total", "Bytes leídos de los sockets.",
+                EstadisticasPuerto::getBytesRecibidos);
+        contador(texto, puertos, "chat_bytes_enviados_total", "Bytes escritos desde las colas de salida.",
+                EstadisticasPuerto::getBytesEnviados);
+        contador(texto, puertos, "chat_escrituras_total", "Escrituras en los sockets (cada una con una o varias tramas).",
+                EstadisticasPuerto::getEscrituras);
+        contador(texto, puertos, "chat_descartes_total", "Tramas descartadas por cola de salida llena.",
+                EstadisticasPuerto::getDescartes);
+        contador(texto, puertos, "chat_expulsiones_total", "Clientes desconectados por lentos.",
+                EstadisticasPuerto::getExpulsiones);
+
+        familia(texto, "chat_reinicios_total", "counter", "Reinicios del puerto completados por el supervisor.");
+        for (int puerto : puertos) muestra(texto, "chat_reinicios_total", puerto, runtime.getSupervisor().getEstado(puerto).getReinicios());
+        familia(texto, "chat_reinicios_fallidos_total", "counter", "Intentos de reinicio que no pudieron levantar el puerto.");
+        for (int puerto : puertos) muestra(texto, "chat_reinicios_fallidos_total", puerto, runtime.getSupervisor().getEstado(puerto).getFallos());
+
+        familia(texto, "chat_latencia_mensaje_segundos", "histogram", "Tiempo de atención de un mensaje recibido.");
+        for (int puerto : puertos) {
+            histograma(texto, "chat_latencia_mensaje_segundos", "puerto=\"" + puerto + "\",",
+                    EstadisticasPuerto.de(puerto).getLatencias(), true);
+        }
+        familia(texto, "chat_imagen_bytes", "histogram", "Tamaño de las imágenes recibidas.");
+        for (int puerto : puertos) {
+            histograma(texto, "chat_imagen_bytes", "puerto=\"" + puerto + "\",", EstadisticasPuerto.de(puerto).getImagenes(), false);
+        }
+        familia(texto, "chat_retraso_interfaz_segundos", "histogram", "Espera de una tarea en la cola del hilo de Swing.");
+        histograma(texto, "chat_retraso_interfaz_segundos", "", retrasoInterfaz, true);
+        return texto.toString();
+    }
+
+    private interface Lectura {
+        long de(EstadisticasPuerto estadisticas);
+    }
+
+    private static void contador(StringBuilder texto, int[] puertos, String nombre, String ayuda, Lectura lectura) {
+        familia(texto, nombre, "counter", ayuda);
+        for (int puerto : puertos) muestra(texto, nombre, puerto, lectura.de(EstadisticasPuerto.de(puerto)));
+    }
+
+    private static void familia(StringBuilder texto, String nombre, String tipo, String ayuda) {
+        texto.append("# HELP ").append(nombre).append(' ').append(ayuda).append('\n');
+        texto.append("# TYPE ").append(nombre).append(' ').append(tipo).append('\n');
+    }
+
+    private static void muestra(StringBuilder texto, String nombre, int puerto, long valor) {
+        texto.append(nombre).append("{puerto=\"").append(puerto).append("\"} ").append(valor).append('\n');
+    }
+
+    /**
+     * Cubetas acumuladas, suma y cuenta.
+     *
+     * @param etiquetas las del puerto con su coma final, o vacío
+     * @param micros    si los valores son microsegundos y se publican en segundos
+     */
+    private static void histograma(StringBuilder texto, String nombre, String etiquetas, HistogramaMetrica histograma,
+                                   boolean micros) {
+        long[] limites = histograma.getLimites();
+        long[] acumuladas = histograma.getAcumuladas();
+        for (int i = 0; i < acumuladas.length; i++) {
+            String limite = i < limites.length ? numero(limites[i], micros) : "+Inf";
+            texto.append(nombre).append("_bucket{").append(etiquetas).append("le=\"").append(limite).append("\"} ")
+                    .append(acumuladas[i]).append('\n');
+        }
+        String sinComa = etiquetas.isEmpty() ? "" : "{" + etiquetas.substring(0, etiquetas.length() - 1) + "}";
+        texto.append(nombre).append("_sum").append(sinComa).append(' ').append(numero(histograma.getSuma(), micros)).append('\n');
+        texto.append(nombre).append("_count").append(sinComa).append(' ').append(acumuladas[acumuladas.length - 1]).append('\n');
+    }
+
+    private static String numero(long valor, boolean micros) {
+        return micros ? BigDecimal.valueOf(valor, 6).stripTrailingZeros().toPlainString() : Long.toString(valor);
+    }
+
+    // ---------- Proceso ----------
+
+    /**
+     * Espera del hilo de Swing, en microsegundos; la registra la ventana del servidor.
+     */
+    public HistogramaMetrica getRetrasoInterfaz() {
+        return retrasoInterfaz;
+    }
+
+    @Override
+    public int getPuertosActivos() {
+        int activos = 0;
+        for (int puerto : runtime.getPuertos()) {
+            if (runtime.getServidor(puerto) != null) activos++;
+        }
+        return activos;
+    }
+
+    @Override
+    public int getSesionesActivas() {
+        int sesiones = 0;
+        for (int puerto : runtime.getPuertos()) {
+            ServidorPuerto servidor = runtime.getServidor(puerto);
+            if (servidor != null) sesiones += servidor.getSesionesActivas();
+        }
+        return sesiones;
+    }
+
+    @Override
+    public double getRetrasoInterfazP99Ms() {
+        return retrasoInterfaz.percentil(99) / 1000.0;
+    }
+
+    @Override
+    public double getRetrasoInterfazMaxMs() {
+        return retrasoInterfaz.getMaximo() / 1000.0;
+    }
+
+    @Override
+    public synchronized int getPuertoHttp() {
+        return http != null ? http.getAddress().getPort() : -1;
+    }
+}
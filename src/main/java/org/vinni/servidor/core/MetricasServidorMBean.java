@@ -0,0 +1,20 @@
+package org.vinni.servidor.core;
+
+/**
+ * Vista JMX del proceso ({@code org.vinni.servidor:type=Servidor}); cada puerto tiene la suya
+ * (ver {@link MetricasPuertoMBean}).
+ */
+public interface MetricasServidorMBean {
+
+    int getPuertosActivos();
+
+    int getSesionesActivas();
+
+    /** Espera del hilo de Swing (percentil 99), en ms; 0 sin ventana. */
+    double getRetrasoInterfazP99Ms();
+
+    double getRetrasoInterfazMaxMs();
+
+    /** Puerto del punto HTTP con el texto para Prometheus, o -1 si no está publicado. */
+    int getPuertoHttp();
+}
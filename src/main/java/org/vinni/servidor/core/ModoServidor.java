@@ -0,0 +1,48 @@
+package org.vinni.servidor.core;
+
+/**
+ * Motor de conexiones con el que se levantan los puertos del servidor.
+ * Se elige al arrancar con -Dservidor.modo=hilos|virtuales|nio o con --modo=... en main.
+ */
+public enum ModoServidor {
+
+    /** Un hilo bloqueante por cliente (modelo original). */
+    HILOS,
+
+    /** Un hilo virtual por cliente y para el bucle de aceptación (Java 21+; si no, hilos normales). */
+    VIRTUALES,
+
+    /** Selector NIO con un pool pequeño de bucles de eventos compartido por todos los puertos. */
+    NIO;
+
+    public static final String PROPIEDAD = "servidor.modo";
+
+    /**
+     * Lee el modo configurado en las propiedades del sistema (por defecto HILOS).
+     */
+    public static ModoServidor desdePropiedades() {
+        return desdeTexto(System.getProperty(PROPIEDAD));
+    }
+
+    /**
+     * Busca un argumento --modo=... y, si existe, lo deja fijado como propiedad del sistema.
+     */
+    public static void aplicarArgumentos(String[] args) {
+        if (args == null) return;
+        for (String arg : args) {
+            if (arg.startsWith("--modo=")) {
+                System.setProperty(PROPIEDAD, arg.substring("--modo=".length()));
+            }
+        }
+    }
+
+    static ModoServidor desdeTexto(String valor) {
+        if (valor == null || valor.trim().isEmpty()) return HILOS;
+        try {
+            return ModoServidor.valueOf(valor.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Modo de servidor desconocido '" + valor + "', se usa HILOS");
+            return HILOS;
+        }
+    }
+}
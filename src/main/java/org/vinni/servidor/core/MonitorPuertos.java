@@ -0,0 +1,187 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Comprueba periódicamente los puertos activos de un {@link ServerRuntime}.
+ * En cada ronda mira todos los puertos a la vez: una comprobación dentro del
+ * proceso ({@link ServidorPuerto#comprobarVida()}, sin sockets) y una sonda TCP
+ * no bloqueante por puerto sobre un único selector ({@link SondaPuertos}), con un
+ * plazo común. Si un puerto falla, pide su reinicio al {@link SupervisorPuertos}.
+ *
+ * El intervalo se adapta: tras un fallo baja a {@code servidor.monitor.minMs}
+ * (1 s) y, mientras todo va bien, se duplica en cada ronda hasta
+ * {@code servidor.monitor.maxMs} (20 s). Informa de cada comprobación a los
+ * observadores del runtime (ver {@link ObservadorServidor#monitor}).
+ */
+public class MonitorPuertos implements Runnable {
+
+    private static final long INTERVALO_MS = 5000;
+    private static final long INTERVALO_MIN_MS = Long.getLong("servidor.monitor.minMs", 1000);
+    private static final long INTERVALO_MAX_MS = Long.getLong("servidor.monitor.maxMs", 20000);
+    private static final long PLAZO_MS = 2000;
+
+    private final ServerRuntime runtime;
+    private final ObservadorServidor avisos;
+    private volatile boolean activo = true;
+    private volatile long intervaloMs = INTERVALO_MS;
+    private Thread hilo;
+    // Contadores de cada puerto en la ronda anterior (nanoTime, conexiones, entrada, salida), para las tasas
+    private final Map<Integer, long[]> anteriores = new ConcurrentHashMap<>();
+
+    MonitorPuertos(ServerRuntime runtime, ObservadorServidor avisos) {
+        this.runtime = runtime;
+        this.avisos = avisos;
+    }
+
+    void iniciar() {
+        hilo = new Thread(this, "MonitorPuertos");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    @Override
+    public void run() {
+        try (SondaPuertos sonda = new SondaPuertos()) {
+            while (activo) {
+                try {
+                    Thread.sleep(intervaloMs);
+                    boolean todosBien = ronda(sonda);
+                    intervaloMs = todosBien
+                            ? Math.min(INTERVALO_MAX_MS, intervaloMs * 2)
+                            : INTERVALO_MIN_MS;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    activo = false;
+                }
+            }
+        } catch (IOException e) {
+            avisos.monitor("(!) No se pudo abrir el selector de sondas: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Comprueba todos los puertos activos a la vez y reinicia los que fallan.
+     *
+     * @return true si todos respondieron
+     */
+    boolean ronda(SondaPuertos sonda) throws InterruptedException {
+        Map<Integer, ServidorPuerto> activos = new LinkedHashMap<>();
+        for (int puerto : runtime.getPuertos()) {
+            ServidorPuerto servidor = runtime.getServidor(puerto);
+            if (servidor != null) activos.put(puerto, servidor);
+        }
+        if (activos.isEmpty()) return true;
+
+        // Primero se piden las comprobaciones internas; mientras se resuelven, corren las sondas
+        Map<Integer, CompletableFuture<Boolean>> vidas = new LinkedHashMap<>();
+        for (Map.Entry<Integer, ServidorPuerto> e : activos.entrySet()) vidas.put(e.getKey(), e.getValue().comprobarVida());
+        int[] puertos = new int[activos.size()];
+        int n = 0;
+        for (int puerto : activos.keySet()) puertos[n++] = puerto;
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PLAZO_MS);
+        Map<Integer, Long> tiempos = sonda.sondear(puertos, PLAZO_MS);
+
+        boolean todosBien = true;
+        for (int puerto : puertos) {
+            boolean vivo = esperarVida(vidas.get(puerto), limite);
+            long micros = tiempos.getOrDefault(puerto, -1L);
+            if (vivo && micros >= 0) {
+                avisos.monitor("✔ Puerto " + puerto + " está activo (sonda " + micros + " µs)."
+                        + resumenColas(activos.get(puerto)));
+            } else {
+                todosBien = false;
+                reactivar(puerto, !vivo ? "su bucle de aceptación no responde" : "no acepta conexiones");
+            }
+        }
+        return todosBien;
+    }
+
+    private static boolean esperarVida(CompletableFuture<Boolean> vida, long limite) throws InterruptedException {
+        try {
+            return vida.get(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    private void reactivar(int puerto, String motivo) {
+        SupervisorPuertos.EstadoReinicio estado = runtime.getSupervisor().getEstado(puerto);
+        if (runtime.getSupervisor().reiniciar(puerto, 0, motivo)) {
+            String msg = "⚠ Puerto " + puerto + " caído (" + motivo + "). Intentando reactivar...";
+            avisos.monitor(msg);
+            avisos.log(puerto, msg);
+        } else {
+            avisos.monitor("⚠ Puerto " + puerto + " caído (" + motivo + "); "
+                    + (estado.isCircuitoAbierto() ? "circuito abierto, sin reintentos por ahora" : "reinicio ya en curso"));
+        }
+    }
+
+    /**
+     * Estado de las colas de salida del puerto: sesiones, profundidad, descartes y expulsiones.
+     */
+    private String resumenColas(ServidorPuerto servidor) {
+        if (servidor == null) return "";
+        EstadisticasPuerto est = servidor.getEstadisticas();
+        return " Sesiones: " + servidor.getSesionesActivas()
+                + ", en cola: " + servidor.getTramasEnColas() + " (" + servidor.getBytesEnColas() + " B)"
+                + ", descartes: " + est.getDescartes()
+                + ", expulsiones: " + est.getExpulsiones()
+                + resumenTasas(servidor.getPuerto(), est)
+                + resumenMedios(servidor.getAlmacen().getContenido())
+                + resumenReinicios(runtime.getSupervisor().getEstado(servidor.getPuerto()))
+                + ", registro: " + servidor.getRegistro().getEscritos() + " líneas"
+                + (servidor.getRegistro().getDescartados() > 0
+                        ? " (" + servidor.getRegistro().getDescartados() + " descartadas)" : "");
+    }
+
+    /**
+     * Conexiones y mensajes por segundo desde la ronda anterior, y el percentil 99 de atención.
+     */
+    private String resumenTasas(int puerto, EstadisticasPuerto est) {
+        long[] actuales = {System.nanoTime(), est.getConexiones(), est.getMensajesRecibidos(), est.getMensajesEnviados()};
+        long[] previos = anteriores.put(puerto, actuales);
+        String latencia = String.format(Locale.ROOT, ", atención p99: %.2f ms", est.getLatencias().percentil(99) / 1000.0);
+        if (previos == null) return latencia;
+        double segundos = Math.max(1e-3, (actuales[0] - previos[0]) / 1e9);
+        return String.format(Locale.ROOT, ", %.1f conexiones/s, %.1f msg/s de entrada, %.1f msg/s de salida",
+                (actuales[1] - previos[1]) / segundos, (actuales[2] - previos[2]) / segundos,
+                (actuales[3] - previos[3]) / segundos) + latencia;
+    }
+
+    private static String resumenReinicios(SupervisorPuertos.EstadoReinicio estado) {
+        if (estado.getIntentos() == 0) return "";
+        return ", reinicios: " + estado.getReinicios() + "/" + estado.getIntentos()
+                + " (último " + estado.getUltimaLatenciaMs() + " ms, máx " + estado.getMaxLatenciaMs() + " ms)";
+    }
+
+    /**
+     * Aciertos y fallos del almacén de medios (compartido por todos los puertos).
+     */
+    private static String resumenMedios(AlmacenContenido contenido) {
+        return ", medios: " + contenido.getAciertos() + " aciertos / " + contenido.getFallos() + " fallos"
+                + " (" + contenido.getCantidad() + " archivos, " + contenido.getBytes() + " B)";
+    }
+
+    void detener() {
+        activo = false;
+        if (hilo != null) hilo.interrupt();
+    }
+
+    public boolean isActivo() {
+        return activo;
+    }
+
+    /** Espera actual entre rondas. */
+    public long getIntervaloMs() {
+        return intervaloMs;
+    }
+}
@@ -0,0 +1,31 @@
+package org.vinni.servidor.core;
+
+/**
+ * Quien quiere enterarse de lo que pasa en los puertos (la ventana, la consola...).
+ * Los avisos llegan desde los hilos del servidor: no deben bloquear, y una
+ * interfaz gráfica tiene que pasarlos a su propio hilo.
+ */
+public interface ObservadorServidor {
+
+    /** Línea de log de un puerto. */
+    default void log(int puerto, String mensaje) {}
+
+    default void usuarioConectado(int puerto, String usuario) {}
+
+    default void usuarioDesconectado(int puerto, String usuario) {}
+
+    /** Se aceptó una conexión (antes de que el cliente se identifique). */
+    default void conexionAceptada(int puerto) {}
+
+    /** El puerto empezó a escuchar o dejó de hacerlo. */
+    default void puertoCambiado(int puerto, boolean activo) {}
+
+    /** Se registró un puerto nuevo (todavía sin levantar). */
+    default void puertoAgregado(int puerto) {}
+
+    /** El puerto salió del registro (ya detenido). */
+    default void puertoQuitado(int puerto) {}
+
+    /** Resultado de una comprobación del {@link MonitorPuertos}. */
+    default void monitor(String mensaje) {}
+}
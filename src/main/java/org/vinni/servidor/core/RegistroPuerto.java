@@ -0,0 +1,335 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Registro en disco de un puerto, en {@code server_data/port_<n>/logs/log_AAAAMMDD.txt}
+ * (un archivo por día).
+ *
+ * Quien anota solo deja el registro en un {@link AnilloRegistros}; nunca toca el
+ * disco ni espera. Un hilo escritor por puerto los saca por lotes, los agrupa en
+ * un buffer y los añade al archivo; hace fsync como mucho cada
+ * {@code servidor.log.fsyncMs} (por defecto 1 s), al cambiar de día y al cerrar.
+ * Si el escritor no da abasto y la cola se llena, el registro se descarta y se
+ * cuenta; el escritor deja constancia de cuántos se perdieron.
+ *
+ * Un error de disco no detiene el registro: el escritor avisa (ver {@link #setAvisos}),
+ * cierra el archivo y lo reabre tras una espera que se dobla en cada fallo, desde
+ * {@code servidor.log.reintentoMs} (por defecto 1 s) hasta un minuto. Mientras, lo
+ * anotado se acumula en la cola; lo que quedaba en el buffer se da por descartado.
+ */
+public class RegistroPuerto {
+
+    private static final int CAPACIDAD = Integer.getInteger("servidor.log.capacidad", 64 * 1024);
+    private static final long FSYNC_MS = Long.getLong("servidor.log.fsyncMs", 1000);
+    private static final int TAM_BUFFER = 64 * 1024;
+    private static final long REINTENTO_MS = Long.getLong("servidor.log.reintentoMs", 1000);
+    private static final long MAX_REINTENTO_MS = 60_000;
+
+    private static final Map<Integer, RegistroPuerto> POR_PUERTO = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (RegistroPuerto registro : POR_PUERTO.values()) registro.cerrar();
+        }, "CierreRegistros"));
+    }
+
+    private static final class Registro {
+        final long instante;
+        final String texto;
+
+        Registro(long instante, String texto) {
+            this.instante = instante;
+            this.texto = texto;
+        }
+    }
+
+    private final Path directorio;
+    private final long fsyncMs;
+    private final AnilloRegistros<Registro> anillo;
+    private final Thread escritor;
+    private volatile boolean abierto = true;
+    private volatile boolean esperando;
+    private volatile Consumer<String> avisos;
+
+    private final LongAdder descartados = new LongAdder();
+    private volatile long escritos;
+    private volatile long sincronizaciones;
+
+    // ---------- Estado del hilo escritor ----------
+    // (java.time se carga en este hilo, no en el arranque de quien crea el registro)
+    private ZoneId zona;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(TAM_BUFFER);
+    private final StringBuilder linea = new StringBuilder(256);
+    private FileChannel canal;
+    // Registro que se estaba escribiendo al fallar el disco: se reintenta antes que los de la cola
+    private Registro enCurso;
+    private int lineasEnBuffer;
+    // 0 mientras el disco responde; si no, la espera hasta el próximo reintento
+    private long esperaReintento;
+    private long finDelDia = Long.MIN_VALUE;
+    private long segundoEnCurso = Long.MIN_VALUE;
+    private String horaEnCurso;
+    private long descartadosAvisados;
+    private long ultimoFsync;
+    private boolean pendienteFsync;
+
+    /**
+     * Registro del puerto, común a todos los servidores que se abran en él durante el proceso.
+     */
+    public static RegistroPuerto de(int puerto) {
+        return POR_PUERTO.computeIfAbsent(puerto, p -> new RegistroPuerto(
+                Paths.get("server_data", "port_" + p, "logs"), CAPACIDAD, FSYNC_MS, "RegistroPuerto-" + p));
+    }
+
+    RegistroPuerto(Path directorio, int capacidad, long fsyncMs, String nombreHilo) {
+        this.directorio = directorio;
+        this.fsyncMs = fsyncMs;
+        this.anillo = new AnilloRegistros<>(capacidad);
+        this.escritor = new Thread(this::escribir, nombreHilo);
+        this.escritor.setDaemon(true);
+        this.escritor.start();
+    }
+
+    /**
+     * A quién contar los errores de disco y la recuperación (además de a la salida de error).
+     * Se llama desde el hilo escritor.
+     */
+    void setAvisos(Consumer<String> avisos) {
+        this.avisos = avisos;
+    }
+
+    /** Directorio de los archivos diarios. */
+    public Path getDirectorio() {
+        return directorio;
+    }
+
+    /**
+     * Anota una línea con la hora actual. No bloquea.
+     *
+     * @return false si se descartó por estar llena la cola (o cerrado el registro)
+     */
+    public boolean anotar(String texto) {
+        return anotar(System.currentTimeMillis(), texto);
+    }
+
+    boolean anotar(long instante, String texto) {
+        if (!abierto || !anillo.ofrecer(new Registro(instante, texto))) {
+            descartados.increment();
+            return false;
+        }
+        if (esperando) LockSupport.unpark(escritor);
+        return true;
+    }
+
+    /**
+     * Escribe lo pendiente, hace fsync y detiene el hilo escritor.
+     */
+    public void cerrar() {
+        abierto = false;
+        LockSupport.unpark(escritor);
+        try {
+            escritor.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // ---------- Hilo escritor ----------
+
+    private void escribir() {
+        zona = ZoneId.systemDefault();
+        try {
+            while (true) {
+                try {
+                    escribirHastaCerrar();
+                    return;
+                } catch (IOException e) {
+                    if (!esperarReintento(e)) return;
+                }
+            }
+        } finally {
+            cerrarArchivo();
+        }
+    }
+
+    /**
+     * Saca registros del anillo y los escribe, esperando si no hay; vuelve al cerrarse el registro.
+     */
+    private void escribirHastaCerrar() throws IOException {
+        while (true) {
+            Registro registro = enCurso != null ? enCurso : anillo.sacar();
+            if (registro != null) {
+                enCurso = registro;
+                anadir(registro);
+                enCurso = null;
+                continue;
+            }
+            // Cola vacía: se vuelca el lote y, si toca, se sincroniza
+            avisarDescartados();
+            volcar();
+            long ahora = System.currentTimeMillis();
+            if (pendienteFsync && ahora - ultimoFsync >= fsyncMs) sincronizar(ahora);
+            if (esperaReintento > 0) {
+                esperaReintento = 0;
+                avisar("Registro en " + directorio + " escribe de nuevo");
+            }
+            if (!abierto && anillo.isVacio()) break;
+
+            esperando = true;
+            if (anillo.isVacio() && abierto) {
+                if (pendienteFsync) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, fsyncMs - (ahora - ultimoFsync))));
+                } else {
+                    LockSupport.park();
+                }
+            }
+            esperando = false;
+        }
+        sincronizar(System.currentTimeMillis());
+    }
+
+    /**
+     * Tras un error de disco: avisa, cierra el archivo (se reabre con el siguiente registro),
+     * cuenta como descartado lo que quedaba en el buffer y espera antes de reintentar.
+     *
+     * @return false si el registro ya se cerró y no hay que insistir
+     */
+    private boolean esperarReintento(IOException e) {
+        descartados.add(lineasEnBuffer);
+        escritos -= lineasEnBuffer;
+        lineasEnBuffer = 0;
+        buffer.clear();
+        pendienteFsync = false;
+        cerrarArchivo();
+        finDelDia = Long.MIN_VALUE;
+        if (!abierto) {
+            avisar("Registro en " + directorio + " cerrado sin escribir lo pendiente: " + e.getMessage());
+            return false;
+        }
+        esperaReintento = esperaReintento == 0 ? REINTENTO_MS : Math.min(esperaReintento * 2, MAX_REINTENTO_MS);
+        avisar("Registro en " + directorio + " sin escribir (" + e.getMessage() + "); se reintenta en " + esperaReintento + " ms");
+        // cerrar() despierta al hilo: se intenta una última vez antes de salir
+        long hasta = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaReintento);
+        for (long falta; abierto && (falta = hasta - System.nanoTime()) > 0; ) LockSupport.parkNanos(falta);
+        return true;
+    }
+
+    private void avisar(String mensaje) {
+        System.err.println(mensaje);
+        Consumer<String> destino = avisos;
+        if (destino != null) destino.accept(mensaje);
+    }
+
+    private void anadir(Registro registro) throws IOException {
+        if (registro.instante >= finDelDia) cambiarDeDia(registro.instante);
+        long segundo = Math.floorDiv(registro.instante, 1000);
+        if (segundo != segundoEnCurso) {
+            segundoEnCurso = segundo;
+            LocalTime hora = Instant.ofEpochSecond(segundo).atZone(zona).toLocalTime();
+            horaEnCurso = dosCifras(hora.getHour()) + ":" + dosCifras(hora.getMinute()) + ":" + dosCifras(hora.getSecond());
+        }
+        int milis = Math.floorMod(registro.instante, 1000);
+        linea.setLength(0);
+        linea.append('[').append(horaEnCurso).append('.')
+                .append((char) ('0' + milis / 100)).append((char) ('0' + milis / 10 % 10)).append((char) ('0' + milis % 10))
+                .append("] ").append(registro.texto).append('\n');
+        byte[] bytes = linea.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) volcar();
+        if (bytes.length > buffer.capacity()) {
+            escribirTodo(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+            lineasEnBuffer++;
+        }
+        escritos++;
+    }
+
+    private void cambiarDeDia(long instante) throws IOException {
+        volcar();
+        if (canal != null) sincronizar(System.currentTimeMillis());
+        cerrarArchivo();
+        LocalDate dia = Instant.ofEpochMilli(instante).atZone(zona).toLocalDate();
+        finDelDia = dia.plusDays(1).atStartOfDay(zona).toInstant().toEpochMilli();
+        Files.createDirectories(directorio);
+        int aaaammdd = dia.getYear() * 10000 + dia.getMonthValue() * 100 + dia.getDayOfMonth();
+        canal = FileChannel.open(directorio.resolve("log_" + aaaammdd + ".txt"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static String dosCifras(int valor) {
+        return valor < 10 ? "0" + valor : Integer.toString(valor);
+    }
+
+    private void avisarDescartados() throws IOException {
+        long total = descartados.sum();
+        if (total == descartadosAvisados || canal == null) return;
+        anadir(new Registro(System.currentTimeMillis(), "(registro) " + (total - descartadosAvisados)
+                + " líneas descartadas: la cola del registro estaba llena o falló el disco"));
+        descartadosAvisados = total;
+    }
+
+    private void volcar() throws IOException {
+        if (buffer.position() == 0) return;
+        buffer.flip();
+        escribirTodo(buffer);
+        buffer.clear();
+        lineasEnBuffer = 0;
+    }
+
+    private void escribirTodo(ByteBuffer datos) throws IOException {
+        while (datos.hasRemaining()) canal.write(datos);
+        pendienteFsync = true;
+    }
+
+    private void sincronizar(long ahora) throws IOException {
+        if (canal != null && pendienteFsync) {
+            canal.force(false);
+            sincronizaciones++;
+        }
+        pendienteFsync = false;
+        ultimoFsync = ahora;
+    }
+
+    private void cerrarArchivo() {
+        if (canal == null) return;
+        try {
+            canal.close();
+        } catch (IOException ignored) {}
+        canal = null;
+    }
+
+    // ---------- Estado ----------
+
+    /** Líneas ya escritas en el archivo (o en el buffer del escritor). */
+    public long getEscritos() {
+        return escritos;
+    }
+
+    /** Líneas perdidas por tener la cola llena o por un error de disco. */
+    public long getDescartados() {
+        return descartados.sum();
+    }
+
+    /** Veces que se hizo fsync. */
+    public long getSincronizaciones() {
+        return sincronizaciones;
+    }
+}
@@ -0,0 +1,35 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Salida larga que viene de disco (un archivo del almacén, un buzón) y que la capa
+ * de E/S escribe mensaje a mensaje en los huecos que deja la cola de la sesión.
+ */
+interface Relevo {
+
+    enum Avance {
+        /** El canal no admitió más; reintentar cuando vuelva a admitir escritura. */
+        PARCIAL,
+        /** Salió un mensaje (o un lote) completo y quedan más. */
+        TROZO,
+        /** Salió lo último. */
+        TERMINADO
+    }
+
+    /**
+     * Escribe como mucho un mensaje (o un lote) en el canal.
+     */
+    Avance escribirTrozo(WritableByteChannel canal) throws IOException;
+
+    /**
+     * Cierto si hay un mensaje empezado: hasta terminarlo no puede salir nada más por el socket.
+     */
+    boolean aMedias();
+
+    /**
+     * Suelta lo que tenga abierto; se llama al terminar o al cerrarse la sesión.
+     */
+    void cerrar();
+}
@@ -0,0 +1,155 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Entrega de un {@link BuzonesPuerto.Buzon} a su dueño: los MSGTO: guardados salen
+ * en lotes de unos 64 KB leídos del segmento, así que un buzón con cientos de miles
+ * de mensajes nunca está entero en el heap. Tras escribir cada lote se confirma en
+ * el buzón, que borra los segmentos ya entregados; si la conexión se corta a medias,
+ * lo no confirmado se entrega en la próxima identificación.
+ */
+final class RelevoBuzon implements Relevo {
+
+    private static final int LOTE = 64 * 1024;
+
+    private final BuzonesPuerto.Buzon buzon;
+    private final boolean binaria;
+
+    private boolean iniciado;
+    private int generacion;
+    private long segmento;
+    private long posicion;
+    // Bytes de registros leídos desde la última confirmación
+    private long leidos;
+    private FileChannel archivo;
+    private long segmentoAbierto = -1;
+    private ByteBuffer pendiente;
+    private final ByteBuffer lectura = ByteBuffer.allocate(LOTE);
+
+    RelevoBuzon(BuzonesPuerto.Buzon buzon, boolean binaria) {
+        this.buzon = buzon;
+        this.binaria = binaria;
+    }
+
+    /**
+     * Escribe como mucho un lote de mensajes en el canal.
+     */
+    @Override
+    public Avance escribirTrozo(WritableByteChannel canal) throws IOException {
+        if (!iniciado) {
+            iniciado = true;
+            long[] cursor = buzon.tomar();
+            generacion = (int) cursor[0];
+            segmento = cursor[1];
+            posicion = cursor[2];
+        }
+        if (pendiente == null) {
+            pendiente = siguienteLote();
+            if (pendiente == null) {
+                cerrar();
+                return Avance.TERMINADO;
+            }
+        }
+        canal.write(pendiente);
+        if (pendiente.hasRemaining()) return Avance.PARCIAL;
+        pendiente = null;
+        buzon.confirmar(generacion, segmento, posicion, leidos);
+        leidos = 0;
+        return Avance.TROZO;
+    }
+
+    /**
+     * Lee registros desde el cursor y los codifica como MSGTO: hasta llenar un lote.
+     *
+     * @return null si no queda nada por entregar
+     */
+    private ByteBuffer siguienteLote() throws IOException {
+        ByteArrayOutputStream lote = new ByteArrayOutputStream(LOTE + 1024);
+        while (lote.size() < LOTE) {
+            long fin = buzon.fin(segmento);
+            if (fin < 0 || posicion >= fin) {
+                if (buzon.esUltimo(segmento)) break;
+                segmento++;
+                posicion = 0;
+                continue;
+            }
+            abrir();
+            lectura.clear();
+            lectura.limit((int) Math.min(LOTE, fin - posicion));
+            while (lectura.hasRemaining()) {
+                if (archivo.read(lectura, posicion + lectura.position()) < 0) break;
+            }
+            lectura.flip();
+            if (lectura.remaining() < 4) break;
+
+            int largo = lectura.getInt(0);
+            if (largo < 0 || posicion + 4 + largo > fin) {
+                throw new IOException("Buzón de " + buzon.getUsuario() + " dañado en el segmento " + segmento);
+            }
+            if (4 + largo > lectura.remaining()) {
+                // Un mensaje más grande que el lote: se lee solo
+                byte[] contenido = new byte[largo];
+                ByteBuffer destino = ByteBuffer.wrap(contenido);
+                while (destino.hasRemaining()) {
+                    if (archivo.read(destino, posicion + 4 + destino.position()) < 0) {
+                        throw new IOException("Buzón de " + buzon.getUsuario() + " dañado en el segmento " + segmento);
+                    }
+                }
+                agregar(lote, contenido, 4 + largo);
+                continue;
+            }
+            // Todos los registros completos del bloque leído
+            while (lectura.remaining() >= 4 && lote.size() < LOTE) {
+                largo = lectura.getInt(lectura.position());
+                if (largo < 0 || 4 + largo > lectura.remaining()) break;
+                byte[] contenido = new byte[largo];
+                lectura.position(lectura.position() + 4);
+                lectura.get(contenido);
+                agregar(lote, contenido, 4 + largo);
+            }
+        }
+        return lote.size() == 0 ? null : ByteBuffer.wrap(lote.toByteArray());
+    }
+
+    private void agregar(ByteArrayOutputStream lote, byte[] contenido, int largoRegistro) throws IOException {
+        lote.write(Trama.de(TipoTrama.MSGTO, contenido).codificar(binaria));
+        posicion += largoRegistro;
+        leidos += largoRegistro;
+    }
+
+    private void abrir() throws IOException {
+        if (segmentoAbierto == segmento) return;
+        cerrar();
+        try {
+            archivo = FileChannel.open(buzon.segmento(segmento), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new IOException("Falta el segmento " + segmento + " del buzón de " + buzon.getUsuario(), e);
+        }
+        segmentoAbierto = segmento;
+    }
+
+    @Override
+    public boolean aMedias() {
+        return pendiente != null && pendiente.position() > 0;
+    }
+
+    @Override
+    public void cerrar() {
+        segmentoAbierto = -1;
+        if (archivo == null) return;
+        try {
+            archivo.close();
+        } catch (IOException ignored) {}
+        archivo = null;
+    }
+}
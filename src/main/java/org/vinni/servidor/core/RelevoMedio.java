@@ -0,0 +1,132 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.CodecTrama;
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reenvío de un {@link MedioGuardado} a una sesión: FILE:, los CHUNK: y FILEEND:,
+ * escritos trozo a trozo por la capa de E/S cuando la cola de mensajes está vacía,
+ * de modo que el chat sigue pasando por delante.
+ *
+ * En binario solo la cabecera de cada trozo pasa por el heap: los datos van del
+ * archivo al socket con {@link FileChannel#transferTo}. En texto hay que leerlos
+ * para codificarlos en Base64, pero de a un trozo. Si la sesión ya recibió ese
+ * contenido, sale solo un FILEREF: con la cabecera.
+ *
+ * Quien lo encola ya fijó el medio en el almacén ({@link MedioGuardado#fijar}) si
+ * hay que mandarlo entero; se suelta al cerrar el relevo.
+ */
+final class RelevoMedio implements Relevo {
+
+    private final MedioGuardado medio;
+    private final boolean binaria;
+    private final boolean referencia;
+    private final long tamano;
+
+    private boolean iniciado;
+    private FileChannel archivo;
+    private long siguienteTrozo;
+    private ByteBuffer pendiente;
+    // Datos del trozo actual que faltan por transferir (solo binario)
+    private long datosDesde;
+    private long datosRestantes;
+    private boolean finEncolado;
+    private boolean cerrado;
+
+    /**
+     * @param referencia true si el destinatario ya tiene el contenido y basta con FILEREF:
+     */
+    RelevoMedio(MedioGuardado medio, boolean binaria, boolean referencia) {
+        this.medio = medio;
+        this.binaria = binaria;
+        this.referencia = referencia;
+        this.tamano = medio.getInfo().getTamano();
+    }
+
+    /**
+     * Escribe como mucho un mensaje (la cabecera, un trozo o el fin) en el canal.
+     */
+    @Override
+    public Avance escribirTrozo(WritableByteChannel canal) throws IOException {
+        if (!iniciado) {
+            iniciado = true;
+            if (referencia) {
+                pendiente = ByteBuffer.wrap(Trama.de(TipoTrama.ARCH_REF, medio.getInfo().aTexto()).codificar(binaria));
+                finEncolado = true;
+            } else {
+                archivo = FileChannel.open(medio.getRuta(), StandardOpenOption.READ);
+                pendiente = ByteBuffer.wrap(Trama.de(TipoTrama.ARCH_INICIO, medio.getInfo().aTexto()).codificar(binaria));
+            }
+        } else if (pendiente == null && datosRestantes == 0) {
+            prepararSiguiente();
+        }
+
+        if (pendiente != null) {
+            canal.write(pendiente);
+            if (pendiente.hasRemaining()) return Avance.PARCIAL;
+            pendiente = null;
+        }
+        while (datosRestantes > 0) {
+            long escritos = archivo.transferTo(datosDesde, datosRestantes, canal);
+            if (escritos <= 0) return Avance.PARCIAL;
+            datosDesde += escritos;
+            datosRestantes -= escritos;
+        }
+        if (finEncolado) {
+            cerrar();
+            return Avance.TERMINADO;
+        }
+        return Avance.TROZO;
+    }
+
+    private void prepararSiguiente() throws IOException {
+        long id = medio.getInfo().getId();
+        if (siguienteTrozo >= tamano) {
+            pendiente = ByteBuffer.wrap(Trama.de(TipoTrama.ARCH_FIN, CodecArchivo.textoId(id)).codificar(binaria));
+            finEncolado = true;
+            return;
+        }
+        int largo = (int) Math.min(CodecArchivo.TAM_TROZO, tamano - siguienteTrozo);
+        if (binaria) {
+            // [tipo][longitud][id][desplazamiento]; los datos los pone transferTo
+            pendiente = ByteBuffer.allocate(CodecTrama.CABECERA + 16);
+            pendiente.put(TipoTrama.ARCH_TROZO.getCodigo()).putInt(16 + largo).putLong(id).putLong(siguienteTrozo).flip();
+            datosDesde = siguienteTrozo;
+            datosRestantes = largo;
+        } else {
+            byte[] datos = new byte[largo];
+            ByteBuffer destino = ByteBuffer.wrap(datos);
+            while (destino.hasRemaining()) {
+                if (archivo.read(destino, siguienteTrozo + destino.position()) < 0) {
+                    throw new IOException("El archivo " + medio.getRuta() + " se acortó");
+                }
+            }
+            pendiente = ByteBuffer.wrap(CodecTrama.linea(TipoTrama.ARCH_TROZO, CodecArchivo.trozo(id, siguienteTrozo, datos, largo)));
+        }
+        siguienteTrozo += largo;
+    }
+
+    @Override
+    public boolean aMedias() {
+        return pendiente != null || datosRestantes > 0;
+    }
+
+    @Override
+    public void cerrar() {
+        if (cerrado) return;
+        cerrado = true;
+        if (!referencia) medio.soltar();
+        if (archivo == null) return;
+        try {
+            archivo.close();
+        } catch (IOException ignored) {}
+    }
+}
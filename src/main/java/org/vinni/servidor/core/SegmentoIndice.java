@@ -0,0 +1,356 @@
+package org.vinni.servidor.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segmento inmutable del índice de historial ({@link IndiceHistorial}), leído con
+ * el archivo proyectado en memoria.
+ *
+ * Formato: {@code [MAGIA:4][tabla de términos:8][tabla de usuarios:8]}, luego las
+ * listas de apariciones y al final las dos tablas. Una aparición es la posición de
+ * una línea en los registros del puerto ({@link #aparicion}); cada lista va
+ * ordenada y guardada como diferencias en varint. Una tabla es
+ * {@code [n:4]} más n entradas de 16 bytes {@code [clave:4][largo clave:4][lista:4][cantidad:4]},
+ * ordenadas por clave, y los bytes UTF-8 de las claves; se busca por bisección.
+ */
+final class SegmentoIndice {
+
+    private static final int MAGIA = 0x49445831; // "IDX1"
+    private static final int CABECERA = 20;
+    private static final int ENTRADA = 16;
+
+    /**
+     * Líneas de un segmento en construcción agrupadas por clave.
+     */
+    static final class ListaLargos {
+        private long[] valores = new long[4];
+        private int cantidad;
+
+        void agregar(long valor) {
+            if (cantidad > 0 && valores[cantidad - 1] == valor) return;
+            if (cantidad == valores.length) valores = Arrays.copyOf(valores, cantidad * 2);
+            valores[cantidad++] = valor;
+        }
+
+        void volcar(Escritor escritor) throws IOException {
+            for (int i = 0; i < cantidad; i++) escritor.agregar(valores[i]);
+        }
+    }
+
+    private final Path ruta;
+    private final MappedByteBuffer datos;
+    private final int tablaTerminos;
+    private final int tablaUsuarios;
+
+    private SegmentoIndice(Path ruta, MappedByteBuffer datos) throws IOException {
+        this.ruta = ruta;
+        this.datos = datos;
+        if (datos.capacity() < CABECERA || datos.getInt(0) != MAGIA) throw new IOException("No es un segmento de índice: " + ruta);
+        this.tablaTerminos = (int) datos.getLong(4);
+        this.tablaUsuarios = (int) datos.getLong(12);
+    }
+
+    static SegmentoIndice abrir(Path ruta) throws IOException {
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) throw new IOException("Segmento demasiado grande: " + ruta);
+            return new SegmentoIndice(ruta, canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    Path getRuta() {
+        return ruta;
+    }
+
+    /** Bytes del segmento en disco. */
+    long getTamano() {
+        return datos.capacity();
+    }
+
+    /**
+     * Posición de una línea: el día del archivo y su desplazamiento en bytes (hasta 1 TB),
+     * en un long que ordena igual que (día, desplazamiento).
+     *
+     * @param dia AAAAMMDD
+     */
+    static long aparicion(int dia, long desplazamiento) {
+        // El día se compacta a año*372 + (mes-1)*31 + (día-1): cabe en 20 bits y conserva el orden
+        long compacto = dia / 10000 * 372L + (dia / 100 % 100 - 1) * 31L + (dia % 100 - 1);
+        return (compacto << 40) | desplazamiento;
+    }
+
+    /** @return AAAAMMDD */
+    static int dia(long aparicion) {
+        int compacto = (int) (aparicion >>> 40);
+        return compacto / 372 * 10000 + (compacto % 372 / 31 + 1) * 100 + compacto % 31 + 1;
+    }
+
+    static long desplazamiento(long aparicion) {
+        return aparicion & ((1L << 40) - 1);
+    }
+
+    // ---------- Lectura ----------
+
+    /** Líneas que contienen el término, en orden; vacío si no está. */
+    long[] termino(String termino) {
+        return buscar(tablaTerminos, termino);
+    }
+
+    /** Líneas escritas por el usuario, en orden; vacío si no está. */
+    long[] usuario(String usuario) {
+        return buscar(tablaUsuarios, usuario);
+    }
+
+    private long[] buscar(int tabla, String clave) {
+        int bajo = 0;
+        int alto = datos.getInt(tabla) - 1;
+        while (bajo <= alto) {
+            int medio = (bajo + alto) >>> 1;
+            int comparacion = clave(tabla, medio).compareTo(clave);
+            if (comparacion < 0) {
+                bajo = medio + 1;
+            } else if (comparacion > 0) {
+                alto = medio - 1;
+            } else {
+                int entrada = tabla + 4 + medio * ENTRADA;
+                return lista(datos.getInt(entrada + 8), datos.getInt(entrada + 12));
+            }
+        }
+        return new long[0];
+    }
+
+    private String clave(int tabla, int i) {
+        int entrada = tabla + 4 + i * ENTRADA;
+        byte[] bytes = new byte[datos.getInt(entrada + 4)];
+        ByteBuffer vista = datos.duplicate();
+        vista.position(datos.getInt(entrada));
+        vista.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long[] lista(int posicion, int cantidad) {
+        long[] valores = new long[cantidad];
+        Lista lista = new Lista(posicion);
+        for (int i = 0; i < cantidad; i++) valores[i] = lista.siguiente();
+        return valores;
+    }
+
+    /**
+     * Recorre una lista guardada: cada {@link #siguiente} decodifica la próxima aparición.
+     */
+    private final class Lista {
+        private int posicion;
+        private long anterior;
+
+        Lista(int posicion) {
+            this.posicion = posicion;
+        }
+
+        long siguiente() {
+            long diferencia = 0;
+            int corrimiento = 0;
+            byte b;
+            do {
+                b = datos.get(posicion++);
+                diferencia |= (long) (b & 0x7F) << corrimiento;
+                corrimiento += 7;
+            } while (b < 0);
+            anterior += diferencia;
+            return anterior;
+        }
+    }
+
+    // ---------- Escritura ----------
+
+    /**
+     * Escribe un segmento con las listas de una pasada (claves ordenadas).
+     */
+    static void escribir(Path ruta, Map<String, ListaLargos> terminos, Map<String, ListaLargos> usuarios) throws IOException {
+        try (Escritor escritor = new Escritor(ruta)) {
+            for (Map.Entry<String, ListaLargos> entrada : terminos.entrySet()) {
+                escritor.empezarLista(entrada.getKey());
+                entrada.getValue().volcar(escritor);
+            }
+            escritor.pasarAUsuarios();
+            for (Map.Entry<String, ListaLargos> entrada : usuarios.entrySet()) {
+                escritor.empezarLista(entrada.getKey());
+                entrada.getValue().volcar(escritor);
+            }
+            escritor.terminar();
+        }
+    }
+
+    /**
+     * Mezcla segmentos seguidos (en orden de escritura) en uno nuevo, clave a clave:
+     * recorre a la vez las tablas de todos y copia cada lista desde el archivo
+     * proyectado, sin cargarla entera. Cada segmento cubre líneas posteriores a las
+     * del anterior, así que las listas de una clave se concatenan.
+     */
+    static void mezclar(List<SegmentoIndice> segmentos, Path ruta) throws IOException {
+        try (Escritor escritor = new Escritor(ruta)) {
+            mezclarTabla(segmentos, false, escritor);
+            escritor.pasarAUsuarios();
+            mezclarTabla(segmentos, true, escritor);
+            escritor.terminar();
+        }
+    }
+
+    private static void mezclarTabla(List<SegmentoIndice> segmentos, boolean deUsuarios, Escritor escritor) throws IOException {
+        int n = segmentos.size();
+        int[] siguiente = new int[n];
+        String[] claves = new String[n];
+        for (int s = 0; s < n; s++) claves[s] = segmentos.get(s).claveEn(deUsuarios, 0);
+        while (true) {
+            String menor = null;
+            for (String clave : claves) {
+                if (clave != null && (menor == null || clave.compareTo(menor) < 0)) menor = clave;
+            }
+            if (menor == null) return;
+            escritor.empezarLista(menor);
+            for (int s = 0; s < n; s++) {
+                if (!menor.equals(claves[s])) continue;
+                SegmentoIndice segmento = segmentos.get(s);
+                segmento.copiarLista(deUsuarios, siguiente[s], escritor);
+                claves[s] = segmento.claveEn(deUsuarios, ++siguiente[s]);
+            }
+        }
+    }
+
+    /** Clave i de una tabla, o null si no tiene tantas. */
+    private String claveEn(boolean deUsuarios, int i) {
+        int tabla = deUsuarios ? tablaUsuarios : tablaTerminos;
+        return i < datos.getInt(tabla) ? clave(tabla, i) : null;
+    }
+
+    private void copiarLista(boolean deUsuarios, int i, Escritor escritor) throws IOException {
+        int entrada = (deUsuarios ? tablaUsuarios : tablaTerminos) + 4 + i * ENTRADA;
+        Lista lista = new Lista(datos.getInt(entrada + 8));
+        for (int n = datos.getInt(entrada + 12); n > 0; n--) escritor.agregar(lista.siguiente());
+    }
+
+    /**
+     * Escribe un segmento lista a lista, en orden de clave: primero las de los términos
+     * y, tras {@link #pasarAUsuarios}, las de los usuarios. Las listas van directas al
+     * archivo; en memoria solo quedan las tablas (claves y posiciones) hasta
+     * {@link #terminar}. Se escribe aparte y se renombra al final: un segmento a medias
+     * nunca queda con su nombre.
+     */
+    static final class Escritor implements Closeable {
+        private final Path ruta;
+        private final Path temporal;
+        // DataOutputStream lleva la cuenta de lo escrito: esas son las posiciones en el archivo
+        private final DataOutputStream salida;
+        private final Tabla terminos = new Tabla();
+        private final Tabla usuarios = new Tabla();
+        private Tabla actual = terminos;
+        private long anterior;
+        private boolean terminado;
+
+        Escritor(Path ruta) throws IOException {
+            this.ruta = ruta;
+            this.temporal = ruta.resolveSibling(ruta.getFileName() + ".tmp");
+            this.salida = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporal), 64 * 1024));
+            salida.writeInt(MAGIA);
+            salida.writeLong(0);
+            salida.writeLong(0);
+        }
+
+        /** Empieza la lista de la clave siguiente, mayor que la anterior. */
+        void empezarLista(String clave) {
+            actual.agregar(clave.getBytes(StandardCharsets.UTF_8), salida.size());
+            anterior = 0;
+        }
+
+        /** Añade una aparición a la lista en curso, mayor que la anterior. */
+        void agregar(long valor) throws IOException {
+            long diferencia = valor - anterior;
+            anterior = valor;
+            while ((diferencia & ~0x7FL) != 0) {
+                salida.writeByte((int) ((diferencia & 0x7F) | 0x80));
+                diferencia >>>= 7;
+            }
+            salida.writeByte((int) diferencia);
+            actual.contar();
+        }
+
+        void pasarAUsuarios() {
+            actual = usuarios;
+        }
+
+        void terminar() throws IOException {
+            long tablaTerminos = salida.size();
+            terminos.escribir(salida);
+            long tablaUsuarios = salida.size();
+            usuarios.escribir(salida);
+            // size() se satura en Integer.MAX_VALUE
+            if (salida.size() == Integer.MAX_VALUE) throw new IOException("Segmento demasiado grande: " + ruta);
+            salida.close();
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                ByteBuffer tablas = ByteBuffer.allocate(16).putLong(tablaTerminos).putLong(tablaUsuarios);
+                tablas.flip();
+                while (tablas.hasRemaining()) canal.write(tablas, 4 + tablas.position());
+                canal.force(true);
+            }
+            Files.move(temporal, ruta, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            terminado = true;
+        }
+
+        /** Sin {@link #terminar}, descarta lo escrito. */
+        @Override
+        public void close() throws IOException {
+            if (terminado) return;
+            salida.close();
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Tabla en construcción: las claves en UTF-8 y, de cada una, el largo, dónde
+     * empieza su lista y cuántas apariciones lleva.
+     */
+    private static final class Tabla {
+        private final ByteArrayOutputStream claves = new ByteArrayOutputStream();
+        private int[] entradas = new int[3 * 64];
+        private int n;
+
+        void agregar(byte[] clave, int lista) {
+            if (3 * n + 3 > entradas.length) entradas = Arrays.copyOf(entradas, entradas.length * 2);
+            claves.write(clave, 0, clave.length);
+            entradas[3 * n] = clave.length;
+            entradas[3 * n + 1] = lista;
+            entradas[3 * n + 2] = 0;
+            n++;
+        }
+
+        void contar() {
+            entradas[3 * n - 1]++;
+        }
+
+        void escribir(DataOutputStream salida) throws IOException {
+            int posicionClave = salida.size() + 4 + n * ENTRADA;
+            salida.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                salida.writeInt(posicionClave);
+                salida.writeInt(entradas[3 * i]);
+                salida.writeInt(entradas[3 * i + 1]);
+                salida.writeInt(entradas[3 * i + 2]);
+                posicionClave += entradas[3 * i];
+            }
+            claves.writeTo(salida);
+        }
+    }
+}
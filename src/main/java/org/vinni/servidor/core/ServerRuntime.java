@@ -0,0 +1,547 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Núcleo del servidor multipuerto, sin nada de Swing/AWT: levanta y detiene los
+ * puertos con el motor elegido (ver {@link ModoServidor}), guarda y restaura qué
+ * puertos estaban encendidos ({@code server_data/estado_puertos.txt}) y lleva el
+ * {@link MonitorPuertos}.
+ *
+ * Los puertos no son fijos: se parte de los configurados (ver {@link ConfigPuertos})
+ * y se pueden agregar y quitar en marcha; el registro, con los aceptores de cada
+ * puerto, se guarda junto al estado. Quien quiera mostrar algo (la ventana, la consola) se
+ * registra como {@link ObservadorServidor}.
+ *
+ * Mide el arranque: desde que se crea hasta que el primer puerto escucha y hasta
+ * la primera conexión aceptada.
+ */
+public class ServerRuntime {
+
+    public static final int[] PUERTOS_POR_DEFECTO = {12345, 12346, 12347, 12348, 12349};
+
+    // Puertos registrados -> aceptores de cada uno, ordenados por número
+    private final ConcurrentSkipListMap<Integer, Integer> puertos = new ConcurrentSkipListMap<>();
+    // Con puertos dados de forma explícita, el registro guardado no los reemplaza
+    private final boolean puertosFijados;
+    private final ModoServidor modo;
+    private final Path estadoFile;
+    private final long creadoNanos;
+
+    private final GrupoEventosNio grupoNio;
+    private final ConcurrentHashMap<Integer, ServidorPuerto> servidores = new ConcurrentHashMap<>();
+    // Ejecutor de cada puerto en los modos bloqueantes (aceptación + sesiones)
+    private final ConcurrentHashMap<Integer, ExecutorService> ejecutores = new ConcurrentHashMap<>();
+
+    private final List<ObservadorServidor> observadores = new CopyOnWriteArrayList<>();
+    private final ObservadorServidor difusor = new Difusor();
+    private MonitorPuertos monitor;
+    private final SupervisorPuertos supervisor;
+    // Prometheus y JMX, solo si alguien llama a publicar()
+    private final MetricasServidor metricas = new MetricasServidor(this);
+
+    private volatile long msHastaEscuchar = -1;
+    private volatile long msHastaPrimeraConexion = -1;
+
+    public ServerRuntime() {
+        this(ConfigPuertos.desdePropiedades(), System.getProperty(ConfigPuertos.PROPIEDAD) != null,
+                ModoServidor.desdePropiedades(), Paths.get("server_data", "estado_puertos.txt"));
+    }
+
+    public ServerRuntime(int[] puertos, ModoServidor modo, Path estadoFile) {
+        this(unAceptor(puertos), true, modo, estadoFile);
+    }
+
+    /**
+     * @param puertos puerto -> aceptores
+     */
+    public ServerRuntime(Map<Integer, Integer> puertos, ModoServidor modo, Path estadoFile) {
+        this(puertos, true, modo, estadoFile);
+    }
+
+    private ServerRuntime(Map<Integer, Integer> puertos, boolean puertosFijados, ModoServidor modo, Path estadoFile) {
+        this.creadoNanos = System.nanoTime();
+        for (Map.Entry<Integer, Integer> e : puertos.entrySet()) {
+            ConfigPuertos.validar(e.getKey(), e.getValue());
+            this.puertos.put(e.getKey(), e.getValue());
+        }
+        this.puertosFijados = puertosFijados;
+        this.estadoFile = estadoFile;
+        GrupoEventosNio grupo = null;
+        if (modo == ModoServidor.NIO) {
+            try {
+                grupo = new GrupoEventosNio(GrupoEventosNio.hilosPorDefecto());
+            } catch (IOException e) {
+                System.err.println("No se pudo iniciar el motor NIO, se usan hilos: " + e.getMessage());
+            }
+        }
+        this.grupoNio = grupo;
+        this.modo = grupo != null ? ModoServidor.NIO : modo == ModoServidor.NIO ? ModoServidor.HILOS : modo;
+        this.supervisor = new SupervisorPuertos(this, difusor);
+    }
+
+    private static Map<Integer, Integer> unAceptor(int[] puertos) {
+        Map<Integer, Integer> mapa = new LinkedHashMap<>();
+        for (int puerto : puertos) mapa.put(puerto, ConfigPuertos.aceptoresPorDefecto());
+        return mapa;
+    }
+
+    public void agregarObservador(ObservadorServidor observador) {
+        observadores.add(observador);
+    }
+
+    public void quitarObservador(ObservadorServidor observador) {
+        observadores.remove(observador);
+    }
+
+    // ---------- Registro de puertos ----------
+
+    /**
+     * Registra un puerto nuevo (sin levantarlo) o cambia sus aceptores, que se aplican
+     * la próxima vez que se levante.
+     *
+     * @throws IllegalArgumentException si el puerto o los aceptores están fuera de rango
+     */
+    public void agregarPuerto(int puerto, int aceptores) {
+        ConfigPuertos.validar(puerto, aceptores);
+        Integer anterior;
+        synchronized (this) {
+            anterior = puertos.put(puerto, aceptores);
+            guardarEstado();
+        }
+        if (anterior == null) difusor.puertoAgregado(puerto);
+    }
+
+    /**
+     * Detiene el puerto (si escucha) y lo saca del registro.
+     */
+    public void quitarPuerto(int puerto) {
+        detener(puerto);
+        boolean estaba;
+        synchronized (this) {
+            estaba = puertos.remove(puerto) != null;
+            guardarEstado();
+        }
+        if (estaba) difusor.puertoQuitado(puerto);
+    }
+
+    public boolean isRegistrado(int puerto) {
+        return puertos.containsKey(puerto);
+    }
+
+    // ---------- Puertos ----------
+
+    /**
+     * Levanta el puerto si no está ya levantado (si no estaba registrado, lo registra).
+     */
+    public void iniciar(int puerto) throws IOException {
+        boolean nuevo;
+        synchronized (this) {
+            nuevo = !puertos.containsKey(puerto);
+            if (nuevo) {
+                ConfigPuertos.validar(puerto, ConfigPuertos.aceptoresPorDefecto());
+                puertos.put(puerto, ConfigPuertos.aceptoresPorDefecto());
+            }
+        }
+        if (nuevo) difusor.puertoAgregado(puerto);
+        levantar(puerto);
+    }
+
+    private synchronized void levantar(int puerto) throws IOException {
+        if (servidores.containsKey(puerto)) return;
+        int aceptores = puertos.getOrDefault(puerto, 1);
+        ServidorPuerto servidor;
+        if (grupoNio != null) {
+            servidor = new ServidorPuerto(puerto, difusor, grupoNio, aceptores);
+        } else {
+            ExecutorService ejecutor = Ejecutores.porPuerto(modo, puerto);
+            try {
+                servidor = new ServidorPuerto(puerto, difusor, ejecutor, modo, aceptores);
+            } catch (IOException e) {
+                ejecutor.shutdownNow();
+                throw e;
+            }
+            ejecutores.put(puerto, ejecutor);
+        }
+        servidores.put(puerto, servidor);
+        servidor.start();
+        IndiceHistorial.de(puerto).iniciar();
+        if (msHastaEscuchar < 0) msHastaEscuchar = msDesdeCreacion();
+        difusor.log(puerto, "Servidor iniciado en puerto " + puerto);
+        difusor.puertoCambiado(puerto, true);
+    }
+
+    /**
+     * Detiene el puerto y espera (poco) a que terminen sus sesiones.
+     */
+    public void detener(int puerto) {
+        ExecutorService ejecutor;
+        synchronized (this) {
+            ServidorPuerto servidor = servidores.remove(puerto);
+            if (servidor == null) return;
+            servidor.detener();
+            ejecutor = ejecutores.remove(puerto);
+        }
+        difusor.log(puerto, "Servidor detenido en puerto " + puerto);
+        difusor.puertoCambiado(puerto, false);
+        drenarSesiones(puerto, ejecutor);
+    }
+
+    /**
+     * Detiene el puerto y lo vuelve a levantar pasados {@code esperaMs}, en segundo plano
+     * (ver {@link SupervisorPuertos}).
+     *
+     * @return false si ya había un reinicio en curso para ese puerto
+     */
+    public boolean reiniciar(int puerto, long esperaMs) {
+        return supervisor.reiniciar(puerto, esperaMs, "pedido manual");
+    }
+
+    /**
+     * Apaga el ejecutor del puerto: interrumpe sus sesiones y espera a que terminen.
+     */
+    private void drenarSesiones(int puerto, ExecutorService ejecutor) {
+        if (ejecutor != null && !Ejecutores.detener(ejecutor, 2000)) {
+            difusor.log(puerto, "Algunas sesiones del puerto " + puerto + " no terminaron a tiempo");
+        }
+    }
+
+    /**
+     * Guarda el estado, detiene el monitor y todos los puertos y libera los motores.
+     */
+    public synchronized void apagar() {
+        guardarEstado();
+        detenerMonitor();
+        metricas.detener();
+        supervisor.detener();
+        for (ServidorPuerto servidor : servidores.values()) {
+            try { servidor.detener(); } catch (Exception ignored) {}
+        }
+        servidores.clear();
+        // Se espera a los hilos de aceptación: al volver, los puertos ya están libres
+        for (Map.Entry<Integer, ExecutorService> ejecutor : ejecutores.entrySet()) {
+            drenarSesiones(ejecutor.getKey(), ejecutor.getValue());
+        }
+        ejecutores.clear();
+        if (grupoNio != null) grupoNio.detener();
+    }
+
+    // ---------- Monitor ----------
+
+    public synchronized void iniciarMonitor() {
+        if (monitor != null) return;
+        monitor = new MonitorPuertos(this, difusor);
+        monitor.iniciar();
+    }
+
+    public synchronized void detenerMonitor() {
+        if (monitor == null) return;
+        monitor.detener();
+        monitor = null;
+    }
+
+    public synchronized boolean isMonitorActivo() {
+        return monitor != null;
+    }
+
+    // ---------- Persistencia del estado ----------
+
+    /**
+     * Escribe los puertos registrados (con sus aceptores), cuáles están encendidos y
+     * si el monitor está activo.
+     */
+    public synchronized void guardarEstado() {
+        try {
+            Files.createDirectories(estadoFile.getParent());
+            try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(estadoFile))) {
+                for (int puerto : new TreeSet<>(servidores.keySet())) {
+                    pw.println("PUERTO:" + puerto);
+                }
+                for (Map.Entry<Integer, Integer> e : puertos.entrySet()) {
+                    pw.println("CONFIG:" + e.getKey() + ":" + e.getValue());
+                }
+                if (monitor != null) pw.println("MONITOR:1");
+            }
+        } catch (IOException e) {
+            System.err.println("No se pudo guardar estado: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Vuelve a levantar los puertos (y el monitor) de la última ejecución. El registro
+     * guardado reemplaza al configurado, salvo que los puertos se hayan dado de forma
+     * explícita (propiedad {@code servidor.puertos} o constructor).
+     *
+     * @return false si no había estado guardado
+     */
+    public boolean restaurarEstado() {
+        if (!Files.exists(estadoFile)) return false;
+        try {
+            List<String> lineas = Files.readAllLines(estadoFile);
+            Map<Integer, Integer> registrados = new LinkedHashMap<>();
+            for (String linea : lineas) {
+                if (!linea.startsWith("CONFIG:")) continue;
+                String[] partes = linea.split(":");
+                try {
+                    int puerto = Integer.parseInt(partes[1].trim());
+                    int aceptores = partes.length > 2 ? Integer.parseInt(partes[2].trim()) : 1;
+                    ConfigPuertos.validar(puerto, aceptores);
+                    registrados.put(puerto, aceptores);
+                } catch (RuntimeException e) {
+                    System.err.println("Línea de estado ignorada '" + linea + "': " + e.getMessage());
+                }
+            }
+            if (!registrados.isEmpty() && !puertosFijados) reemplazarRegistro(registrados);
+            for (String linea : lineas) {
+                if (linea.startsWith("PUERTO:")) {
+                    int puerto = Integer.parseInt(linea.substring("PUERTO:".length()).trim());
+                    try {
+                        iniciar(puerto);
+                    } catch (IOException | IllegalArgumentException e) {
+                        difusor.log(puerto, "No se pudo restaurar el puerto " + puerto + ": " + e.getMessage());
+                    }
+                } else if (linea.startsWith("MONITOR:")) {
+                    iniciarMonitor();
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("No se pudo restaurar estado: " + e.getMessage());
+        }
+        return true;
+    }
+
+    private void reemplazarRegistro(Map<Integer, Integer> registrados) {
+        List<Integer> quitados = new ArrayList<>();
+        List<Integer> agregados = new ArrayList<>();
+        synchronized (this) {
+            for (int puerto : puertos.keySet()) {
+                if (!registrados.containsKey(puerto) && !servidores.containsKey(puerto)) quitados.add(puerto);
+            }
+            for (int puerto : quitados) puertos.remove(puerto);
+            for (Map.Entry<Integer, Integer> e : registrados.entrySet()) {
+                if (puertos.put(e.getKey(), e.getValue()) == null) agregados.add(e.getKey());
+            }
+        }
+        for (int puerto : quitados) difusor.puertoQuitado(puerto);
+        for (int puerto : agregados) difusor.puertoAgregado(puerto);
+    }
+
+    // ---------- Consulta ----------
+
+    /** Puertos registrados, de menor a mayor. */
+    public int[] getPuertos() {
+        int[] lista = new int[puertos.size()];
+        int n = 0;
+        for (int puerto : puertos.keySet()) {
+            if (n == lista.length) break;
+            lista[n++] = puerto;
+        }
+        return n == lista.length ? lista : Arrays.copyOf(lista, n);
+    }
+
+    /**
+     * Busca en el historial indexado del puerto (ver {@link IndiceHistorial#buscar}).
+     * Funciona aunque el puerto esté detenido: lee lo que haya en server_data, y si
+     * no hay indexador en marcha, indexa antes lo que falte.
+     *
+     * @param usuario null para cualquiera
+     */
+    public List<String> buscarHistorial(int puerto, String usuario, String consulta, int limite) throws IOException {
+        IndiceHistorial indice = IndiceHistorial.de(puerto);
+        if (!indice.isIniciado()) indice.actualizar();
+        return indice.buscar(usuario, consulta, limite);
+    }
+
+    /** Aceptores con los que se levanta el puerto, o 0 si no está registrado. */
+    public int getAceptores(int puerto) {
+        return puertos.getOrDefault(puerto, 0);
+    }
+
+    public ServidorPuerto getServidor(int puerto) {
+        return servidores.get(puerto);
+    }
+
+    public SupervisorPuertos getSupervisor() {
+        return supervisor;
+    }
+
+    public MetricasServidor getMetricas() {
+        return metricas;
+    }
+
+    public ModoServidor getModo() {
+        return modo;
+    }
+
+    /** Milisegundos desde la creación hasta que el primer puerto escuchó, o -1. */
+    public long getMsHastaEscuchar() {
+        return msHastaEscuchar;
+    }
+
+    /** Milisegundos desde la creación hasta la primera conexión aceptada, o -1. */
+    public long getMsHastaPrimeraConexion() {
+        return msHastaPrimeraConexion;
+    }
+
+    private long msDesdeCreacion() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - creadoNanos);
+    }
+
+    /**
+     * Reparte los avisos de los puertos entre los observadores y toma las medidas de arranque.
+     */
+    private final class Difusor implements ObservadorServidor {
+
+        @Override
+        public void log(int puerto, String mensaje) {
+            for (ObservadorServidor o : observadores) o.log(puerto, mensaje);
+        }
+
+        @Override
+        public void usuarioConectado(int puerto, String usuario) {
+            for (ObservadorServidor o : observadores) o.usuarioConectado(puerto, usuario);
+        }
+
+        @Override
+        public void usuarioDesconectado(int puerto, String usuario) {
+            for (ObservadorServidor o : observadores) o.usuarioDesconectado(puerto, usuario);
+        }
+
+        @Override
+        public void conexionAceptada(int puerto) {
+            if (msHastaPrimeraConexion < 0) {
+                synchronized (this) {
+                    if (msHastaPrimeraConexion < 0) {
+                        msHastaPrimeraConexion = msDesdeCreacion();
+                        log(puerto, "Primera conexión aceptada a los " + msHastaPrimeraConexion + " ms del arranque");
+                    }
+                }
+            }
+            for (ObservadorServidor o : observadores) o.conexionAceptada(puerto);
+        }
+
+        @Override
+        public void puertoCambiado(int puerto, boolean activo) {
+            for (ObservadorServidor o : observadores) o.puertoCambiado(puerto, activo);
+        }
+
+        @Override
+        public void puertoAgregado(int puerto) {
+            for (ObservadorServidor o : observadores) o.puertoAgregado(puerto);
+        }
+
+        @Override
+        public void puertoQuitado(int puerto) {
+            for (ObservadorServidor o : observadores) o.puertoQuitado(puerto);
+        }
+
+        @Override
+        public void monitor(String mensaje) {
+            for (ObservadorServidor o : observadores) o.monitor(mensaje);
+        }
+    }
+
+    // ---------- Arranque sin interfaz ----------
+
+    /**
+     * Servidor sin ventana: {@code [--modo=hilos|virtuales|nio] [--puertos=12345,12346:4] [--monitor] [puerto...]}.
+     * Sin puertos sueltos en la línea de comandos restaura el último estado y, si no hay,
+     * levanta todos los puertos configurados. Publica las métricas (ver {@link MetricasServidor}).
+     * El log va a la consola y a los registros de cada puerto; se detiene con Ctrl+C
+     * guardando el estado.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        ModoServidor.aplicarArgumentos(args);
+        ConfigPuertos.aplicarArgumentos(args);
+        List<Integer> pedidos = new ArrayList<>();
+        boolean conMonitor = false;
+        for (String arg : args) {
+            if (arg.startsWith("--buscar=")) {
+                buscarDesdeConsola(arg.substring("--buscar=".length()));
+                return;
+            }
+            if (arg.equals("--monitor")) {
+                conMonitor = true;
+            } else if (!arg.startsWith("--")) {
+                try {
+                    pedidos.add(Integer.parseInt(arg));
+                } catch (NumberFormatException e) {
+                    System.err.println("Argumento ignorado: " + arg);
+                }
+            }
+        }
+
+        ServerRuntime runtime = new ServerRuntime();
+        runtime.agregarObservador(new ObservadorServidor() {
+            @Override
+            public void log(int puerto, String mensaje) {
+                System.out.println("[" + puerto + "] " + mensaje);
+            }
+
+            @Override
+            public void monitor(String mensaje) {
+                System.out.println("[monitor] " + mensaje);
+            }
+        });
+
+        if (!pedidos.isEmpty()) {
+            for (int puerto : pedidos) iniciarDesdeConsola(runtime, puerto);
+        } else if (!runtime.restaurarEstado()) {
+            for (int puerto : runtime.getPuertos()) iniciarDesdeConsola(runtime, puerto);
+        }
+        if (conMonitor) runtime.iniciarMonitor();
+        runtime.getMetricas().publicar();
+        System.out.println("Servidor sin interfaz (" + runtime.getModo() + ") escuchando a los "
+                + runtime.getMsHastaEscuchar() + " ms"
+                + (runtime.getMetricas().getPuertoHttp() >= 0
+                        ? "; métricas en el puerto " + runtime.getMetricas().getPuertoHttp() : ""));
+
+        CountDownLatch fin = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            runtime.apagar();
+            fin.countDown();
+        }, "ApagadoServidor"));
+        fin.await();
+    }
+
+    /**
+     * --buscar=puerto:palabras [@usuario] — consulta el historial indexado e imprime lo
+     * encontrado, sin levantar puertos.
+     */
+    private static void buscarDesdeConsola(String pedido) {
+        int dosPuntos = pedido.indexOf(':');
+        try {
+            int puerto = Integer.parseInt(dosPuntos < 0 ? pedido : pedido.substring(0, dosPuntos));
+            String consulta = dosPuntos < 0 ? "" : pedido.substring(dosPuntos + 1);
+            IndiceHistorial indice = IndiceHistorial.de(puerto);
+            indice.actualizar();
+            for (String linea : indice.buscar(consulta, 1000)) System.out.println(linea);
+        } catch (NumberFormatException | IOException e) {
+            System.err.println("No se pudo buscar '" + pedido + "': " + e.getMessage());
+        }
+    }
+
+    private static void iniciarDesdeConsola(ServerRuntime runtime, int puerto) {
+        try {
+            runtime.iniciar(puerto);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("No se pudo iniciar el puerto " + puerto + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,829 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.CodecTrama;
+import org.vinni.protocolo.EntradaProtocolo;
+import org.vinni.protocolo.InfoArchivo;
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clase que representa un servidor en un puerto específico.
+ * En los modos bloqueantes (HILOS o VIRTUALES) el bucle de aceptación y cada cliente
+ * corren como tareas del ejecutor del puerto, que pertenece a quien crea el servidor;
+ * en modo NIO registra su canal en un {@link GrupoEventosNio} compartido.
+ * Con varios aceptores abre otros tantos canales de escucha en el mismo puerto con
+ * SO_REUSEPORT (el núcleo reparte las conexiones entrantes entre ellos), cada uno
+ * con su bucle de aceptación o, en NIO, en un bucle de eventos distinto.
+ * Todos los motores hablan el mismo protocolo: líneas de texto o, si el cliente
+ * lo pide en el saludo, tramas binarias (ver {@link CodecTrama}).
+ */
+public class ServidorPuerto {
+
+    // Cola de conexiones pendientes de aceptar; con la de Java (50) una ráfaga de
+    // conexiones la desborda y cada cliente que no cabe espera el reintento del SYN (1 s)
+    private static final int COLA_ACEPTACION = Integer.getInteger("servidor.backlog", 1024);
+
+    private final int puerto;
+    private final ModoServidor modo;
+    private final List<ServerSocketChannel> canalesEscucha;
+    private volatile boolean activo = true;
+    private final AtomicInteger buclesAceptando = new AtomicInteger();
+    private final ExecutorService ejecutor;
+    private final ObservadorServidor observador;
+    private final GrupoEventosNio grupoNio;
+    private final List<BucleEventos> buclesAceptores = new CopyOnWriteArrayList<>();
+    // Quien vacía las colas de salida en los modos bloqueantes (ver atenderCliente)
+    private final Executor escritores;
+
+    // Sockets aceptados por hilos y sesiones vivas, para cerrarlos al detener el puerto
+    private final Set<Socket> clientes = ConcurrentHashMap.newKeySet();
+    private final Set<Sesion> sesiones = ConcurrentHashMap.newKeySet();
+    // Las que cuentan como clientes: sin los sondeos de carga (ver anunciar)
+    private final AtomicInteger sesionesAnunciadas = new AtomicInteger();
+
+    // Usuarios identificados en este puerto y reparto de mensajes
+    private final Enrutador enrutador = new Enrutador();
+
+    // Conexiones, mensajes, bytes y colas de salida (sobreviven a los reinicios del puerto)
+    private final EstadisticasPuerto estadisticas;
+
+    // Archivos recibidos (server_data/port_<n>/media) y los que se están recibiendo por trozos
+    private final AlmacenMedios almacen;
+    private final Transferencias transferencias;
+
+    // Registro en disco (server_data/port_<n>/logs), escrito por su propio hilo
+    private final RegistroPuerto registro;
+    private final HistorialPuerto historial;
+    // Privados para usuarios desconectados (server_data/port_<n>/buzones)
+    private final BuzonesPuerto buzones;
+    private final IndiceHistorial indice;
+
+    /**
+     * Crea el servidor en un modo bloqueante (HILOS o VIRTUALES);
+     * el ejecutor lo gestiona (y lo apaga) quien lo crea.
+     */
+    public ServidorPuerto(int puerto, ObservadorServidor observador, ExecutorService ejecutor, ModoServidor modo) throws IOException {
+        this(puerto, observador, ejecutor, modo, 1);
+    }
+
+    /**
+     * Crea el servidor en un modo bloqueante con {@code aceptores} bucles de aceptación.
+     */
+    public ServidorPuerto(int puerto, ObservadorServidor observador, ExecutorService ejecutor, ModoServidor modo,
+                          int aceptores) throws IOException {
+        if (modo == ModoServidor.NIO) throw new IllegalArgumentException("El modo NIO necesita un GrupoEventosNio");
+        this.puerto = puerto;
+        this.observador = observador;
+        this.ejecutor = ejecutor;
+        this.grupoNio = null;
+        this.escritores = modo == ModoServidor.VIRTUALES && Ejecutores.hilosVirtualesDisponibles()
+                ? ejecutor : Ejecutores.escritores();
+        this.modo = modo;
+        this.estadisticas = EstadisticasPuerto.de(puerto);
+        this.almacen = new AlmacenMedios(puerto);
+        this.transferencias = new Transferencias(almacen);
+        this.registro = RegistroPuerto.de(puerto);
+        this.historial = HistorialPuerto.de(puerto);
+        this.buzones = BuzonesPuerto.de(puerto);
+        this.indice = IndiceHistorial.de(puerto);
+        // Aceptado desde un canal, cada Socket trae su SocketChannel para reenviar archivos con transferTo
+        this.canalesEscucha = abrirCanales(puerto, aceptores);
+    }
+
+    /**
+     * Crea el servidor en modo NIO sobre un grupo de eventos compartido.
+     */
+    public ServidorPuerto(int puerto, ObservadorServidor observador, GrupoEventosNio grupoNio) throws IOException {
+        this(puerto, observador, grupoNio, 1);
+    }
+
+    /**
+     * Crea el servidor en modo NIO con {@code aceptores} canales de escucha, repartidos entre los bucles del grupo.
+     */
+    public ServidorPuerto(int puerto, ObservadorServidor observador, GrupoEventosNio grupoNio, int aceptores) throws IOException {
+        this.puerto = puerto;
+        this.observador = observador;
+        this.grupoNio = grupoNio;
+        this.escritores = null;
+        this.ejecutor = null;
+        this.modo = ModoServidor.NIO;
+        this.estadisticas = EstadisticasPuerto.de(puerto);
+        this.almacen = new AlmacenMedios(puerto);
+        this.transferencias = new Transferencias(almacen);
+        this.registro = RegistroPuerto.de(puerto);
+        this.historial = HistorialPuerto.de(puerto);
+        this.buzones = BuzonesPuerto.de(puerto);
+        this.indice = IndiceHistorial.de(puerto);
+        this.canalesEscucha = abrirCanales(puerto, aceptores);
+        for (ServerSocketChannel canal : canalesEscucha) canal.configureBlocking(false);
+    }
+
+    /**
+     * Abre los canales de escucha del puerto. Con más de uno hace falta SO_REUSEPORT;
+     * si el sistema no lo admite se queda con uno solo.
+     */
+    private List<ServerSocketChannel> abrirCanales(int puerto, int aceptores) throws IOException {
+        List<ServerSocketChannel> canales = new ArrayList<>();
+        try {
+            for (int i = 0; i < aceptores; i++) {
+                ServerSocketChannel canal = ServerSocketChannel.open();
+                canales.add(canal);
+                canal.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+                if (aceptores > 1) {
+                    if (!canal.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                        log("SO_REUSEPORT no está disponible: el puerto " + puerto + " usa un solo aceptor");
+                        canal.bind(new InetSocketAddress(puerto), COLA_ACEPTACION);
+                        break;
+                    }
+                    canal.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                canal.bind(new InetSocketAddress(puerto), COLA_ACEPTACION);
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel canal : canales) {
+                try { canal.close(); } catch (IOException ignored) {}
+            }
+            throw e;
+        }
+        return canales;
+    }
+
+    /**
+     * Lanza los bucles de aceptación en el ejecutor (o registra los canales en el grupo NIO).
+     */
+    public void start() {
+        // Los fallos del registro en disco se ven donde los demás avisos del puerto
+        registro.setAvisos(mensaje -> observador.log(puerto, mensaje));
+        String aceptores = canalesEscucha.size() > 1 ? ", " + canalesEscucha.size() + " aceptores con SO_REUSEPORT" : "";
+        if (modo == ModoServidor.NIO) {
+            for (ServerSocketChannel canal : canalesEscucha) buclesAceptores.add(grupoNio.registrarAceptor(canal, this));
+            log("Servidor escuchando en puerto " + puerto + " (NIO" + aceptores + ")");
+        } else {
+            log("Servidor escuchando en puerto " + puerto
+                    + (modo != ModoServidor.VIRTUALES ? ""
+                    : Ejecutores.hilosVirtualesDisponibles() ? " (hilos virtuales)"
+                    : " (hilos virtuales no disponibles en esta JVM, se usan hilos normales)")
+                    + (aceptores.isEmpty() ? "" : " (" + aceptores.substring(2) + ")"));
+            for (int i = 0; i < canalesEscucha.size(); i++) {
+                ServerSocket serverSocket = canalesEscucha.get(i).socket();
+                boolean primero = i == 0;
+                buclesAceptando.incrementAndGet();
+                try {
+                    ejecutor.execute(() -> aceptar(serverSocket, primero));
+                } catch (RejectedExecutionException e) {
+                    buclesAceptando.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Bucle de aceptación de un canal de escucha (modos bloqueantes).
+     */
+    private void aceptar(ServerSocket serverSocket, boolean primero) {
+        try {
+            while (activo) {
+                Socket cliente = serverSocket.accept();
+                if (SondaPuertos.esSonda(cliente.getRemoteSocketAddress(), puerto)) {
+                    try { cliente.close(); } catch (IOException ignored) {}
+                    continue;
+                }
+
+                // Atender cliente en una tarea separada del ejecutor del puerto
+                clientes.add(cliente);
+                ejecutor.execute(() -> atenderCliente(cliente));
+            }
+        } catch (IOException | RejectedExecutionException e) {
+            if (activo) {
+                log("Error en puerto " + puerto + ": " + e.getMessage());
+            } else if (primero) {
+                log("Servidor en puerto " + puerto + " detenido.");
+            }
+        } finally {
+            buclesAceptando.decrementAndGet();
+        }
+    }
+
+    /**
+     * Lógica de atención a un cliente: este hilo lee y los escritores vacían su cola por
+     * turnos. Con hilos virtuales cada turno es una tarea del ejecutor del puerto; con
+     * hilos normales, del pool común de escritores, para no gastar un hilo más por cliente.
+     */
+    private void atenderCliente(Socket cliente) {
+        String motivo = null;
+        SesionBloqueante sesion = null;
+        try (InputStream entradaSocket = new EntradaContada(cliente.getInputStream(), estadisticas);
+             OutputStream out = new BufferedOutputStream(cliente.getOutputStream())) {
+
+            cliente.setTcpNoDelay(Sesion.SIN_NAGLE);
+            EntradaProtocolo in = new EntradaProtocolo(entradaSocket);
+            sesion = new SesionBloqueante(cliente, out, estadisticas, escritores);
+            alConectar(sesion);
+
+            while (true) {
+                sesion.esperarSiPausada();
+                if (!in.siguiente()) break;
+                alRecibir(sesion, in.getTipo(), in.getContenido());
+                if (sesion.isBinaria() && !in.isBinaria()) in.usarBinario();
+            }
+
+        } catch (IOException | RejectedExecutionException e) {
+            motivo = e.getMessage();
+        } catch (InterruptedException e) {
+            motivo = "sesión interrumpida";
+        } finally {
+            clientes.remove(cliente);
+            if (sesion != null) {
+                sesion.cerrar();
+                alDesconectar(sesion, motivo);
+            } else {
+                try {
+                    cliente.close();
+                } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    /**
+     * Cuenta los bytes que se leen del socket. Lo lee {@link EntradaProtocolo} en bloques
+     * de hasta 64 KB, así que es una suma por bloque, no por byte.
+     */
+    private static final class EntradaContada extends FilterInputStream {
+
+        private final EstadisticasPuerto estadisticas;
+
+        EntradaContada(InputStream in, EstadisticasPuerto estadisticas) {
+            super(in);
+            this.estadisticas = estadisticas;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) estadisticas.bytesRecibidos(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int leidos = super.read(b, off, len);
+            if (leidos > 0) estadisticas.bytesRecibidos(leidos);
+            return leidos;
+        }
+    }
+
+    // ---------- Protocolo (común a todos los motores) ----------
+
+    /**
+     * La sesión queda a cargo del puerto, pero no cuenta como cliente (logs, contadores
+     * y carga) hasta su primer mensaje: un sondeo de carga del balanceador manda solo
+     * LOAD: y cierra, y así no deja rastro.
+     */
+    void alConectar(Sesion sesion) {
+        sesiones.add(sesion);
+    }
+
+    private void anunciar(Sesion sesion) {
+        if (!sesion.anunciar()) return;
+        sesionesAnunciadas.incrementAndGet();
+        estadisticas.conexion();
+        observador.conexionAceptada(puerto);
+        log("Cliente conectado en puerto " + puerto + ": " + sesion.getDireccion());
+    }
+
+    /**
+     * Atiende un mensaje ya reconocido. El contenido puede ser una vista sobre
+     * el buffer de lectura del motor: solo es válido durante la llamada.
+     */
+    void alRecibir(Sesion sesion, TipoTrama tipo, ByteBuffer contenido) {
+        if (tipo != TipoTrama.CARGA) anunciar(sesion);
+        long inicio = System.nanoTime();
+        // Si lo que mande llena la cola de otra sesión, se deja de leer a esta
+        Sesion.atendiendo(sesion);
+        try {
+            atender(sesion, tipo, contenido);
+        } finally {
+            Sesion.atendiendo(null);
+        }
+        estadisticas.mensajeRecibido(System.nanoTime() - inicio);
+    }
+
+    private void atender(Sesion sesion, TipoTrama tipo, ByteBuffer contenido) {
+        if (tipo == TipoTrama.USER) {
+            identificar(sesion, texto(contenido).trim());
+            return;
+        }
+        if (tipo == TipoTrama.CARGA) {
+            // Pista barata para que el cliente elija puerto: clientes conectados, sin contar sondeos
+            sesion.enviar(Trama.de(TipoTrama.CARGA, String.valueOf(getSesionesActivas())));
+            return;
+        }
+
+        String usuario = sesion.getUsuario();
+        if (usuario == null) {
+            sesion.enviar(Trama.de(TipoTrama.ERROR, "Debe identificarse primero con USER:<nombre>"));
+            return;
+        }
+
+        switch (tipo) {
+            case MSG: {
+                // "usuario: texto" se arma copiando bytes, sin decodificar el mensaje
+                Trama trama = Trama.de(TipoTrama.MSG, concatenar(sesion.getUsuarioBytes(), SEPARADOR_MSG, contenido));
+                String texto = texto(contenido);
+                // Numerada y encolada con el historial tomado: a todos les llega en orden de número
+                Trama numerada = historial.anotar(trama, usuario, null, t -> enrutador.difundir(t, sesion));
+                // En disco con su número, para reanudar sesiones tras reiniciar el proceso
+                registro.anotar(HistorialPuerto.lineaDeRegistro(numerada.getSecuencia(), usuario, texto));
+                observador.log(puerto, usuario + ": " + texto);
+                break;
+            }
+            case MSGTO:
+                enviarPrivado(sesion, contenido);
+                break;
+            case IMG:
+                estadisticas.imagen(contenido.remaining());
+                log(usuario + " envió una imagen (" + contenido.remaining() + " bytes)");
+                enrutador.difundir(Trama.copia(TipoTrama.IMG, contenido), sesion);
+                break;
+            case HISTORIAL:
+            case BUSQUEDA:
+                consultarHistorial(sesion, tipo, texto(contenido).trim());
+                break;
+            case ARCH_INICIO:
+            case ARCH_TROZO:
+            case ARCH_FIN:
+                try {
+                    recibirArchivo(sesion, tipo, contenido);
+                } catch (ProtocolException e) {
+                    sesion.enviar(Trama.de(TipoTrama.ERROR, e.getMessage()));
+                } catch (IOException e) {
+                    logError("Error guardando archivo de " + usuario, e);
+                    sesion.enviar(Trama.de(TipoTrama.ERROR, "No se pudo guardar el archivo: " + e));
+                }
+                break;
+            default: {
+                String linea = texto(contenido);
+                if (linea.equals("USERS")) {
+                    sesion.enviar(enrutador.tramaUsuarios());
+                } else {
+                    log("Mensaje recibido de " + usuario + ": " + tipo.getPrefijo() + linea);
+
+                    // Respuesta de eco para líneas que no son del protocolo
+                    sesion.enviar(Trama.de(TipoTrama.TEXTO, "Eco desde puerto " + puerto + ": " + tipo.getPrefijo() + linea));
+                }
+            }
+        }
+    }
+
+    /**
+     * USER:nombre[;proto=bin][;seq=N] — registra la sesión, le manda la lista completa y avisa
+     * al resto solo del alta. Si el cliente lo pide, la sesión pasa al formato binario.
+     * Con seq= recibe los mensajes numerados y, si N &gt; 0, lo que se perdió desde N
+     * que siga en memoria, con un aviso si falta algo más viejo (ver {@link HistorialPuerto}).
+     * Si tiene privados guardados en su buzón, se le entregan de una vez detrás de la
+     * cola, así que pueden llegar después de mensajes en vivo más nuevos. El buzón lo
+     * mira el escritor de los buzones, no quien atiende la identificación.
+     */
+    private void identificar(Sesion sesion, String saludo) {
+        String[] partes = saludo.split(";");
+        String nombre = partes[0].trim();
+        if (nombre.isEmpty() || nombre.contains(",") || nombre.contains(":")) {
+            sesion.enviar(Trama.de(TipoTrama.ERROR, "Nombre de usuario no válido"));
+            return;
+        }
+        String anteriorNombre = sesion.getUsuario();
+        if (nombre.equals(anteriorNombre)) return;
+        if (anteriorNombre != null) salir(sesion, anteriorNombre);
+
+        long ultimaVista = -1;
+        for (int i = 1; i < partes.length; i++) {
+            String opcion = partes[i].trim();
+            if (opcion.equals(CodecTrama.OPCION_BINARIO) && !sesion.isBinaria()) {
+                // Última línea de texto: lo que siga en ambos sentidos son tramas
+                sesion.enviarLinea(TipoTrama.PROTO.getPrefijo() + CodecTrama.RESPUESTA_BINARIO);
+                sesion.setBinaria(true);
+            } else if (opcion.startsWith(CodecTrama.OPCION_SECUENCIA)) {
+                try {
+                    ultimaVista = Long.parseLong(opcion.substring(CodecTrama.OPCION_SECUENCIA.length()));
+                    sesion.setNumerada(true);
+                } catch (NumberFormatException ignored) {}
+            }
+        }
+
+        sesion.setUsuario(nombre);
+        Sesion anterior;
+        int repetidos = 0;
+        long hueco = -1;
+        synchronized (historial) {
+            // Mientras se tiene el historial no se numera nada: lo numerado hasta aquí va en la repetición
+            if (ultimaVista > 0) sesion.reanudarHasta(historial.getUltima());
+            anterior = enrutador.registrar(nombre, sesion);
+            if (anterior != null) {
+                // Reconexión con el mismo nombre: la conexión vieja ya no recibe nada
+                anterior.setUsuario(null);
+                anterior.cerrar();
+            }
+            sesion.enviar(enrutador.tramaUsuarios());
+            if (ultimaVista > 0 && !historial.cubre(ultimaVista)) {
+                // Lo más viejo ya salió de memoria: se dice en vez de dejar un hueco sin avisar
+                hueco = historial.primeraEnMemoria();
+                sesion.enviar(Trama.de(TipoTrama.TEXTO, "Faltan los mensajes entre #" + (ultimaVista + 1)
+                        + " y #" + (hueco - 1) + ": ya no se pueden repetir; búsquelos con HISTORY: o SEARCH:"));
+            }
+            if (ultimaVista > 0) {
+                for (Trama perdida : historial.desde(ultimaVista, nombre)) {
+                    sesion.enviarRepetido(perdida);
+                    repetidos++;
+                }
+            }
+        }
+        // Ya registrada: un privado que se esté guardando para ella va antes en la cola
+        // del escritor y sale en esta entrega; los posteriores ya la encuentran conectada
+        if (!buzones.encargar(() -> ofrecerBuzon(sesion, nombre))) {
+            // Sin sitio en la cola del escritor: aquí no se toca el disco, se avisa y se deja para otra vez
+            sesion.enviar(Trama.de(TipoTrama.TEXTO, "No se pudo revisar su buzón ahora; vuelva a identificarse más tarde"));
+            log("Buzón de " + nombre + " no revisado: el escritor de los buzones está saturado");
+        }
+        if (repetidos > 0) log(nombre + " reanuda su sesión desde #" + ultimaVista + ": " + repetidos + " mensajes repetidos");
+        if (hueco > 0) log(nombre + " reanuda desde #" + ultimaVista + ", pero lo anterior a #" + hueco + " ya no está en memoria");
+
+        if (anterior == null) {
+            enrutador.difundir(Trama.de(TipoTrama.USERS_ALTA, nombre), sesion);
+            observador.usuarioConectado(puerto, nombre);
+        }
+        log("** " + nombre + " se ha conectado (puerto " + puerto + ") **"
+                + (sesion.isBinaria() ? " [binario]" : ""));
+    }
+
+    /**
+     * MSGTO:destinatario:texto — entrega directa con una búsqueda en el índice. Si el
+     * destinatario no está conectado, el mensaje queda en su buzón.
+     */
+    private void enviarPrivado(Sesion sesion, ByteBuffer contenido) {
+        int separador = -1;
+        for (int i = contenido.position(); i < contenido.limit(); i++) {
+            if (contenido.get(i) == ':') {
+                separador = i;
+                break;
+            }
+        }
+        if (separador <= contenido.position()) {
+            sesion.enviar(Trama.de(TipoTrama.ERROR, "Formato esperado MSGTO:destinatario:texto"));
+            return;
+        }
+        ByteBuffer nombre = contenido.duplicate();
+        nombre.limit(separador);
+        String destinatario = texto(nombre);
+
+        ByteBuffer texto = contenido.duplicate();
+        texto.position(separador + 1);
+        byte[] mensaje = concatenar(sesion.getUsuarioBytes(), SEPARADOR_MSGTO, texto);
+        Trama trama = Trama.de(TipoTrama.MSGTO, mensaje);
+        // Conectado: entrega directa (solo se guarda para repetir si llegó a entregarse)
+        if (entregarPrivado(sesion, destinatario, trama)) return;
+        // Desconectado: lo guarda el escritor de los buzones, fuera de este hilo y de todo candado
+        if (!buzones.encargar(() -> guardarPrivado(sesion, destinatario, trama, mensaje))) {
+            noGuardado(sesion, destinatario);
+        }
+    }
+
+    /**
+     * En el escritor de los buzones. Se vuelve a buscar al destinatario: si se identificó
+     * entretanto, su buzón se le ofrece en un trabajo que va detrás de este.
+     */
+    private void guardarPrivado(Sesion remitente, String destinatario, Trama trama, byte[] mensaje) {
+        if (entregarPrivado(remitente, destinatario, trama)) return;
+        boolean guardado = false;
+        try {
+            guardado = buzones.guardar(destinatario, mensaje);
+        } catch (IOException e) {
+            log("No se pudo guardar el privado para " + destinatario + ": " + e.getMessage());
+        }
+        if (guardado) {
+            remitente.enviar(Trama.de(TipoTrama.TEXTO, "El usuario " + destinatario
+                    + " no está conectado; recibirá el mensaje cuando vuelva"));
+        } else {
+            noGuardado(remitente, destinatario);
+        }
+    }
+
+    private void noGuardado(Sesion remitente, String destinatario) {
+        remitente.enviar(Trama.de(TipoTrama.ERROR, "El usuario " + destinatario
+                + " no está conectado y no se le pudo guardar el mensaje"));
+    }
+
+    /**
+     * En el escritor de los buzones: encola la entrega de lo guardado si la sesión sigue
+     * siendo la de ese usuario (si no, el buzón espera a la próxima identificación).
+     */
+    private void ofrecerBuzon(Sesion sesion, String nombre) {
+        if (enrutador.buscar(nombre) != sesion) return;
+        BuzonesPuerto.Buzon buzon = buzones.pendiente(nombre);
+        if (buzon == null) return;
+        long guardados = buzon.getBytesPendientes();
+        sesion.entregarBuzon(buzon);
+        log(nombre + " recibe su buzón (" + guardados + " bytes guardados)");
+    }
+
+    private boolean entregarPrivado(Sesion remitente, String destinatario, Trama trama) {
+        Sesion destino = enrutador.buscar(destinatario);
+        if (destino == null) return false;
+        historial.anotar(trama, remitente.getUsuario(), destinatario, destino::enviar);
+        return true;
+    }
+
+    /**
+     * HISTORY:usuario[;n] y SEARCH:palabras [@usuario] — se resuelven con el índice del
+     * puerto en el hilo de consultas; cada mensaje encontrado vuelve como una línea
+     * con el mismo prefijo y al final un resumen.
+     */
+    private void consultarHistorial(Sesion sesion, TipoTrama tipo, String pedido) {
+        try {
+            IndiceHistorial.enSegundoPlano(() -> {
+                try {
+                    List<String> lineas = tipo == TipoTrama.HISTORIAL ? historialDe(pedido) : indice.buscar(pedido, LIMITE_HISTORIAL);
+                    for (String linea : lineas) sesion.enviar(Trama.de(tipo, linea));
+                    sesion.enviar(Trama.de(TipoTrama.TEXTO, "(" + lineas.size() + " mensajes encontrados)"));
+                } catch (IOException e) {
+                    logError("Error consultando el historial del puerto " + puerto, e);
+                    sesion.enviar(Trama.de(TipoTrama.ERROR, "No se pudo consultar el historial"));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            sesion.enviar(Trama.de(TipoTrama.ERROR, "Hay demasiadas consultas en curso; inténtelo más tarde"));
+        }
+    }
+
+    /**
+     * usuario[;n] — los últimos n mensajes del usuario.
+     */
+    private List<String> historialDe(String pedido) throws IOException {
+        String[] partes = pedido.split(";");
+        int limite = LIMITE_HISTORIAL;
+        if (partes.length > 1) {
+            try {
+                limite = Math.min(MAX_HISTORIAL, Integer.parseInt(partes[1].trim()));
+            } catch (NumberFormatException ignored) {}
+        }
+        String usuario = partes.length > 0 ? partes[0].trim() : "";
+        return usuario.isEmpty() ? new ArrayList<>() : indice.buscar(usuario, "", limite);
+    }
+
+    /**
+     * FILE:, CHUNK: y FILEEND: — los trozos se escriben en el almacén de medios y se
+     * confirman al emisor con FILEACK:, que además le indica desde dónde reanudar.
+     * Completo y comprobado, el archivo se reenvía desde disco a los demás.
+     */
+    private void recibirArchivo(Sesion sesion, TipoTrama tipo, ByteBuffer contenido) throws IOException {
+        String usuario = sesion.getUsuario();
+        if (tipo == TipoTrama.ARCH_INICIO) {
+            InfoArchivo info = InfoArchivo.desdeTexto(texto(contenido), false).conRemitente(usuario);
+            Transferencias.Transferencia transferencia = transferencias.iniciar(info);
+            if (transferencia == null) throw new ProtocolException("Id de transferencia en uso: " + CodecArchivo.textoId(info.getId()));
+            long recibidos = transferencia.getRecibidos();
+            if (transferencia.isDuplicada()) {
+                // "¿Ya lo tienes?": el ACK con el tamaño completo le ahorra la subida al emisor
+                log(usuario + " envía " + info.getNombre() + ", que ya estaba en el almacén (no se sube)");
+            } else {
+                log(usuario + (recibidos == 0 ? " empieza a enviar " : " reanuda ") + info.getNombre()
+                        + " (" + recibidos + " de " + info.getTamano() + " bytes)");
+            }
+            confirmarTrozo(sesion, transferencia);
+            return;
+        }
+
+        long id = tipo == TipoTrama.ARCH_TROZO ? CodecArchivo.idDeTrozo(contenido) : CodecArchivo.leerId(texto(contenido));
+        Transferencias.Transferencia transferencia = transferencias.buscar(id);
+        if (transferencia == null || !transferencia.info.getRemitente().equals(usuario)) {
+            throw new ProtocolException("Transferencia desconocida: " + CodecArchivo.textoId(id));
+        }
+
+        if (tipo == TipoTrama.ARCH_TROZO) {
+            // Fuera de secuencia no se escribe: el ACK le dice al emisor desde dónde seguir
+            transferencia.escribir(CodecArchivo.desplazamientoDeTrozo(contenido), CodecArchivo.datosDeTrozo(contenido));
+            confirmarTrozo(sesion, transferencia);
+        } else {
+            if (!transferencia.isCompleta()) {
+                throw new ProtocolException("Transferencia incompleta: " + transferencia.getRecibidos()
+                        + " de " + transferencia.info.getTamano() + " bytes");
+            }
+            MedioGuardado medio = transferencias.terminar(transferencia);
+            sesion.marcarEntregado(medio.getInfo().getSha256());
+            int destinatarios = enrutador.difundir(medio, sesion);
+            log(usuario + " envió " + medio.getInfo().getNombre() + " (" + medio.getInfo().getTamano()
+                    + " bytes, guardado en " + medio.getRuta() + ", " + destinatarios + " destinatarios)");
+        }
+    }
+
+    private static void confirmarTrozo(Sesion emisor, Transferencias.Transferencia transferencia) {
+        emisor.enviar(Trama.de(TipoTrama.ARCH_ACK, CodecArchivo.ack(transferencia.info.getId(), transferencia.getRecibidos())));
+    }
+
+    private static final byte[] SEPARADOR_MSG = {':', ' '};
+    private static final byte[] SEPARADOR_MSGTO = {':'};
+    // Mensajes que devuelve HISTORY: si no se indica cuántos, y el máximo que se admite
+    private static final int LIMITE_HISTORIAL = 20;
+    private static final int MAX_HISTORIAL = 200;
+
+    private static byte[] concatenar(byte[] a, byte[] b, ByteBuffer resto) {
+        byte[] resultado = new byte[a.length + b.length + resto.remaining()];
+        System.arraycopy(a, 0, resultado, 0, a.length);
+        System.arraycopy(b, 0, resultado, a.length, b.length);
+        resto.duplicate().get(resultado, a.length + b.length, resto.remaining());
+        return resultado;
+    }
+
+    private static String texto(ByteBuffer contenido) {
+        return StandardCharsets.UTF_8.decode(contenido.duplicate()).toString();
+    }
+
+    private void salir(Sesion sesion, String usuario) {
+        if (enrutador.retirar(usuario, sesion)) {
+            enrutador.difundir(Trama.de(TipoTrama.USERS_BAJA, usuario), sesion);
+            observador.usuarioDesconectado(puerto, usuario);
+            log("** " + usuario + " se ha desconectado (puerto " + puerto + ") **");
+        }
+    }
+
+    void alDesconectar(Sesion sesion, String motivo) {
+        sesiones.remove(sesion);
+        // Un sondeo de carga no dejó rastro al conectar, ni lo deja al irse
+        if (!sesion.isAnunciada()) return;
+        sesionesAnunciadas.decrementAndGet();
+        String usuario = sesion.getUsuario();
+        if (usuario != null) salir(sesion, usuario);
+        if (sesion.getMotivoCierre() != null) motivo = sesion.getMotivoCierre();
+        log("Cliente desconectado en puerto " + puerto + ": "
+                + (motivo != null ? motivo : sesion.getDireccion()));
+    }
+
+    /**
+     * Anota en el registro del puerto y avisa a los observadores; no espera al disco.
+     */
+    private void log(String mensaje) {
+        registro.anotar(mensaje);
+        observador.log(puerto, mensaje);
+    }
+
+    void logError(String contexto, Exception e) {
+        log(contexto + " en puerto " + puerto + ": " + e.getMessage());
+    }
+
+    /**
+     * Comprobación de vida sin abrir ningún socket: en modo bloqueante, que sigan en
+     * marcha todos los bucles de aceptación; en NIO, que cada bucle de eventos con un
+     * aceptor responda a una tarea (se completa cuando todos la ejecutan).
+     */
+    public CompletableFuture<Boolean> comprobarVida() {
+        if (!activo) return CompletableFuture.completedFuture(false);
+        for (ServerSocketChannel canal : canalesEscucha) {
+            if (!canal.isOpen()) return CompletableFuture.completedFuture(false);
+        }
+        if (modo != ModoServidor.NIO) {
+            return CompletableFuture.completedFuture(buclesAceptando.get() == canalesEscucha.size());
+        }
+        if (buclesAceptores.size() != canalesEscucha.size()) return CompletableFuture.completedFuture(false);
+        List<CompletableFuture<Boolean>> respuestas = new ArrayList<>();
+        for (BucleEventos bucle : buclesAceptores) {
+            if (!bucle.isVivo()) return CompletableFuture.completedFuture(false);
+            CompletableFuture<Boolean> respuesta = new CompletableFuture<>();
+            bucle.ejecutar(() -> respuesta.complete(true));
+            respuestas.add(respuesta);
+        }
+        return CompletableFuture.allOf(respuestas.toArray(new CompletableFuture<?>[0])).thenApply(v -> true);
+    }
+
+    /**
+     * Detiene el servidor, cierra el socket de escucha y las conexiones atendidas por hilos.
+     * En modo bloqueante, quien posee el ejecutor debe apagarlo después para drenar las sesiones.
+     */
+    public void detener() {
+        activo = false;
+        if (modo != ModoServidor.NIO) {
+            for (ServerSocketChannel canal : canalesEscucha) {
+                try {
+                    canal.close();
+                } catch (IOException e) {
+                    log("Error cerrando puerto " + puerto + ": " + e.getMessage());
+                }
+            }
+        }
+        for (Socket cliente : clientes) {
+            try { cliente.close(); } catch (IOException ignored) {}
+        }
+        for (Sesion sesion : sesiones) {
+            sesion.cerrar();
+        }
+        if (modo == ModoServidor.NIO) {
+            List<CompletableFuture<Void>> cerrados = new ArrayList<>();
+            for (int i = 0; i < canalesEscucha.size(); i++) {
+                ServerSocketChannel canal = canalesEscucha.get(i);
+                if (i < buclesAceptores.size()) {
+                    cerrados.add(buclesAceptores.get(i).cerrarAceptor(canal));
+                } else {
+                    try { canal.close(); } catch (IOException ignored) {}
+                }
+            }
+            // Al volver, el puerto ya se puede abrir otra vez
+            try {
+                CompletableFuture.allOf(cerrados.toArray(new CompletableFuture<?>[0])).get(2, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                log("El puerto " + puerto + " tardó en liberarse: " + e);
+            }
+            log("Servidor en puerto " + puerto + " detenido.");
+        }
+    }
+
+    public int getPuerto() {
+        return puerto;
+    }
+
+    /** Canales de escucha abiertos en el puerto (más de uno con SO_REUSEPORT). */
+    public int getAceptores() {
+        return canalesEscucha.size();
+    }
+
+    public Enrutador getEnrutador() {
+        return enrutador;
+    }
+
+    public AlmacenMedios getAlmacen() {
+        return almacen;
+    }
+
+    public EstadisticasPuerto getEstadisticas() {
+        return estadisticas;
+    }
+
+    public RegistroPuerto getRegistro() {
+        return registro;
+    }
+
+    public HistorialPuerto getHistorial() {
+        return historial;
+    }
+
+    public BuzonesPuerto getBuzones() {
+        return buzones;
+    }
+
+    public IndiceHistorial getIndice() {
+        return indice;
+    }
+
+    /**
+     * Bytes pendientes sumando las colas de salida de todas las sesiones del puerto.
+     */
+    public long getBytesEnColas() {
+        long total = 0;
+        for (Sesion sesion : sesiones) total += sesion.getCola().getBytes();
+        return total;
+    }
+
+    /**
+     * Tramas pendientes sumando las colas de salida de todas las sesiones del puerto.
+     */
+    public int getTramasEnColas() {
+        int total = 0;
+        for (Sesion sesion : sesiones) total += sesion.getCola().getTramas();
+        return total;
+    }
+
+    /**
+     * Clientes conectados al puerto, sin contar los sondeos de carga.
+     */
+    public int getSesionesActivas() {
+        return sesionesAnunciadas.get();
+    }
+
+    public ModoServidor getModo() {
+        return modo;
+    }
+}
@@ -0,0 +1,426 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Conexión de un cliente con el servidor, independiente del motor
+ * (hilo bloqueante o bucle NIO) que la atiende.
+ *
+ * Los envíos no escriben en el socket: dejan la trama en una {@link ColaSalida}
+ * acotada que vacía la capa de E/S, de modo que un cliente lento no frena
+ * al hilo que difunde. Si la cola supera la marca alta se deja de leer a quien
+ * la llenó (la sesión cuya entrada se estaba atendiendo, ver {@link #atendiendo}),
+ * hasta que baje de la marca baja. Al pasar la marca alta empieza además a correr
+ * el plazo del cliente lento, que vigila un temporizador (no el siguiente envío,
+ * que quizá no llegue si todos los emisores están frenados): agotado, se le
+ * desconecta, y eso suelta a quienes frenaba. Ningún emisor queda frenado más de ese plazo.
+ *
+ * La capa de E/S no escribe trama a trama: junta las pendientes y las manda con
+ * una sola escritura de varios buffers ({@link #escribirLote}), al final de cada
+ * vuelta del bucle NIO o de cada despertar del hilo escritor. Con
+ * {@code servidor.salida.esperaMs} (por defecto 0) espera además ese tiempo a que
+ * se junten más. Los sockets van con TCP_NODELAY ({@code servidor.tcpNoDelay},
+ * por defecto true): el agrupado ya lo hace el servidor, y Nagle solo añadiría espera.
+ */
+public abstract class Sesion {
+
+    /** Tramas que van juntas en una escritura como mucho. */
+    static final int TRAMAS_POR_ESCRITURA = 64;
+    static final long ESPERA_MS = Long.getLong("servidor.salida.esperaMs", 0);
+    static final boolean SIN_NAGLE = Boolean.parseBoolean(System.getProperty("servidor.tcpNoDelay", "true"));
+
+    private static final int MAX_CONTENIDOS_ENTREGADOS = 4096;
+
+    // Sesión cuya entrada atiende este hilo: a ella se frena si lo que manda llena otra cola
+    private static final ThreadLocal<Sesion> ATENDIENDO = new ThreadLocal<>();
+
+    // Un solo hilo para todas las sesiones: revisa el plazo de las colas que pasaron la marca alta
+    private static final ScheduledExecutorService VIGIA = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread hilo = new Thread(r, "VigiaColas");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    private volatile String usuario;
+    private volatile byte[] usuarioBytes;
+    private volatile String motivoCierre;
+    private volatile boolean binaria;
+    private volatile boolean numerada;
+    // Al reanudar, lo numerado hasta aquí ya va en la repetición (ver reanudarHasta)
+    private volatile long reanudadaHasta = -1;
+    // Contada como cliente (logs, contadores, carga); un sondeo de carga nunca lo está
+    private volatile boolean anunciada;
+
+    protected final ColaSalida cola;
+    private final EstadisticasPuerto estadisticas;
+
+    // Archivos del almacén (y buzones) pendientes de reenviar; salen cuando la cola está vacía
+    private final ConcurrentLinkedQueue<Relevo> relevos = new ConcurrentLinkedQueue<>();
+    private volatile boolean relevosDescartados;
+    // Sumas SHA-256 que esta conexión ya recibió (o envió): a esas se les manda solo la referencia
+    private final Set<String> contenidosEntregados = ConcurrentHashMap.newKeySet();
+
+    // Emisores que frenó esta cola, y cuántas colas frenan ahora a esta sesión
+    private final Set<Sesion> frenados = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger frenos = new AtomicInteger();
+    private volatile boolean sinFrenar;
+    // Hay una revisión del plazo programada en el vigía
+    private final AtomicBoolean vigilada = new AtomicBoolean();
+
+    protected Sesion(ColaSalida cola, EstadisticasPuerto estadisticas) {
+        this.cola = cola;
+        this.estadisticas = estadisticas;
+    }
+
+    /**
+     * Dirección remota del cliente, usada en los logs.
+     */
+    public abstract String getDireccion();
+
+    /**
+     * Cierra la conexión con el cliente.
+     */
+    public abstract void cerrar();
+
+    /**
+     * Avisa a la capa de E/S de que hay tramas nuevas en la cola.
+     */
+    protected abstract void notificarPendientes();
+
+    /**
+     * Deja de leer del cliente si alguna cola lo frena ({@link #isFrenada}) o vuelve a
+     * leerlo si ya no. Se llama desde cualquier hilo, quizá de más: aplica el estado del momento.
+     */
+    protected abstract void actualizarLectura();
+
+    /**
+     * Marca la sesión cuya entrada se atiende en este hilo (null al terminar).
+     */
+    static void atendiendo(Sesion origen) {
+        if (origen == null) {
+            ATENDIENDO.remove();
+        } else {
+            ATENDIENDO.set(origen);
+        }
+    }
+
+    /**
+     * Cierto si alguna cola de salida llena (la suya o la de otra sesión) frena la lectura de este cliente.
+     */
+    protected boolean isFrenada() {
+        return frenos.get() > 0;
+    }
+
+    /**
+     * Encola bytes ya codificados. El arreglo puede compartirse entre varias
+     * sesiones (difusión), así que no debe modificarse.
+     */
+    public void enviar(byte[] datos) {
+        if (cola.ofrecer(datos)) {
+            if (estadisticas != null) estadisticas.mensajeEnviado();
+            notificarPendientes();
+            if (cola.sobreMarcaAlta()) {
+                vigilarPlazo();
+                frenarEmisor();
+            }
+            return;
+        }
+        if (estadisticas != null) estadisticas.descarte();
+        vigilarPlazo();
+    }
+
+    /**
+     * Programa en el vigía la revisión del plazo de la cola, si no lo estaba ya.
+     */
+    private void vigilarPlazo() {
+        if (!vigilada.compareAndSet(false, true)) return;
+        long restante = cola.plazoRestanteNanos();
+        VIGIA.schedule(this::revisarPlazo, Math.max(0, restante), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * En el vigía: desconecta al cliente si su cola agotó el plazo sin bajar de la marca
+     * baja; si bajó y volvió a subir entretanto, espera a lo que le quede del nuevo plazo.
+     */
+    private void revisarPlazo() {
+        long restante = cola.plazoRestanteNanos();
+        if (restante > 0) {
+            VIGIA.schedule(this::revisarPlazo, restante, TimeUnit.NANOSECONDS);
+            return;
+        }
+        vigilada.set(false);
+        if (restante == 0) {
+            if (estadisticas != null) estadisticas.expulsion();
+            motivoCierre = "cliente lento, cola de salida llena";
+            cerrar();
+        } else if (cola.sobreMarcaAlta()) {
+            // Volvió a pasar la marca alta justo después de bajar
+            vigilarPlazo();
+        }
+    }
+
+    /**
+     * Deja de leer a quien está llenando esta cola; la capa de E/S lo suelta con {@link #soltarEmisores}.
+     */
+    private void frenarEmisor() {
+        Sesion origen = ATENDIENDO.get();
+        if (origen == null || !frenados.add(origen)) return;
+        if (estadisticas != null) estadisticas.pausaLectura();
+        if (origen.frenos.getAndIncrement() == 0) origen.actualizarLectura();
+        // La cola pudo vaciarse (o cerrarse) antes de anotarlo: nadie más lo soltaría
+        if (sinFrenar || cola.bajoMarcaBaja()) soltarEmisores();
+    }
+
+    /**
+     * La llama la capa de E/S cuando la cola baja de la marca baja: vuelve a leer a los
+     * emisores que frenó esta sesión (a cada uno, si ninguna otra cola lo frena).
+     */
+    protected void soltarEmisores() {
+        if (frenados.isEmpty()) return;
+        for (Sesion origen : frenados) {
+            if (frenados.remove(origen) && origen.frenos.decrementAndGet() == 0) origen.actualizarLectura();
+        }
+    }
+
+    /**
+     * Al cerrar: suelta a los emisores frenados y ya no frena a ninguno más.
+     */
+    protected void soltarEmisoresAlCerrar() {
+        sinFrenar = true;
+        soltarEmisores();
+    }
+
+    /**
+     * Encola el mensaje en el formato que negoció el cliente (texto o binario).
+     */
+    public void enviar(Trama trama) {
+        if (trama.getSecuencia() >= 0 && trama.getSecuencia() <= reanudadaHasta) return;
+        enviar(trama.codificar(binaria, numerada));
+    }
+
+    /**
+     * Al reanudar la sesión: los mensajes numerados hasta {@code secuencia} salen con
+     * {@link #enviarRepetido}, así que si llegaran también en vivo se descartan.
+     */
+    void reanudarHasta(long secuencia) {
+        reanudadaHasta = secuencia;
+    }
+
+    /**
+     * Encola un mensaje que se perdió el cliente, sin pasar por el filtro de {@link #reanudarHasta}.
+     */
+    void enviarRepetido(Trama trama) {
+        enviar(trama.codificar(binaria, numerada));
+    }
+
+    /**
+     * Envía una línea del protocolo de texto (sin el salto de línea final), sea cual sea el formato.
+     */
+    public void enviarLinea(String linea) {
+        enviar(codificarLinea(linea));
+    }
+
+    /**
+     * Encola el reenvío de un archivo guardado. Sale desde disco, trozo a trozo,
+     * en los huecos que deja la cola de mensajes; si esta conexión ya tiene ese
+     * contenido, solo la referencia. Mientras espera, el archivo queda fijado en el
+     * almacén; si ya se desalojó, se avisa al cliente con un ERROR:.
+     */
+    public void relevar(MedioGuardado medio) {
+        String sha256 = medio.getInfo().getSha256();
+        boolean referencia = contenidosEntregados.contains(sha256.toLowerCase());
+        if (!referencia) {
+            if (!medio.fijar()) {
+                enviar(Trama.de(TipoTrama.ERROR, "No se pudo reenviar " + medio.getInfo().getNombre()
+                        + " de " + medio.getInfo().getRemitente() + ": ya no está en el servidor"));
+                return;
+            }
+            marcarEntregado(sha256);
+        }
+        encolarRelevo(new RelevoMedio(medio, binaria, referencia));
+    }
+
+    /**
+     * Encola la entrega de los mensajes guardados en el buzón del usuario; salen por
+     * lotes desde disco, como los archivos, cuando la cola de mensajes está vacía.
+     */
+    void entregarBuzon(BuzonesPuerto.Buzon buzon) {
+        encolarRelevo(new RelevoBuzon(buzon, binaria));
+    }
+
+    private void encolarRelevo(Relevo relevo) {
+        relevos.add(relevo);
+        // Si la sesión se cerró mientras tanto, nadie más lo sacaría de la cola
+        if (relevosDescartados) {
+            descartarRelevos();
+            return;
+        }
+        notificarPendientes();
+    }
+
+    /**
+     * Anota que el cliente tiene ese contenido.
+     *
+     * @return false si ya lo tenía
+     */
+    boolean marcarEntregado(String sha256) {
+        // Acotado: pasado el límite se olvida todo y se vuelve a mandar completo
+        if (contenidosEntregados.size() >= MAX_CONTENIDOS_ENTREGADOS) contenidosEntregados.clear();
+        return contenidosEntregados.add(sha256.toLowerCase());
+    }
+
+    /**
+     * Escribe el siguiente mensaje del archivo en curso, si lo hay.
+     *
+     * @return null si no quedan archivos por reenviar
+     */
+    protected Relevo.Avance relevarTrozo(WritableByteChannel canal) throws IOException {
+        Relevo relevo = relevos.peek();
+        if (relevo == null) return null;
+        Relevo.Avance avance = relevo.escribirTrozo(canal);
+        if (avance == Relevo.Avance.TERMINADO) relevos.poll();
+        return avance;
+    }
+
+    /**
+     * Escribe las primeras tramas de la cola (hasta llenar {@code lote}) con una sola
+     * llamada y retira las que salieron enteras; la que quede a medias sigue en cabeza.
+     *
+     * @param lote arreglo de trabajo de quien escribe; se devuelve vacío
+     * @return false si el canal (no bloqueante) no admitió todo el lote
+     */
+    protected boolean escribirLote(GatheringByteChannel canal, ByteBuffer[] lote) throws IOException {
+        int n = cola.primeras(lote);
+        if (n == 0) return true;
+        try {
+            long escritos = canal.write(lote, 0, n);
+            if (estadisticas != null) estadisticas.escritura(escritos);
+            int enteras = 0;
+            while (enteras < n && !lote[enteras].hasRemaining()) {
+                cola.retirarPrimera();
+                enteras++;
+            }
+            return enteras == n;
+        } finally {
+            Arrays.fill(lote, 0, n, null);
+        }
+    }
+
+    /**
+     * Lo llama la capa de E/S cuando escribe sin {@link #escribirLote} (una escritura por llamada).
+     */
+    protected void contarEscritura(long bytes) {
+        if (estadisticas != null && bytes > 0) estadisticas.escritura(bytes);
+    }
+
+    protected boolean hayRelevos() {
+        return !relevos.isEmpty();
+    }
+
+    /**
+     * Cierto si un mensaje de archivo quedó a medio escribir (escritura no bloqueante).
+     */
+    protected boolean relevoAMedias() {
+        Relevo relevo = relevos.peek();
+        return relevo != null && relevo.aMedias();
+    }
+
+    /**
+     * Lo llama la capa de E/S al cerrar, para soltar los archivos abiertos.
+     */
+    protected void descartarRelevos() {
+        relevosDescartados = true;
+        Relevo relevo;
+        while ((relevo = relevos.poll()) != null) relevo.cerrar();
+    }
+
+    /**
+     * Nombre con el que se identificó el cliente (USER:), o null si aún no lo hizo.
+     */
+    public String getUsuario() {
+        return usuario;
+    }
+
+    void setUsuario(String usuario) {
+        this.usuario = usuario;
+        this.usuarioBytes = usuario != null ? usuario.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    /**
+     * Nombre ya codificado en UTF-8, para armar mensajes sin pasar por String.
+     */
+    byte[] getUsuarioBytes() {
+        return usuarioBytes;
+    }
+
+    /**
+     * Cierto si la sesión pasó al formato binario en el saludo.
+     */
+    public boolean isBinaria() {
+        return binaria;
+    }
+
+    void setBinaria(boolean binaria) {
+        this.binaria = binaria;
+    }
+
+    /**
+     * Cierto si el cliente pidió los mensajes numerados (cada uno precedido de SEQ:).
+     */
+    public boolean isNumerada() {
+        return numerada;
+    }
+
+    void setNumerada(boolean numerada) {
+        this.numerada = numerada;
+    }
+
+    /**
+     * Cierto si el servidor ya la cuenta como cliente (ver {@link #anunciar}).
+     */
+    boolean isAnunciada() {
+        return anunciada;
+    }
+
+    /**
+     * La marca como cliente; la llama quien atiende su entrada, al primer mensaje que no es LOAD:.
+     *
+     * @return false si ya lo estaba
+     */
+    boolean anunciar() {
+        if (anunciada) return false;
+        anunciada = true;
+        return true;
+    }
+
+    /**
+     * Motivo por el que el servidor cerró la sesión, o null si la cerró el cliente.
+     */
+    public String getMotivoCierre() {
+        return motivoCierre;
+    }
+
+    public ColaSalida getCola() {
+        return cola;
+    }
+
+    static byte[] codificarLinea(String linea) {
+        return (linea + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
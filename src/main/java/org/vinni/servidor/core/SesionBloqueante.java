@@ -0,0 +1,155 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sesión atendida por hilos con sockets bloqueantes: un hilo lee las líneas del
+ * cliente y la cola de salida la vacían los escritores que se le den, sin hilo
+ * propio: al encolar algo, la sesión pide un turno ({@link #escribirTurno()}) que
+ * vuelca lo pendiente y termina. En modo HILOS los escritores son un pool pequeño
+ * común a todas las sesiones ({@link Ejecutores#escritores()}); un turno bloqueado
+ * en un cliente que no lee ocupa un escritor como mucho hasta que se le expulsa
+ * por lento (ver {@link Sesion}).
+ * Con el canal del socket (lo tiene si se aceptó desde un ServerSocketChannel),
+ * lo encolado sale en escrituras de varios buffers, sin copiarlo antes a un
+ * buffer intermedio, y los archivos se reenvían con {@code transferTo} sin pasar
+ * por el heap.
+ */
+class SesionBloqueante extends Sesion {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final WritableByteChannel canal;
+    // Solo si el socket tiene canal; si no, se escribe por el flujo
+    private final GatheringByteChannel canalLotes;
+    private final ByteBuffer[] lote = new ByteBuffer[TRAMAS_POR_ESCRITURA];
+
+    // Trozos de archivo por turno, para no acaparar al escritor
+    private static final int MAX_TROZOS_POR_TURNO = 8;
+
+    private final Executor escritores;
+    // Hay un turno de escritura pedido o en curso: basta uno a la vez
+    private final AtomicBoolean enTurno = new AtomicBoolean();
+    // Candado y condición del lector frenado: con synchronized/wait un hilo virtual quedaría clavado a su portador
+    private final ReentrantLock pausa = new ReentrantLock();
+    private final Condition reanudada = pausa.newCondition();
+    private volatile boolean cerrada;
+
+    SesionBloqueante(Socket socket, OutputStream out, EstadisticasPuerto estadisticas, Executor escritores) {
+        super(new ColaSalida(), estadisticas);
+        this.escritores = escritores;
+        this.socket = socket;
+        this.out = out;
+        this.canal = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(out);
+        this.canalLotes = socket.getChannel();
+    }
+
+    @Override
+    public String getDireccion() {
+        return String.valueOf(socket.getInetAddress());
+    }
+
+    @Override
+    protected void notificarPendientes() {
+        if (cerrada || !enTurno.compareAndSet(false, true)) return;
+        try {
+            escritores.execute(this::escribirTurno);
+        } catch (RejectedExecutionException e) {
+            // Escritores apagados: el puerto se está deteniendo
+            enTurno.set(false);
+            cerrar();
+        }
+    }
+
+    @Override
+    protected void actualizarLectura() {
+        // El lector mira isFrenada() antes de cada mensaje; aquí solo se le despierta
+        despertarLector();
+    }
+
+    private void despertarLector() {
+        pausa.lock();
+        try {
+            reanudada.signalAll();
+        } finally {
+            pausa.unlock();
+        }
+    }
+
+    /**
+     * Bloquea al lector mientras lo que manda este cliente tenga llena alguna cola de salida.
+     */
+    void esperarSiPausada() throws InterruptedException {
+        pausa.lock();
+        try {
+            while (isFrenada() && !cerrada) reanudada.await();
+        } finally {
+            pausa.unlock();
+        }
+    }
+
+    /**
+     * Turno de un escritor: vuelca todo lo encolado, por lotes, y entre tanda y tanda
+     * un trozo de los archivos pendientes, hasta un máximo por turno. Si al acabar
+     * queda algo (o llegó entretanto), pide otro turno.
+     */
+    private void escribirTurno() {
+        try {
+            // Con espera configurada, deja que se junten más tramas antes de escribir
+            if (ESPERA_MS > 0) Thread.sleep(ESPERA_MS);
+            int trozos = 0;
+            do {
+                vaciarCola();
+                if (cola.bajoMarcaBaja()) soltarEmisores();
+            } while (!cerrada && trozos++ < MAX_TROZOS_POR_TURNO && relevarTrozo(canal) != null);
+        } catch (IOException e) {
+            cerrar();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cerrar();
+        } finally {
+            enTurno.set(false);
+        }
+        if (!cerrada && (cola.primera() != null || hayRelevos())) notificarPendientes();
+    }
+
+    private void vaciarCola() throws IOException {
+        if (canalLotes != null) {
+            // Bloqueante: cada lote sale entero, o lo que falte va en cabeza del siguiente
+            while (cola.primera() != null) escribirLote(canalLotes, lote);
+            return;
+        }
+        ByteBuffer trama;
+        long escritos = 0;
+        while ((trama = cola.primera()) != null) {
+            out.write(trama.array(), trama.arrayOffset() + trama.position(), trama.remaining());
+            escritos += trama.remaining();
+            cola.retirarPrimera();
+        }
+        out.flush();
+        contarEscritura(escritos);
+    }
+
+    @Override
+    public void cerrar() {
+        cerrada = true;
+        despertarLector();
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+        cola.vaciar();
+        descartarRelevos();
+        soltarEmisoresAlCerrar();
+    }
+}
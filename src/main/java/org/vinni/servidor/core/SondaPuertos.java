@@ -0,0 +1,181 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sondea varios puertos locales a la vez: abre una conexión no bloqueante a cada
+ * uno, las registra en un único Selector y espera como mucho el plazo dado en
+ * total (no por puerto). Un puerto colgado ya no alarga la ronda de los demás.
+ *
+ * Cada sonda se anota por su puerto local y el puerto al que va; solo el aceptor
+ * de ese puerto la reconoce ({@link #esSonda}) y la cierra sin tratarla como
+ * cliente. Conectada, la sonda espera a ese cierre (o al plazo) y entonces quita
+ * su marca, así que ninguna sobrevive a la ronda.
+ */
+public class SondaPuertos implements AutoCloseable {
+
+    // Sondas en curso: puerto local y puerto destino, ver marca()
+    private static final Set<Long> SONDAS = ConcurrentHashMap.newKeySet();
+
+    private final InetAddress destino = InetAddress.getLoopbackAddress();
+    private final Selector selector;
+    // Para leer el cierre del servidor; lo que mande se descarta
+    private final ByteBuffer descarte = ByteBuffer.allocate(64);
+
+    public SondaPuertos() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /** Una sonda: el puerto al que va y su marca. */
+    private static final class Sonda {
+        final int puerto;
+        final long marca;
+
+        Sonda(int puerto, long marca) {
+            this.puerto = puerto;
+            this.marca = marca;
+        }
+    }
+
+    /**
+     * Conecta a todos los puertos a la vez.
+     *
+     * @return por puerto, los microsegundos desde el inicio de la ronda hasta que conectó,
+     *         o -1 si no se pudo en el plazo
+     */
+    public Map<Integer, Long> sondear(int[] puertos, long plazoMs) {
+        Map<Integer, Long> resultado = new HashMap<>();
+        long inicio = System.nanoTime();
+        int pendientes = 0;
+        for (int puerto : puertos) {
+            resultado.put(puerto, -1L);
+            SocketChannel canal = null;
+            Sonda sonda = null;
+            try {
+                canal = SocketChannel.open();
+                canal.configureBlocking(false);
+                canal.bind(new InetSocketAddress(destino, 0));
+                sonda = new Sonda(puerto, marca(((InetSocketAddress) canal.getLocalAddress()).getPort(), puerto));
+                SONDAS.add(sonda.marca);
+                if (canal.connect(new InetSocketAddress(destino, puerto))) {
+                    resultado.put(puerto, microsDesde(inicio));
+                    canal.register(selector, SelectionKey.OP_READ, sonda);
+                } else {
+                    canal.register(selector, SelectionKey.OP_CONNECT, sonda);
+                }
+                pendientes++;
+            } catch (IOException e) {
+                if (sonda != null) SONDAS.remove(sonda.marca);
+                cerrar(canal);
+            }
+        }
+
+        long limite = inicio + TimeUnit.MILLISECONDS.toNanos(plazoMs);
+        try {
+            while (pendientes > 0) {
+                long restante = TimeUnit.NANOSECONDS.toMillis(limite - System.nanoTime());
+                if (restante <= 0) break;
+                selector.select(restante);
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    if (!atender(clave, resultado, inicio)) {
+                        terminar(clave);
+                        pendientes--;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Selector roto: lo no resuelto queda como caído
+        } finally {
+            // Las que no conectaron, o cuyo cierre no llegó, a tiempo
+            for (SelectionKey clave : selector.keys()) {
+                if (clave.isValid()) terminar(clave);
+            }
+            try {
+                selector.selectNow();
+            } catch (IOException ignored) {}
+        }
+        return resultado;
+    }
+
+    /**
+     * @return false si la sonda terminó: no conectó, o el servidor ya la cerró
+     */
+    private boolean atender(SelectionKey clave, Map<Integer, Long> resultado, long inicio) {
+        SocketChannel canal = (SocketChannel) clave.channel();
+        Sonda sonda = (Sonda) clave.attachment();
+        try {
+            if (clave.isConnectable()) {
+                if (!canal.finishConnect()) return true;
+                resultado.put(sonda.puerto, microsDesde(inicio));
+                clave.interestOps(SelectionKey.OP_READ);
+                return true;
+            }
+            descarte.clear();
+            return canal.read(descarte) >= 0;
+        } catch (IOException e) {
+            // Conexión rechazada (queda en -1) o cortada por el servidor
+            return false;
+        }
+    }
+
+    private static void terminar(SelectionKey clave) {
+        clave.cancel();
+        cerrar(clave.channel());
+        SONDAS.remove(((Sonda) clave.attachment()).marca);
+    }
+
+    /**
+     * ¿La conexión aceptada en {@code puerto} viene de una sonda de este proceso dirigida a él?
+     * Si es así, deja de estar marcada.
+     */
+    public static boolean esSonda(SocketAddress remota, int puerto) {
+        if (SONDAS.isEmpty() || !(remota instanceof InetSocketAddress)) return false;
+        InetSocketAddress direccion = (InetSocketAddress) remota;
+        return direccion.getAddress() != null && direccion.getAddress().isLoopbackAddress()
+                && SONDAS.remove(marca(direccion.getPort(), puerto));
+    }
+
+    /** Marcas vivas: fuera de una ronda, ninguna. */
+    static int getSondasEnCurso() {
+        return SONDAS.size();
+    }
+
+    private static long marca(int puertoLocal, int puertoDestino) {
+        return ((long) puertoLocal << 16) | puertoDestino;
+    }
+
+    private static long microsDesde(long inicio) {
+        return TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - inicio);
+    }
+
+    private static void cerrar(Channel canal) {
+        if (canal == null) return;
+        try {
+            canal.close();
+        } catch (IOException ignored) {}
+    }
+
+    @Override
+    public void close() {
+        try {
+            selector.close();
+        } catch (IOException ignored) {}
+    }
+}
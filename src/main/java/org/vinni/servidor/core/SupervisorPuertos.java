@@ -0,0 +1,201 @@
+package org.vinni.servidor.core;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reinicia los puertos de un {@link ServerRuntime} desde un único hilo programado.
+ *
+ * Cada puerto tiene a lo sumo un reinicio en curso: pedir otro mientras tanto no
+ * hace nada. Si levantarlo falla, se reintenta con espera exponencial
+ * ({@code servidor.supervisor.baseMs}, por defecto 500 ms, duplicándose hasta
+ * {@code servidor.supervisor.maxMs}, 30 s) con una parte al azar para que varios
+ * puertos no reintenten a la vez. Tras {@code servidor.supervisor.maxFallos}
+ * fallos seguidos (5) se abre el circuito: no se reintenta hasta pasado
+ * {@code servidor.supervisor.enfriamientoMs} (60 s), y entonces se prueba una vez.
+ */
+public class SupervisorPuertos {
+
+    private static final long BASE_MS = Long.getLong("servidor.supervisor.baseMs", 500);
+    private static final long MAX_MS = Long.getLong("servidor.supervisor.maxMs", 30000);
+    private static final int MAX_FALLOS = Integer.getInteger("servidor.supervisor.maxFallos", 5);
+    private static final long ENFRIAMIENTO_MS = Long.getLong("servidor.supervisor.enfriamientoMs", 60000);
+
+    /**
+     * Reinicios de un puerto: estado del circuito y métricas.
+     */
+    public static final class EstadoReinicio {
+        private boolean enCurso;
+        private long pedidoNanos;
+        private int fallosSeguidos;
+        private long circuitoHasta;
+
+        private long intentos;
+        private long reinicios;
+        private long fallos;
+        private long ultimaLatenciaMs = -1;
+        private long maxLatenciaMs;
+
+        /** Intentos de levantar el puerto (con éxito o no). */
+        public synchronized long getIntentos() {
+            return intentos;
+        }
+
+        /** Reinicios completados. */
+        public synchronized long getReinicios() {
+            return reinicios;
+        }
+
+        public synchronized long getFallos() {
+            return fallos;
+        }
+
+        /** Desde que se pidió el último reinicio completado hasta que el puerto volvió a escuchar, o -1. */
+        public synchronized long getUltimaLatenciaMs() {
+            return ultimaLatenciaMs;
+        }
+
+        public synchronized long getMaxLatenciaMs() {
+            return maxLatenciaMs;
+        }
+
+        public synchronized boolean isCircuitoAbierto() {
+            return circuitoHasta - System.nanoTime() > 0;
+        }
+
+        public synchronized boolean isEnCurso() {
+            return enCurso;
+        }
+    }
+
+    private final ServerRuntime runtime;
+    private final ObservadorServidor avisos;
+    private final ScheduledExecutorService programador;
+    private final Map<Integer, EstadoReinicio> estados = new ConcurrentHashMap<>();
+
+    SupervisorPuertos(ServerRuntime runtime, ObservadorServidor avisos) {
+        this.runtime = runtime;
+        this.avisos = avisos;
+        ScheduledThreadPoolExecutor ejecutor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread hilo = new Thread(r, "SupervisorPuertos");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        ejecutor.setRemoveOnCancelPolicy(true);
+        this.programador = ejecutor;
+    }
+
+    /**
+     * Detiene el puerto y lo vuelve a levantar, como pronto a los {@code esperaMs}.
+     *
+     * @return false si ya había un reinicio en curso para ese puerto o el circuito está abierto
+     */
+    public boolean reiniciar(int puerto, long esperaMs, String motivo) {
+        EstadoReinicio estado = estado(puerto);
+        synchronized (estado) {
+            if (estado.enCurso) return false;
+            if (estado.isCircuitoAbierto()) {
+                avisos.log(puerto, "Reinicio del puerto " + puerto + " no intentado (" + motivo
+                        + "): circuito abierto tras " + estado.fallosSeguidos + " fallos seguidos");
+                return false;
+            }
+            estado.enCurso = true;
+            estado.pedidoNanos = System.nanoTime();
+        }
+        avisos.log(puerto, "Reinicio del puerto " + puerto + " programado: " + motivo);
+        programar(puerto, estado, Math.max(0, esperaMs), true);
+        return true;
+    }
+
+    private void programar(int puerto, EstadoReinicio estado, long esperaMs, boolean detenerAntes) {
+        try {
+            programador.schedule(() -> intentar(puerto, estado, detenerAntes), esperaMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Supervisor detenido (apagando el servidor)
+            synchronized (estado) {
+                estado.enCurso = false;
+            }
+        }
+    }
+
+    private void intentar(int puerto, EstadoReinicio estado, boolean detenerAntes) {
+        if (!runtime.isRegistrado(puerto)) {
+            // Lo quitaron del registro mientras esperaba: no se vuelve a levantar
+            synchronized (estado) {
+                estado.enCurso = false;
+            }
+            return;
+        }
+        if (detenerAntes) runtime.detener(puerto);
+        synchronized (estado) {
+            estado.intentos++;
+        }
+        try {
+            runtime.iniciar(puerto);
+        } catch (IOException | RuntimeException e) {
+            fallo(puerto, estado, e);
+            return;
+        }
+        long latencia;
+        synchronized (estado) {
+            latencia = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - estado.pedidoNanos);
+            estado.reinicios++;
+            estado.fallosSeguidos = 0;
+            estado.circuitoHasta = 0;
+            estado.ultimaLatenciaMs = latencia;
+            estado.maxLatenciaMs = Math.max(estado.maxLatenciaMs, latencia);
+            estado.enCurso = false;
+        }
+        avisos.log(puerto, "Puerto " + puerto + " reiniciado en " + latencia + " ms");
+    }
+
+    private void fallo(int puerto, EstadoReinicio estado, Exception e) {
+        long espera;
+        int seguidos;
+        synchronized (estado) {
+            estado.fallos++;
+            seguidos = ++estado.fallosSeguidos;
+            if (seguidos >= MAX_FALLOS) {
+                // Circuito abierto: un único intento más cuando pase el enfriamiento
+                estado.circuitoHasta = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ENFRIAMIENTO_MS);
+                espera = ENFRIAMIENTO_MS;
+            } else {
+                espera = espera(seguidos);
+            }
+        }
+        avisos.log(puerto, "(!) No se pudo levantar el puerto " + puerto + " (fallo " + seguidos + "): "
+                + e.getMessage() + (seguidos >= MAX_FALLOS
+                ? "; circuito abierto, se probará de nuevo en " + espera + " ms"
+                : "; nuevo intento en " + espera + " ms"));
+        programar(puerto, estado, espera, false);
+    }
+
+    /**
+     * Espera exponencial con la mitad al azar ("equal jitter").
+     */
+    static long espera(int fallosSeguidos) {
+        long tope = Math.min(MAX_MS, BASE_MS << Math.min(20, fallosSeguidos - 1));
+        return tope / 2 + ThreadLocalRandom.current().nextLong(tope / 2 + 1);
+    }
+
+    private EstadoReinicio estado(int puerto) {
+        return estados.computeIfAbsent(puerto, p -> new EstadoReinicio());
+    }
+
+    /**
+     * Métricas de reinicio del puerto (vacías si nunca se reinició).
+     */
+    public EstadoReinicio getEstado(int puerto) {
+        return estado(puerto);
+    }
+
+    void detener() {
+        programador.shutdownNow();
+    }
+}
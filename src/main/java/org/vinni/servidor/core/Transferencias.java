@@ -0,0 +1,196 @@
+package org.vinni.servidor.core;
+
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.InfoArchivo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Transferencias de archivos por trozos en curso en un puerto. Cada trozo se
+ * escribe en el parcial del {@link AlmacenMedios} en su desplazamiento; lo que
+ * ya hay en disco es lo que se le confirma al emisor para reanudar. Las
+ * abandonadas se olvidan (y se borran) pasado un plazo.
+ *
+ * La suma SHA-256 se va calculando con cada trozo escrito, así que al terminar
+ * solo se compara: nunca se relee el archivo entero en el hilo que atiende al
+ * emisor. Solo el parcial que dejó en disco una ejecución anterior se lee al
+ * reanudarlo, para poner la suma al día.
+ */
+class Transferencias {
+
+    private static final long PLAZO_ABANDONO_MS = Long.getLong("servidor.archivo.plazoMs", 10 * 60 * 1000L);
+
+    static final class Transferencia {
+        final InfoArchivo info;
+        private final FileChannel canal;
+        private long recibidos;
+        // Suma de los primeros "recibidos" bytes
+        private final MessageDigest suma;
+        private volatile long ultimoUso = System.currentTimeMillis();
+        // Contenido que ya estaba en el almacén: no se recibe nada
+        private final MedioGuardado yaGuardado;
+
+        Transferencia(InfoArchivo info, FileChannel canal, long recibidos) throws IOException {
+            this.info = info;
+            this.canal = canal;
+            this.recibidos = recibidos;
+            this.suma = CodecArchivo.nuevoSha256();
+            this.yaGuardado = null;
+            sumarDesdeDisco();
+        }
+
+        Transferencia(MedioGuardado yaGuardado) {
+            this.info = yaGuardado.getInfo();
+            this.canal = null;
+            this.recibidos = info.getTamano();
+            this.suma = null;
+            this.yaGuardado = yaGuardado;
+        }
+
+        private void sumarDesdeDisco() throws IOException {
+            ByteBuffer bloque = ByteBuffer.allocate(64 * 1024);
+            for (long leidos = 0; leidos < recibidos; ) {
+                bloque.clear().limit((int) Math.min(bloque.capacity(), recibidos - leidos));
+                int n = canal.read(bloque, leidos);
+                if (n < 0) throw new IOException("El parcial de " + info.getNombre() + " es más corto de lo esperado");
+                leidos += n;
+                bloque.flip();
+                suma.update(bloque);
+            }
+        }
+
+        /** Cierto si el almacén ya tenía el contenido y el emisor no tiene que subir nada. */
+        boolean isDuplicada() {
+            return yaGuardado != null;
+        }
+
+        synchronized long getRecibidos() {
+            return recibidos;
+        }
+
+        /**
+         * Escribe el trozo solo si continúa justo donde quedó el anterior.
+         *
+         * @return false si estaba fuera de secuencia (no se escribe nada)
+         */
+        synchronized boolean escribir(long desplazamiento, ByteBuffer datos) throws IOException {
+            if (desplazamiento != recibidos || recibidos + datos.remaining() > info.getTamano()) return false;
+            while (datos.hasRemaining()) {
+                ByteBuffer escrito = datos.duplicate();
+                int n = canal.write(datos, recibidos);
+                escrito.limit(escrito.position() + n);
+                suma.update(escrito);
+                recibidos += n;
+            }
+            ultimoUso = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized boolean isCompleta() {
+            return recibidos == info.getTamano();
+        }
+
+        /** Suma en hexadecimal de lo recibido; solo una vez, con la transferencia completa. */
+        synchronized String getSha256() {
+            return CodecArchivo.hex(suma.digest());
+        }
+
+        synchronized void cerrar() {
+            if (canal == null) return;
+            try {
+                canal.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    private final AlmacenMedios almacen;
+    private final ConcurrentHashMap<Long, Transferencia> enCurso = new ConcurrentHashMap<>();
+
+    Transferencias(AlmacenMedios almacen) {
+        this.almacen = almacen;
+    }
+
+    /**
+     * Empieza una transferencia, o devuelve la que ya existía con ese id si es del mismo
+     * remitente y archivo (reanudación). Si quedó un parcial en disco de una ejecución
+     * anterior, se sigue desde su tamaño: la suma final descarta cualquier mezcla.
+     * Si el almacén compartido ya tiene ese contenido, la transferencia nace completa.
+     *
+     * @return null si el id está en uso por otro archivo
+     */
+    Transferencia iniciar(InfoArchivo info) throws IOException {
+        purgarAbandonadas();
+        Transferencia existente = enCurso.get(info.getId());
+        if (existente == null) {
+            MedioGuardado guardado = almacen.buscar(info);
+            if (guardado != null) {
+                almacen.descartar(info);
+                Transferencia duplicada = new Transferencia(guardado);
+                existente = enCurso.putIfAbsent(info.getId(), duplicada);
+                if (existente == null) return duplicada;
+            }
+        }
+        if (existente == null) {
+            FileChannel canal = almacen.abrirParcial(info);
+            long enDisco = canal.size();
+            if (enDisco > info.getTamano()) {
+                canal.truncate(0);
+                enDisco = 0;
+            }
+            Transferencia nueva;
+            try {
+                nueva = new Transferencia(info, canal, enDisco);
+            } catch (IOException e) {
+                canal.close();
+                throw e;
+            }
+            existente = enCurso.putIfAbsent(info.getId(), nueva);
+            if (existente == null) return nueva;
+            nueva.cerrar();
+        }
+        InfoArchivo previa = existente.info;
+        if (previa.getRemitente().equals(info.getRemitente()) && previa.getTamano() == info.getTamano()
+                && previa.getSha256().equalsIgnoreCase(info.getSha256())) {
+            existente.ultimoUso = System.currentTimeMillis();
+            return existente;
+        }
+        return null;
+    }
+
+    Transferencia buscar(long id) {
+        return enCurso.get(id);
+    }
+
+    /**
+     * Cierra la transferencia completa y la pasa al almacén.
+     *
+     * @throws IOException si la suma no coincide o no se pudo mover
+     */
+    MedioGuardado terminar(Transferencia transferencia) throws IOException {
+        enCurso.remove(transferencia.info.getId(), transferencia);
+        if (transferencia.yaGuardado != null) return transferencia.yaGuardado;
+        transferencia.cerrar();
+        return almacen.completar(transferencia.info, transferencia.getSha256());
+    }
+
+    int cantidad() {
+        return enCurso.size();
+    }
+
+    private void purgarAbandonadas() {
+        long limite = System.currentTimeMillis() - PLAZO_ABANDONO_MS;
+        for (Iterator<Transferencia> it = enCurso.values().iterator(); it.hasNext(); ) {
+            Transferencia transferencia = it.next();
+            if (transferencia.ultimoUso < limite) {
+                it.remove();
+                transferencia.cerrar();
+                if (!transferencia.isDuplicada()) almacen.descartar(transferencia.info);
+            }
+        }
+    }
+}
@@ -1,34 +1,48 @@
 package org.vinni.servidor.gui;
 
 import org.vinni.servidor.gui.monitor.MonitorServidor;
+import org.vinni.servidor.core.ConfigPuertos;
+import org.vinni.servidor.core.ModoServidor;
+import org.vinni.servidor.core.ObservadorServidor;
+import org.vinni.servidor.core.ServerRuntime;
 import org.vinni.servidor.core.ServidorPuerto;
 
 import javax.swing.*;
 import java.io.*;
-import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Ventana principal del servidor multipuerto.
- * - Controla 5 servidores TCP en paralelo (puertos definidos en PUERTOS).
- * - Cada puerto se maneja con un botón y un área de log.
+ * - Controla varios servidores TCP en paralelo: los configurados (ver ConfigPuertos)
+ *   más los que se agreguen en marcha desde la barra superior.
+ * - Cada puerto se maneja con un botón, otro para quitarlo y un área de log.
  * - Incluye persistencia de estado y reinicio automático.
  * - Integra un monitor para ver el estado de todos los puertos.
+ * - El motor de conexiones (hilos o NIO) se elige al arrancar (ver {@link ModoServidor}).
  * - Recibe imágenes desde los clientes y las guarda en disco.
+ * - Publica las métricas de los puertos y de su propio hilo (ver MetricasServidor).
+ * Los puertos, el estado y el monitor los lleva un {@link ServerRuntime}; la ventana
+ * solo es un observador más (el servidor puede correr sin ella, ver ServerRuntime.main).
  */
-public class PrincipalSrv extends JFrame {
+public class PrincipalSrv extends JFrame implements ObservadorServidor {
 
     private final Servidor_interfaz ui;
 
-    // Puertos configurados
-    private final int[] PUERTOS = {12345, 12346, 12347, 12348, 12349};
+    // Núcleo del servidor: puertos, estado y monitor
+    private final ServerRuntime runtime = new ServerRuntime();
 
-    // Mapas para gestión de servidores, botones y logs
-    private final ConcurrentHashMap<Integer, ServidorPuerto> servidores = new ConcurrentHashMap<>();
+    // Mapas para botones y logs
     private final ConcurrentHashMap<Integer, JRadioButton> botonesPorPuerto = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Integer, JTextArea> areasPorPuerto = new ConcurrentHashMap<>();
 
+    // Las líneas de log llegan a las áreas por lotes, unas pocas veces por segundo
+    private final SumideroLog sumidero = new SumideroLog();
+    private final ConcurrentHashMap<Integer, SumideroLog.Salida> salidasPorPuerto = new ConcurrentHashMap<>();
+
+    // Espera del hilo de Swing, para las métricas del runtime
+    private final SondaInterfaz sonda = new SondaInterfaz(runtime.getMetricas().getRetrasoInterfaz());
+
     // Mapas para usuarios conectados por puerto
     private final ConcurrentHashMap<Integer, Set<String>> usuariosPorPuerto = new ConcurrentHashMap<>();
 
@@ -41,9 +55,6 @@ public class PrincipalSrv extends JFrame {
     // --- Monitor asociado ---
     private MonitorServidor monitor;
 
-    // --- Archivo de persistencia ---
-    private final Path estadoFile = Paths.get("server_data", "estado_puertos.txt");
-
     public PrincipalSrv() {
         ui = new Servidor_interfaz();
 
@@ -53,18 +64,22 @@ public class PrincipalSrv extends JFrame {
         setSize(700, 600);
         setLocationRelativeTo(null);
 
-        // Configurar cada puerto con su botón y log
-        configurarPuerto(12345, ui.a12345RadioButton, ui.textArea1);
-        configurarPuerto(12346, ui.a12346RadioButton, ui.textArea2);
-        configurarPuerto(12347, ui.a12347RadioButton, ui.textArea3);
-        configurarPuerto(12348, ui.a12348RadioButton, ui.textArea4);
-        configurarPuerto(12349, ui.a12349RadioButton, ui.textArea5);
+        // Configurar cada puerto registrado con su botón y log
+        for (int puerto : runtime.getPuertos()) configurarPuerto(puerto);
+        ui.botonAgregar.addActionListener(e -> agregarPuerto());
+        ui.campoPuerto.addActionListener(e -> agregarPuerto());
 
         // Guardar instancia activa
         instanciaActiva = this;
 
-        // Restaurar estado previo
-        restaurarEstado();
+        // Escuchar al runtime y restaurar estado previo
+        runtime.agregarObservador(this);
+        runtime.restaurarEstado();
+        if (runtime.isMonitorActivo()) SwingUtilities.invokeLater(this::abrirMonitor);
+
+        // Prometheus y JMX (ver MetricasServidor)
+        runtime.getMetricas().publicar();
+        sonda.iniciar();
     }
 
     // --- acceso desde el monitor ---
@@ -72,18 +87,23 @@ public class PrincipalSrv extends JFrame {
         return instanciaActiva;
     }
 
-    private void configurarPuerto(int puerto, JRadioButton boton, JTextArea area) {
+    private void configurarPuerto(int puerto) {
+        if (botonesPorPuerto.containsKey(puerto)) return;
+        Servidor_interfaz.FilaPuerto fila = ui.agregarFila(puerto);
+        JRadioButton boton = fila.boton;
+        JTextArea area = fila.area;
         botonesPorPuerto.put(puerto, boton);
         areasPorPuerto.put(puerto, area);
+        salidasPorPuerto.put(puerto, sumidero.salida(area, contadores -> mostrarContadores(area, contadores)));
         usuariosPorPuerto.put(puerto, ConcurrentHashMap.newKeySet());
         clientesMonitorReportados.put(puerto, ConcurrentHashMap.newKeySet());
 
+        fila.botonQuitar.addActionListener(e -> quitarPuerto(puerto));
         if (boton != null) {
             boton.addActionListener(e -> {
                 if (boton.isSelected()) {
                     try {
                         iniciarServidor(puerto);
-                        boton.setText("Puerto " + puerto + " ✅ Encendido");
                     } catch (IOException ex) {
                         JOptionPane.showMessageDialog(this,
                                 "Error al iniciar servidor en puerto " + puerto + ": " + ex.getMessage(),
@@ -92,50 +112,113 @@ public class PrincipalSrv extends JFrame {
                     }
                 } else {
                     detenerServidor(puerto);
-                    boton.setText("Puerto " + puerto + " ⛔ Apagado");
                 }
             });
         }
     }
 
-    public void iniciarServidor(int puerto) throws IOException {
-        if (!servidores.containsKey(puerto)) {
-            ServidorPuerto servidor = new ServidorPuerto(puerto, this);
-            servidores.put(puerto, servidor);
-            servidor.start();
-            log(puerto, "Servidor iniciado en puerto " + puerto);
+    /**
+     * Registra y levanta el puerto escrito en la barra superior.
+     */
+    private void agregarPuerto() {
+        int puerto;
+        try {
+            puerto = Integer.parseInt(ui.campoPuerto.getText().trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Puerto no válido: " + ui.campoPuerto.getText(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return;
         }
+        int aceptores = (Integer) ui.spinnerAceptores.getValue();
+        try {
+            runtime.agregarPuerto(puerto, aceptores);
+            configurarPuerto(puerto);
+            iniciarServidor(puerto);
+            ui.campoPuerto.setText("");
+        } catch (IOException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this,
+                    "Error al agregar el puerto " + puerto + ": " + ex.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Detiene el puerto y lo saca del registro (fuera del hilo de Swing: espera a que terminen sus sesiones).
+     */
+    private void quitarPuerto(int puerto) {
+        int respuesta = JOptionPane.showConfirmDialog(this, "¿Quitar el puerto " + puerto + "?",
+                "Quitar puerto", JOptionPane.YES_NO_OPTION);
+        if (respuesta != JOptionPane.YES_OPTION) return;
+        new Thread(() -> runtime.quitarPuerto(puerto), "QuitarPuerto-" + puerto).start();
+    }
+
+    public void iniciarServidor(int puerto) throws IOException {
+        runtime.iniciar(puerto);
     }
 
+    /**
+     * Apaga el puerto; como siempre, vuelve a levantarse solo a los 3 segundos.
+     */
     private void detenerServidor(int puerto) {
-        ServidorPuerto servidor = servidores.remove(puerto);
-        if (servidor != null) {
-            servidor.detener();
-            log(puerto, "Servidor detenido en puerto " + puerto);
-
-            limpiarClientesReportados(puerto);
-
-            new Thread(() -> {
-                try {
-                    Thread.sleep(3000);
-                    iniciarServidor(puerto);
-                    SwingUtilities.invokeLater(() -> {
-                        JRadioButton boton = botonesPorPuerto.get(puerto);
-                        if (boton != null) {
-                            boton.setSelected(true);
-                            boton.setText("Puerto " + puerto + " ✅ Encendido");
-                        }
-                    });
-                } catch (InterruptedException | IOException ignored) {}
-            }).start();
-        }
+        if (runtime.getServidor(puerto) == null) return;
+        limpiarClientesReportados(puerto);
+        runtime.reiniciar(puerto, 3000);
     }
 
+    // ---------- Avisos del runtime (desde hilos del servidor) ----------
+
+    @Override
     public void log(int puerto, String mensaje) {
-        JTextArea area = areasPorPuerto.get(puerto);
-        if (area != null) {
-            SwingUtilities.invokeLater(() -> area.append(mensaje + "\n"));
-        }
+        SumideroLog.Salida salida = salidasPorPuerto.get(puerto);
+        if (salida != null) salida.anotar(mensaje);
+    }
+
+    /**
+     * Muestra en el borde del área cuántas líneas no llegaron a verse o se quitaron.
+     */
+    private void mostrarContadores(JTextArea area, String contadores) {
+        JScrollPane scroll = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, area);
+        if (scroll != null) scroll.setBorder(BorderFactory.createTitledBorder("Log: " + contadores));
+    }
+
+    @Override
+    public void puertoCambiado(int puerto, boolean activo) {
+        SwingUtilities.invokeLater(() -> {
+            JRadioButton boton = botonesPorPuerto.get(puerto);
+            if (boton != null) {
+                boton.setSelected(activo);
+                boton.setText("Puerto " + puerto + (activo ? " ✅ Encendido" : " ⛔ Apagado"));
+            }
+        });
+    }
+
+    @Override
+    public void puertoAgregado(int puerto) {
+        SwingUtilities.invokeLater(() -> configurarPuerto(puerto));
+    }
+
+    @Override
+    public void puertoQuitado(int puerto) {
+        SwingUtilities.invokeLater(() -> {
+            if (runtime.isRegistrado(puerto)) return;
+            ui.quitarFila(puerto);
+            botonesPorPuerto.remove(puerto);
+            areasPorPuerto.remove(puerto);
+            SumideroLog.Salida salida = salidasPorPuerto.remove(puerto);
+            if (salida != null) sumidero.quitar(salida);
+            usuariosPorPuerto.remove(puerto);
+            clientesMonitorReportados.remove(puerto);
+        });
+    }
+
+    @Override
+    public void usuarioConectado(int puerto, String usuario) {
+        agregarUsuario(puerto, usuario);
+    }
+
+    @Override
+    public void usuarioDesconectado(int puerto, String usuario) {
+        removerUsuario(puerto, usuario);
     }
 
     // ---------- Gestión de usuarios ----------
@@ -172,48 +255,19 @@ public class PrincipalSrv extends JFrame {
         if (reportados != null) reportados.clear();
     }
 
-    // ---------- Persistencia del estado ----------
-    private void guardarEstado() {
-        try {
-            Files.createDirectories(estadoFile.getParent());
-            try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(estadoFile))) {
-                for (int puerto : PUERTOS) {
-                    if (servidores.containsKey(puerto)) pw.println("PUERTO:" + puerto);
-                }
-                if (monitor != null && monitor.isVisible()) pw.println("MONITOR:1");
-            }
-        } catch (IOException e) {
-            System.err.println("No se pudo guardar estado: " + e.getMessage());
-        }
+    // ---------- Monitor ----------
+    private void abrirMonitor() {
+        if (monitor != null && monitor.isDisplayable()) return;
+        monitor = new MonitorServidor(this, runtime);
+        monitor.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        monitor.setVisible(true);
     }
 
-    private void restaurarEstado() {
-        if (Files.exists(estadoFile)) {
-            try {
-                for (String linea : Files.readAllLines(estadoFile)) {
-                    if (linea.startsWith("PUERTO:")) {
-                        int puerto = Integer.parseInt(linea.substring("PUERTO:".length()).trim());
-                        iniciarServidor(puerto);
-                        JRadioButton boton = botonesPorPuerto.get(puerto);
-                        if (boton != null) {
-                            boton.setSelected(true);
-                            boton.setText("Puerto " + puerto + " ✅ Encendido");
-                        }
-                    } else if (linea.startsWith("MONITOR:")) {
-                        SwingUtilities.invokeLater(() -> {
-                            monitor = new MonitorServidor(this);
-                            monitor.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-                            monitor.setVisible(true);
-                        });
-                    }
-                }
-            } catch (IOException e) {
-                System.err.println("No se pudo restaurar estado: " + e.getMessage());
-            }
-        }
-    }
+    public int[] getPuertos() { return runtime.getPuertos(); }
+
+    public ServidorPuerto getServidor(int puerto) { return runtime.getServidor(puerto); }
 
-    public int[] getPuertos() { return PUERTOS.clone(); }
+    public ServerRuntime getRuntime() { return runtime; }
 
     public JRadioButton getBotonPorPuerto(int puerto) { return botonesPorPuerto.get(puerto); }
 
@@ -221,11 +275,11 @@ public class PrincipalSrv extends JFrame {
 
     @Override
     public void dispose() {
-        guardarEstado();
-        for (ServidorPuerto servidor : servidores.values()) {
-            try { servidor.detener(); } catch (Exception ignored) {}
-        }
-        servidores.clear();
+        runtime.quitarObservador(this);
+        sonda.detener();
+        runtime.apagar();
+        if (monitor != null) monitor.dispose();
+        sumidero.detener();
         instanciaActiva = null;
         super.dispose();
     }
@@ -236,13 +290,13 @@ public class PrincipalSrv extends JFrame {
     }
 
     public static void main(String[] args) {
+        ModoServidor.aplicarArgumentos(args);
+        ConfigPuertos.aplicarArgumentos(args);
         SwingUtilities.invokeLater(() -> {
             PrincipalSrv principal = new PrincipalSrv();
             principal.setVisible(true);
 
-            principal.monitor = new MonitorServidor(principal);
-            principal.monitor.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
-            principal.monitor.setVisible(true);
+            principal.abrirMonitor();
         });
     }
 }
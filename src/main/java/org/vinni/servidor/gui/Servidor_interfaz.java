@@ -2,74 +2,98 @@ package org.vinni.servidor.gui;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.Map;
+import java.util.TreeMap;
 
 public class Servidor_interfaz {
 
-    public JRadioButton a12345RadioButton;
-    public JRadioButton a12346RadioButton;
-    public JRadioButton a12347RadioButton;
-    public JRadioButton a12348RadioButton;
-    public JRadioButton a12349RadioButton;
+    /**
+     * Fila de un puerto: botón de encendido, botón para quitarlo y área de log.
+     */
+    public static final class FilaPuerto {
+        public final JRadioButton boton;
+        public final JButton botonQuitar;
+        public final JTextArea area;
+        private final JPanel botones = new JPanel(new GridLayout(2, 1));
+        private final JScrollPane scroll;
 
-    public JTextArea textArea1;
-    public JTextArea textArea2;
-    public JTextArea textArea3;
-    public JTextArea textArea4;
-    public JTextArea textArea5;
+        FilaPuerto(int puerto) {
+            boton = new JRadioButton("Puerto " + puerto);
+            botonQuitar = new JButton("Quitar");
+            area = crearTextAreaConScroll();
+            botones.add(boton);
+            botones.add(botonQuitar);
+            scroll = new JScrollPane(area);
+        }
+    }
+
+    // Barra para agregar puertos en marcha
+    public JTextField campoPuerto;
+    public JSpinner spinnerAceptores;
+    public JButton botonAgregar;
 
     public JPanel BG_SERVER;
 
+    private final JPanel panelPuertos;
+    private final Map<Integer, FilaPuerto> filas = new TreeMap<>();
+
     public Servidor_interfaz() {
-        BG_SERVER = new JPanel();
-        BG_SERVER.setLayout(new GridBagLayout());
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.insets = new Insets(5,5,5,5);
-        gbc.fill = GridBagConstraints.BOTH;
+        BG_SERVER = new JPanel(new BorderLayout());
 
-        // Inicializar botones
-        a12345RadioButton = new JRadioButton("Puerto 12345");
-        a12346RadioButton = new JRadioButton("Puerto 12346");
-        a12347RadioButton = new JRadioButton("Puerto 12347");
-        a12348RadioButton = new JRadioButton("Puerto 12348");
-        a12349RadioButton = new JRadioButton("Puerto 12349");
+        JPanel barra = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        campoPuerto = new JTextField(6);
+        spinnerAceptores = new JSpinner(new SpinnerNumberModel(1, 1, 64, 1));
+        botonAgregar = new JButton("Agregar");
+        barra.add(new JLabel("Puerto:"));
+        barra.add(campoPuerto);
+        barra.add(new JLabel("Aceptores:"));
+        barra.add(spinnerAceptores);
+        barra.add(botonAgregar);
+        BG_SERVER.add(barra, BorderLayout.NORTH);
 
-        // Inicializar áreas de texto
-        textArea1 = crearTextAreaConScroll();
-        textArea2 = crearTextAreaConScroll();
-        textArea3 = crearTextAreaConScroll();
-        textArea4 = crearTextAreaConScroll();
-        textArea5 = crearTextAreaConScroll();
+        panelPuertos = new JPanel(new GridBagLayout());
+        BG_SERVER.add(new JScrollPane(panelPuertos), BorderLayout.CENTER);
+    }
 
-        // Agregar componentes al panel
-        gbc.gridx = 0;
-        gbc.gridy = 0;
-        BG_SERVER.add(a12345RadioButton, gbc);
-        gbc.gridy = 1;
-        BG_SERVER.add(a12346RadioButton, gbc);
-        gbc.gridy = 2;
-        BG_SERVER.add(a12347RadioButton, gbc);
-        gbc.gridy = 3;
-        BG_SERVER.add(a12348RadioButton, gbc);
-        gbc.gridy = 4;
-        BG_SERVER.add(a12349RadioButton, gbc);
+    /**
+     * Agrega (o devuelve, si ya estaba) la fila del puerto, en orden de número.
+     */
+    public FilaPuerto agregarFila(int puerto) {
+        FilaPuerto fila = filas.get(puerto);
+        if (fila != null) return fila;
+        fila = new FilaPuerto(puerto);
+        filas.put(puerto, fila);
+        reordenar();
+        return fila;
+    }
+
+    public void quitarFila(int puerto) {
+        if (filas.remove(puerto) != null) reordenar();
+    }
 
-        gbc.gridx = 1;
-        gbc.gridy = 0;
-        gbc.weightx = 1.0;
-        gbc.weighty = 1.0;
+    private void reordenar() {
+        panelPuertos.removeAll();
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.insets = new Insets(5,5,5,5);
+        gbc.fill = GridBagConstraints.BOTH;
+        int fila = 0;
+        for (FilaPuerto f : filas.values()) {
+            gbc.gridy = fila++;
+            gbc.gridx = 0;
+            gbc.weightx = 0;
+            gbc.weighty = 0;
+            panelPuertos.add(f.botones, gbc);
 
-        BG_SERVER.add(new JScrollPane(textArea1), gbc);
-        gbc.gridy = 1;
-        BG_SERVER.add(new JScrollPane(textArea2), gbc);
-        gbc.gridy = 2;
-        BG_SERVER.add(new JScrollPane(textArea3), gbc);
-        gbc.gridy = 3;
-        BG_SERVER.add(new JScrollPane(textArea4), gbc);
-        gbc.gridy = 4;
-        BG_SERVER.add(new JScrollPane(textArea5), gbc);
+            gbc.gridx = 1;
+            gbc.weightx = 1.0;
+            gbc.weighty = 1.0;
+            panelPuertos.add(f.scroll, gbc);
+        }
+        panelPuertos.revalidate();
+        panelPuertos.repaint();
     }
 
-    private JTextArea crearTextAreaConScroll() {
+    private static JTextArea crearTextAreaConScroll() {
         JTextArea area = new JTextArea(8, 30);
         area.setEditable(false);
         area.setLineWrap(true);
@@ -0,0 +1,44 @@
+package org.vinni.servidor.gui;
+
+import org.vinni.servidor.core.HistogramaMetrica;
+
+import javax.swing.SwingUtilities;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mide cuánto espera una tarea en la cola del hilo de Swing: cada
+ * {@code servidor.gui.sondaMs} (por defecto 1000) deja una tarea vacía con
+ * {@code invokeLater} y anota, en microsegundos, lo que tardó en correr.
+ * Si la ventana se atasca, las sondas se acumulan y cada una cuenta su espera.
+ */
+public class SondaInterfaz {
+
+    private static final long INTERVALO_MS = Long.getLong("servidor.gui.sondaMs", 1000);
+
+    private final HistogramaMetrica retrasos;
+    private final ScheduledExecutorService programador;
+
+    public SondaInterfaz(HistogramaMetrica retrasos) {
+        this.retrasos = retrasos;
+        this.programador = new ScheduledThreadPoolExecutor(1, tarea -> {
+            Thread hilo = new Thread(tarea, "SondaInterfaz");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    public void iniciar() {
+        programador.scheduleAtFixedRate(this::sondear, INTERVALO_MS, INTERVALO_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void sondear() {
+        long enviada = System.nanoTime();
+        SwingUtilities.invokeLater(() -> retrasos.registrar((System.nanoTime() - enviada) / 1000));
+    }
+
+    public void detener() {
+        programador.shutdownNow();
+    }
+}
@@ -0,0 +1,194 @@
+package org.vinni.servidor.gui;
+
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Lleva líneas de log a áreas de texto sin inundar el hilo de Swing.
+ * Cada área tiene su {@link Salida}: las líneas se acumulan en un anillo acotado
+ * y un único temporizador las pasa a la ventana como mucho
+ * {@code servidor.gui.logsPorSegundo} veces por segundo (por defecto 5), en una
+ * sola edición del documento por área. Cada área guarda a lo sumo
+ * {@code servidor.gui.maxLineas} líneas (por defecto 2000): las más viejas se
+ * recortan en esa misma edición.
+ *
+ * Si entre dos actualizaciones llegan más líneas de las que caben, se descartan
+ * las más viejas sin llegar a mostrarse; descartadas y recortadas se cuentan y
+ * se informan a quien creó la salida. En disco no se pierde nada (ver RegistroPuerto).
+ */
+public class SumideroLog {
+
+    private static final int POR_SEGUNDO = Integer.getInteger("servidor.gui.logsPorSegundo", 5);
+    private static final int MAX_LINEAS = Integer.getInteger("servidor.gui.maxLineas", 2000);
+
+    private final List<Salida> salidas = new CopyOnWriteArrayList<>();
+    private final Timer temporizador;
+    private final int maxLineas;
+
+    public SumideroLog() {
+        this(POR_SEGUNDO, MAX_LINEAS);
+    }
+
+    public SumideroLog(int actualizacionesPorSegundo, int maxLineas) {
+        this.maxLineas = maxLineas;
+        this.temporizador = new Timer(Math.max(1, 1000 / Math.max(1, actualizacionesPorSegundo)), e -> actualizar());
+        this.temporizador.setCoalesce(true);
+    }
+
+    /**
+     * Crea la salida de un área.
+     *
+     * @param alCambiarContadores recibe (en el hilo de Swing) el texto con las líneas
+     *                            descartadas y recortadas cada vez que cambian; puede ser null
+     */
+    public Salida salida(JTextArea area, Consumer<String> alCambiarContadores) {
+        Salida salida = new Salida(area, alCambiarContadores, maxLineas);
+        salidas.add(salida);
+        if (!temporizador.isRunning()) temporizador.start();
+        return salida;
+    }
+
+    /**
+     * Deja de actualizar el área de la salida (cuando desaparece de la ventana).
+     */
+    public void quitar(Salida salida) {
+        salidas.remove(salida);
+    }
+
+    public void detener() {
+        temporizador.stop();
+    }
+
+    /**
+     * Pasa lo pendiente de cada salida a su área. Se llama en el hilo de Swing.
+     */
+    void actualizar() {
+        for (Salida salida : salidas) salida.volcar();
+    }
+
+    /**
+     * Líneas pendientes de un área.
+     */
+    public static final class Salida {
+
+        private final JTextArea area;
+        private final Consumer<String> alCambiarContadores;
+        private final int maxLineas;
+
+        // Anillo de líneas aún no mostradas; se sobrescribe la más vieja
+        private final String[] pendientes;
+        private int inicio;
+        private int cantidad;
+        private long descartadas;
+
+        // Solo desde el hilo de Swing
+        private long recortadas;
+        private long descartadasInformadas;
+        private final StringBuilder lote = new StringBuilder();
+
+        private Salida(JTextArea area, Consumer<String> alCambiarContadores, int maxLineas) {
+            this.area = area;
+            this.alCambiarContadores = alCambiarContadores;
+            this.maxLineas = maxLineas;
+            this.pendientes = new String[maxLineas];
+        }
+
+        /**
+         * Deja la línea para la próxima actualización. No espera al hilo de Swing.
+         */
+        public synchronized void anotar(String linea) {
+            if (cantidad == pendientes.length) {
+                inicio = (inicio + 1) % pendientes.length;
+                cantidad--;
+                descartadas++;
+            }
+            pendientes[(inicio + cantidad) % pendientes.length] = linea;
+            cantidad++;
+        }
+
+        /**
+         * Pasa las líneas pendientes al lote.
+         *
+         * @return las descartadas hasta ahora
+         */
+        private synchronized long tomar() {
+            for (int i = 0; i < cantidad; i++) {
+                int indice = (inicio + i) % pendientes.length;
+                lote.append(pendientes[indice]).append('\n');
+                pendientes[indice] = null;
+            }
+            inicio = 0;
+            cantidad = 0;
+            return descartadas;
+        }
+
+        private void volcar() {
+            long descartadasHastaAhora = tomar();
+            boolean cambiaron = descartadasHastaAhora != descartadasInformadas;
+            descartadasInformadas = descartadasHastaAhora;
+            if (lote.length() > 0) {
+                cambiaron |= anadirRecortando();
+                lote.setLength(0);
+                area.setCaretPosition(area.getDocument().getLength());
+            }
+            if (cambiaron && alCambiarContadores != null) {
+                alCambiarContadores.accept(descartadasInformadas + " descartadas, " + recortadas + " recortadas");
+            }
+        }
+
+        /**
+         * Añade el lote y quita las líneas más viejas que sobren, en una sola edición
+         * del documento: sin recorte es un append; con recorte, un reemplazo del texto
+         * por lo que queda más el lote.
+         *
+         * @return true si hubo que quitar líneas
+         */
+        private boolean anadirRecortando() {
+            int nuevas = 0;
+            for (int i = 0; i < lote.length(); i++) {
+                if (lote.charAt(i) == '\n') nuevas++;
+            }
+            // El texto termina en salto de línea: la última "línea" está vacía
+            int actuales = area.getLineCount() - 1;
+            int sobran = actuales + nuevas - maxLineas;
+            if (sobran <= 0) {
+                area.append(lote.toString());
+                return false;
+            }
+            Document documento = area.getDocument();
+            String texto;
+            if (sobran >= actuales) {
+                // No queda nada de lo que había, y quizá tampoco el principio del lote
+                int desde = 0;
+                for (int i = actuales; i < sobran; i++) desde = lote.indexOf("\n", desde) + 1;
+                texto = lote.substring(desde);
+            } else {
+                try {
+                    int desde = area.getLineStartOffset(sobran);
+                    texto = documento.getText(desde, documento.getLength() - desde) + lote;
+                } catch (BadLocationException e) {
+                    // No ocurre: el desplazamiento sale del propio documento
+                    area.append(lote.toString());
+                    return false;
+                }
+            }
+            area.replaceRange(texto, 0, documento.getLength());
+            recortadas += sobran;
+            return true;
+        }
+
+        public synchronized long getDescartadas() {
+            return descartadas;
+        }
+
+        /** Líneas quitadas del principio del área para no pasar del máximo (hilo de Swing). */
+        public long getRecortadas() {
+            return recortadas;
+        }
+    }
+}
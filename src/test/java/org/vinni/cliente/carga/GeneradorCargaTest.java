@@ -0,0 +1,53 @@
+package org.vinni.cliente.carga;
+
+import junit.framework.TestCase;
+import org.vinni.servidor.core.ModoServidor;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pruebas del generador de carga: el histograma y una ejecución corta contra un
+ * servidor local.
+ */
+public class GeneradorCargaTest extends TestCase {
+
+    public void testPercentilesConTresCifras() {
+        HistogramaLatencias histograma = new HistogramaLatencias();
+        Random azar = new Random(7);
+        long[] valores = new long[100_000];
+        for (int i = 0; i < valores.length; i++) {
+            // De microsegundos a varios segundos
+            valores[i] = (long) Math.exp(azar.nextDouble() * 16);
+            histograma.registrar(valores[i]);
+        }
+        Arrays.sort(valores);
+        assertEquals(valores.length, histograma.getTotal());
+        assertEquals(valores[valores.length - 1], histograma.getMaximo());
+        for (double percentil : new double[]{50, 90, 99, 99.9}) {
+            long exacto = valores[(int) Math.ceil(percentil / 100 * valores.length) - 1];
+            long aproximado = histograma.percentil(percentil);
+            assertTrue(percentil + ": " + aproximado + " < " + exacto, aproximado >= exacto);
+            assertTrue(percentil + ": " + aproximado + " lejos de " + exacto, aproximado - exacto <= exacto / 1000 + 1);
+        }
+    }
+
+    public void testCargaContraServidorLocal() throws Exception {
+        GeneradorCarga.Opciones opciones = new GeneradorCarga.Opciones();
+        opciones.usuarios = 20;
+        opciones.segundos = 3;
+        opciones.calentamiento = 1;
+        opciones.tasa = 5;
+        opciones.tamanoImagen = 4 * 1024;
+        opciones.sesionMedia = 1;
+        opciones.pausaMedia = 50;
+        opciones.probabilidadRafaga = 0.5;
+        opciones.prefijo = "prueba";
+        InformeCarga informe = GeneradorCarga.contraServidorLocal(ModoServidor.HILOS, 2, opciones);
+
+        assertTrue(informe.resumen(), informe.entregas > 0);
+        assertTrue(informe.resumen(), informe.latencias.get("difusion").entregas > 0);
+        assertTrue(informe.resumen(), informe.desconexiones > 0);
+        assertEquals(informe.resumen(), 0, informe.errores);
+    }
+}
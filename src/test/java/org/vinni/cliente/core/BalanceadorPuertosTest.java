@@ -0,0 +1,84 @@
+package org.vinni.cliente.core;
+
+import junit.framework.TestCase;
+import org.vinni.servidor.core.ModoServidor;
+import org.vinni.servidor.core.RegistroPuerto;
+import org.vinni.servidor.core.ServerRuntime;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas del sondeo de carga y de la conexión con paso a otro puerto.
+ */
+public class BalanceadorPuertosTest extends TestCase {
+
+    public void testLeeLaRespuestaDeCarga() {
+        assertEquals(3, BalanceadorPuertos.sesiones("LOAD:3"));
+        assertEquals(-1, BalanceadorPuertos.sesiones("ERROR:Debe identificarse primero con USER:<nombre>"));
+        assertEquals(-1, BalanceadorPuertos.sesiones("LOAD:x"));
+    }
+
+    public void testEligeElMenosCargadoYPasaAOtroSiElPreferidoCae() throws Exception {
+        int ocupado = puertoLibre();
+        int libre = puertoLibre();
+        int cerrado = puertoLibre();
+        Path directorio = Files.createTempDirectory("estado");
+        ServerRuntime runtime = new ServerRuntime(new int[]{ocupado, libre}, ModoServidor.NIO,
+                directorio.resolve("estado_puertos.txt"));
+        runtime.iniciar(ocupado);
+        runtime.iniciar(libre);
+        try (Socket uno = new Socket("localhost", ocupado);
+             Socket dos = new Socket("localhost", ocupado)) {
+            // Cuentan como clientes desde su primer mensaje
+            for (Socket cliente : new Socket[]{uno, dos}) {
+                cliente.getOutputStream().write(("USER:" + cliente.getLocalPort() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            BalanceadorPuertos balanceador = new BalanceadorPuertos("localhost", 1000);
+            for (int i = 0; i < 100 && runtime.getServidor(ocupado).getSesionesActivas() < 2; i++) Thread.sleep(10);
+
+            List<BalanceadorPuertos.Candidato> candidatos = balanceador.sondear(new int[]{ocupado, cerrado, libre});
+            assertEquals(2, candidatos.size());
+            assertEquals(libre, candidatos.get(0).getPuerto());
+            assertTrue(candidatos.get(1).getSesiones() >= 2);
+            // Los sondeos no cuentan como clientes ni como conexiones
+            assertEquals(0, runtime.getServidor(libre).getSesionesActivas());
+            assertEquals(0, runtime.getServidor(libre).getEstadisticas().getConexiones());
+
+            try (ConexionChat conexion = balanceador.conectar(cerrado, new int[]{ocupado, cerrado, libre}, "ana", false, null)) {
+                assertEquals(libre, conexion.getPuerto());
+            }
+        } finally {
+            runtime.apagar();
+            Files.deleteIfExists(directorio.resolve("estado_puertos.txt"));
+            Files.delete(directorio);
+            borrarDatos(ocupado);
+            borrarDatos(libre);
+        }
+    }
+
+    private static void borrarDatos(int puerto) throws Exception {
+        RegistroPuerto.de(puerto).cerrar();
+        Path datos = Paths.get("server_data", "port_" + puerto);
+        if (!Files.exists(datos)) return;
+        try (Stream<Path> archivos = Files.walk(datos)) {
+            for (Path archivo : archivos.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(archivo);
+            }
+        }
+    }
+
+    private static int puertoLibre() throws Exception {
+        try (ServerSocket libre = new ServerSocket(0)) {
+            return libre.getLocalPort();
+        }
+    }
+}
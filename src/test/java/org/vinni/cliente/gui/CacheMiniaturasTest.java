@@ -0,0 +1,46 @@
+package org.vinni.cliente.gui;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Pruebas de la caché de miniaturas.
+ */
+public class CacheMiniaturasTest extends TestCase {
+
+    public void testDesalojaLaMenosUsadaPorBytes() {
+        // Cada miniatura de 10x10 ocupa 400 bytes: caben dos
+        CacheMiniaturas cache = new CacheMiniaturas(800);
+        BufferedImage a = imagen(), b = imagen(), c = imagen();
+        cache.guardar("a", a);
+        cache.guardar("b", b);
+        assertSame(a, cache.buscar("a"));
+        cache.guardar("c", c);
+
+        assertSame(a, cache.buscar("a"));
+        assertNull(cache.buscar("b"));
+        assertSame(c, cache.buscar("c"));
+        assertEquals(2, cache.cantidad());
+        assertEquals(800, cache.getBytes());
+    }
+
+    public void testMiniaturaReducida() throws Exception {
+        Path archivo = Files.createTempFile("imagen", ".png");
+        try {
+            ImageIO.write(new BufferedImage(2000, 1000, BufferedImage.TYPE_INT_RGB), "png", archivo.toFile());
+            BufferedImage miniatura = DecodificadorImagenes.leerReducida(archivo, 250);
+            assertEquals(250, miniatura.getWidth());
+            assertEquals(125, miniatura.getHeight());
+        } finally {
+            Files.delete(archivo);
+        }
+    }
+
+    private static BufferedImage imagen() {
+        return new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB);
+    }
+}
@@ -0,0 +1,46 @@
+package org.vinni.protocolo;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pruebas de los mensajes de la transferencia de archivos por trozos.
+ */
+public class CodecArchivoTest extends TestCase {
+
+    public void testTrozoConservaIdDesplazamientoYDatos() throws Exception {
+        byte[] datos = "abcdef".getBytes(StandardCharsets.US_ASCII);
+        byte[] trozo = CodecArchivo.trozo(-2L, 65536L, datos, 4);
+
+        // El trozo también debe sobrevivir a la línea de texto (Base64)
+        byte[] linea = Trama.de(TipoTrama.ARCH_TROZO, trozo).comoLinea();
+        ByteBuffer contenido = CodecTrama.contenidoDeLinea(TipoTrama.ARCH_TROZO, linea, 0, linea.length - 1);
+
+        assertEquals(-2L, CodecArchivo.idDeTrozo(contenido));
+        assertEquals(65536L, CodecArchivo.desplazamientoDeTrozo(contenido));
+        ByteBuffer vista = CodecArchivo.datosDeTrozo(contenido);
+        assertEquals("abcd", StandardCharsets.US_ASCII.decode(vista).toString());
+    }
+
+    public void testCabeceraConNombreQueContienePuntoYComa() throws Exception {
+        String sha = CodecArchivo.hex(CodecArchivo.nuevoSha256().digest(new byte[0]));
+        InfoArchivo enviada = new InfoArchivo(0xABCDEFL, 1234, sha, null, "foto;1.png");
+        InfoArchivo leida = InfoArchivo.desdeTexto(enviada.aTexto(), false);
+        assertEquals("foto;1.png", leida.getNombre());
+
+        InfoArchivo reenviada = InfoArchivo.desdeTexto(leida.conRemitente("ana").aTexto(), true);
+        assertEquals(0xABCDEFL, reenviada.getId());
+        assertEquals(1234, reenviada.getTamano());
+        assertEquals(sha, reenviada.getSha256());
+        assertEquals("ana", reenviada.getRemitente());
+        assertEquals("foto;1.png", reenviada.getNombre());
+    }
+
+    public void testAckSeLeeDeVuelta() throws Exception {
+        long[] ack = CodecArchivo.leerAck(CodecArchivo.ack(Long.MAX_VALUE, 98304));
+        assertEquals(Long.MAX_VALUE, ack[0]);
+        assertEquals(98304, ack[1]);
+    }
+}
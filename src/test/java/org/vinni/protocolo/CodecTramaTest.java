@@ -0,0 +1,92 @@
+package org.vinni.protocolo;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pruebas de los formatos de texto y binario del protocolo.
+ */
+public class CodecTramaTest extends TestCase {
+
+    public void testReconocePrefijosSobreBytes() {
+        byte[] linea = "USERS+:ana".getBytes(StandardCharsets.UTF_8);
+        assertEquals(TipoTrama.USERS_ALTA, TipoTrama.desdeLinea(linea, 0, linea.length));
+
+        linea = "MSGTO:luis:hola".getBytes(StandardCharsets.UTF_8);
+        assertEquals(TipoTrama.MSGTO, TipoTrama.desdeLinea(linea, 0, linea.length));
+
+        linea = "hola".getBytes(StandardCharsets.UTF_8);
+        assertEquals(TipoTrama.TEXTO, TipoTrama.desdeLinea(linea, 0, linea.length));
+    }
+
+    public void testLineaDeImagenVaEnBase64YSeDecodifica() throws Exception {
+        byte[] imagen = {0, 1, 2, (byte) 0xFF, '\n'};
+        byte[] linea = Trama.de(TipoTrama.IMG, imagen).comoLinea();
+
+        assertEquals("IMG:AAEC/wo=\n", new String(linea, StandardCharsets.US_ASCII));
+        ByteBuffer contenido = CodecTrama.contenidoDeLinea(TipoTrama.IMG, linea, 0, linea.length - 1);
+        byte[] decodificado = new byte[contenido.remaining()];
+        contenido.get(decodificado);
+        assertTrue(Arrays.equals(imagen, decodificado));
+    }
+
+    public void testBase64NoValidoEsErrorDeProtocolo() {
+        byte[] linea = "IMG:%%%".getBytes(StandardCharsets.US_ASCII);
+        try {
+            CodecTrama.contenidoDeLinea(TipoTrama.IMG, linea, 0, linea.length);
+            fail("Se esperaba ProtocolException");
+        } catch (ProtocolException esperada) {
+            assertTrue(esperada.getMessage().contains("IMG:"));
+        }
+    }
+
+    public void testLineaDeTextoNoPuedeRomperElProtocolo() {
+        byte[] linea = Trama.de(TipoTrama.MSG, "a\nb").comoLinea();
+        assertEquals("MSG:a b\n", new String(linea, StandardCharsets.UTF_8));
+    }
+
+    public void testLectorRearmaTramasPartidasEntreLecturas() throws Exception {
+        ByteArrayOutputStream flujo = new ByteArrayOutputStream();
+        flujo.write(Trama.de(TipoTrama.MSG, "hola").comoBinaria());
+        flujo.write(Trama.de(TipoTrama.USERS, "").comoBinaria());
+        flujo.write(Trama.de(TipoTrama.MSGTO, "ana:adiós").comoBinaria());
+        byte[] bytes = flujo.toByteArray();
+
+        final List<String> recibidas = new ArrayList<>();
+        LectorTramas lector = new LectorTramas();
+        for (byte b : bytes) {
+            lector.alimentar(ByteBuffer.wrap(new byte[]{b}), (tipo, contenido) -> {
+                recibidas.add(tipo + "=" + StandardCharsets.UTF_8.decode(contenido));
+                return true;
+            });
+        }
+
+        assertEquals("[MSG=hola, USERS=, MSGTO=ana:adiós]", recibidas.toString());
+        assertFalse(lector.aMedias());
+    }
+
+    public void testEntradaPasaDeTextoABinarioSinPerderBytes() throws Exception {
+        ByteArrayOutputStream flujo = new ByteArrayOutputStream();
+        flujo.write("PROTO:BIN\n".getBytes(StandardCharsets.US_ASCII));
+        flujo.write(Trama.de(TipoTrama.MSG, "hola").comoBinaria());
+        EntradaProtocolo entrada = new EntradaProtocolo(new ByteArrayInputStream(flujo.toByteArray()));
+
+        assertTrue(entrada.siguiente());
+        assertEquals(TipoTrama.PROTO, entrada.getTipo());
+        assertEquals("BIN", entrada.getTexto());
+        entrada.usarBinario();
+
+        assertTrue(entrada.siguiente());
+        assertEquals(TipoTrama.MSG, entrada.getTipo());
+        assertEquals("hola", entrada.getTexto());
+        assertFalse(entrada.siguiente());
+    }
+}
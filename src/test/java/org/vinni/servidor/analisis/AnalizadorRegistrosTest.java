@@ -0,0 +1,80 @@
+package org.vinni.servidor.analisis;
+
+import com.google.gson.Gson;
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pruebas del análisis de registros.
+ */
+public class AnalizadorRegistrosTest extends TestCase {
+
+    private static Path datosDePrueba() throws Exception {
+        Path datos = Files.createTempDirectory("server_data");
+        Path antiguo = Files.createDirectories(datos.resolve("port_12345").resolve("logs"));
+        Files.write(antiguo.resolve("log_20250830.txt"), Arrays.asList(
+                "** sergio se ha conectado (puerto 12345) a las 01:06:07 **",
+                "sergio envió a las 01:06:07 esto : hola",
+                "** sergio se ha desconectado (puerto 12345) a las 01:06:08 **",
+                "** sergio se ha conectado (puerto 12345) a las 01:06:08 **",
+                "** sergio se ha desconectado (puerto 12345) a las 01:06:09 **",
+                "** sergio se ha conectado (puerto 12345) a las 01:06:09 **",
+                "** sergio se ha desconectado (puerto 12345) a las 01:06:10 **",
+                "** sergio se ha conectado (puerto 12345) a las 01:06:12 **",
+                "** sergio se ha desconectado (puerto 12345) a las 01:07:12 **",
+                "** ana se ha conectado (puerto 12345) a las 02:00:00 **"), StandardCharsets.UTF_8);
+        Path actual = Files.createDirectories(datos.resolve("port_12346").resolve("logs"));
+        Files.write(actual.resolve("log_20250831.txt"), Arrays.asList(
+                "[10:00:00.000] Servidor iniciado en puerto 12346",
+                "[10:00:01.250] ** ana se ha conectado (puerto 12346) ** [binario]",
+                "[10:00:02.000] #17560000000000001 ana: hola: qué tal",
+                "[10:00:59.999] #17560000000000002 ana: sigo aquí",
+                "[10:01:00.000] #17560000000000003 ana: otro minuto",
+                "[10:30:01.250] ** ana se ha desconectado (puerto 12346) **"), StandardCharsets.UTF_8);
+        return datos;
+    }
+
+    public void testSesionesRafagasYMensajes() throws Exception {
+        InformeRegistros informe = new AnalizadorRegistros(5000, 3).analizar(datosDePrueba());
+
+        assertEquals(2, informe.archivos);
+        assertEquals(16, informe.lineas);
+        InformeRegistros.Usuario sergio = informe.puertos.get(12345).usuarios.get("sergio");
+        assertEquals(4, sergio.sesiones);
+        assertEquals(0, sergio.sinCierre);
+        assertEquals(63000, sergio.duracionTotalMs);
+        assertEquals(60000, sergio.duracionMaximaMs);
+        assertEquals(1, sergio.mensajes);
+        assertEquals(1, informe.puertos.get(12345).usuarios.get("ana").sinCierre);
+
+        InformeRegistros.Usuario ana = informe.puertos.get(12346).usuarios.get("ana");
+        assertEquals(1, ana.sesiones);
+        assertEquals(30 * 60000, ana.duracionTotalMs);
+        assertEquals(3, ana.mensajes);
+
+        assertEquals(1, informe.rafagas.size());
+        InformeRegistros.Rafaga rafaga = informe.rafagas.get(0);
+        assertEquals("sergio", rafaga.usuario);
+        assertEquals(3, rafaga.reconexiones);
+        assertEquals("2025-08-30T01:06:07", rafaga.inicio);
+        assertEquals("2025-08-30T01:07:12", rafaga.fin);
+
+        assertEquals(Long.valueOf(1), informe.mensajesPorMinuto.get("2025-08-30T01:06"));
+        assertEquals(Long.valueOf(2), informe.mensajesPorMinuto.get("2025-08-31T10:00"));
+        assertEquals(Long.valueOf(1), informe.mensajesPorMinuto.get("2025-08-31T10:01"));
+    }
+
+    public void testPartirLosArchivosNoCambiaElResultado() throws Exception {
+        Path datos = datosDePrueba();
+        InformeRegistros entero = new AnalizadorRegistros(5000, 3).analizar(datos);
+        InformeRegistros partido = new AnalizadorRegistros(5000, 3, 64).analizar(datos, new ForkJoinPool(4));
+        entero.milisegundos = partido.milisegundos = 0;
+        Gson gson = new Gson();
+        assertEquals(gson.toJson(entero), gson.toJson(partido));
+    }
+}
@@ -0,0 +1,148 @@
+package org.vinni.servidor.analisis;
+
+import com.google.gson.Gson;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Pruebas del registro binario: conversión, lectura por horas y vuelta al texto.
+ */
+public class RegistroBinarioTest extends TestCase {
+
+    private static final ZoneId ZONA = ZoneId.of("America/Bogota");
+
+    private static final List<String> LINEAS = Arrays.asList(
+            "** sergio se ha conectado (puerto 12345) a las 01:06:07 **",
+            "sergio envió a las 01:06:07 esto : hola",
+            "** sergio se ha desconectado a las 01:06:08 **",
+            "sergio [01:06:09]: ¿qué tal?",
+            "línea sin formato",
+            "[10:00:00.000] Servidor iniciado en puerto 12346",
+            "[10:00:01.250] ** ana se ha conectado (puerto 12346) ** [binario]",
+            "[10:00:02.000] #17560000000000001 ana: hola: qué tal",
+            "[10:30:01.250] ** ana se ha desconectado (puerto 12346) **",
+            "[10:30:01.25] ** roto",
+            "** ana se ha ido **");
+
+    public void testVuelveAlMismoTexto() throws Exception {
+        Path directorio = Files.createTempDirectory("rgb");
+        Path texto = directorio.resolve("log_20250830.txt");
+        Files.write(texto, LINEAS, StandardCharsets.UTF_8);
+        Path binario = directorio.resolve("log_20250830.rgb");
+        assertEquals(LINEAS.size(), ConversorRegistros.convertir(texto, binario, ZONA));
+
+        try (LectorRegistroBinario lector = LectorRegistroBinario.abrir(binario)) {
+            assertEquals(ZONA, lector.getZona());
+            assertEquals(Arrays.asList("sergio", "ana"), lector.getUsuarios());
+            StringWriter salida = new StringWriter();
+            lector.aTexto(salida);
+            assertEquals(String.join("\n", LINEAS) + "\n", salida.toString());
+
+            List<EventoRegistro> eventos = new ArrayList<>();
+            lector.leer(eventos::add);
+            assertEquals(EventoRegistro.Tipo.CONEXION, eventos.get(0).getTipo());
+            assertEquals(12345, eventos.get(0).getPuerto());
+            assertEquals(EventoRegistro.Forma.SIN_PUERTO, eventos.get(2).getForma());
+            assertEquals("¿qué tal?", eventos.get(3).getTexto());
+            assertEquals(EventoRegistro.Tipo.OTRO, eventos.get(4).getTipo());
+            assertTrue(eventos.get(6).isBinario());
+            assertEquals(17560000000000001L, eventos.get(7).getSecuencia());
+            assertEquals(EventoRegistro.Tipo.OTRO, eventos.get(10).getTipo());
+        }
+    }
+
+    public void testLeeSoloLosBloquesDeLaHoraPedida() throws Exception {
+        Path binario = Files.createTempDirectory("rgb").resolve("log_20250831.rgb");
+        LocalDate dia = LocalDate.of(2025, 8, 31);
+        long inicio = dia.atStartOfDay(ZONA).toInstant().toEpochMilli();
+        try (EscritorRegistroBinario escritor = new EscritorRegistroBinario(binario, ZONA, 256)) {
+            for (int minuto = 0; minuto < 600; minuto++) {
+                String linea = String.format("[%02d:%02d:00.000] #%d u%d: mensaje %d", minuto / 60, minuto % 60, minuto, minuto % 7, minuto);
+                escritor.agregar(EventoRegistro.deLinea(linea, dia, ZONA, inicio));
+            }
+        }
+        try (LectorRegistroBinario lector = LectorRegistroBinario.abrir(binario)) {
+            assertTrue(lector.getBloques() > 10);
+            assertEquals(600, lector.getRegistros());
+            List<EventoRegistro> eventos = new ArrayList<>();
+            lector.leer(inicio + 120 * 60000L, inicio + 129 * 60000L, eventos::add);
+            assertEquals(10, eventos.size());
+            assertEquals("[02:00:00.000] #120 u1: mensaje 120", eventos.get(0).aTexto(ZONA));
+        }
+    }
+
+    public void testElAnalisisDelBinarioEsElMismo() throws Exception {
+        Path datos = Files.createTempDirectory("server_data");
+        Path logs = Files.createDirectories(datos.resolve("port_12345").resolve("logs"));
+        Files.write(logs.resolve("log_20250830.txt"), LINEAS, StandardCharsets.UTF_8);
+        InformeRegistros texto = new AnalizadorRegistros(5000, 3).analizar(datos);
+
+        ConversorRegistros.convertirTodos(datos, ZoneId.systemDefault());
+        Files.delete(logs.resolve("log_20250830.txt"));
+        InformeRegistros binario = new AnalizadorRegistros(5000, 3).analizar(datos);
+
+        assertEquals(2, texto.puertos.get(12345).usuarios.size());
+        assertEquals(2, texto.puertos.get(12345).usuarios.get("sergio").mensajes);
+        texto.bytes = binario.bytes = texto.milisegundos = binario.milisegundos = 0;
+        Gson gson = new Gson();
+        assertEquals(gson.toJson(texto), gson.toJson(binario));
+    }
+
+    public void testUnBloqueDanadoSeInformaComoIOException() throws Exception {
+        Path directorio = Files.createTempDirectory("rgb");
+        // Usuario 5 en un archivo sin usuarios, y un registro cortado tras la cabecera
+        Path usuarioInexistente = escribirConBloque(directorio.resolve("log_20250901.rgb"), new byte[]{0, 0, 5}, 1);
+        Path cortado = escribirConBloque(directorio.resolve("log_20250902.rgb"), new byte[]{0}, 1);
+        for (Path archivo : new Path[]{usuarioInexistente, cortado}) {
+            try (LectorRegistroBinario lector = LectorRegistroBinario.abrir(archivo)) {
+                lector.leer(evento -> fail("no debería entregar nada"));
+                fail("se esperaba IOException con " + archivo.getFileName());
+            } catch (IOException esperada) {
+                assertTrue(esperada.getMessage().startsWith("Bloque dañado"));
+            }
+        }
+    }
+
+    /**
+     * Archivo con el formato de {@link EscritorRegistroBinario}, un solo bloque con esos bytes y sin usuarios.
+     */
+    private static Path escribirConBloque(Path ruta, byte[] bloque, int registros) throws IOException {
+        Deflater deflater = new Deflater();
+        deflater.setInput(bloque);
+        deflater.finish();
+        byte[] comprimido = new byte[256];
+        int largo = deflater.deflate(comprimido);
+        deflater.end();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream salida = new DataOutputStream(bytes)) {
+            salida.writeInt(EscritorRegistroBinario.MAGIA);
+            salida.write(comprimido, 0, largo);
+            salida.writeUTF(ZONA.getId());
+            salida.writeInt(0);
+            salida.writeInt(1);
+            salida.writeLong(4);
+            salida.writeInt(largo);
+            salida.writeInt(bloque.length);
+            salida.writeInt(registros);
+            salida.writeLong(0);
+            salida.writeLong(0);
+            salida.writeLong(4 + largo);
+            salida.writeInt(EscritorRegistroBinario.MAGIA);
+        }
+        Files.write(ruta, bytes.toByteArray());
+        return ruta;
+    }
+}
@@ -0,0 +1,101 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+import org.vinni.protocolo.CodecArchivo;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas del almacén direccionado por contenido.
+ */
+public class AlmacenContenidoTest extends TestCase {
+
+    private Path directorio;
+
+    @Override
+    protected void setUp() throws Exception {
+        directorio = Files.createTempDirectory("contenido");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        try (Stream<Path> archivos = Files.list(directorio)) {
+            for (Path archivo : (Iterable<Path>) archivos::iterator) Files.delete(archivo);
+        }
+        Files.delete(directorio);
+    }
+
+    public void testDuplicadoNoSeGuardaDosVeces() throws Exception {
+        AlmacenContenido almacen = new AlmacenContenido(directorio, 1000);
+        String sha = sha(100, (byte) 1);
+
+        assertNull(almacen.buscar(sha, 100));
+        Path guardado = almacen.guardar(temporal(100, (byte) 1), sha, 100);
+        assertEquals(guardado, almacen.buscar(sha, 100));
+        assertEquals(guardado, almacen.guardar(temporal(100, (byte) 1), sha, 100));
+
+        assertEquals(1, almacen.getAciertos());
+        assertEquals(1, almacen.getFallos());
+        assertEquals(1, almacen.getCantidad());
+    }
+
+    public void testDesalojaElMenosUsado() throws Exception {
+        AlmacenContenido almacen = new AlmacenContenido(directorio, 250);
+        String a = sha(100, (byte) 1), b = sha(100, (byte) 2), c = sha(100, (byte) 3);
+        almacen.guardar(temporal(100, (byte) 1), a, 100);
+        almacen.guardar(temporal(100, (byte) 2), b, 100);
+        almacen.buscar(a, 100);
+        almacen.guardar(temporal(100, (byte) 3), c, 100);
+
+        assertNotNull(almacen.buscar(a, 100));
+        assertNull(almacen.buscar(b, 100));
+        assertNotNull(almacen.buscar(c, 100));
+        assertEquals(1, almacen.getDesalojos());
+        assertEquals(200, almacen.getBytes());
+    }
+
+    public void testNoDesalojaLoQueTieneReenviosPendientes() throws Exception {
+        AlmacenContenido almacen = new AlmacenContenido(directorio, 250);
+        String a = sha(100, (byte) 1), b = sha(100, (byte) 2), c = sha(100, (byte) 3);
+        almacen.guardar(temporal(100, (byte) 1), a, 100);
+        assertTrue(almacen.fijar(a));
+        almacen.guardar(temporal(100, (byte) 2), b, 100);
+        almacen.guardar(temporal(100, (byte) 3), c, 100);
+
+        // a es el menos usado, pero está fijado: sale b en su lugar
+        assertNotNull(almacen.buscar(a, 100));
+        assertNull(almacen.buscar(b, 100));
+        assertFalse("lo desalojado ya no se puede fijar", almacen.fijar(b));
+
+        // Con todo lo anterior fijado, el recién guardado se queda aunque se pase del límite
+        almacen.guardar(temporal(100, (byte) 2), b, 100);
+        assertNull(almacen.buscar(c, 100));
+        assertTrue(almacen.fijar(b));
+        almacen.guardar(temporal(100, (byte) 3), c, 100);
+        assertEquals(300, almacen.getBytes());
+
+        almacen.soltar(a);
+        almacen.soltar(a);
+        assertEquals(200, almacen.getBytes());
+        assertNotNull(almacen.buscar(b, 100));
+    }
+
+    private Path temporal(int tamano, byte valor) throws Exception {
+        Path archivo = Files.createTempFile(directorio, "subida", ".part");
+        Files.write(archivo, datos(tamano, valor));
+        return archivo;
+    }
+
+    private static String sha(int tamano, byte valor) {
+        return CodecArchivo.hex(CodecArchivo.nuevoSha256().digest(datos(tamano, valor)));
+    }
+
+    private static byte[] datos(int tamano, byte valor) {
+        byte[] datos = new byte[tamano];
+        Arrays.fill(datos, valor);
+        return datos;
+    }
+}
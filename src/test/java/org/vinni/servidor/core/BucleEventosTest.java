@@ -0,0 +1,196 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Random;
+
+/**
+ * Pruebas del motor NIO sobre loopback: aceptar, leer, enrutar, escribir y cerrar,
+ * también con clientes que mandan basura.
+ */
+public class BucleEventosTest extends TestCase {
+
+    private int puerto;
+    private GrupoEventosNio grupo;
+    private ServidorPuerto servidor;
+
+    @Override
+    protected void setUp() throws Exception {
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        grupo = new GrupoEventosNio(2);
+        servidor = new ServidorPuerto(puerto, new ObservadorServidor() {}, grupo);
+        servidor.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        servidor.detener();
+        grupo.detener();
+        ServerRuntimeTest.borrarDatosDelPuerto(puerto);
+    }
+
+    public void testAceptaLeeEnrutaEscribeYCierra() throws Exception {
+        Cliente ana = conectar("ana");
+        try (Cliente bob = conectar("bob")) {
+            try {
+                ana.esperar("USERS+:bob");
+
+                // Una línea partida entre dos escrituras se rearma en el servidor
+                ana.escribir("MSG:ho");
+                Thread.sleep(50);
+                ana.escribir("la\n");
+                assertEquals("MSG:ana: hola", bob.esperar("MSG:"));
+
+                ana.escribir("MSGTO:bob:solo para ti\n");
+                assertEquals("MSGTO:ana:solo para ti", bob.esperar("MSGTO:"));
+
+                // Más de lo que cabe en el socket: el resto sale con OP_WRITE
+                byte[] imagen = new byte[1024 * 1024];
+                new Random(3).nextBytes(imagen);
+                ana.escribir("IMG:" + Base64.getEncoder().encodeToString(imagen) + "\n");
+                String linea = bob.esperar("IMG:");
+                assertEquals(imagen.length, Base64.getDecoder().decode(linea.substring(4)).length);
+            } finally {
+                ana.close();
+            }
+            assertEquals("USERS-:ana", bob.esperar("USERS-:"));
+            esperarSesiones(1);
+        }
+        esperarSesiones(0);
+    }
+
+    public void testLineaMalFormadaCierraSoloEsaConexion() throws Exception {
+        try (Cliente bob = conectar("bob"); Cliente intruso = conectar("intruso")) {
+            bob.esperar("USERS+:intruso");
+            intruso.escribir("IMG:%%%\n");
+            assertTrue(intruso.cerradaPorElServidor());
+            assertEquals("USERS-:intruso", bob.esperar("USERS-:"));
+
+            // El bucle sigue atendiendo a los demás
+            assertTrue(servidor.comprobarVida().get());
+            try (Cliente carla = conectar("carla")) {
+                bob.esperar("USERS+:carla");
+                carla.escribir("MSG:sigo aquí\n");
+                assertEquals("MSG:carla: sigo aquí", bob.esperar("MSG:"));
+            }
+        }
+    }
+
+    public void testTramaBinariaNoValidaCierraSoloEsaConexion() throws Exception {
+        try (Cliente bob = conectar("bob"); Cliente dani = new Cliente("dani;proto=bin")) {
+            assertEquals("PROTO:BIN", dani.esperar("PROTO:"));
+            bob.esperar("USERS+:dani");
+            // Tipo de trama que no existe
+            DataOutputStream salida = new DataOutputStream(dani.salida);
+            salida.writeByte(31);
+            salida.writeInt(3);
+            salida.write(new byte[]{1, 2, 3});
+            salida.flush();
+            assertTrue(dani.cerradaPorElServidor());
+            assertEquals("USERS-:dani", bob.esperar("USERS-:"));
+
+            bob.escribir("USERS\n");
+            assertEquals("USERS:bob", bob.esperar("USERS:"));
+            assertTrue(servidor.comprobarVida().get());
+        }
+    }
+
+    public void testPrivadoADesconectadoLlegaAlIdentificarse() throws Exception {
+        try (Cliente ana = conectar("ana")) {
+            ana.escribir("MSGTO:zoe:te espero\n");
+            assertTrue(ana.esperar("El usuario zoe").contains("recibirá el mensaje cuando vuelva"));
+            assertTrue(servidor.getBuzones().getBytesPendientes("zoe") > 0);
+
+            try (Cliente zoe = conectar("zoe")) {
+                assertEquals("MSGTO:ana:te espero", zoe.esperar("MSGTO:"));
+                // Y lo siguiente ya va en vivo
+                ana.escribir("MSGTO:zoe:ya estás\n");
+                assertEquals("MSGTO:ana:ya estás", zoe.esperar("MSGTO:"));
+            }
+        }
+    }
+
+    /**
+     * Cliente de texto ya identificado (recibió la lista de usuarios).
+     */
+    private Cliente conectar(String usuario) throws IOException {
+        Cliente cliente = new Cliente(usuario);
+        cliente.esperar("USERS:");
+        return cliente;
+    }
+
+    private void esperarSesiones(int sesiones) throws InterruptedException {
+        for (int i = 0; i < 200 && servidor.getSesionesActivas() != sesiones; i++) Thread.sleep(10);
+        assertEquals(sesiones, servidor.getSesionesActivas());
+    }
+
+    /**
+     * Cliente de texto mínimo; el saludo USER: va al conectar.
+     */
+    private final class Cliente implements AutoCloseable {
+
+        final Socket socket;
+        final OutputStream salida;
+        final InputStream entrada;
+        final BufferedReader lector;
+
+        Cliente(String saludo) throws IOException {
+            socket = new Socket("localhost", puerto);
+            socket.setSoTimeout(5000);
+            salida = socket.getOutputStream();
+            entrada = socket.getInputStream();
+            lector = new BufferedReader(new InputStreamReader(entrada, StandardCharsets.UTF_8));
+            escribir("USER:" + saludo + "\n");
+        }
+
+        void escribir(String texto) throws IOException {
+            salida.write(texto.getBytes(StandardCharsets.UTF_8));
+            salida.flush();
+        }
+
+        /**
+         * Primera línea que empieza con el prefijo (las demás se saltan).
+         */
+        String esperar(String prefijo) throws IOException {
+            String linea;
+            while ((linea = lector.readLine()) != null) {
+                if (linea.startsWith(prefijo)) return linea;
+            }
+            throw new IOException("Conexión cerrada esperando " + prefijo);
+        }
+
+        /**
+         * Lee (y descarta) hasta que el servidor cierre el socket.
+         */
+        boolean cerradaPorElServidor() throws IOException {
+            byte[] basura = new byte[4096];
+            try {
+                while (entrada.read(basura) >= 0) {
+                    // sigue
+                }
+                return true;
+            } catch (SocketException e) {
+                // Reinicio de la conexión: también es un cierre del servidor
+                return true;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
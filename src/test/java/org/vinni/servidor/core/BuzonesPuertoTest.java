@@ -0,0 +1,163 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pruebas de los buzones de usuarios desconectados.
+ */
+public class BuzonesPuertoTest extends TestCase {
+
+    /**
+     * Canal que acepta a lo sumo {@code porEscritura} bytes cada vez, como un socket lleno.
+     */
+    private static final class CanalLento implements WritableByteChannel {
+        final ByteArrayOutputStream escrito = new ByteArrayOutputStream();
+        final int porEscritura;
+
+        CanalLento(int porEscritura) {
+            this.porEscritura = porEscritura;
+        }
+
+        @Override
+        public int write(ByteBuffer origen) {
+            int n = Math.min(porEscritura, origen.remaining());
+            for (int i = 0; i < n; i++) escrito.write(origen.get());
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+
+        String[] lineas() {
+            return new String(escrito.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        }
+    }
+
+    public void testEntregaPorLotesYCompactaLosSegmentos() throws Exception {
+        Path directorio = Files.createTempDirectory("buzones");
+        BuzonesPuerto buzones = new BuzonesPuerto(directorio, 4096, 1 << 20);
+        for (int i = 0; i < 5000; i++) assertTrue(buzones.guardar("luis", ("ana:mensaje " + i).getBytes(StandardCharsets.UTF_8)));
+        Path carpeta = directorio.resolve(BuzonesPuerto.nombreDirectorio("luis"));
+        assertTrue(Files.list(carpeta).count() > 10);
+
+        BuzonesPuerto.Buzon buzon = buzones.pendiente("luis");
+        assertNotNull(buzon);
+        RelevoBuzon relevo = new RelevoBuzon(buzon, false);
+        CanalLento canal = new CanalLento(1000);
+        int vueltas = 0;
+        while (relevo.escribirTrozo(canal) != Relevo.Avance.TERMINADO) vueltas++;
+        assertTrue("se entregó en varios lotes", vueltas > 2);
+
+        String[] lineas = canal.lineas();
+        assertEquals(5000, lineas.length);
+        assertEquals("MSGTO:ana:mensaje 0", lineas[0]);
+        assertEquals("MSGTO:ana:mensaje 4999", lineas[4999]);
+        // Todo entregado: no queda nada en disco
+        assertFalse(Files.exists(carpeta));
+        assertNull(buzones.pendiente("luis"));
+        Files.delete(directorio);
+    }
+
+    public void testUnaEntregaCortadaSigueDondeQuedo() throws Exception {
+        Path directorio = Files.createTempDirectory("buzones");
+        BuzonesPuerto buzones = new BuzonesPuerto(directorio, 4096, 1 << 20);
+        for (int i = 0; i < 20000; i++) buzones.guardar("luis", ("ana:" + i).getBytes(StandardCharsets.UTF_8));
+
+        // Un solo lote confirmado y se corta la conexión
+        RelevoBuzon relevo = new RelevoBuzon(buzones.pendiente("luis"), false);
+        CanalLento canal = new CanalLento(Integer.MAX_VALUE);
+        assertEquals(Relevo.Avance.TROZO, relevo.escribirTrozo(canal));
+        relevo.cerrar();
+        int primeros = canal.lineas().length;
+
+        // Otro proceso lee el índice del disco y entrega el resto, sin repetir
+        BuzonesPuerto reabiertos = new BuzonesPuerto(directorio, 4096, 1 << 20);
+        RelevoBuzon resto = new RelevoBuzon(reabiertos.pendiente("luis"), false);
+        CanalLento otroCanal = new CanalLento(Integer.MAX_VALUE);
+        while (resto.escribirTrozo(otroCanal) != Relevo.Avance.TERMINADO) {}
+        String[] lineas = otroCanal.lineas();
+        assertEquals(20000, primeros + lineas.length);
+        assertEquals("MSGTO:ana:" + primeros, lineas[0]);
+        assertEquals(0, reabiertos.getBytesPendientes("luis"));
+        Files.delete(directorio);
+    }
+
+    public void testLosEncargosSeHacenEnOrdenEnElEscritor() throws Exception {
+        Path directorio = Files.createTempDirectory("buzones");
+        BuzonesPuerto buzones = new BuzonesPuerto(directorio, 4096, 1 << 20, "EscritorPrueba");
+        List<Integer> hechos = new CopyOnWriteArrayList<>();
+        Set<String> hilos = ConcurrentHashMap.newKeySet();
+        CountDownLatch fin = new CountDownLatch(1);
+        for (int i = 0; i < 1000; i++) {
+            int n = i;
+            assertTrue(buzones.encargar(() -> {
+                hechos.add(n);
+                hilos.add(Thread.currentThread().getName());
+            }));
+        }
+        assertTrue(buzones.encargar(fin::countDown));
+        assertTrue(fin.await(5, TimeUnit.SECONDS));
+
+        assertEquals(1000, hechos.size());
+        for (int i = 0; i < 1000; i++) assertEquals(i, (int) hechos.get(i));
+        assertEquals(Collections.singleton("EscritorPrueba"), hilos);
+        Files.delete(directorio);
+    }
+
+    public void testRechazaCuandoElBuzonEstaLleno() throws Exception {
+        Path directorio = Files.createTempDirectory("buzones");
+        BuzonesPuerto buzones = new BuzonesPuerto(directorio, 4096, 100);
+        assertTrue(buzones.guardar("luis", new byte[60]));
+        assertFalse(buzones.guardar("luis", new byte[60]));
+        assertEquals(64, buzones.getBytesPendientes("luis"));
+
+        RelevoBuzon relevo = new RelevoBuzon(buzones.pendiente("luis"), true);
+        while (relevo.escribirTrozo(new CanalLento(Integer.MAX_VALUE)) != Relevo.Avance.TERMINADO) {}
+        assertTrue(buzones.guardar("luis", new byte[60]));
+        assertEquals(64, buzones.getBytesPendientes("luis"));
+    }
+
+    public void testElPuertoTieneTopeDeBuzonesYDeBytes() throws Exception {
+        Path directorio = Files.createTempDirectory("buzones");
+        BuzonesPuerto buzones = new BuzonesPuerto(directorio, 4096, 1000, 200, 2, "EscritorPrueba");
+        assertTrue(buzones.guardar("luis", new byte[60]));
+        assertTrue(buzones.guardar("eva", new byte[60]));
+        // Un nombre más (una errata, o uno inventado) ya no abre buzón
+        assertFalse(buzones.guardar("zoe", new byte[10]));
+        assertEquals(0, buzones.getBytesPendientes("zoe"));
+        // Y entre todos no pasan del tope del puerto
+        assertTrue(buzones.guardar("luis", new byte[60]));
+        assertFalse(buzones.guardar("eva", new byte[60]));
+        assertEquals(192, buzones.getBytesTotales());
+
+        // Entregado un buzón, su sitio queda libre
+        RelevoBuzon relevo = new RelevoBuzon(buzones.pendiente("eva"), true);
+        while (relevo.escribirTrozo(new CanalLento(Integer.MAX_VALUE)) != Relevo.Avance.TERMINADO) {}
+        assertEquals(128, buzones.getBytesTotales());
+        assertTrue(buzones.guardar("zoe", new byte[10]));
+
+        // Otro proceso cuenta lo que quedó en disco
+        BuzonesPuerto reabiertos = new BuzonesPuerto(directorio, 4096, 1000, 200, 2, "EscritorPrueba");
+        assertEquals(142, reabiertos.getBytesTotales());
+        assertFalse(reabiertos.guardar("eva", new byte[10]));
+    }
+}
@@ -0,0 +1,176 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * Pruebas de la cola de salida acotada de una sesión.
+ */
+public class ColaSalidaTest extends TestCase {
+
+    public void testDescartaAlLlenarseYRespetaLasMarcas() {
+        ColaSalida cola = new ColaSalida(10, 6, 2, 10_000);
+
+        assertTrue(cola.ofrecer(new byte[4]));
+        assertFalse(cola.sobreMarcaAlta());
+        assertTrue(cola.ofrecer(new byte[4]));
+        assertTrue(cola.sobreMarcaAlta());
+        assertFalse(cola.ofrecer(new byte[4]));
+        assertEquals(8, cola.getBytes());
+        assertEquals(2, cola.getTramas());
+
+        cola.retirarPrimera();
+        assertFalse(cola.bajoMarcaBaja());
+        cola.retirarPrimera();
+        assertTrue(cola.bajoMarcaBaja());
+        assertNull(cola.primera());
+    }
+
+    public void testTramaMayorQueLaCapacidadEntraConLaColaVacia() {
+        ColaSalida cola = new ColaSalida(10, 6, 2, 10_000);
+
+        assertTrue(cola.ofrecer(new byte[50]));
+        assertFalse(cola.ofrecer(new byte[1]));
+    }
+
+    public void testPlazoDeClienteLento() throws InterruptedException {
+        ColaSalida cola = new ColaSalida(4, 4, 0, 20);
+        cola.ofrecer(new byte[4]);
+
+        assertFalse(cola.ofrecer(new byte[1]));
+        assertFalse(cola.excedioPlazo());
+        Thread.sleep(40);
+        assertTrue(cola.excedioPlazo());
+
+        cola.retirarPrimera();
+        assertFalse(cola.excedioPlazo());
+    }
+
+    public void testElPlazoCorreDesdeLaMarcaAlta() throws InterruptedException {
+        ColaSalida cola = new ColaSalida(100, 50, 10, 20);
+        assertEquals(-1, cola.plazoRestanteNanos());
+
+        // Por encima de la marca alta, aunque nada se haya descartado
+        assertTrue(cola.ofrecer(new byte[60]));
+        assertTrue(cola.plazoRestanteNanos() > 0);
+        Thread.sleep(40);
+        assertTrue(cola.excedioPlazo());
+        assertEquals(0, cola.plazoRestanteNanos());
+    }
+
+    /** Sesión sin E/S que cuenta las veces que se le cambia la lectura. */
+    private static final class SesionPrueba extends Sesion {
+        int actualizaciones;
+        volatile boolean cerrada;
+
+        SesionPrueba(ColaSalida cola) {
+            super(cola, null);
+        }
+
+        @Override public String getDireccion() { return "prueba"; }
+        @Override public void cerrar() {
+            cerrada = true;
+            soltarEmisoresAlCerrar();
+        }
+        @Override protected void notificarPendientes() {}
+        @Override protected void actualizarLectura() { actualizaciones++; }
+    }
+
+    public void testFrenaAQuienLlenaLaColaYNoAlDestinatario() {
+        SesionPrueba ana = new SesionPrueba(new ColaSalida());
+        SesionPrueba luis = new SesionPrueba(new ColaSalida(100, 50, 10, 10_000));
+        SesionPrueba eva = new SesionPrueba(new ColaSalida(100, 50, 10, 10_000));
+
+        // Sin sesión de origen (un hilo de fondo) no hay a quién frenar
+        luis.enviar(new byte[60]);
+        assertFalse(ana.isFrenada());
+        luis.getCola().retirarPrimera();
+
+        Sesion.atendiendo(ana);
+        try {
+            luis.enviar(new byte[60]);
+            eva.enviar(new byte[60]);
+            eva.enviar(new byte[20]);
+        } finally {
+            Sesion.atendiendo(null);
+        }
+        assertTrue(ana.isFrenada());
+        assertFalse(luis.isFrenada());
+        assertFalse(eva.isFrenada());
+        assertEquals(1, ana.actualizaciones);
+
+        // Una cola que baja no basta si otra sigue llena
+        luis.getCola().retirarPrimera();
+        luis.soltarEmisores();
+        assertTrue(ana.isFrenada());
+
+        // Un destinatario que se cierra suelta a quien frenaba
+        eva.cerrar();
+        assertFalse(ana.isFrenada());
+        assertEquals(2, ana.actualizaciones);
+    }
+
+    public void testUnDestinatarioAtascadoSeDesconectaSinEsperarOtroEnvio() throws InterruptedException {
+        SesionPrueba ana = new SesionPrueba(new ColaSalida());
+        SesionPrueba luis = new SesionPrueba(new ColaSalida(100, 50, 10, 30));
+
+        Sesion.atendiendo(ana);
+        try {
+            luis.enviar(new byte[60]);
+        } finally {
+            Sesion.atendiendo(null);
+        }
+        assertTrue(ana.isFrenada());
+
+        // Nadie más envía nada: el vigía agota el plazo, expulsa a luis y suelta a ana
+        for (int i = 0; i < 200 && !luis.cerrada; i++) Thread.sleep(10);
+        assertTrue(luis.cerrada);
+        assertEquals("cliente lento, cola de salida llena", luis.getMotivoCierre());
+        assertFalse(ana.isFrenada());
+        assertFalse(ana.cerrada);
+    }
+
+    public void testUnLoteSaleEnUnaEscrituraYLaTramaAMediasQuedaEnCabeza() throws Exception {
+        Sesion sesion = new Sesion(new ColaSalida(), null) {
+            @Override public String getDireccion() { return "prueba"; }
+            @Override public void cerrar() {}
+            @Override protected void notificarPendientes() {}
+            @Override protected void actualizarLectura() {}
+        };
+        for (String linea : new String[]{"uno", "dos", "tres"}) sesion.enviarLinea(linea);
+        // Canal no bloqueante que admite 6 bytes por escritura
+        ByteArrayOutputStream escrito = new ByteArrayOutputStream();
+        int[] llamadas = {0};
+        GatheringByteChannel canal = new GatheringByteChannel() {
+            @Override
+            public long write(ByteBuffer[] buffers, int desde, int cantidad) {
+                llamadas[0]++;
+                int admitidos = 0;
+                for (int i = desde; i < desde + cantidad && admitidos < 6; i++) {
+                    while (buffers[i].hasRemaining() && admitidos < 6) {
+                        escrito.write(buffers[i].get());
+                        admitidos++;
+                    }
+                }
+                return admitidos;
+            }
+            @Override public long write(ByteBuffer[] buffers) { return write(buffers, 0, buffers.length); }
+            @Override public int write(ByteBuffer buffer) { return (int) write(new ByteBuffer[]{buffer}); }
+            @Override public boolean isOpen() { return true; }
+            @Override public void close() {}
+        };
+        ByteBuffer[] lote = new ByteBuffer[Sesion.TRAMAS_POR_ESCRITURA];
+
+        assertFalse(sesion.escribirLote(canal, lote));
+        assertEquals(1, llamadas[0]);
+        assertEquals(2, sesion.getCola().getTramas());
+        assertFalse(sesion.escribirLote(canal, lote));
+        assertTrue(sesion.escribirLote(canal, lote));
+        assertEquals(0, sesion.getCola().getTramas());
+        assertEquals("uno\ndos\ntres\n", escrito.toString("UTF-8"));
+        assertNull(lote[0]);
+    }
+}
@@ -0,0 +1,32 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+/**
+ * Pruebas de la lectura de los puertos configurados.
+ */
+public class ConfigPuertosTest extends TestCase {
+
+    public void testLeePuertosYAceptores() {
+        Map<Integer, Integer> puertos = ConfigPuertos.desdeTexto(" 12345, 12346:4 ,,70000, 12347:0, x, 12348 ");
+        assertEquals(3, puertos.size());
+        assertEquals(ConfigPuertos.aceptoresPorDefecto(), (int) puertos.get(12345));
+        assertEquals(4, (int) puertos.get(12346));
+        assertTrue(puertos.containsKey(12348));
+        assertEquals(Integer.valueOf(12346), puertos.keySet().toArray()[1]);
+    }
+
+    public void testValidaRangos() {
+        ConfigPuertos.validar(1, 64);
+        try {
+            ConfigPuertos.validar(0, 1);
+            fail();
+        } catch (IllegalArgumentException esperado) {}
+        try {
+            ConfigPuertos.validar(8080, 65);
+            fail();
+        } catch (IllegalArgumentException esperado) {}
+    }
+}
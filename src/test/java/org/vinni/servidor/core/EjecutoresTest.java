@@ -0,0 +1,76 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Pruebas de los ejecutores por puerto y de su parada.
+ */
+public class EjecutoresTest extends TestCase {
+
+    public void testPorPuertoUsaHilosDelPuerto() throws Exception {
+        ExecutorService ejecutor = Ejecutores.porPuerto(ModoServidor.HILOS, 4321);
+        try {
+            Thread hilo = ejecutor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+            assertTrue(hilo.getName(), hilo.getName().startsWith("Puerto-4321-"));
+            // No deben impedir que la JVM termine
+            assertTrue(hilo.isDaemon());
+        } finally {
+            assertTrue(Ejecutores.detener(ejecutor, 2000));
+        }
+    }
+
+    public void testVirtualesSinJava21UsaHilosNormales() throws Exception {
+        ExecutorService ejecutor = Ejecutores.porPuerto(ModoServidor.VIRTUALES, 4321);
+        try {
+            String nombre = ejecutor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+            String esperado = Ejecutores.hilosVirtualesDisponibles() ? "Puerto-4321-v" : "Puerto-4321-";
+            assertTrue(nombre, nombre.startsWith(esperado));
+        } finally {
+            assertTrue(Ejecutores.detener(ejecutor, 2000));
+        }
+    }
+
+    public void testDetenerInterrumpeYEsperaALasTareas() throws Exception {
+        ExecutorService ejecutor = Ejecutores.porPuerto(ModoServidor.HILOS, 4321);
+        CountDownLatch empezada = new CountDownLatch(1);
+        AtomicBoolean interrumpida = new AtomicBoolean();
+        ejecutor.execute(() -> {
+            empezada.countDown();
+            try {
+                Thread.sleep(60_000);
+            } catch (InterruptedException e) {
+                interrumpida.set(true);
+            }
+        });
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+
+        assertTrue(Ejecutores.detener(ejecutor, 2000));
+        assertTrue(interrumpida.get());
+        assertTrue(ejecutor.isTerminated());
+    }
+
+    public void testDetenerAvisaSiUnaTareaNoTermina() throws Exception {
+        ExecutorService ejecutor = Ejecutores.porTarea("prueba-");
+        CountDownLatch empezada = new CountDownLatch(1);
+        CountDownLatch soltar = new CountDownLatch(1);
+        ejecutor.execute(() -> {
+            empezada.countDown();
+            // Ignora la interrupción, como un socket bloqueado que nadie cierra
+            while (true) {
+                try {
+                    if (soltar.await(10, TimeUnit.SECONDS)) return;
+                } catch (InterruptedException ignored) {}
+            }
+        });
+        assertTrue(empezada.await(5, TimeUnit.SECONDS));
+
+        assertFalse(Ejecutores.detener(ejecutor, 100));
+        soltar.countDown();
+        assertTrue(ejecutor.awaitTermination(5, TimeUnit.SECONDS));
+    }
+}
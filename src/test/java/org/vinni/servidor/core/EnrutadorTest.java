@@ -0,0 +1,92 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pruebas del índice de sesiones y del reparto de mensajes de un puerto.
+ */
+public class EnrutadorTest extends TestCase {
+
+    /** Sesión falsa que guarda lo que recibe. */
+    static class SesionFalsa extends Sesion {
+        final List<String> recibidas = new ArrayList<>();
+        final List<byte[]> arreglos = new ArrayList<>();
+        boolean cerrada;
+
+        SesionFalsa() {
+            super(new ColaSalida(), null);
+        }
+
+        @Override
+        protected void notificarPendientes() {
+        }
+
+        @Override
+        protected void actualizarLectura() {
+        }
+
+        @Override
+        public String getDireccion() {
+            return "/prueba";
+        }
+
+        @Override
+        public void enviar(byte[] datos) {
+            arreglos.add(datos);
+            recibidas.add(new String(datos, StandardCharsets.UTF_8).trim());
+        }
+
+        @Override
+        public void cerrar() {
+            cerrada = true;
+        }
+    }
+
+    public void testDifusionCodificaUnaVezYExcluyeAlRemitente() {
+        Enrutador enrutador = new Enrutador();
+        SesionFalsa ana = new SesionFalsa();
+        SesionFalsa luis = new SesionFalsa();
+        SesionFalsa eva = new SesionFalsa();
+        enrutador.registrar("ana", ana);
+        enrutador.registrar("luis", luis);
+        enrutador.registrar("eva", eva);
+
+        assertEquals(2, enrutador.difundir(Trama.de(TipoTrama.MSG, "ana: hola"), ana));
+
+        assertTrue(ana.recibidas.isEmpty());
+        assertEquals("MSG:ana: hola", luis.recibidas.get(0));
+        assertSame(luis.arreglos.get(0), eva.arreglos.get(0));
+    }
+
+    public void testPrivadoSoloLlegaAlDestinatario() {
+        Enrutador enrutador = new Enrutador();
+        SesionFalsa ana = new SesionFalsa();
+        SesionFalsa luis = new SesionFalsa();
+        enrutador.registrar("ana", ana);
+        enrutador.registrar("luis", luis);
+
+        assertTrue(enrutador.enviarA("luis", Trama.de(TipoTrama.MSGTO, "ana:secreto")));
+        assertFalse(enrutador.enviarA("nadie", Trama.de(TipoTrama.MSGTO, "ana:secreto")));
+
+        assertEquals("MSGTO:ana:secreto", luis.recibidas.get(0));
+        assertTrue(ana.recibidas.isEmpty());
+    }
+
+    public void testRetirarNoBorraUnaConexionMasNueva() {
+        Enrutador enrutador = new Enrutador();
+        SesionFalsa vieja = new SesionFalsa();
+        SesionFalsa nueva = new SesionFalsa();
+        enrutador.registrar("ana", vieja);
+
+        assertSame(vieja, enrutador.registrar("ana", nueva));
+        assertFalse(enrutador.retirar("ana", vieja));
+        assertSame(nueva, enrutador.buscar("ana"));
+        assertEquals("ana", enrutador.tramaUsuarios().texto());
+    }
+}
@@ -0,0 +1,154 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+import org.vinni.cliente.core.ConexionChat;
+import org.vinni.protocolo.TipoTrama;
+import org.vinni.protocolo.Trama;
+
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pruebas del historial de mensajes numerados y de la reanudación de sesiones.
+ */
+public class HistorialPuertoTest extends TestCase {
+
+    public void testRepiteSoloLoPosteriorYLoQueEsParaElUsuario() throws Exception {
+        HistorialPuerto historial = new HistorialPuerto(Files.createTempDirectory("historial"), 3);
+        long primera = historial.anotar(Trama.de(TipoTrama.MSG, "ana: uno"), "ana", null).getSecuencia();
+        historial.anotar(Trama.de(TipoTrama.MSG, "bob: dos"), "bob", null);
+        historial.anotar(Trama.de(TipoTrama.MSGTO, "ana:tres"), "ana", "luis");
+        historial.anotar(Trama.de(TipoTrama.MSG, "ana: cuatro"), "ana", null);
+
+        // Capacidad 3: el primero ya no está en memoria
+        assertFalse(historial.cubre(primera - 1));
+        assertTrue(historial.cubre(primera));
+        List<Trama> paraLuis = historial.desde(primera, "luis");
+        assertEquals(3, paraLuis.size());
+        assertEquals("ana:tres", paraLuis.get(1).texto());
+        assertEquals(1, historial.desde(primera, "ana").size());
+        assertTrue(historial.desde(historial.getUltima(), "luis").isEmpty());
+    }
+
+    public void testCompletaDesdeLosRegistrosUnaSolaVez() throws Exception {
+        Path directorio = Files.createTempDirectory("historial");
+        Files.write(directorio.resolve("log_20240101.txt"), Arrays.asList(
+                "[10:00:00.000] Servidor iniciado en puerto 1",
+                "[10:00:01.000] " + HistorialPuerto.lineaDeRegistro(10, "ana", "hola: qué tal"),
+                "[10:00:02.000] " + HistorialPuerto.lineaDeRegistro(11, "bob", "adiós")), StandardCharsets.UTF_8);
+        HistorialPuerto historial = new HistorialPuerto(directorio, 10);
+        historial.anotar(Trama.de(TipoTrama.MSG, "ana: nuevo"), "ana", null);
+
+        assertFalse(historial.cubre(9));
+        historial.precargar();
+        List<Trama> paraLuis = historial.desde(9, "luis");
+        assertEquals(3, paraLuis.size());
+        assertEquals(10, paraLuis.get(0).getSecuencia());
+        assertEquals("ana: hola: qué tal", paraLuis.get(0).texto());
+        assertEquals(1, historial.desde(9, "ana").size());
+
+        // Otra precarga no vuelve a leer ni duplica
+        Files.delete(directorio.resolve("log_20240101.txt"));
+        historial.precargar();
+        assertEquals(3, historial.getCantidad());
+        Files.delete(directorio);
+    }
+
+    public void testAlReanudarNoLlegaDosVecesLoYaRepetido() {
+        Sesion sesion = new Sesion(new ColaSalida(), null) {
+            @Override public String getDireccion() { return "prueba"; }
+            @Override public void cerrar() {}
+            @Override protected void notificarPendientes() {}
+            @Override protected void actualizarLectura() {}
+        };
+        Trama diez = Trama.de(TipoTrama.MSG, "ana: diez").numerada(10);
+        sesion.reanudarHasta(10);
+        sesion.enviarRepetido(diez);
+        // Numerado antes de la reanudación y entregado en vivo después: ya salió en la repetición
+        sesion.enviar(diez);
+        sesion.enviar(Trama.de(TipoTrama.MSG, "ana: once").numerada(11));
+        sesion.enviar(Trama.de(TipoTrama.USERS_ALTA, "bob"));
+        assertEquals(3, sesion.getCola().getTramas());
+    }
+
+    public void testVariosRemitentesLleganEnOrdenDeNumero() throws Exception {
+        HistorialPuerto historial = new HistorialPuerto(Files.createTempDirectory("historial"), 16);
+        List<Long> recibidos = new ArrayList<>();
+        Thread[] remitentes = new Thread[4];
+        for (int i = 0; i < remitentes.length; i++) {
+            String nombre = "r" + i;
+            remitentes[i] = new Thread(() -> {
+                for (int j = 0; j < 500; j++) {
+                    historial.anotar(Trama.de(TipoTrama.MSG, nombre + ": " + j), nombre, null,
+                            t -> recibidos.add(t.getSecuencia()));
+                }
+            });
+            remitentes[i].start();
+        }
+        for (Thread remitente : remitentes) remitente.join();
+
+        assertEquals(2000, recibidos.size());
+        for (int i = 1; i < recibidos.size(); i++) assertEquals(recibidos.get(i - 1) + 1, (long) recibidos.get(i));
+    }
+
+    public void testElClienteRecibeLoQueSePerdioAlReconectar() throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path directorio = Files.createTempDirectory("estado");
+        ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, ModoServidor.NIO, directorio.resolve("estado_puertos.txt"));
+        runtime.iniciar(puerto);
+        try (ConexionChat ana = ConexionChat.conectar("localhost", puerto, "ana", true)) {
+            long vista;
+            try (ConexionChat bob = ConexionChat.conectar("localhost", puerto, "bob", true)) {
+                assertTrue(bob.siguiente());        // USERS:
+                ana.enviarMensaje("antes");
+                do {
+                    assertTrue(bob.siguiente());
+                } while (bob.getTipo() != TipoTrama.MSG);
+                vista = bob.getUltimaSecuencia();
+                assertTrue(vista > 0);
+            }
+            esperarDesconexion(runtime, puerto, "bob");
+            ana.enviarMensaje("mientras tanto 1");
+            ana.enviarMensaje("mientras tanto 2");
+            for (int i = 0; i < 200 && runtime.getServidor(puerto).getHistorial().getUltima() < vista + 2; i++) Thread.sleep(10);
+
+            try (ConexionChat bob = ConexionChat.conectar("localhost", puerto, "bob", false, vista)) {
+                assertTrue(bob.siguiente());
+                assertEquals(TipoTrama.USERS, bob.getTipo());
+                assertTrue(bob.siguiente());
+                assertEquals("ana: mientras tanto 1", bob.getTexto());
+                assertTrue(bob.siguiente());
+                assertEquals("ana: mientras tanto 2", bob.getTexto());
+                assertEquals(vista + 2, bob.getUltimaSecuencia());
+            }
+
+            // Desde mucho antes de lo que hay en memoria: el hueco se avisa
+            try (ConexionChat bob = ConexionChat.conectar("localhost", puerto, "bob", false, 1)) {
+                assertTrue(bob.siguiente());
+                assertEquals(TipoTrama.USERS, bob.getTipo());
+                assertTrue(bob.siguiente());
+                assertEquals(TipoTrama.TEXTO, bob.getTipo());
+                assertTrue(bob.getTexto(), bob.getTexto().startsWith("Faltan los mensajes entre #2 y #"));
+                assertTrue(bob.siguiente());
+                assertEquals("ana: antes", bob.getTexto());
+            }
+        } finally {
+            runtime.apagar();
+            Files.deleteIfExists(directorio.resolve("estado_puertos.txt"));
+            Files.delete(directorio);
+            ServerRuntimeTest.borrarDatosDelPuerto(puerto);
+        }
+    }
+
+    private static void esperarDesconexion(ServerRuntime runtime, int puerto, String usuario) throws InterruptedException {
+        for (int i = 0; i < 200 && runtime.getServidor(puerto).getEnrutador().buscar(usuario) != null; i++) Thread.sleep(10);
+    }
+}
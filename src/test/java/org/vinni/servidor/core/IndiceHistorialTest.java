@@ -0,0 +1,107 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Pruebas del índice de búsqueda sobre los registros.
+ */
+public class IndiceHistorialTest extends TestCase {
+
+    private static void escribir(Path archivo, String... lineas) throws Exception {
+        StringBuilder texto = new StringBuilder();
+        for (String linea : lineas) texto.append(linea).append('\n');
+        Files.write(archivo, texto.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    public void testBuscaPorPalabrasYPorUsuario() throws Exception {
+        Path registros = Files.createTempDirectory("logs");
+        Path directorio = Files.createTempDirectory("indice");
+        escribir(registros.resolve("log_20240101.txt"),
+                "[10:00:00.000] Servidor iniciado en puerto 1",
+                "[10:00:01.000] " + HistorialPuerto.lineaDeRegistro(1, "ana", "¿Quién trae la pizza?"),
+                "[10:00:02.000] " + HistorialPuerto.lineaDeRegistro(2, "bob", "yo traigo pizza y refrescos"),
+                "[10:00:03.000] ** bob se ha conectado (puerto 1) **");
+        escribir(registros.resolve("log_20240102.txt"),
+                "[09:00:00.000] " + HistorialPuerto.lineaDeRegistro(3, "ana", "quien quiere mas PIZZA"));
+
+        IndiceHistorial indice = new IndiceHistorial(registros, directorio);
+        assertEquals(3, indice.actualizar());
+        assertEquals(Arrays.asList(
+                "2024-01-01 10:00:01.000 ana: ¿Quién trae la pizza?",
+                "2024-01-02 09:00:00.000 ana: quien quiere mas PIZZA"), indice.buscar("quien pizza", 10));
+        assertEquals(Collections.singletonList("2024-01-01 10:00:02.000 bob: yo traigo pizza y refrescos"),
+                indice.buscar("pizza @bob", 10));
+        assertEquals(Collections.singletonList("2024-01-02 09:00:00.000 ana: quien quiere mas PIZZA"),
+                indice.buscar("ana", "", 1));
+        assertTrue(indice.buscar("conectado", 10).isEmpty());
+        assertTrue(indice.buscar("pizza @luis", 10).isEmpty());
+    }
+
+    public void testIndexaSoloLoNuevoYCompactaLosSegmentos() throws Exception {
+        Path registros = Files.createTempDirectory("logs");
+        Path directorio = Files.createTempDirectory("indice");
+        Path hoy = registros.resolve("log_20240103.txt");
+        IndiceHistorial indice = new IndiceHistorial(registros, directorio);
+        for (int i = 0; i < 12; i++) {
+            escribir(hoy, "[10:00:00.000] " + HistorialPuerto.lineaDeRegistro(i, "ana", "mensaje numero " + i));
+            assertEquals(1, indice.actualizar());
+        }
+        // Una línea a medio escribir no se indexa hasta que tenga su salto de línea
+        Files.write(hoy, "[10:00:01.000] #99 bob: incomp".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        assertEquals(0, indice.actualizar());
+        escribir(hoy, "leto");
+        assertEquals(1, indice.actualizar());
+
+        assertTrue("se mezclaron los segmentos", indice.getSegmentos() <= 9);
+        List<String> encontrados = indice.buscar("mensaje", 100);
+        assertEquals(12, encontrados.size());
+        assertEquals("2024-01-03 10:00:00.000 ana: mensaje numero 0", encontrados.get(0));
+
+        // Otro proceso retoma el índice del disco sin volver a leer los registros
+        IndiceHistorial reabierto = new IndiceHistorial(registros, directorio);
+        assertEquals(0, reabierto.actualizar());
+        assertEquals(Collections.singletonList("2024-01-03 10:00:01.000 bob: incompleto"), reabierto.buscar("incompleto", 10));
+        assertEquals(5, reabierto.buscar("ana", "mensaje", 5).size());
+    }
+
+    public void testRetomaUnaMezclaInterrumpida() throws Exception {
+        Path registros = Files.createTempDirectory("logs");
+        Path directorio = Files.createTempDirectory("indice");
+        Path hoy = registros.resolve("log_20240104.txt");
+        IndiceHistorial indice = new IndiceHistorial(registros, directorio);
+        escribir(hoy, "[10:00:00.000] " + HistorialPuerto.lineaDeRegistro(1, "ana", "hola mundo"));
+        indice.actualizar();
+        escribir(hoy, "[10:00:01.000] " + HistorialPuerto.lineaDeRegistro(2, "bob", "hola a todos"));
+        indice.actualizar();
+
+        // La mezcla llegó a escribirse pero no a borrar los segmentos que cubre
+        List<SegmentoIndice> originales = Arrays.asList(
+                SegmentoIndice.abrir(directorio.resolve("seg_00000000.idx")),
+                SegmentoIndice.abrir(directorio.resolve("seg_00000001.idx")));
+        SegmentoIndice.mezclar(originales, directorio.resolve("seg_00000000-00000001.idx"));
+
+        IndiceHistorial reabierto = new IndiceHistorial(registros, directorio);
+        assertEquals(Arrays.asList(
+                "2024-01-04 10:00:00.000 ana: hola mundo",
+                "2024-01-04 10:00:01.000 bob: hola a todos"), reabierto.buscar("hola", 10));
+        assertEquals(Collections.singletonList("2024-01-04 10:00:01.000 bob: hola a todos"), reabierto.buscar("@bob", 10));
+        assertEquals(1, reabierto.getSegmentos());
+        assertFalse(Files.exists(directorio.resolve("seg_00000000.idx")));
+        assertFalse(Files.exists(directorio.resolve("seg_00000001.idx")));
+    }
+
+    public void testNormalizaLosTerminos() {
+        assertEquals(Arrays.asList("canon", "nino", "42"),
+                new ArrayList<>(IndiceHistorial.terminos("¡Cañón! niño, a 42")));
+    }
+}
@@ -0,0 +1,94 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Pruebas de las métricas: histogramas, texto de Prometheus por HTTP y JMX.
+ */
+public class MetricasServidorTest extends TestCase {
+
+    public void testHistogramaAcumulaPorCubetas() {
+        HistogramaMetrica histograma = new HistogramaMetrica(10, 100, 1000);
+        for (int i = 1; i <= 100; i++) histograma.registrar(i);
+        histograma.registrar(5000);
+        assertEquals(101, histograma.getTotal());
+        assertEquals(5050 + 5000, histograma.getSuma());
+        long[] acumuladas = histograma.getAcumuladas();
+        assertEquals(4, acumuladas.length);
+        assertEquals(10, acumuladas[0]);
+        assertEquals(100, acumuladas[1]);
+        assertEquals(100, acumuladas[2]);
+        assertEquals(101, acumuladas[3]);
+        assertEquals(10, histograma.percentil(5));
+        assertEquals(100, histograma.percentil(50));
+        assertEquals(5000, histograma.percentil(100));
+    }
+
+    public void testPublicaPrometheusYJmx() throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path directorio = Files.createTempDirectory("estado");
+        ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, ModoServidor.HILOS, directorio.resolve("estado_puertos.txt"));
+        MBeanServer jmx = ManagementFactory.getPlatformMBeanServer();
+        ObjectName nombre = new ObjectName("org.vinni.servidor:type=Puerto,puerto=" + puerto);
+        try {
+            runtime.iniciar(puerto);
+            runtime.getMetricas().publicar(0, true);
+            assertTrue(runtime.getMetricas().getPuertoHttp() > 0);
+            EstadisticasPuerto estadisticas = EstadisticasPuerto.de(puerto);
+
+            try (Socket cliente = new Socket("localhost", puerto)) {
+                OutputStream out = cliente.getOutputStream();
+                out.write("USER:ana\nMSG:hola\n".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                for (int i = 0; i < 200 && estadisticas.getMensajesRecibidos() < 2; i++) Thread.sleep(10);
+
+                String texto = leer(new URL("http://127.0.0.1:" + runtime.getMetricas().getPuertoHttp() + "/metrics"));
+                assertTrue(texto, texto.contains("# TYPE chat_mensajes_recibidos_total counter"));
+                assertTrue(texto, texto.contains("chat_mensajes_recibidos_total{puerto=\"" + puerto + "\"} 2\n"));
+                assertTrue(texto, texto.contains("chat_sesiones_activas{puerto=\"" + puerto + "\"} 1\n"));
+                assertTrue(texto, texto.contains("chat_conexiones_total{puerto=\"" + puerto + "\"} 1\n"));
+                assertTrue(texto, texto.contains("chat_latencia_mensaje_segundos_bucket{puerto=\"" + puerto + "\",le=\"+Inf\"} 2\n"));
+                assertTrue(texto, texto.contains("chat_latencia_mensaje_segundos_count{puerto=\"" + puerto + "\"} 2\n"));
+
+                assertEquals(2L, jmx.getAttribute(nombre, "MensajesRecibidos"));
+                assertEquals(1, jmx.getAttribute(nombre, "SesionesActivas"));
+                assertTrue((Long) jmx.getAttribute(nombre, "BytesRecibidos") >= "USER:ana\nMSG:hola\n".length());
+                assertTrue((Long) jmx.getAttribute(nombre, "BytesEnviados") > 0);
+            }
+        } finally {
+            runtime.apagar();
+            Files.deleteIfExists(directorio.resolve("estado_puertos.txt"));
+            Files.delete(directorio);
+            ServerRuntimeTest.borrarDatosDelPuerto(puerto);
+        }
+        assertFalse(jmx.isRegistered(nombre));
+        assertEquals(-1, runtime.getMetricas().getPuertoHttp());
+    }
+
+    private static String leer(URL url) throws Exception {
+        HttpURLConnection conexion = (HttpURLConnection) url.openConnection();
+        try (InputStream in = conexion.getInputStream()) {
+            assertEquals(200, conexion.getResponseCode());
+            assertTrue(conexion.getContentType().startsWith("text/plain"));
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } finally {
+            conexion.disconnect();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pruebas de la ronda del monitor y de las sondas no bloqueantes.
+ */
+public class MonitorPuertosTest extends TestCase {
+
+    public void testLaSondaNoCuentaComoCliente() throws Exception {
+        int puerto = puertoLibre();
+        Path estado = Files.createTempFile("estado", ".txt");
+        AtomicInteger aceptadas = new AtomicInteger();
+        ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, ModoServidor.NIO, estado);
+        runtime.agregarObservador(new ObservadorServidor() {
+            @Override
+            public void conexionAceptada(int p) {
+                aceptadas.incrementAndGet();
+            }
+        });
+        runtime.iniciar(puerto);
+        try (SondaPuertos sonda = new SondaPuertos()) {
+            MonitorPuertos monitor = new MonitorPuertos(runtime, new ObservadorServidor() {});
+            assertTrue(monitor.ronda(sonda));
+            assertTrue(monitor.ronda(sonda));
+            Thread.sleep(100);
+            assertEquals(0, aceptadas.get());
+            assertEquals(0, SondaPuertos.getSondasEnCurso());
+        } finally {
+            runtime.apagar();
+            Files.delete(estado);
+            ServerRuntimeTest.borrarDatosDelPuerto(puerto);
+        }
+    }
+
+    public void testPuertoCerradoFallaSinEsperarElPlazo() throws Exception {
+        int cerrado = puertoLibre();
+        try (SondaPuertos sonda = new SondaPuertos()) {
+            long inicio = System.nanoTime();
+            Map<Integer, Long> tiempos = sonda.sondear(new int[]{cerrado}, 2000);
+            assertEquals(-1L, (long) tiempos.get(cerrado));
+            assertTrue(System.nanoTime() - inicio < 1_000_000_000L);
+        }
+    }
+
+    public void testLaMarcaSoloValeParaSuPuertoYNoSobreviveALaRonda() throws Exception {
+        // Un servidor ajeno que acepta y no cierra: la sonda espera hasta el plazo
+        try (ServerSocket ajeno = new ServerSocket(0); SondaPuertos sonda = new SondaPuertos()) {
+            int puerto = ajeno.getLocalPort();
+            Map<Integer, Long> tiempos = sonda.sondear(new int[]{puerto}, 200);
+            assertTrue(tiempos.get(puerto) >= 0);
+            try (Socket aceptada = ajeno.accept()) {
+                // Otro puerto no la reconoce, y acabada la ronda tampoco el suyo
+                assertFalse(SondaPuertos.esSonda(aceptada.getRemoteSocketAddress(), puerto + 1));
+                assertFalse(SondaPuertos.esSonda(aceptada.getRemoteSocketAddress(), puerto));
+            }
+            assertEquals(0, SondaPuertos.getSondasEnCurso());
+        }
+    }
+
+    private static int puertoLibre() throws Exception {
+        try (ServerSocket libre = new ServerSocket(0)) {
+            return libre.getLocalPort();
+        }
+    }
+}
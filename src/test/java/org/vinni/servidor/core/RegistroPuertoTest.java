@@ -0,0 +1,98 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pruebas del registro asíncrono por puerto y de su cola sin bloqueos.
+ */
+public class RegistroPuertoTest extends TestCase {
+
+    public void testAnilloSinPerdidasConVariosProductores() throws Exception {
+        AnilloRegistros<Integer> anillo = new AnilloRegistros<>(1024);
+        int productores = 4, porProductor = 20000;
+        Thread[] hilos = new Thread[productores];
+        for (int p = 0; p < productores; p++) {
+            int base = p * porProductor;
+            hilos[p] = new Thread(() -> {
+                for (int i = 0; i < porProductor; i++) {
+                    while (!anillo.ofrecer(base + i)) Thread.yield();
+                }
+            });
+            hilos[p].start();
+        }
+        Set<Integer> vistos = new HashSet<>();
+        while (vistos.size() < productores * porProductor) {
+            Integer valor = anillo.sacar();
+            if (valor == null) {
+                Thread.yield();
+            } else {
+                assertTrue("repetido " + valor, vistos.add(valor));
+            }
+        }
+        for (Thread hilo : hilos) hilo.join();
+        assertTrue(anillo.isVacio());
+    }
+
+    public void testCambiaDeArchivoCadaDia() throws Exception {
+        Path directorio = Files.createTempDirectory("logs");
+        RegistroPuerto registro = new RegistroPuerto(directorio, 64, 10, "RegistroPrueba");
+        ZoneId zona = ZoneId.systemDefault();
+        long hoy = LocalDate.of(2024, 3, 1).atTime(23, 59, 59).atZone(zona).toInstant().toEpochMilli();
+        registro.anotar(hoy, "antes de medianoche");
+        registro.anotar(hoy + 2000, "después de medianoche");
+        registro.cerrar();
+
+        List<String> primero = Files.readAllLines(directorio.resolve("log_20240301.txt"), StandardCharsets.UTF_8);
+        List<String> segundo = Files.readAllLines(directorio.resolve("log_20240302.txt"), StandardCharsets.UTF_8);
+        assertEquals(1, primero.size());
+        assertTrue(primero.get(0).startsWith("[23:59:59.000] antes"));
+        assertEquals("[00:00:01.000] después de medianoche", segundo.get(0));
+        assertEquals(2, registro.getEscritos());
+
+        for (Path archivo : new Path[]{directorio.resolve("log_20240301.txt"), directorio.resolve("log_20240302.txt"), directorio}) {
+            Files.delete(archivo);
+        }
+    }
+
+    public void testSeRecuperaDeUnErrorDeDisco() throws Exception {
+        Path raiz = Files.createTempDirectory("registro");
+        // Un archivo donde debería ir el directorio: no se puede abrir el log
+        Path directorio = Files.createFile(raiz.resolve("logs"));
+        RegistroPuerto registro = new RegistroPuerto(directorio, 64, 10, "RegistroPrueba");
+        List<String> avisos = new CopyOnWriteArrayList<>();
+        registro.setAvisos(avisos::add);
+        ZoneId zona = ZoneId.systemDefault();
+        long instante = LocalDate.of(2024, 3, 5).atTime(12, 0).atZone(zona).toInstant().toEpochMilli();
+        assertTrue(registro.anotar(instante, "antes del arreglo"));
+        long limite = System.currentTimeMillis() + 5000;
+        while (avisos.isEmpty() && System.currentTimeMillis() < limite) Thread.sleep(10);
+        assertTrue(avisos.get(0).contains("se reintenta"));
+
+        Files.delete(directorio);
+        assertTrue("el registro sigue aceptando líneas", registro.anotar(instante + 1, "después del arreglo"));
+        limite = System.currentTimeMillis() + 10_000;
+        while (registro.getEscritos() < 2 && System.currentTimeMillis() < limite) Thread.sleep(10);
+        registro.cerrar();
+
+        Path archivo = directorio.resolve("log_20240305.txt");
+        List<String> lineas = Files.readAllLines(archivo, StandardCharsets.UTF_8);
+        assertEquals(Arrays.asList("[12:00:00.000] antes del arreglo", "[12:00:00.001] después del arreglo"), lineas);
+        assertTrue(avisos.get(avisos.size() - 1).contains("escribe de nuevo"));
+        assertEquals(0, registro.getDescartados());
+
+        Files.delete(archivo);
+        Files.delete(directorio);
+        Files.delete(raiz);
+    }
+}
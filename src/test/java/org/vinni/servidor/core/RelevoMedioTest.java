@@ -0,0 +1,75 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.EntradaProtocolo;
+import org.vinni.protocolo.InfoArchivo;
+import org.vinni.protocolo.TipoTrama;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Pruebas del reenvío de archivos del almacén, en ambos formatos.
+ */
+public class RelevoMedioTest extends TestCase {
+
+    private Path archivo;
+    private byte[] datos;
+
+    @Override
+    protected void setUp() throws Exception {
+        datos = new byte[CodecArchivo.TAM_TROZO * 2 + 100];
+        new Random(7).nextBytes(datos);
+        archivo = Files.createTempFile("relevo", ".bin");
+        Files.write(archivo, datos);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Files.deleteIfExists(archivo);
+    }
+
+    public void testBinarioReconstruyeElArchivo() throws Exception {
+        assertTrue(Arrays.equals(datos, reconstruir(true)));
+    }
+
+    public void testTextoReconstruyeElArchivo() throws Exception {
+        assertTrue(Arrays.equals(datos, reconstruir(false)));
+    }
+
+    private byte[] reconstruir(boolean binaria) throws Exception {
+        InfoArchivo info = new InfoArchivo(42, datos.length, CodecArchivo.sha256(archivo), "ana", "foto.png");
+        RelevoMedio relevo = new RelevoMedio(new MedioGuardado(info, archivo), binaria, false);
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+        WritableByteChannel canal = Channels.newChannel(salida);
+        int mensajes = 1;
+        while (relevo.escribirTrozo(canal) != RelevoMedio.Avance.TERMINADO) mensajes++;
+        assertEquals(5, mensajes);
+
+        EntradaProtocolo in = new EntradaProtocolo(new ByteArrayInputStream(salida.toByteArray()));
+        if (binaria) in.usarBinario();
+        assertTrue(in.siguiente());
+        assertEquals(TipoTrama.ARCH_INICIO, in.getTipo());
+        assertEquals("ana", InfoArchivo.desdeTexto(in.getTexto(), true).getRemitente());
+
+        ByteArrayOutputStream reconstruido = new ByteArrayOutputStream();
+        while (in.siguiente() && in.getTipo() == TipoTrama.ARCH_TROZO) {
+            ByteBuffer trozo = in.getContenido();
+            assertEquals(reconstruido.size(), CodecArchivo.desplazamientoDeTrozo(trozo));
+            ByteBuffer vista = CodecArchivo.datosDeTrozo(trozo);
+            byte[] parte = new byte[vista.remaining()];
+            vista.get(parte);
+            reconstruido.write(parte);
+        }
+        assertEquals(TipoTrama.ARCH_FIN, in.getTipo());
+        return reconstruido.toByteArray();
+    }
+}
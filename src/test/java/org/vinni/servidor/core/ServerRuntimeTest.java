@@ -0,0 +1,204 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+import org.vinni.cliente.core.ConexionChat;
+import org.vinni.protocolo.TipoTrama;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas del runtime sin interfaz: arranque, observadores y estado guardado.
+ */
+public class ServerRuntimeTest extends TestCase {
+
+    public void testGuardaYRestauraLosPuertos() throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path directorio = Files.createTempDirectory("estado");
+        Path estado = directorio.resolve("estado_puertos.txt");
+        List<String> avisos = new CopyOnWriteArrayList<>();
+        ObservadorServidor observador = new ObservadorServidor() {
+            @Override
+            public void puertoCambiado(int p, boolean activo) {
+                avisos.add(p + (activo ? " activo" : " inactivo"));
+            }
+        };
+
+        ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, ModoServidor.HILOS, estado);
+        runtime.agregarObservador(observador);
+        runtime.iniciar(puerto);
+        assertTrue(runtime.getMsHastaEscuchar() >= 0);
+        try (Socket cliente = new Socket("localhost", puerto)) {
+            // La conexión cuenta desde su primer mensaje
+            cliente.getOutputStream().write("USER:ana\n".getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 100 && runtime.getMsHastaPrimeraConexion() < 0; i++) Thread.sleep(10);
+        }
+        assertTrue(runtime.getMsHastaPrimeraConexion() >= 0);
+        runtime.apagar();
+        assertEquals("PUERTO:" + puerto, Files.readAllLines(estado).get(0));
+        assertEquals(puerto + " activo", avisos.get(0));
+
+        ServerRuntime otro = new ServerRuntime(new int[]{puerto}, ModoServidor.HILOS, estado);
+        assertTrue(otro.restaurarEstado());
+        assertNotNull(otro.getServidor(puerto));
+        otro.apagar();
+
+        Files.delete(estado);
+        Files.delete(directorio);
+        borrarDatosDelPuerto(puerto);
+    }
+
+    public void testCadaModoAtiendeClientes() throws Exception {
+        for (ModoServidor modo : ModoServidor.values()) {
+            int puerto;
+            try (ServerSocket libre = new ServerSocket(0)) {
+                puerto = libre.getLocalPort();
+            }
+            Path directorio = Files.createTempDirectory("estado");
+            ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, modo, directorio.resolve("estado_puertos.txt"));
+            runtime.iniciar(puerto);
+            try (ConexionChat ana = ConexionChat.conectar("localhost", puerto, "ana", true);
+                 ConexionChat bob = ConexionChat.conectar("localhost", puerto, "bob", false)) {
+                assertEquals(modo.name(), TipoTrama.USERS_ALTA, siguiente(ana, TipoTrama.USERS_ALTA).getTipo());
+                ana.enviarMensaje("hola desde " + modo);
+                assertEquals("ana: hola desde " + modo, siguiente(bob, TipoTrama.MSG).getTexto());
+                bob.enviarPrivado("ana", "recibido");
+                assertEquals("bob:recibido", siguiente(ana, TipoTrama.MSGTO).getTexto());
+                assertEquals(2, runtime.getServidor(puerto).getSesionesActivas());
+            } finally {
+                runtime.apagar();
+            }
+            // Al volver de apagar() el puerto ya está libre
+            try (ServerSocket otra = new ServerSocket(puerto)) {
+                assertEquals(puerto, otra.getLocalPort());
+            }
+            Files.deleteIfExists(directorio.resolve("estado_puertos.txt"));
+            Files.delete(directorio);
+            borrarDatosDelPuerto(puerto);
+        }
+    }
+
+    public void testEnModoHilosNoHayUnHiloEscritorPorCliente() throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path directorio = Files.createTempDirectory("estado");
+        ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, ModoServidor.HILOS, directorio.resolve("estado_puertos.txt"));
+        runtime.iniciar(puerto);
+        List<ConexionChat> clientes = new ArrayList<>();
+        try {
+            for (int i = 0; i < 5; i++) clientes.add(ConexionChat.conectar("localhost", puerto, "u" + i, false));
+            // Cuando u0 ve llegar a los demás, todos están registrados
+            for (int i = 1; i < clientes.size(); i++) siguiente(clientes.get(0), TipoTrama.USERS_ALTA);
+            clientes.get(0).enviarMensaje("hola a todos");
+            for (int i = 1; i < clientes.size(); i++) {
+                assertEquals("u0: hola a todos", siguiente(clientes.get(i), TipoTrama.MSG).getTexto());
+            }
+            // Un lector por cliente y el aceptor; la escritura va por el pool común
+            String prefijo = "Puerto-" + puerto + "-";
+            long hilosDelPuerto = Thread.getAllStackTraces().keySet().stream()
+                    .filter(hilo -> hilo.getName().startsWith(prefijo)).count();
+            assertEquals(clientes.size() + 1, hilosDelPuerto);
+        } finally {
+            for (ConexionChat cliente : clientes) cliente.close();
+            runtime.apagar();
+            Files.deleteIfExists(directorio.resolve("estado_puertos.txt"));
+            Files.delete(directorio);
+            borrarDatosDelPuerto(puerto);
+        }
+    }
+
+    /**
+     * Lee hasta el primer mensaje del tipo pedido (con un plazo, para no colgar la prueba).
+     */
+    private static ConexionChat siguiente(ConexionChat conexion, TipoTrama tipo) throws Exception {
+        ExecutorService lector = Executors.newSingleThreadExecutor();
+        try {
+            return lector.submit(() -> {
+                while (conexion.siguiente()) {
+                    if (conexion.getTipo() == tipo) return conexion;
+                }
+                throw new IOException("Conexión cerrada esperando " + tipo);
+            }).get(5, TimeUnit.SECONDS);
+        } finally {
+            lector.shutdownNow();
+        }
+    }
+
+    public void testAgregaYQuitaPuertosEnMarcha() throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path directorio = Files.createTempDirectory("estado");
+        Path estado = directorio.resolve("estado_puertos.txt");
+        List<String> avisos = new CopyOnWriteArrayList<>();
+        ServerRuntime runtime = new ServerRuntime(new int[0], ModoServidor.HILOS, estado);
+        runtime.agregarObservador(new ObservadorServidor() {
+            @Override
+            public void puertoAgregado(int p) {
+                avisos.add("+" + p);
+            }
+
+            @Override
+            public void puertoQuitado(int p) {
+                avisos.add("-" + p);
+            }
+        });
+
+        runtime.agregarPuerto(puerto, 2);
+        assertEquals(1, runtime.getPuertos().length);
+        assertEquals(2, runtime.getAceptores(puerto));
+        assertTrue(Files.readAllLines(estado).contains("CONFIG:" + puerto + ":2"));
+        runtime.iniciar(puerto);
+        ServidorPuerto servidor = runtime.getServidor(puerto);
+        assertTrue(servidor.getAceptores() >= 1);
+        for (int i = 0; i < 4; i++) {
+            try (Socket cliente = new Socket("localhost", puerto)) {
+                assertTrue(cliente.isConnected());
+            }
+        }
+        assertTrue(servidor.comprobarVida().get());
+
+        runtime.quitarPuerto(puerto);
+        assertNull(runtime.getServidor(puerto));
+        assertEquals(0, runtime.getPuertos().length);
+        assertEquals(List.of("+" + puerto, "-" + puerto), avisos);
+        assertFalse(Files.readAllLines(estado).contains("CONFIG:" + puerto + ":2"));
+        runtime.apagar();
+
+        Files.delete(estado);
+        Files.delete(directorio);
+        borrarDatosDelPuerto(puerto);
+    }
+
+    static void borrarDatosDelPuerto(int puerto) throws Exception {
+        RegistroPuerto.de(puerto).cerrar();
+        IndiceHistorial.de(puerto).detener();
+        Path datos = Paths.get("server_data", "port_" + puerto);
+        if (!Files.exists(datos)) return;
+        try (Stream<Path> archivos = Files.walk(datos)) {
+            for (Path archivo : archivos.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(archivo);
+            }
+        }
+    }
+}
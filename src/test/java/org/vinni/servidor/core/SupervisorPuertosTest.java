@@ -0,0 +1,49 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Pruebas del supervisor de reinicios.
+ */
+public class SupervisorPuertosTest extends TestCase {
+
+    public void testUnSoloReinicioALaVezYMideLaLatencia() throws Exception {
+        int puerto;
+        try (ServerSocket libre = new ServerSocket(0)) {
+            puerto = libre.getLocalPort();
+        }
+        Path estado = Files.createTempFile("estado", ".txt");
+        ServerRuntime runtime = new ServerRuntime(new int[]{puerto}, ModoServidor.HILOS, estado);
+        try {
+            runtime.iniciar(puerto);
+            assertTrue(runtime.reiniciar(puerto, 50));
+            assertFalse(runtime.reiniciar(puerto, 0));
+
+            SupervisorPuertos.EstadoReinicio reinicio = runtime.getSupervisor().getEstado(puerto);
+            for (int i = 0; i < 300 && reinicio.isEnCurso(); i++) Thread.sleep(10);
+            assertFalse(reinicio.isEnCurso());
+            assertEquals(1, reinicio.getReinicios());
+            assertEquals(1, reinicio.getIntentos());
+            assertTrue(reinicio.getUltimaLatenciaMs() >= 50);
+            assertNotNull(runtime.getServidor(puerto));
+        } finally {
+            runtime.apagar();
+            Files.delete(estado);
+            ServerRuntimeTest.borrarDatosDelPuerto(puerto);
+        }
+    }
+
+    public void testEsperaExponencialConAzar() {
+        for (int i = 0; i < 100; i++) {
+            long primera = SupervisorPuertos.espera(1);
+            assertTrue(primera >= 250 && primera <= 500);
+            long cuarta = SupervisorPuertos.espera(4);
+            assertTrue(cuarta >= 2000 && cuarta <= 4000);
+            assertTrue(SupervisorPuertos.espera(40) <= 30000);
+        }
+    }
+}
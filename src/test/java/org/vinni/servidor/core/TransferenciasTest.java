@@ -0,0 +1,73 @@
+package org.vinni.servidor.core;
+
+import junit.framework.TestCase;
+import org.vinni.protocolo.CodecArchivo;
+import org.vinni.protocolo.InfoArchivo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Pruebas de la recepción por trozos y de su suma calculada al vuelo.
+ */
+public class TransferenciasTest extends TestCase {
+
+    private static byte[] datos(int tamano) {
+        byte[] datos = new byte[tamano];
+        for (int i = 0; i < tamano; i++) datos[i] = (byte) (i * 31);
+        return datos;
+    }
+
+    private static void enviar(Transferencias.Transferencia transferencia, byte[] datos, int desde, int hasta) throws IOException {
+        assertTrue(transferencia.escribir(desde, ByteBuffer.wrap(Arrays.copyOfRange(datos, desde, hasta))));
+    }
+
+    public void testLaSumaSeLlevaTrozoATrozoYAlReanudar() throws Exception {
+        byte[] datos = datos(300_000);
+        String sha = CodecArchivo.hex(CodecArchivo.nuevoSha256().digest(datos));
+        InfoArchivo info = new InfoArchivo(7, datos.length, sha, "ana", "foto.png");
+        Path media = Files.createTempDirectory("media");
+        AlmacenContenido contenido = new AlmacenContenido(Files.createTempDirectory("contenido"), 1 << 20);
+
+        // Primera ejecución: llega un trozo y el proceso se cae con el parcial en disco
+        Transferencias.Transferencia primera = new Transferencias(new AlmacenMedios(media, contenido)).iniciar(info);
+        enviar(primera, datos, 0, 100_000);
+        assertFalse("fuera de secuencia no se escribe", primera.escribir(200_000, ByteBuffer.wrap(new byte[10])));
+        primera.cerrar();
+
+        // Otra ejecución retoma el parcial: la suma se pone al día leyendo lo que hay
+        Transferencias transferencias = new Transferencias(new AlmacenMedios(media, contenido));
+        Transferencias.Transferencia segunda = transferencias.iniciar(info);
+        assertEquals(100_000, segunda.getRecibidos());
+        enviar(segunda, datos, 100_000, 250_000);
+        enviar(segunda, datos, 250_000, datos.length);
+        assertTrue(segunda.isCompleta());
+
+        MedioGuardado medio = transferencias.terminar(segunda);
+        assertTrue(Arrays.equals(datos, Files.readAllBytes(medio.getRuta())));
+        assertEquals(0, transferencias.cantidad());
+    }
+
+    public void testSumaDistintaDescartaElParcial() throws Exception {
+        byte[] datos = datos(1000);
+        InfoArchivo info = new InfoArchivo(8, datos.length, CodecArchivo.hex(new byte[32]), "bob", "otro.bin");
+        Path media = Files.createTempDirectory("media");
+        Transferencias transferencias = new Transferencias(
+                new AlmacenMedios(media, new AlmacenContenido(Files.createTempDirectory("contenido"), 1 << 20)));
+        Transferencias.Transferencia transferencia = transferencias.iniciar(info);
+        enviar(transferencia, datos, 0, datos.length);
+        try {
+            transferencias.terminar(transferencia);
+            fail("la suma no coincide");
+        } catch (IOException esperada) {
+            assertTrue(esperada.getMessage().contains("no coincide"));
+        }
+        try (Stream<Path> restos = Files.list(media)) {
+            assertEquals(0, restos.count());
+        }
+    }
+}
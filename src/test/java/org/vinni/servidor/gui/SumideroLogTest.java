@@ -0,0 +1,59 @@
+package org.vinni.servidor.gui;
+
+import junit.framework.TestCase;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * Pruebas del sumidero de log acotado.
+ */
+public class SumideroLogTest extends TestCase {
+
+    public void testDescartaYRecortaLasMasViejas() throws Exception {
+        SumideroLog sumidero = new SumideroLog(1, 3);
+        JTextArea area = new JTextArea();
+        String[] contadores = new String[1];
+        SumideroLog.Salida salida = sumidero.salida(area, texto -> contadores[0] = texto);
+        sumidero.detener();
+
+        for (int i = 1; i <= 5; i++) salida.anotar("linea " + i);
+        SwingUtilities.invokeAndWait(sumidero::actualizar);
+        assertEquals("linea 3\nlinea 4\nlinea 5\n", area.getText());
+        assertEquals(2, salida.getDescartadas());
+
+        salida.anotar("linea 6");
+        SwingUtilities.invokeAndWait(sumidero::actualizar);
+        assertEquals("linea 4\nlinea 5\nlinea 6\n", area.getText());
+        assertEquals(1, salida.getRecortadas());
+        assertEquals("2 descartadas, 1 recortadas", contadores[0]);
+
+        // Recortar y añadir es una sola inserción en el documento
+        int[] inserciones = new int[1];
+        area.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                inserciones[0]++;
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {}
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {}
+        });
+        salida.anotar("linea 7");
+        salida.anotar("linea 8");
+        SwingUtilities.invokeAndWait(sumidero::actualizar);
+        assertEquals("linea 6\nlinea 7\nlinea 8\n", area.getText());
+        assertEquals(1, inserciones[0]);
+        assertEquals(3, salida.getRecortadas());
+
+        for (int i = 9; i <= 11; i++) salida.anotar("linea " + i);
+        SwingUtilities.invokeAndWait(sumidero::actualizar);
+        assertEquals("linea 9\nlinea 10\nlinea 11\n", area.getText());
+        assertEquals(6, salida.getRecortadas());
+    }
+}